@@ -54,6 +54,7 @@ package dominio;
  *
  ************************************************************************/
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -61,6 +62,10 @@ import java.util.HashMap;
 /**
  * *<img src="./doc-files/Cart.png" alt="Cart">
  * <br><a href="./doc-files/Cart.html"> code </a>
+ * <p>
+ * O carrinho é protegido pelo próprio monitor: cada método é atômico, e quem
+ * precisa de várias operações seguidas sobre o mesmo carrinho sincroniza
+ * nele.
  */
 public class Cart implements Serializable {
 
@@ -95,7 +100,7 @@ public class Cart implements Serializable {
      *
      * @return
      */
-    public Date getTime() {
+    public synchronized Date getTime() {
         return time;
     }
 
@@ -103,7 +108,7 @@ public class Cart implements Serializable {
      *
      * @param time
      */
-    public void setTime(Date time) {
+    public synchronized void setTime(Date time) {
         this.time = time;
     }
 
@@ -114,7 +119,7 @@ public class Cart implements Serializable {
      * aggregateQuantity = 0;
      * </pre>
      */
-    public void clear() {
+    public synchronized void clear() {
         linesByBookId = new HashMap<Integer, CartLine>();
         //aggregateCost = 0;
         //aggregateQuantity = 0;
@@ -122,10 +127,10 @@ public class Cart implements Serializable {
 
     /**
      *
-     * @return
+     * @return Uma cópia das linhas do carrinho.
      */
-    public Collection<CartLine> getLines() {
-        return linesByBookId.values();
+    public synchronized Collection<CartLine> getLines() {
+        return new ArrayList<>(linesByBookId.values());
     }
 
     /**
@@ -147,7 +152,7 @@ public class Cart implements Serializable {
      * @param book
      * @param quantity
      */
-    public void increaseLine(Stock stock, int quantity) {
+    public synchronized void increaseLine(Stock stock, int quantity) {
         if (stock.getQty() < quantity) {
             // o que fazer ?
         }
@@ -181,7 +186,7 @@ public class Cart implements Serializable {
      * @param stock
      * @param quantity
      */
-    public void changeLine(Stock stock, int quantity) {
+    public synchronized void changeLine(Stock stock, int quantity) {
         if (stock.getQty() < quantity) {
             // o que fazer ?
         }
@@ -204,7 +209,7 @@ public class Cart implements Serializable {
      * @param discount
      * @return
      */
-    public double subTotal(double discount) {
+    public synchronized double subTotal(double discount) {
         Double aggregateCost = this.getLines().stream().reduce(0d,
                 (partialResult, line) -> partialResult
                 + (line.getQty() * line.getStock().getCost()),
@@ -253,7 +258,7 @@ public class Cart implements Serializable {
      * @param customer
      * @return
      */
-    public double total(Customer customer) {
+    public synchronized double total(Customer customer) {
         return subTotal(customer.getDiscount()) + shipCost(customer) + tax(customer.getDiscount());
     }
 
@@ -82,7 +82,7 @@ public class Customer implements Serializable {
     private final Date birthdate;
     private final String data;
     private final Address address;
-    private Order mostRecentOrder;
+    private volatile Order mostRecentOrder;
 
     /**
      *
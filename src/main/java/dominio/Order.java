@@ -56,6 +56,8 @@ package dominio;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.function.BiConsumer;
 import servico.Bookstore;
 
 /**
@@ -79,6 +81,7 @@ public class Order implements Serializable {
     private final Address shippingAddress;
     private final CCTransaction cc;
     private final ArrayList<OrderLine> lines;
+    private transient BiConsumer<Order, StatusTypes> statusListener;
 
     /**
      * <pre>
@@ -140,6 +143,43 @@ public class Order implements Serializable {
         }
     }
 
+    /**
+     * Recria um pedido já registrado, com os valores e as linhas da compra
+     * original, como ao carregar um checkpoint.
+     *
+     * @param id
+     * @param customer
+     * @param date
+     * @param subtotal
+     * @param tax
+     * @param total
+     * @param shipType
+     * @param shipDate
+     * @param status
+     * @param billingAddress
+     * @param shippingAddress
+     * @param cc
+     * @param lines
+     */
+    public Order(int id, Customer customer, Date date, double subtotal,
+            double tax, double total, ShipTypes shipType, Date shipDate,
+            StatusTypes status, Address billingAddress, Address shippingAddress,
+            CCTransaction cc, List<OrderLine> lines) {
+        this.id = id;
+        this.customer = customer;
+        this.date = date;
+        this.subtotal = subtotal;
+        this.tax = tax;
+        this.total = total;
+        this.shipType = shipType;
+        this.shipDate = shipDate;
+        this.status = status;
+        this.billingAddress = billingAddress;
+        this.shippingAddress = shippingAddress;
+        this.cc = cc;
+        this.lines = new ArrayList<>(lines);
+    }
+
     /**
      *
      * @return
@@ -212,6 +252,29 @@ public class Order implements Serializable {
         return status;
     }
 
+    /**
+     * Altera o status do pedido e avisa o observador registrado, que recebe o
+     * pedido e o status anterior.
+     *
+     * @param status O novo status.
+     */
+    public void setStatus(StatusTypes status) {
+        StatusTypes previous = this.status;
+        this.status = status;
+        if (statusListener != null && previous != status) {
+            statusListener.accept(this, previous);
+        }
+    }
+
+    /**
+     * Registra quem deve ser avisado das mudanças de status deste pedido.
+     *
+     * @param statusListener O observador, ou {@code null} para nenhum.
+     */
+    public void setStatusListener(BiConsumer<Order, StatusTypes> statusListener) {
+        this.statusListener = statusListener;
+    }
+
     /**
      *
      * @return
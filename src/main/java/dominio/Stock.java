@@ -1,9 +1,13 @@
 package dominio;
 
+import java.util.function.ObjDoubleConsumer;
+
 /**
  * <img src="./doc-files/Stock.png" alt="Bookmarket">
  * <br><a href="./doc-files/Stock.html"> code </a>
- *
+ * <p>
+ * A quantidade é protegida pelo monitor do estoque; quem baixa e repõe o
+ * estoque em uma só operação sincroniza nele.
  */
 public class Stock {
     
@@ -11,8 +15,9 @@ public class Stock {
     private final int idBookstore;
     private final Address address;
     private final Book book;
-    private double cost;
+    private volatile double cost;
     private int qty;
+    private volatile ObjDoubleConsumer<Stock> costListener;
 
     /**
      *
@@ -46,7 +51,7 @@ public class Stock {
      *
      * @param amount
      */
-    public void addQty(int amount) {
+    public synchronized void addQty(int amount) {
         qty += amount;
     }
 
@@ -62,15 +67,29 @@ public class Stock {
      *
      * @param cost
      */
-    public void setCost(double cost) {
+    public synchronized void setCost(double cost) {
+        double previous = this.cost;
         this.cost = cost;
+        if (costListener != null && previous != cost) {
+            costListener.accept(this, previous);
+        }
+    }
+
+    /**
+     * Registra quem deve ser avisado das mudanças de preço deste estoque. O
+     * observador recebe o estoque e o preço anterior.
+     *
+     * @param costListener O observador, ou {@code null} para nenhum.
+     */
+    public void setCostListener(ObjDoubleConsumer<Stock> costListener) {
+        this.costListener = costListener;
     }
 
     /**
      *
      * @return
      */
-    public int getQty() {
+    public synchronized int getQty() {
         return qty;
     }
 
@@ -78,7 +97,7 @@ public class Stock {
      *
      * @param qty
      */
-    public void setQty(int qty) {
+    public synchronized void setQty(int qty) {
         this.qty = qty;
     }
 
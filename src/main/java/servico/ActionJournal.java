@@ -0,0 +1,348 @@
+package servico;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Journal das ações aplicadas ao estado, gravado só no final de um arquivo
+ * por um {@link FileChannel}.
+ * <p>
+ * Cada registro é o tamanho da ação serializada, o CRC-32 dos seus bytes e os
+ * bytes. Ao abrir o arquivo, as ações gravadas são reaplicadas na ordem; um
+ * registro incompleto ou corrompido, deixado por uma queda no meio da
+ * gravação, encerra a leitura e é descartado junto com o que vier depois.
+ * <p>
+ * A gravação segue o group commit: {@link #append} só enfileira o registro e
+ * devolve o seu número; quem chama {@link #await} com um registro ainda não
+ * gravado e não encontra gravação em andamento assume a vez e grava de uma
+ * vez todos os registros pendentes, com uma só sincronização com o disco. Os
+ * demais esperam pelo lote que contém o seu registro.
+ */
+final class ActionJournal implements Closeable {
+
+    private static final int HEADER = 8;
+
+    private final FileChannel channel;
+    private final JournalParameters parameters;
+    private final int replayed;
+    private final ReentrantLock lock = new ReentrantLock();
+    // sinalizada quando um lote é gravado ou quando o lote pendente enche
+    private final Condition changed = lock.newCondition();
+    private List<ByteBuffer> pending = new ArrayList<>();
+    private long appended;
+    private long durable;
+    // posição no arquivo após o último registro enfileirado
+    private long end;
+    private boolean writing;
+    private boolean closed;
+    private IOException failure;
+
+    private ActionJournal(FileChannel channel, JournalParameters parameters, int replayed, long end) {
+        this.channel = channel;
+        this.parameters = parameters;
+        this.replayed = replayed;
+        this.end = end;
+    }
+
+    /**
+     * Abre o journal, criando o arquivo se preciso, e reaplica as ações já
+     * gravadas.
+     *
+     * @param file O arquivo.
+     * @param parameters Os parâmetros de gravação.
+     * @param replay Aplica cada ação gravada, na ordem do arquivo.
+     * @return O journal, posicionado após o último registro válido.
+     * @throws IOException Se o arquivo não puder ser lido ou truncado.
+     */
+    static ActionJournal open(Path file, JournalParameters parameters, Consumer<Object> replay)
+            throws IOException {
+        return open(file, parameters, 0, replay);
+    }
+
+    /**
+     * Abre o journal e reaplica só as ações gravadas a partir de uma posição,
+     * como a de um checkpoint ({@link #end}).
+     *
+     * @param file O arquivo.
+     * @param parameters Os parâmetros de gravação.
+     * @param from A posição do primeiro registro a reaplicar.
+     * @param replay Aplica cada ação gravada, na ordem do arquivo.
+     * @return O journal, posicionado após o último registro válido.
+     * @throws IOException Se o arquivo não puder ser lido ou truncado, ou se
+     * for menor que a posição.
+     */
+    static ActionJournal open(Path file, JournalParameters parameters, long from,
+            Consumer<Object> replay) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (from < 0 || from > channel.size()) {
+                throw new IOException("Journal " + file + " com " + channel.size()
+                        + " bytes não alcança a posição " + from + ".");
+            }
+            long valid = from;
+            int replayed = 0;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(from)), 1 << 16));
+            byte[] payload;
+            while ((payload = read(in, channel.size() - valid)) != null) {
+                replay.accept(decode(payload));
+                valid += HEADER + payload.length;
+                replayed++;
+            }
+            if (valid < channel.size()) {
+                System.err.println("Journal " + file + ": descartados " + (channel.size() - valid)
+                        + " bytes após o último registro válido.");
+                channel.truncate(valid);
+                channel.force(true);
+            }
+            channel.position(valid);
+            return new ActionJournal(channel, parameters, replayed, valid);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return O registro seguinte, ou {@code null} no fim do arquivo ou em um
+     * registro inválido.
+     */
+    private static byte[] read(DataInputStream in, long remaining) throws IOException {
+        if (remaining < HEADER) {
+            return null;
+        }
+        int length = in.readInt();
+        int checksum = in.readInt();
+        if (length <= 0 || length > remaining - HEADER) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        try {
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        return checksum(payload, 0, length) == checksum ? payload : null;
+    }
+
+    /**
+     * Serializa uma ação no formato do registro. Pode ser chamado por várias
+     * threads ao mesmo tempo, fora de qualquer trava.
+     *
+     * @param action A ação.
+     * @return O registro, com cabeçalho.
+     */
+    static byte[] encode(Serializable action) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[HEADER], 0, HEADER);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(action);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Ação não serializável: " + action, e);
+        }
+        byte[] record = bytes.toByteArray();
+        int length = record.length - HEADER;
+        ByteBuffer.wrap(record).putInt(length).putInt(checksum(record, HEADER, length));
+        return record;
+    }
+
+    private static Object decode(byte[] payload) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Ação de classe desconhecida no journal.", e);
+        }
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return O número de ações reaplicadas ao abrir o journal.
+     */
+    int replayed() {
+        return replayed;
+    }
+
+    /**
+     * @return O número do último registro enfileirado.
+     */
+    long appended() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return A posição no arquivo após o último registro enfileirado, que
+     * é onde a reaplicação deve começar para quem já tem o estado até ele.
+     */
+    long end() {
+        lock.lock();
+        try {
+            return end;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Enfileira um registro para gravação, sem esperar. A ordem das chamadas
+     * é a ordem do arquivo.
+     *
+     * @param record O registro, criado por {@link #encode}.
+     * @return O número do registro, para {@link #await}.
+     */
+    long append(byte[] record) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("O journal está fechado.");
+            }
+            pending.add(ByteBuffer.wrap(record));
+            end += record.length;
+            if (pending.size() >= parameters.getMaxBatch()) {
+                changed.signalAll();
+            }
+            return ++appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Espera até que um registro esteja gravado com a durabilidade dos
+     * parâmetros, gravando o lote pendente se nenhuma outra thread o fizer.
+     *
+     * @param sequence O número devolvido por {@link #append}.
+     * @throws IOException Se a gravação do lote falhou; o journal não aceita
+     * mais gravações.
+     */
+    void await(long sequence) throws IOException {
+        lock.lock();
+        try {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw new IOException("Falha ao gravar o journal.", failure);
+                }
+                if (writing) {
+                    changed.await();
+                } else {
+                    writeBatch();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrompido ao esperar a gravação do journal.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Grava o próximo lote; chamado com a trava, que é liberada durante a
+     * escrita para que outras threads continuem enfileirando.
+     */
+    private void writeBatch() throws InterruptedException {
+        writing = true;
+        try {
+            int maxBatch = parameters.getMaxBatch();
+            long delay = parameters.getMaxDelay(TimeUnit.NANOSECONDS);
+            while (pending.size() < maxBatch && delay > 0) {
+                delay = changed.awaitNanos(delay);
+            }
+            List<ByteBuffer> batch = pending;
+            if (batch.size() > maxBatch) {
+                batch = new ArrayList<>(pending.subList(0, maxBatch));
+                pending = new ArrayList<>(pending.subList(maxBatch, pending.size()));
+            } else {
+                pending = new ArrayList<>();
+            }
+            IOException error = null;
+            lock.unlock();
+            try {
+                write(batch);
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                lock.lock();
+            }
+            if (error == null) {
+                durable += batch.size();
+            } else {
+                failure = error;
+            }
+        } finally {
+            writing = false;
+            changed.signalAll();
+        }
+    }
+
+    private void write(List<ByteBuffer> batch) throws IOException {
+        ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+        if (parameters.getDurability() == JournalParameters.Durability.FSYNC) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Grava os registros pendentes e fecha o arquivo.
+     *
+     * @throws IOException Se a gravação ou o fechamento falharem.
+     */
+    @Override
+    public void close() throws IOException {
+        long last;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            last = appended;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            await(last);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package servico;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fila de ações de uma partição do estado, aplicadas por uma única thread
+ * escritora, no estilo do LMAX Disruptor.
+ * <p>
+ * As ações entram em um anel de posições alocadas na criação. Cada produtor
+ * reserva o próximo número de sequência com uma operação atômica, preenche a
+ * posição e a publica gravando nela o número (volátil); não há trava entre
+ * produtores nem entre eles e a escritora. A escritora aplica, na ordem da
+ * sequência, todas as ações já publicadas de uma vez (um lote), chama
+ * {@link Handler#endOfBatch} uma vez por lote e só então completa os futuros
+ * do lote, fora de qualquer trava. Com o anel cheio, os produtores esperam a
+ * escritora liberar posições.
+ * <p>
+ * A escritora gira um pouco à espera de ações e depois dorme; o produtor que
+ * publica a acorda. Ações submetidas pela própria escritora (por exemplo, na
+ * continuação de um futuro completado por ela) não passam pelo anel, que
+ * poderia estar cheio: formam o lote seguinte, aplicado antes de novas ações
+ * do anel. Por isso a escritora nunca deve esperar o futuro de uma ação
+ * ({@link #isWriterThread}): a ação só seria aplicada depois do lote atual.
+ *
+ * @param <A> O tipo das ações.
+ */
+final class ActionPipeline<A> {
+
+    /**
+     * Aplica as ações de uma partição.
+     *
+     * @param <A> O tipo das ações.
+     */
+    interface Handler<A> {
+
+        /**
+         * Aplica uma ação.
+         *
+         * @param action A ação.
+         * @return O resultado entregue ao futuro da ação.
+         */
+        Object apply(A action);
+
+        /**
+         * Conclui um lote, antes que os futuros das suas ações sejam
+         * completados: por exemplo, espera a gravação do journal e publica o
+         * retrato das consultas.
+         *
+         * @throws Exception Se o lote não pôde ser concluído; os futuros das
+         * ações ainda não falhas do lote falham com ela.
+         */
+        void endOfBatch() throws Exception;
+    }
+
+    private static final int SPINS = 100;
+
+    private static final ThreadLocal<Boolean> WRITER = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Uma posição do anel, reaproveitada a cada volta.
+     */
+    private static final class Slot<A> {
+
+        // número da ação na posição; a escrita publica a posição
+        volatile long sequence = -1;
+        A action;
+        CompletableFuture<Object> future;
+        Object result;
+        Throwable failure;
+    }
+
+    private final Handler<A> handler;
+    private final Slot<A>[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    // próxima sequência que a escritora vai ler; as anteriores estão livres
+    private volatile long consumed;
+    private volatile boolean sleeping;
+    private volatile boolean running = true;
+    private final Thread writer;
+    // usados só pela escritora, para completar os futuros de um lote
+    private final CompletableFuture<Object>[] futures;
+    private final Object[] results;
+    private final Throwable[] failures;
+    // ações submetidas pela própria escritora, para o lote seguinte
+    private List<A> localActions = new ArrayList<>();
+    private List<CompletableFuture<Object>> localFutures = new ArrayList<>();
+
+    /**
+     * Cria a fila e inicia a sua thread escritora.
+     *
+     * @param name O nome da thread.
+     * @param capacity O número de posições do anel, uma potência de dois.
+     * @param handler Aplica as ações.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ActionPipeline(String name, int capacity, Handler<A> handler) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("A capacidade do anel deve ser uma potência de dois.");
+        }
+        this.handler = handler;
+        this.ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot<>();
+        }
+        this.mask = capacity - 1;
+        this.futures = new CompletableFuture[capacity];
+        this.results = new Object[capacity];
+        this.failures = new Throwable[capacity];
+        this.writer = new Thread(this::run, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return {@code true} se a thread atual é a escritora de alguma fila.
+     */
+    static boolean isWriterThread() {
+        return WRITER.get();
+    }
+
+    /**
+     * Enfileira uma ação.
+     *
+     * @param action A ação.
+     * @return O futuro do resultado, completado pela escritora depois do lote
+     * da ação.
+     * @throws IllegalStateException Se a fila foi encerrada.
+     */
+    CompletableFuture<Object> submit(A action) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        if (Thread.currentThread() == writer) {
+            localActions.add(action);
+            localFutures.add(future);
+            return future;
+        }
+        if (!running) {
+            throw new IllegalStateException("A fila de ações foi encerrada.");
+        }
+        long sequence = claimed.getAndIncrement();
+        for (int spins = 0; sequence - consumed >= ring.length; spins++) {
+            // anel cheio: espera a escritora liberar a posição
+            if (spins < SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(1_000);
+            }
+        }
+        Slot<A> slot = ring[(int) sequence & mask];
+        if (running) {
+            slot.action = action;
+            slot.future = future;
+        } else {
+            // encerrada depois da reserva: a posição é publicada vazia, para
+            // que a escritora, se ainda ativa, não espere por ela
+            future.completeExceptionally(new IllegalStateException("A fila de ações foi encerrada."));
+        }
+        slot.sequence = sequence;
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+        return future;
+    }
+
+    private void run() {
+        WRITER.set(true);
+        long next = 0;
+        while (true) {
+            long available = next;
+            while (ring[(int) available & mask].sequence == available
+                    && available - next < ring.length) {
+                available++;
+            }
+            if (available == next) {
+                if (!running && claimed.get() == next) {
+                    return;
+                }
+                await(next);
+                continue;
+            }
+            process(next, available);
+            next = available;
+            while (!localActions.isEmpty()) {
+                processLocal();
+            }
+        }
+    }
+
+    /**
+     * Aplica como um lote as ações submetidas pela escritora; as
+     * continuações dos seus futuros podem submeter outras.
+     */
+    private void processLocal() {
+        List<A> actions = localActions;
+        List<CompletableFuture<Object>> pending = localFutures;
+        localActions = new ArrayList<>();
+        localFutures = new ArrayList<>();
+        Object[] batchResults = new Object[actions.size()];
+        Throwable[] batchFailures = new Throwable[actions.size()];
+        for (int i = 0; i < actions.size(); i++) {
+            try {
+                batchResults[i] = handler.apply(actions.get(i));
+            } catch (Throwable e) {
+                batchFailures[i] = e;
+            }
+        }
+        Throwable batchFailure = null;
+        try {
+            handler.endOfBatch();
+        } catch (Throwable e) {
+            batchFailure = e;
+        }
+        for (int i = 0; i < actions.size(); i++) {
+            Throwable failure = batchFailures[i] != null ? batchFailures[i] : batchFailure;
+            if (failure == null) {
+                pending.get(i).complete(batchResults[i]);
+            } else {
+                pending.get(i).completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Aplica as ações de {@code from} (inclusive) a {@code to} (exclusive),
+     * conclui o lote, libera as posições e completa os futuros.
+     */
+    private void process(long from, long to) {
+        for (long sequence = from; sequence < to; sequence++) {
+            Slot<A> slot = ring[(int) sequence & mask];
+            if (slot.future == null) {
+                continue;
+            }
+            try {
+                slot.result = handler.apply(slot.action);
+            } catch (Throwable e) {
+                slot.failure = e;
+            }
+        }
+        Throwable batchFailure = null;
+        try {
+            handler.endOfBatch();
+        } catch (Throwable e) {
+            batchFailure = e;
+        }
+        int size = (int) (to - from);
+        for (int i = 0; i < size; i++) {
+            Slot<A> slot = ring[(int) (from + i) & mask];
+            futures[i] = slot.future;
+            results[i] = slot.result;
+            failures[i] = slot.failure != null ? slot.failure : batchFailure;
+            slot.action = null;
+            slot.future = null;
+            slot.result = null;
+            slot.failure = null;
+        }
+        // libera as posições antes de completar, para que as continuações
+        // dos futuros já encontrem espaço no anel
+        consumed = to;
+        for (int i = 0; i < size; i++) {
+            if (futures[i] == null) {
+                continue;
+            }
+            if (failures[i] == null) {
+                futures[i].complete(results[i]);
+            } else {
+                futures[i].completeExceptionally(failures[i]);
+            }
+            futures[i] = null;
+            results[i] = null;
+            failures[i] = null;
+        }
+    }
+
+    private void await(long next) {
+        Slot<A> slot = ring[(int) next & mask];
+        for (int spins = 0; spins < SPINS; spins++) {
+            if (slot.sequence == next || !running) {
+                return;
+            }
+            Thread.yield();
+        }
+        sleeping = true;
+        // confere de novo depois de anunciar o sono: um produtor que publicou
+        // antes não viu o anúncio e não vai acordar a escritora
+        if (slot.sequence != next && running) {
+            LockSupport.park(this);
+        }
+        sleeping = false;
+    }
+
+    /**
+     * Recusa novas ações, aplica as já enfileiradas e encerra a escritora.
+     *
+     * @throws InterruptedException Se interrompido na espera.
+     */
+    void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+    }
+}
@@ -0,0 +1,73 @@
+package servico;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.function.IntFunction;
+
+/**
+ * Lista de elementos indexados pelo id, só com inclusões no final, para os
+ * cadastros que atribuem ao novo elemento o id igual à posição na lista.
+ * <p>
+ * As leituras não usam trava: o tamanho é publicado (volátil) depois do
+ * elemento e do arranjo que o contém, de modo que quem lê um tamanho enxerga
+ * todos os elementos até ele. As inclusões são serializadas entre si, e
+ * {@link #append} escolhe o id e inclui o elemento no mesmo passo. Iterar
+ * durante inclusões nunca falha: o iterador vê os elementos publicados até
+ * cada passo.
+ *
+ * @param <E> O tipo dos elementos.
+ */
+final class AppendOnlyList<E> extends AbstractList<E> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile Object[] elements = new Object[INITIAL_CAPACITY];
+    private volatile int size;
+
+    /**
+     * Cria um elemento com o próximo id e o inclui no final da lista.
+     *
+     * @param factory Cria o elemento a partir do id, que é a sua posição.
+     * @return O elemento criado.
+     */
+    synchronized E append(IntFunction<E> factory) {
+        E element = factory.apply(size);
+        add(element);
+        return element;
+    }
+
+    @Override
+    public synchronized boolean add(E element) {
+        Object[] current = elements;
+        int n = size;
+        if (n == current.length) {
+            current = Arrays.copyOf(current, n + (n >> 1));
+        }
+        current[n] = element;
+        elements = current;
+        size = n + 1;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E get(int index) {
+        int n = size;
+        if (index < 0 || index >= n) {
+            throw new IndexOutOfBoundsException("Índice " + index + ", tamanho " + n);
+        }
+        return (E) elements[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void clear() {
+        size = 0;
+        elements = new Object[INITIAL_CAPACITY];
+    }
+}
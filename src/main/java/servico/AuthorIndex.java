@@ -0,0 +1,130 @@
+package servico;
+
+import dominio.Book;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Índice secundário de livros pelo sobrenome do autor.
+ * <p>
+ * Cada sobrenome normalizado (sem acentos e em minúsculas) aponta para um
+ * {@link TitleIndex} com os livros daquele autor já em ordem de título. Uma
+ * busca por prefixo seleciona a faixa de sobrenomes no mapa ordenado e
+ * intercala os grupos encontrados pelo título, parando no limite pedido: o
+ * custo depende do número de resultados e de sobrenomes casados, e não do
+ * tamanho do catálogo.
+ */
+final class AuthorIndex {
+
+    private final TreeMap<String, TitleIndex> booksByLname = new TreeMap<>();
+
+    /**
+     * Reconstrói o índice a partir de uma coleção de livros.
+     *
+     * @param catalog Os livros a indexar.
+     */
+    void build(Collection<Book> catalog) {
+        Map<String, List<Book>> groups = new HashMap<>();
+        for (Book book : catalog) {
+            groups.computeIfAbsent(key(book), k -> new ArrayList<>()).add(book);
+        }
+        booksByLname.clear();
+        groups.forEach((lname, books) -> {
+            TitleIndex group = new TitleIndex();
+            group.build(books);
+            booksByLname.put(lname, group);
+        });
+    }
+
+    /**
+     * Insere um livro no grupo do seu autor.
+     *
+     * @param book O livro a indexar.
+     */
+    void add(Book book) {
+        booksByLname.computeIfAbsent(key(book), k -> new TitleIndex()).add(book);
+    }
+
+    /**
+     * Retorna os primeiros livros, em ordem de título, cujos autores têm
+     * sobrenome iniciado pelo prefixo informado.
+     *
+     * @param prefix O início do sobrenome, comparado de forma normalizada.
+     * @param limit O número máximo de livros retornados.
+     * @return Até {@code limit} livros ordenados pelo título.
+     */
+    List<Book> startingWith(String prefix, int limit) {
+        String from = normalize(prefix);
+        NavigableMap<String, TitleIndex> range
+                = booksByLname.subMap(from, true, from + Character.MAX_VALUE, false);
+        if (range.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (range.size() == 1) {
+            return range.firstEntry().getValue().first(limit);
+        }
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(range.size());
+        for (TitleIndex group : range.values()) {
+            cursors.add(new Cursor(group));
+        }
+        List<Book> result = new ArrayList<>(Math.min(limit, 16));
+        while (result.size() < limit && !cursors.isEmpty()) {
+            Cursor cursor = cursors.poll();
+            result.add(cursor.current());
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        return result;
+    }
+
+    private static String key(Book book) {
+        return normalize(book.getAuthor().getLname());
+    }
+
+    /**
+     * Remove acentos e converte para minúsculas, de modo que "Gonçalves",
+     * "goncalves" e "GONÇALVES" caiam no mesmo grupo.
+     */
+    static String normalize(String lname) {
+        String decomposed = Normalizer.normalize(lname, Normalizer.Form.NFD);
+        return decomposed.replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Posição de leitura dentro de um grupo, ordenada pelo livro corrente.
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+
+        private final TitleIndex group;
+        private int position;
+
+        Cursor(TitleIndex group) {
+            this.group = group;
+        }
+
+        Book current() {
+            return group.get(position);
+        }
+
+        boolean advance() {
+            return ++position < group.size();
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            Book a = current();
+            Book b = other.current();
+            int result = a.getTitle().compareTo(b.getTitle());
+            return result != 0 ? result : Integer.compare(a.getId(), b.getId());
+        }
+    }
+}
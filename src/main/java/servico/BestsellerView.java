@@ -0,0 +1,66 @@
+package servico;
+
+import dominio.BestsellerBook;
+import dominio.Category;
+import dominio.Order;
+import dominio.StatusTypes;
+import java.util.List;
+
+/**
+ * Visão materializada dos bestsellers.
+ * <p>
+ * Mantém um {@link SalesRanking} com as unidades vendidas em pedidos
+ * {@link StatusTypes#SHIPPED} de todas as livrarias observadas. A visão é
+ * atualizada quando um pedido é criado, removido ou entra ou sai do status
+ * SHIPPED; ler os N primeiros custa O(N), sem varrer o histórico de pedidos.
+ * Os pedidos das livrarias chegam de várias threads; a visão é sincronizada.
+ */
+final class BestsellerView implements OrderListener {
+
+    private final SalesRanking ranking = new SalesRanking();
+
+    @Override
+    public synchronized void orderCreated(Order order) {
+        if (order.getStatus() == StatusTypes.SHIPPED) {
+            ranking.apply(order, 1);
+        }
+    }
+
+    @Override
+    public synchronized void orderStatusChanged(Order order, StatusTypes previous) {
+        if (previous == StatusTypes.SHIPPED) {
+            ranking.apply(order, -1);
+        }
+        if (order.getStatus() == StatusTypes.SHIPPED) {
+            ranking.apply(order, 1);
+        }
+    }
+
+    @Override
+    public synchronized void orderRemoved(Order order) {
+        if (order.getStatus() == StatusTypes.SHIPPED) {
+            ranking.apply(order, -1);
+        }
+    }
+
+    /**
+     * Retorna os livros mais vendidos.
+     *
+     * @param category O assunto, ou {@code null} para todo o catálogo.
+     * @param limit O número máximo de livros retornados.
+     * @return Até {@code limit} livros, por vendas decrescentes e título.
+     */
+    synchronized List<BestsellerBook> top(Category category, int limit) {
+        return ranking.top(category, limit);
+    }
+
+    /**
+     * Publica os bestsellers alterados desde a publicação anterior.
+     *
+     * @param previous Os bestsellers publicados por último.
+     * @return Os novos, ou os anteriores se nada mudou.
+     */
+    synchronized ReadSnapshot.Bestsellers publish(ReadSnapshot.Bestsellers previous) {
+        return ranking.publish(previous, ReadSnapshot.MAX_BESTSELLERS);
+    }
+}
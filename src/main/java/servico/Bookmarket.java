@@ -1,6 +1,5 @@
 package servico;
 
-import dominio.Evaluation;
 import dominio.ShipTypes;
 import dominio.StatusTypes;
 import dominio.Book;
@@ -14,19 +13,28 @@ import dominio.OrderLine;
 import dominio.SUBJECTS;
 import dominio.Stock;
 import dominio.Rating;
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.TreeSet;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -60,19 +68,251 @@ public class Bookmarket {
     static class StateMachine {
 
         private final List<Bookstore> state;
+        private volatile ActionJournal journal;
+        // as ações aplicam-se em paralelo (leitura); o checkpoint as detém
+        // só durante a captura (escrita)
+        private final ReentrantReadWriteLock applying = new ReentrantReadWriteLock();
+        private volatile ReadSnapshotPublisher publisher;
+        private volatile Map<Integer, ActionPipeline<BookstoreAction>> pipelines = Collections.emptyMap();
 
         public StateMachine(final List object) {
             this.state = object;
         }
 
+        /**
+         * Aplica uma ação e publica o retrato das consultas que a inclui.
+         */
         Object execute(Action action) {
-            return action.executeOn(getStateStream());
+            Object result = apply(action, true);
+            publish();
+            return result;
         }
 
-        void checkpoint() {
+        /**
+         * Submete uma ação à fila da sua livraria, se as filas estão ativas;
+         * senão, e para as ações que alteram o estado comum às livrarias,
+         * aplica-a na hora, como {@link #execute}.
+         *
+         * @param action A ação.
+         * @return O futuro do resultado.
+         */
+        CompletableFuture<Object> submit(BookstoreAction action) {
+            ActionPipeline<BookstoreAction> pipeline = pipelines.get(action.storeId());
+            if (pipeline != null) {
+                return pipeline.submit(action);
+            }
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            try {
+                future.complete(execute(action));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
 
+        /**
+         * Passa a aplicar as ações de cada livraria por uma fila com uma
+         * thread escritora própria ({@link ActionPipeline}). Cada lote aplicado
+         * espera o journal e publica o retrato das consultas uma só vez.
+         * <p>
+         * Com o journal aberto, as escritoras ainda se revezam no monitor
+         * desta máquina de estados para aplicar cada ação e registrá-la
+         * ({@link #apply}): o journal é um só, e a sua ordem precisa ser a
+         * ordem de aplicação, pois as ações de livrarias diferentes também
+         * alteram o estado comum a todas (por exemplo, os endereços e os seus
+         * ids). Só a espera pelo disco fica fora do monitor e é dividida pelo
+         * lote; sem journal, as filas aplicam as ações em paralelo.
+         *
+         * @param capacity O número de posições de cada fila, uma potência de
+         * dois.
+         */
+        synchronized void startPipelines(int capacity) {
+            if (!pipelines.isEmpty()) {
+                throw new IllegalStateException("As filas de ações já estão ativas.");
+            }
+            ActionPipeline.Handler<BookstoreAction> handler = new ActionPipeline.Handler<BookstoreAction>() {
+                @Override
+                public Object apply(BookstoreAction action) {
+                    return StateMachine.this.apply(action, false);
+                }
+
+                @Override
+                public void endOfBatch() {
+                    awaitJournal();
+                    publish();
+                }
+            };
+            Map<Integer, ActionPipeline<BookstoreAction>> started = new HashMap<>();
+            for (Bookstore bookstore : state) {
+                started.put(bookstore.getId(), new ActionPipeline<>(
+                        "bookstore-" + bookstore.getId(), capacity, handler));
+            }
+            pipelines = started;
         }
-        
+
+        /**
+         * Aplica as ações já enfileiradas e volta a aplicá-las na thread de
+         * quem as submete.
+         */
+        void stopPipelines() {
+            Map<Integer, ActionPipeline<BookstoreAction>> stopping;
+            synchronized (this) {
+                stopping = pipelines;
+                pipelines = Collections.emptyMap();
+            }
+            try {
+                for (ActionPipeline<BookstoreAction> pipeline : stopping.values()) {
+                    pipeline.close();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Espera a gravação de todas as ações já registradas no journal.
+         */
+        private void awaitJournal() {
+            ActionJournal journal = this.journal;
+            if (journal != null) {
+                try {
+                    journal.await(journal.appended());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void publish() {
+            ReadSnapshotPublisher publisher = this.publisher;
+            if (publisher != null) {
+                publisher.publish();
+            }
+        }
+
+        /**
+         * Passa a publicar, após cada ação, os retratos lidos pelas consultas.
+         */
+        void publishTo(ReadSnapshotPublisher publisher) {
+            this.publisher = publisher;
+        }
+
+        /**
+         * Aplica uma ação e, com o journal aberto, registra-a nele.
+         *
+         * @param durable Se deve esperar a gravação do registro; senão, quem
+         * chama espera depois, por um lote de ações ({@link #awaitJournal}).
+         */
+        private Object apply(Action action, boolean durable) {
+            ActionJournal journal = this.journal;
+            byte[] record = journal == null ? null : ActionJournal.encode((Serializable) action);
+            Object result;
+            long sequence;
+            applying.readLock().lock();
+            try {
+                journal = this.journal;
+                if (journal == null) {
+                    return action.executeOn(getStateStream());
+                }
+                if (record == null) {
+                    record = ActionJournal.encode((Serializable) action);
+                }
+                // a ordem do journal é a ordem de aplicação, para que a
+                // reaplicação atribua os mesmos ids; a espera pelo disco fica
+                // de fora, e as ações que chegam nela são gravadas no mesmo lote
+                synchronized (this) {
+                    result = action.executeOn(getStateStream());
+                    sequence = journal.append(record);
+                }
+            } finally {
+                applying.readLock().unlock();
+            }
+            if (durable) {
+                try {
+                    journal.await(sequence);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return result;
+        }
+
+        synchronized int openJournal(Path file, JournalParameters parameters, long from)
+                throws IOException {
+            if (journal != null) {
+                throw new IllegalStateException("O journal já está aberto.");
+            }
+            journal = ActionJournal.open(file, parameters, from,
+                    action -> ((Action) action).executeOn(getStateStream()));
+            publish();
+            return journal.replayed();
+        }
+
+        void closeJournal() throws IOException {
+            ActionJournal closing;
+            synchronized (this) {
+                closing = journal;
+                journal = null;
+            }
+            if (closing != null) {
+                closing.close();
+            }
+        }
+
+        /**
+         * Grava um checkpoint do estado. As ações ficam suspensas só enquanto
+         * o estado mutável é copiado; a codificação e a gravação correm
+         * depois, em paralelo com as ações seguintes.
+         *
+         * @param file O arquivo do checkpoint, substituído ao final.
+         * @return O checkpoint gravado.
+         */
+        BookstoreSnapshot checkpoint(Path file) throws IOException {
+            BookstoreSnapshot snapshot;
+            ActionJournal journal;
+            long sequence = 0;
+            applying.writeLock().lock();
+            try {
+                journal = this.journal;
+                long offset = 0;
+                if (journal != null) {
+                    offset = journal.end();
+                    sequence = journal.appended();
+                }
+                snapshot = BookstoreSnapshot.capture(state, offset);
+            } finally {
+                applying.writeLock().unlock();
+            }
+            // o checkpoint não pode conter ações que o journal ainda perderia
+            if (journal != null) {
+                journal.await(sequence);
+            }
+            snapshot.write(file);
+            return snapshot;
+        }
+
+        /**
+         * Carrega um checkpoint em livrarias ainda vazias.
+         *
+         * @param file O arquivo do checkpoint.
+         * @return A posição do journal de onde a reaplicação continua.
+         */
+        long restore(Path file) throws IOException {
+            BookstoreSnapshot snapshot = BookstoreSnapshot.read(file);
+            applying.writeLock().lock();
+            try {
+                if (journal != null) {
+                    throw new IllegalStateException("O checkpoint deve ser carregado antes do journal.");
+                }
+                snapshot.restore(state);
+            } finally {
+                applying.writeLock().unlock();
+            }
+            publish();
+            return snapshot.journalOffset();
+        }
+
+
         List<Bookstore> getState() {
             return state;
         }
@@ -94,12 +334,40 @@ public class Bookmarket {
     }
     private static Random random;
     private static StateMachine stateMachine;
+    private static BestsellerView bestsellers;
+    private static WindowedBestsellerView recentBestsellers;
+    private static SalesAggregates salesAggregates;
+    private static PriceIndex priceIndex;
+    private static ReadSnapshotPublisher readSnapshots;
+    private static RecommendationCache recommendationCache;
+    private static RelatedBooksView relatedBooks;
+    private static volatile RecommendationTable recommendationTable;
+    private static volatile RecommendationTable recommendationTableInProgress;
     private static final RecommendationService recommendationService = new RecommendationService();
+    // ordenam, por cliente, a gravação de uma avaliação e o seu envio ao motor
+    private static final Object[] ratingLocks = Stream.generate(Object::new).limit(64).toArray();
     private static final int MAX_RECOMMENDATIONS = 5;
+    private static final int ITEM_NEIGHBORS = 20;
+    private static final int RECOMMENDATION_CACHE_SIZE = 10_000;
+    private static volatile ItemSimilarityIndex itemSimilarities;
+    private static volatile Path recommendationModelFile;
+    private static volatile Path checkpointFile;
+    private static final int RECENT_ORDERS = 3333;
 
     static StateMachine getStateMachine() {
         return stateMachine;
     }
+
+    static RecommendationService getRecommendationService() {
+        return recommendationService;
+    }
+
+    /**
+     * @return O retrato lido pelas consultas de bestsellers e de preços.
+     */
+    static ReadSnapshot getReadSnapshot() {
+        return readSnapshots.current();
+    }
     
     
 
@@ -109,11 +377,38 @@ public class Bookmarket {
      */
     public static void init(int seed, Bookstore... state) {
         random = new Random(seed);
+        if (stateMachine != null) {
+            stateMachine.stopPipelines();
+        }
         try {
             stateMachine = StateMachine.create(state);
         } catch (UmbrellaException e) {
             throw new RuntimeException(e);
         }
+        bestsellers = new BestsellerView();
+        salesAggregates = new SalesAggregates();
+        priceIndex = new PriceIndex();
+        recommendationCache = new RecommendationCache(RECOMMENDATION_CACHE_SIZE);
+        recommendationService.setPublishListener(recommendationCache::modelPublished);
+        relatedBooks = new RelatedBooksView();
+        readSnapshots = new ReadSnapshotPublisher(bestsellers, priceIndex);
+        for (Bookstore bookstore : state) {
+            bookstore.addOrderListener(bestsellers);
+            bookstore.addOrderListener(salesAggregates);
+            bookstore.addStockListener(priceIndex);
+            bookstore.addOrderListener(recommendationCache);
+            bookstore.addStockListener(recommendationCache);
+            bookstore.addOrderListener(relatedBooks);
+            // depois das visões que publica
+            bookstore.addOrderListener(readSnapshots);
+            bookstore.addStockListener(readSnapshots);
+        }
+        stateMachine.publishTo(readSnapshots);
+        readSnapshots.publish();
+        // os pedidos já existentes foram reapresentados; processa-os de uma vez
+        relatedBooks.finishBackfill();
+        recentBestsellers = null;
+        useRecentBestSellersWindow(WindowedBestsellerView.lastOrders(RECENT_ORDERS));
     }
 
     private static Stream<Bookstore> getBookstoreStream() {
@@ -266,6 +561,29 @@ public class Bookmarket {
         return Bookstore.getBooksByAuthor(search_key);
     }
 
+    /**
+     * Busca textual no catálogo, sobre título, descrição, editora e ISBN.
+     * <p>
+     * Os resultados são ordenados por relevância (BM25): livros que contêm os
+     * termos mais raros da consulta, e em maior proporção do seu texto, vêm
+     * primeiro.
+     *
+     * @param query Os termos procurados.
+     * @param limit O número máximo de livros retornados (entre 1 e 100).
+     * @return Os livros encontrados, do mais para o menos relevante.
+     * @throws IllegalArgumentException se a consulta for nula ou o limite for
+     * inválido.
+     */
+    public static List<Book> doSearch(String query, int limit) {
+        if (query == null) {
+            throw new IllegalArgumentException("A consulta não pode ser nula.");
+        }
+        if (limit <= 0 || limit > 100) {
+            throw new IllegalArgumentException("O limite deve ser um valor entre 1 e 100.");
+        }
+        return Bookstore.searchBooks(query, limit);
+    }
+
     /**
      *
      * @param subject
@@ -281,10 +599,8 @@ public class Bookmarket {
      * @return
      */
     public static List<Double> getCosts(Book book) {
-        return getBookstoreStream().
-                map(store -> store.getStock(book.getId())).
-                map(stock -> stock.getCost()).
-                collect(Collectors.toList());
+        // preços do retrato publicado, do mais barato para o mais caro
+        return new ArrayList<>(readSnapshots.current().prices(book.getId()).costs());
     }
 
 
@@ -308,7 +624,9 @@ public class Bookmarket {
     }
 
     public static Map<Book, Set<Stock>> getBestSellers(Category category, Integer limit) {
-        List<BestsellerBook> bestsellerBooks = getBestSellerBooks(category, limit);
+        // ranking e estoques do mesmo retrato
+        ReadSnapshot snapshot = readSnapshots.current();
+        List<BestsellerBook> bestsellerBooks = snapshot.bestsellers(category, checkBestSellersLimit(limit));
 
         // 2. Cria os DTOs e retorna a lista final.
         Map<Book, Set<Stock>> result = new LinkedHashMap<>();
@@ -316,13 +634,8 @@ public class Bookmarket {
         for (BestsellerBook bestsellerBook : bestsellerBooks) {
             Book book = bestsellerBook.getBook();
 
-            Set<Stock> stocks = getBookstoreStream()
-                .map(store -> store.getStock(book.getId()))
-                .collect(Collectors.toCollection(() ->
-                new TreeSet<>(Comparator.comparingDouble(Stock::getCost))
-            ));
-
-            result.put(book, stocks);
+            // Estoques de todas as livrarias, já ordenados por preço no índice.
+            result.put(book, snapshot.prices(book.getId()).stocksByCost());
         }
 
         return result;
@@ -335,13 +648,71 @@ public class Bookmarket {
      * Calcula e retorna os livros mais vendidos (bestsellers) com base na
      * contagem total de unidades vendidas em todos os pedidos históricos.
      * A lógica deve somar a quantidade (`qty`) de cada livro presente em
-     * todas as {@link OrderLine}s.
+     * todas as {@link OrderLine}s de pedidos enviados.
+     * <p>
+     * A soma não é refeita a cada chamada: {@code BestsellerView} acompanha a
+     * criação dos pedidos e as mudanças de status, e a consulta apenas lê os
+     * primeiros N livros do ranking, no retrato publicado após a última
+     * mutação ({@link ReadSnapshotPublisher}), sem trava.
      *
      * @param limit O número de bestsellers a serem retornados (deve estar entre 1 e 100).
      * @return Uma lista de {@link BestsellerBook} ordenada pela contagem de vendas.
      * @throws IllegalArgumentException se o limite for inválido.
      */
     public static List<BestsellerBook> getBestSellerBooks(Category category, Integer limit) {
+        // Regra de Negócio (US1): vendas decrescentes, empate pelo título,
+        // lidas da visão materializada mantida a cada pedido.
+        return readSnapshots.current().bestsellers(category, checkBestSellersLimit(limit));
+    }
+
+    /**
+     * Bestsellers dos pedidos recentes: como {@link #getBestSellerBooks}, mas
+     * contando apenas os pedidos da janela configurada, por padrão os 3.333
+     * pedidos mais recentes (definição do TPC-W).
+     *
+     * @param category O assunto, ou {@code null} para todo o catálogo.
+     * @param limit O número de bestsellers a serem retornados (deve estar entre 1 e 100).
+     * @return Uma lista de {@link BestsellerBook} ordenada pela contagem de vendas.
+     * @throws IllegalArgumentException se o limite for inválido.
+     */
+    public static List<BestsellerBook> getRecentBestSellerBooks(Category category, Integer limit) {
+        return recentBestsellers.top(category, checkBestSellersLimit(limit));
+    }
+
+    /**
+     * Passa a calcular os bestsellers recentes sobre os últimos pedidos.
+     *
+     * @param orders O número de pedidos na janela.
+     * @throws IllegalArgumentException se o número de pedidos não for positivo.
+     */
+    public static void setRecentBestSellersWindow(int orders) {
+        useRecentBestSellersWindow(WindowedBestsellerView.lastOrders(orders));
+    }
+
+    /**
+     * Passa a calcular os bestsellers recentes sobre os pedidos feitos no
+     * período mais recente, medido até o instante da consulta.
+     *
+     * @param period A duração do período.
+     * @param unit A unidade de {@code period}.
+     * @throws IllegalArgumentException se o período não for positivo.
+     */
+    public static void setRecentBestSellersWindow(long period, TimeUnit unit) {
+        useRecentBestSellersWindow(WindowedBestsellerView.lastPeriod(unit.toMillis(period),
+                System::currentTimeMillis));
+    }
+
+    static void useRecentBestSellersWindow(WindowedBestsellerView view) {
+        getBookstoreStream().forEach(bookstore -> {
+            if (recentBestsellers != null) {
+                bookstore.removeOrderListener(recentBestsellers);
+            }
+            bookstore.addOrderListener(view);
+        });
+        recentBestsellers = view;
+    }
+
+    private static int checkBestSellersLimit(Integer limit) {
         if (limit == null)
             limit = 50;
 
@@ -349,57 +720,54 @@ public class Bookmarket {
         if (limit <= 0 || limit > 100) {
             throw new IllegalArgumentException("O limite (N) deve ser um valor entre 1 e 100.");
         }
-
-        // 1. Agrega a quantidade de vendas por livro.
-        Map<Book, Long> salesByBook = getBookstoreStream()
-            .flatMap(bookstore -> ((Bookstore) bookstore).getOrdersByCreation().stream())
-            .filter(order -> order.getStatus() == StatusTypes.SHIPPED) // adicionado o filtro pelo status do order conforme apontado no BUG
-            .flatMap(order -> ((Order) order).getLines().stream())
-            .filter(orderLine -> {
-                if (category == null)
-                    return true;
-                    
-                Book b = orderLine.getBook();
-
-                if (category instanceof SUBJECTS)
-                    return b.getSubject() == category;
-
-                return false;
-            })
-            .collect(Collectors.groupingBy(
-                    OrderLine::getBook,
-                    Collectors.summingLong(OrderLine::getQty)
-            ));
-
-        // 2. Cria os DTOs, ordena e retorna a lista final.
-        return salesByBook.entrySet().stream()
-            .map(entry -> new BestsellerBook(entry.getKey(), entry.getValue()))
-            .sorted(
-                // Regra de Negócio (US1): Ordenação decrescente por vendas.
-                Comparator.comparingLong(BestsellerBook::getSalesCount).reversed()
-                    // Regra de Negócio (US1 - P04): Empate, ordenação crescente por título.
-                    .thenComparing(b -> b.getBook().getTitle())
-            )
-            // Regra de Negócio (US1): Retornar a quantidade N solicitada.
-            .limit(limit)
-            .collect(Collectors.toList());
+        return limit;
     }
 
     /**
-     *
-     * @param c_id
-     * @return
-     *
-     * @deprecated A recomendação baseada em itens não faz parte dos requisitos
-     * definidos no `board.pdf`. A lógica de negócio está focada em
-     * {@link #getPriceBookRecommendationByUsers(int)}. Este método é obsoleto.
+     * Recomendação baseada em itens: retorna até 5 livros parecidos com os
+     * que o cliente avaliou.
+     * <p>
+     * Os vizinhos de cada livro são calculados de antemão
+     * ({@link #refreshItemSimilarities()}); a consulta apenas combina as
+     * listas de vizinhos dos livros avaliados, com as notas atuais do
+     * cliente, e nunca recomenda um livro já avaliado.
      *
      * @param c_id O ID do cliente.
-     * @return null.
+     * @return Os livros recomendados, da maior para a menor nota estimada;
+     * vazio se o cliente não avaliou nenhum livro.
+     * @throws IllegalArgumentException se o cliente não existir.
      */
-    @Deprecated
     public static List<Book> getRecommendationByItens(int c_id) {
-        return Bookstore.getRecommendationByItens(c_id);
+        if (Bookstore.getCustomer(c_id) == null) {
+            throw new IllegalArgumentException("Cliente com ID " + c_id + " não encontrado.");
+        }
+        if (itemSimilarities == null) {
+            refreshItemSimilarities();
+        }
+        Collection<Rating> profile = Bookstore.ratings.byCustomer(c_id);
+        long[] ratedBooks = new long[profile.size()];
+        float[] ratings = new float[profile.size()];
+        int i = 0;
+        for (Rating rating : profile) {
+            ratedBooks[i] = rating.getBook().getId();
+            ratings[i++] = rating.getRating();
+        }
+        List<Book> books = new ArrayList<>();
+        for (Long bookId : itemSimilarities.recommend(ratedBooks, ratings, MAX_RECOMMENDATIONS)) {
+            Bookstore.getBook(bookId.intValue()).ifPresent(books::add);
+        }
+        return books;
+    }
+
+    /**
+     * Recalcula os vizinhos de cada livro usados em
+     * {@link #getRecommendationByItens(int)} a partir de todas as avaliações.
+     * <p>
+     * O cálculo é paralelo e o resultado substitui o anterior de uma vez;
+     * consultas em andamento continuam usando o índice anterior.
+     */
+    public static void refreshItemSimilarities() {
+        itemSimilarities = ItemSimilarityIndex.build(Bookstore.getAllEvaluations(), ITEM_NEIGHBORS);
     }
 
     /**
@@ -473,21 +841,25 @@ public class Bookmarket {
         if (customer == null) {
             throw new IllegalArgumentException("Cliente com ID " + c_id + " não encontrado.");
         }
+        Map<Book, Double> cached = recommendationCache.get(c_id);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = recommendationCache.generation();
 
         List<Long> recommendedBookIds = new ArrayList<>();
-        try {
-            if (!recommendationService.isInitialized()) {
-                initializeRecommendationService();
+        RecommendationTable table = recommendationTable;
+        if (table != null && table.isFresh(c_id)) {
+            // linha da tabela calculada em lote, ainda válida para o cliente
+            for (int bookId : table.row(c_id)) {
+                recommendedBookIds.add((long) bookId);
             }
-            recommendedBookIds = recommendationService.getRecommendations(c_id, MAX_RECOMMENDATIONS);
-        } catch (TasteException e) {
-            // A exceção é capturada, mas a lógica de fallback é tratada abaixo
-            // com base na lista vazia, o que cobre este caso.
+        } else {
+            recommendedBookIds = liveRecommendations(c_id);
         }
 
         // Verifica se o cliente não possui nenhuma avaliação para decidir sobre o fallback.
-        boolean isNewCustomer = Bookstore.ratings.stream()
-                .noneMatch(rating -> rating.getCustomer().getId() == c_id);
+        boolean isNewCustomer = !Bookstore.ratings.hasRatings(c_id);
 
         List<Book> recommendedBooks = new ArrayList<>();
         if (recommendedBookIds.isEmpty() && isNewCustomer) {
@@ -516,28 +888,111 @@ public class Bookmarket {
             result.put(book, price);
         }
 
+        // O fallback depende dos bestsellers, não do recomendador; um modelo
+        // com alterações pendentes produziria um resultado já desatualizado.
+        if (!(recommendedBookIds.isEmpty() && isNewCustomer) && recommendationService.isUpToDate()) {
+            recommendationCache.put(c_id, result, recommendationService.getNeighbors(c_id), generation);
+        }
         return result;
     }
 
+    private static List<Long> liveRecommendations(int c_id) {
+        try {
+            if (!recommendationService.isInitialized()) {
+                initializeRecommendationService();
+            }
+            // O modelo pode ainda não conter as avaliações mais recentes: pede
+            // candidatos extras e descarta os livros que o cliente já avaliou.
+            List<Long> recommendedBookIds = recommendationService.getRecommendations(c_id,
+                    MAX_RECOMMENDATIONS + recommendationService.getPendingUpdates());
+            recommendedBookIds.removeIf(bookId -> Bookstore.getRating(c_id, bookId.intValue()) != null);
+            if (recommendedBookIds.size() > MAX_RECOMMENDATIONS) {
+                recommendedBookIds = recommendedBookIds.subList(0, MAX_RECOMMENDATIONS);
+            }
+            return recommendedBookIds;
+        } catch (TasteException e) {
+            // A exceção é capturada, mas a lógica de fallback é tratada
+            // com base na lista vazia, o que cobre este caso.
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Calcula em lote, em paralelo, as recomendações de todos os clientes e
+     * passa a atender {@link #getPriceBookRecommendationByUsers(int)} a partir
+     * delas.
+     * <p>
+     * Todas as linhas usam o mesmo retrato do modelo, depois de aplicadas as
+     * avaliações pendentes. A tabela guarda apenas os livros: os preços são
+     * calculados a cada consulta. Um cliente cuja linha foi afetada por uma
+     * avaliação posterior, ou criado depois do cálculo, volta a ser atendido
+     * pelo cálculo online até o próximo lote.
+     *
+     * @return O número de clientes calculados.
+     */
+    public static int precomputeRecommendations() {
+        if (!recommendationService.isInitialized()) {
+            initializeRecommendationService();
+        }
+        RecommendationTable table = new RecommendationTable(Bookstore.getCustomerCount(), MAX_RECOMMENDATIONS);
+        recommendationTableInProgress = table;
+        try {
+            if (!recommendationService.awaitUpdates(1, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("O modelo de recomendação não ficou atualizado a tempo.");
+            }
+            table.compute(recommendationService.current());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            recommendationTableInProgress = null;
+        }
+        recommendationTable = table;
+        return Bookstore.getCustomerCount();
+    }
+
+    /**
+     * Fração das chamadas de {@link #getPriceBookRecommendationByUsers(int)}
+     * atendidas pelo cache de recomendações.
+     *
+     * @return Um valor entre 0 e 1.
+     */
+    public static double getRecommendationCacheHitRate() {
+        return recommendationCache.hitRate();
+    }
+
+    /**
+     * Número de recomendações descartadas do cache por falta de espaço.
+     *
+     * @return O total de descartes desde {@link #init}.
+     */
+    public static long getRecommendationCacheEvictions() {
+        return recommendationCache.evictions();
+    }
+
+    /**
+     * Define o arquivo em que o modelo de recomendação é guardado. Com um
+     * arquivo definido, a inicialização do modelo carrega o arquivo quando ele
+     * foi gravado com as avaliações atuais, e só treina o modelo (gravando-o
+     * em seguida) quando ele falta ou está desatualizado; {@link #checkpoint()}
+     * grava o modelo com as avaliações recebidas desde então.
+     *
+     * @param file O arquivo, ou {@code null} para sempre treinar o modelo.
+     */
+    public static void setRecommendationModelFile(Path file) {
+        recommendationModelFile = file;
+    }
+
     /**
      * Calcula o preço médio de venda de um livro com base em seu histórico.
+     * <p>
+     * A média por unidade vendida é lida dos agregados de vendas, mantidos a
+     * cada pedido criado, sem percorrer o histórico de pedidos.
      * @param bookId O ID do livro.
-     * @return O preço médio de venda.
+     * @return O preço médio de venda, ou 0 se não houver histórico de vendas.
      */
     private static double getAverageSalePrice(long bookId) {
-        // Coleta todos os preços de cada unidade vendida
-        List<Double> pricesOfAllUnitsSold = getBookstoreStream()
-                .flatMap(bookstore -> ((Bookstore) bookstore).getOrdersByCreation().stream())
-                .flatMap(order -> ((Order) order).getLines().stream())
-                .filter(line -> line.getBook().getId() == bookId)
-                .flatMap(line -> Collections.nCopies(line.getQty(), line.getPrice()).stream())
-                .collect(Collectors.toList());
-    
-        // Calcula a média
-        return pricesOfAllUnitsSold.stream()
-                .mapToDouble(Double::doubleValue)
-                .average()
-                .orElse(0.0); // Retorna 0 se não houver histórico de vendas
+        return salesAggregates.averagePrice((int) bookId);
     }
 
     /**
@@ -546,12 +1001,8 @@ public class Bookmarket {
      * @return O menor preço de estoque.
      */
     private static double getLowestAvailablePrice(long bookId) {
-        return getBookstoreStream()
-                .map(store -> ((Bookstore)store).getStock((int)bookId))
-                .filter(stock -> stock != null)
-                .mapToDouble(Stock::getCost)
-                .min()
-                .orElse(0.0); // Retorna 0 se não houver estoque
+        // 0 se não houver estoque
+        return readSnapshots.current().prices((int) bookId).lowestCost();
     }
 
     /**
@@ -566,6 +1017,9 @@ public class Bookmarket {
      *   {@code IllegalArgumentException} para valores fora desse intervalo.</li>
      *   <li><b>Armazenamento:</b> A avaliação é armazenada na coleção de ratings do Bookstore.
      *   Se já existir uma avaliação para o mesmo cliente e livro, ela é atualizada.</li>
+     *   <li><b>Recomendação:</b> A avaliação é aplicada ao motor de recomendação de forma
+     *   incremental e em segundo plano, sem reconstruí-lo a partir de todas as avaliações
+     *   nem bloquear as consultas.</li>
      * </ul>
      *
      * @param customerId O ID do cliente que está fazendo a avaliação.
@@ -585,9 +1039,31 @@ public class Bookmarket {
 
         Book book = Bookstore.getBook(bookId).orElseThrow(() -> new IllegalArgumentException("Livro com ID " + bookId + " não encontrado."));
 
-        Bookstore.addOrUpdateRating(new Rating(customer, book, rating));
-        // Re-inicializa o motor para refletir a nova avaliação
-        initializeRecommendationService();
+        // duas avaliações do mesmo par chegam ao motor na ordem em que foram
+        // gravadas; senão o modelo ficaria com a nota antiga
+        boolean queued;
+        synchronized (ratingLocks[Math.floorMod(customerId, ratingLocks.length)]) {
+            try {
+                stateMachine.execute(new RateBookAction(customerId, bookId, rating));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            // Aplica apenas a nova avaliação ao motor, em segundo plano
+            queued = recommendationService.isInitialized();
+            if (queued) {
+                recommendationService.upsertRating(customerId, bookId, rating);
+            }
+        }
+        // a primeira carga lê todas as avaliações já gravadas
+        if (!queued) {
+            initializeRecommendationService();
+        }
+        recommendationCache.ratingChanged(customerId, Bookstore.ratings.byBook(bookId));
+        for (RecommendationTable table : new RecommendationTable[]{recommendationTable, recommendationTableInProgress}) {
+            if (table != null) {
+                table.ratingChanged(customerId, Bookstore.ratings.byBook(bookId));
+            }
+        }
     }
 
     /**
@@ -596,11 +1072,8 @@ public class Bookmarket {
      * @return
      */
     public static List<Stock> getStocks(final int idBook) {
-        return getBookstoreStream()
-                .filter(store -> store.getStock(idBook) != null)
-                // transforma o stream de bookstore em stream de stock
-                .map(store -> store.getStock(idBook))
-                .collect(Collectors.toList());
+        // estoques de todas as livrarias, do mais barato para o mais caro
+        return new ArrayList<>(readSnapshots.current().prices(idBook).stocks());
     }
 
     /**
@@ -619,9 +1092,11 @@ public class Bookmarket {
     }
 
     /**
+     * Retorna os livros mais comprados em conjunto com um livro, mantidos a
+     * cada pedido pela visão de compra conjunta ({@link RelatedBooksView}).
      *
-     * @param i_id
-     * @return
+     * @param i_id O id do livro.
+     * @return Os cinco livros relacionados.
      */
     public static List<Book> getRelated(int i_id) {
         Book book = Bookstore.getBook(i_id).get();
@@ -657,12 +1132,20 @@ public class Bookmarket {
      * @return
      */
     public static int createEmptyCart(int storeId) {
-        try {
-            return ((Cart) stateMachine.execute(new CreateCartAction(storeId,
-                    System.currentTimeMillis()))).getId();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return join(() -> createEmptyCartAsync(storeId));
+    }
+
+    /**
+     * Cria um carrinho vazio sem esperar: com as filas de ações ativas
+     * ({@link #startPipelines}), a ação é aplicada pela escritora da livraria.
+     *
+     * @param storeId
+     * @return O futuro do id do carrinho.
+     */
+    public static CompletableFuture<Integer> createEmptyCartAsync(int storeId) {
+        return stateMachine.submit(new CreateCartAction(storeId,
+                System.currentTimeMillis()))
+                .thenApply(cart -> ((Cart) cart).getId());
     }
 
     /**
@@ -676,20 +1159,36 @@ public class Bookmarket {
      */
     public static Cart doCart(int storeId, int SHOPPING_ID, Integer I_ID, List<Integer> ids,
             List<Integer> quantities) {
-        try {
-            Cart cart = (Cart) stateMachine.execute(new CartUpdateAction(storeId,
-                    SHOPPING_ID, I_ID, ids, quantities,
-                    System.currentTimeMillis()));
-            if (cart.getLines().isEmpty()) {
-                Book book = Bookstore.getABookAnyBook(random);
-                cart = (Cart) stateMachine.execute(new CartUpdateAction(storeId,
-                        SHOPPING_ID, book.getId(), new ArrayList<>(),
-                        new ArrayList<>(), System.currentTimeMillis()));
-            }
-            return cart;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return join(() -> doCartAsync(storeId, SHOPPING_ID, I_ID, ids, quantities));
+    }
+
+    /**
+     * Atualiza um carrinho sem esperar; ver {@link #doCart}. Um carrinho que
+     * ficaria vazio recebe um livro qualquer, em uma segunda ação aplicada
+     * logo depois da primeira.
+     *
+     * @param storeId
+     * @param SHOPPING_ID
+     * @param I_ID
+     * @param ids
+     * @param quantities
+     * @return O futuro do carrinho.
+     */
+    public static CompletableFuture<Cart> doCartAsync(int storeId, int SHOPPING_ID,
+            Integer I_ID, List<Integer> ids, List<Integer> quantities) {
+        return stateMachine.submit(new CartUpdateAction(storeId, SHOPPING_ID,
+                I_ID, ids, quantities, System.currentTimeMillis()))
+                .thenCompose(result -> {
+                    Cart cart = (Cart) result;
+                    if (!cart.getLines().isEmpty()) {
+                        return CompletableFuture.completedFuture(cart);
+                    }
+                    Book book = Bookstore.getABookAnyBook(random);
+                    return stateMachine.submit(new CartUpdateAction(storeId,
+                            SHOPPING_ID, book.getId(), new ArrayList<>(),
+                            new ArrayList<>(), System.currentTimeMillis()))
+                            .thenApply(Cart.class::cast);
+                });
     }
 
     /**
@@ -703,9 +1202,7 @@ public class Bookmarket {
                 .filter(store -> store.getId() == storeId)
                 .findFirst()
                 .get();
-        synchronized (bookstore) {
-            return bookstore.getCart(SHOPPING_ID);
-        }
+        return bookstore.getCart(SHOPPING_ID);
     }
 
     /**
@@ -723,15 +1220,32 @@ public class Bookmarket {
     public static Order doBuyConfirm(int storeId, int shopping_id, int customer_id,
             CreditCards cc_type, long cc_number, String cc_name, Date cc_expiry,
             ShipTypes shipping) {
+        return join(() -> doBuyConfirmAsync(storeId, shopping_id, customer_id,
+                cc_type, cc_number, cc_name, cc_expiry, shipping));
+    }
+
+    /**
+     * Confirma uma compra sem esperar; ver {@link #doBuyConfirm}.
+     *
+     * @param storeId
+     * @param shopping_id
+     * @param customer_id
+     * @param cc_type
+     * @param cc_number
+     * @param cc_name
+     * @param cc_expiry
+     * @param shipping
+     * @return O futuro do pedido.
+     */
+    public static CompletableFuture<Order> doBuyConfirmAsync(int storeId,
+            int shopping_id, int customer_id, CreditCards cc_type,
+            long cc_number, String cc_name, Date cc_expiry, ShipTypes shipping) {
         long now = System.currentTimeMillis();
-        try {
-            return (Order) stateMachine.execute(new ConfirmBuyAction(storeId,
-                    customer_id, shopping_id, randomComment(),
-                    cc_type, cc_number, cc_name, cc_expiry, shipping,
-                    randomShippingDate(now), -1, now));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return stateMachine.submit(new ConfirmBuyAction(storeId,
+                customer_id, shopping_id, randomComment(),
+                cc_type, cc_number, cc_name, cc_expiry, shipping,
+                randomShippingDate(now), -1, now))
+                .thenApply(Order.class::cast);
     }
 
     /**
@@ -756,16 +1270,33 @@ public class Bookmarket {
             CreditCards cc_type, long cc_number, String cc_name, Date cc_expiry,
             ShipTypes shipping, String street_1, String street_2, String city,
             String state, String zip, String country) {
-        Address address = Bookstore.alwaysGetAddress(street_1, street_2,
-                city, state, zip, country);
         long now = System.currentTimeMillis();
+        return join(() -> stateMachine.submit(new ConfirmBuyAction(storeId,
+                customer_id, shopping_id, randomComment(),
+                cc_type, cc_number, cc_name, cc_expiry, shipping,
+                randomShippingDate(now), street_1, street_2, city, state,
+                zip, country, now))
+                .thenApply(Order.class::cast));
+    }
+
+    /**
+     * Submete uma ação e espera o seu resultado, repassando a sua falha como
+     * as ações aplicadas diretamente.
+     *
+     * @throws IllegalStateException Se chamado na thread escritora de uma
+     * fila de ações (por exemplo, na continuação de um futuro completado por
+     * ela), que esperaria para sempre por uma ação que só ela aplica; ali
+     * devem ser usadas as versões assíncronas. Nada é submetido.
+     */
+    private static <T> T join(Supplier<CompletableFuture<T>> action) {
+        if (ActionPipeline.isWriterThread()) {
+            throw new IllegalStateException("Ações síncronas não podem ser chamadas na thread de uma fila de ações;"
+                    + " use as versões assíncronas.");
+        }
         try {
-            return (Order) stateMachine.execute(new ConfirmBuyAction(storeId,
-                    customer_id, shopping_id, randomComment(),
-                    cc_type, cc_number, cc_name, cc_expiry, shipping,
-                    randomShippingDate(now), address.getId(), now));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            return action.get().join();
+        } catch (CompletionException e) {
+            throw new RuntimeException(e.getCause());
         }
     }
 
@@ -788,6 +1319,8 @@ public class Bookmarket {
      */
     public static boolean populate(int items, int customers, int addresses,
             int authors, int orders) {
+        // os pedidos da carga entram de uma vez na compra conjunta, em paralelo
+        relatedBooks.beginBackfill();
         try {
             boolean result = (Boolean) stateMachine.execute(new PopulateAction(random.nextLong(),
                     System.currentTimeMillis(), items, customers, addresses,
@@ -798,22 +1331,149 @@ public class Bookmarket {
             return result;
         } catch (Exception e) {
             throw new RuntimeException(e);
+        } finally {
+            relatedBooks.finishBackfill();
         }
     }
     
     private static void initializeRecommendationService() {
-        List<Evaluation> evaluations = Bookstore.getAllEvaluations();
-        recommendationService.initialize(evaluations);
+        Path file = recommendationModelFile;
+        if (file == null || !recommendationService.load(file, Bookstore.ratings.version(),
+                Bookstore.ratings.checksum())) {
+            recommendationService.initialize(Bookstore.getAllEvaluations());
+            if (file != null) {
+                saveRecommendationModel(file);
+            }
+        }
+        refreshItemSimilarities();
+        recommendationTable = null;
+        if (recommendationCache != null) {
+            recommendationCache.clear();
+        }
+    }
+
+    /**
+     * Liga o journal de ações: as ações já gravadas no arquivo são
+     * reaplicadas, na ordem, e cada mutação seguinte só retorna depois de
+     * gravada nele conforme {@code parameters}.
+     * <p>
+     * As ações levam consigo o instante e as escolhas aleatórias, de modo que
+     * reaplicá-las sobre livrarias novas, criadas com os mesmos ids em
+     * {@link #init}, reconstrói o mesmo estado. Se o journal já contém a
+     * carga inicial, {@link #populate} não deve ser chamado de novo.
+     * <p>
+     * Se um arquivo de checkpoint foi definido ({@link #setCheckpointFile}) e
+     * existe, ele é carregado primeiro, e só as ações gravadas depois dele
+     * são reaplicadas.
+     *
+     * @param file O arquivo do journal, criado se não existir.
+     * @param parameters O compromisso entre latência e durabilidade.
+     * @return O número de ações reaplicadas.
+     * @throws IOException Se o arquivo, ou o checkpoint, não puder ser lido.
+     */
+    public static int openJournal(Path file, JournalParameters parameters) throws IOException {
+        Path checkpoint = checkpointFile;
+        boolean restored = checkpoint != null && Files.exists(checkpoint);
+        int replayed;
+        relatedBooks.beginBackfill();
+        try {
+            long from = restored ? stateMachine.restore(checkpoint) : 0;
+            replayed = stateMachine.openJournal(file, parameters, from);
+        } finally {
+            relatedBooks.finishBackfill();
+        }
+        if ((restored || replayed > 0) && getBookstoreStream().anyMatch(Bookstore::isPopulated)) {
+            initializeRecommendationService();
+        }
+        return replayed;
     }
 
     /**
+     * Passa a aplicar as ações de carrinho e de compra de cada livraria por
+     * uma fila com uma thread escritora própria, em lotes: cada lote espera o
+     * journal e publica o retrato das consultas uma só vez. As demais ações
+     * continuam aplicadas na thread de quem as chama.
+     * <p>
+     * Com o journal aberto, aplicar e registrar cada ação continua sendo
+     * feito uma ação por vez, entre todas as livrarias; só as esperas pelo
+     * disco correm em paralelo ({@link StateMachine#startPipelines}).
      *
+     * @param capacity O número de posições da fila de cada livraria, uma
+     * potência de dois.
+     */
+    public static void startPipelines(int capacity) {
+        stateMachine.startPipelines(capacity);
+    }
+
+    /**
+     * Aplica as ações já enfileiradas e encerra as filas de ações.
+     */
+    public static void stopPipelines() {
+        stateMachine.stopPipelines();
+    }
+
+    /**
+     * Define o arquivo dos checkpoints do estado, gravados por
+     * {@link #checkpoint()} e carregados por {@link #openJournal}.
+     *
+     * @param file O arquivo, ou {@code null} para não gravar checkpoints.
+     */
+    public static void setCheckpointFile(Path file) {
+        checkpointFile = file;
+    }
+
+    /**
+     * Grava as ações pendentes e desliga o journal.
+     *
+     * @throws IOException Se a gravação falhar.
+     */
+    public static void closeJournal() throws IOException {
+        stateMachine.closeJournal();
+    }
+
+    /**
+     * Grava o estado no arquivo de checkpoint, se definido, e o modelo de
+     * recomendação no seu arquivo, se definido.
+     * <p>
+     * As ações só esperam a cópia do estado mutável; o checkpoint é gravado
+     * em seguida, enquanto elas continuam. Com o journal aberto, o checkpoint
+     * registra a posição do journal que ele cobre: o journal não é truncado,
+     * mas a recuperação passa a reaplicar só o que veio depois.
      */
     public static void checkpoint() {
+        Path checkpoint = checkpointFile;
+        if (checkpoint != null) {
+            try {
+                stateMachine.checkpoint(checkpoint);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Path file = recommendationModelFile;
+        if (file != null && recommendationService.isInitialized()) {
+            saveRecommendationModel(file);
+        }
+    }
+
+    /**
+     * Grava o modelo de recomendação com as avaliações atuais. Uma falha não
+     * interrompe a operação: o modelo apenas será treinado na próxima
+     * inicialização.
+     */
+    private static void saveRecommendationModel(Path file) {
+        // lida antes de aguardar o modelo; ver RecommendationService.save
+        long version = Bookstore.ratings.version();
+        long checksum = Bookstore.ratings.checksum();
         try {
-            stateMachine.checkpoint();
-        } catch (UmbrellaException e) {
-            throw new RuntimeException(e);
+            if (!recommendationService.awaitUpdates(1, TimeUnit.MINUTES)) {
+                System.err.println("O modelo de recomendação não ficou atualizado a tempo de ser gravado.");
+                return;
+            }
+            recommendationService.save(file, version, checksum);
+        } catch (IOException e) {
+            System.err.println("Falha ao gravar o modelo de recomendação: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -839,6 +1499,14 @@ public class Bookmarket {
          * @return
          */
         public abstract Object executeOnBookstore(Stream<Bookstore> bookstore);
+
+        /**
+         * @return O id da livraria alterada pela ação, ou -1 se a ação altera
+         * o estado comum a todas as livrarias.
+         */
+        int storeId() {
+            return -1;
+        }
     }
 
     /**
@@ -1015,6 +1683,11 @@ public class Bookmarket {
         public Object executeOnBookstore(Stream<Bookstore> bookstore) {
             return bookstore.filter(bs -> bs.getId() == this.storeId).findFirst().get().createCart(now);
         }
+
+        @Override
+        int storeId() {
+            return (int) storeId;
+        }
     }
 
     /**
@@ -1058,6 +1731,11 @@ public class Bookmarket {
         public Object executeOnBookstore(Stream<Bookstore> bookstore) {
             return bookstore.filter(bs -> bs.getId() == this.storeId).findFirst().get().cartUpdate(cId, bId, bIds, quantities, now);
         }
+
+        @Override
+        int storeId() {
+            return storeId;
+        }
     }
 
     /**
@@ -1076,6 +1754,7 @@ public class Bookmarket {
         ShipTypes shipping;
         Date shippingDate;
         int addressId;
+        String street1, street2, city, state, zip, country;
         long now;
 
         /**
@@ -1111,6 +1790,25 @@ public class Bookmarket {
             this.now = now;
         }
 
+        /**
+         * Compra com entrega em um endereço informado, criado na aplicação
+         * da ação se ainda não existir.
+         */
+        public ConfirmBuyAction(int storeId, int customerId, int cartId,
+                String comment, CreditCards ccType, long ccNumber,
+                String ccName, Date ccExpiry, ShipTypes shipping,
+                Date shippingDate, String street1, String street2, String city,
+                String state, String zip, String country, long now) {
+            this(storeId, customerId, cartId, comment, ccType, ccNumber, ccName,
+                    ccExpiry, shipping, shippingDate, -1, now);
+            this.street1 = street1;
+            this.street2 = street2;
+            this.city = city;
+            this.state = state;
+            this.zip = zip;
+            this.country = country;
+        }
+
         /**
          *
          * @param bookstore
@@ -1118,9 +1816,50 @@ public class Bookmarket {
          */
         @Override
         public Object executeOnBookstore(Stream<Bookstore> bookstore) {
+            int shippingAddress = street1 == null ? addressId
+                    : Bookstore.alwaysGetAddress(street1, street2, city, state, zip, country).getId();
             return bookstore.filter(bs -> bs.getId() == this.storeId).findFirst().get().confirmBuy(customerId, cartId, comment, ccType,
                     ccNumber, ccName, ccExpiry, shipping, shippingDate,
-                    addressId, now);
+                    shippingAddress, now);
+        }
+
+        @Override
+        int storeId() {
+            return storeId;
+        }
+    }
+
+    /**
+     *
+     */
+    protected static class RateBookAction extends BookstoreAction {
+
+        private static final long serialVersionUID = 2319358120470265563L;
+
+        final int customerId, bookId, rating;
+
+        /**
+         *
+         * @param customerId
+         * @param bookId
+         * @param rating
+         */
+        public RateBookAction(int customerId, int bookId, int rating) {
+            this.customerId = customerId;
+            this.bookId = bookId;
+            this.rating = rating;
+        }
+
+        /**
+         *
+         * @param bookstore
+         * @return
+         */
+        @Override
+        public Object executeOnBookstore(Stream<Bookstore> bookstore) {
+            Bookstore.addOrUpdateRating(new Rating(Bookstore.getCustomer(customerId),
+                    Bookstore.getBook(bookId).get(), rating));
+            return null;
         }
     }
 
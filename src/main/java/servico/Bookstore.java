@@ -70,64 +70,93 @@ import dominio.Stock;
 import util.TPCW_Util;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Set;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import dominio.Evaluation;
 
 /**
  * <img src="./doc-files/Bookstore.png" alt="Bookstore">
  * <br><a href="./doc-files/Bookstore.html"> code </a>
- *
+ * <p>
+ * A livraria aceita leitores e escritores concorrentes. Os cadastros
+ * indexados por id são {@code AppendOnlyList}s, lidas sem trava, e os índices
+ * por chave são mapas concorrentes. Os índices do catálogo são protegidos por
+ * uma trava de leitura e escrita, e cada carrinho e cada estoque é protegido
+ * pelo seu próprio monitor: operações em carrinhos ou livros diferentes não
+ * disputam trava alguma. Uma compra trava o carrinho e, um de cada vez, os
+ * estoques dos seus livros; nenhuma operação trava um carrinho segurando um
+ * estoque, o que exclui impasses.
  */
 public class Bookstore implements Serializable {
 
-    public static final Set<Rating> ratings = new HashSet<>();
+    public static final RatingStore ratings = new RatingStore();
 
     private static final long serialVersionUID = -3099048826035606338L;
 
-    private static boolean populated;
-    private static final List<Country> countryById;
+    private static volatile boolean populated;
+    private static final AppendOnlyList<Country> countryById;
     private static final Map<String, Country> countryByName;
-    private static final List<Address> addressById;
+    private static final AppendOnlyList<Address> addressById;
     private static final Map<Address, Address> addressByAll;
-    private static final List<Customer> customersById;
+    private static final AppendOnlyList<Customer> customersById;
     private static final Map<String, Customer> customersByUsername;
-    private static final List<Author> authorsById;
+    private static final AppendOnlyList<Author> authorsById;
     private final Map<Book, Stock> stockByBook;
-    private final List<Cart> cartsById;
+    private final AppendOnlyList<Cart> cartsById;
 
     private final int id;
 
     protected static final List<Book> booksById;
+    private static final TitleIndex booksByTitle;
+    private static final AuthorIndex booksByAuthor;
+    private static final FullTextIndex booksByText;
+    private static final Map<SUBJECTS, TitleIndex> booksBySubject;
+    private static final Map<SUBJECTS, NewReleaseIndex> newBooksBySubject;
     protected final List<Order> ordersById;
-    protected final LinkedList<Order> ordersByCreation;
-    
+    protected final Deque<Order> ordersByCreation;
+    private final transient List<OrderListener> orderListeners;
+    private final transient List<StockListener> stockListeners;
+    private static final ReadWriteLock catalogLock = new ReentrantReadWriteLock();
+
 
     /**
     
      */
     static {
-        countryById = new ArrayList<>();
-        countryByName = new HashMap<>();
-        addressById = new ArrayList<>();
-        addressByAll = new HashMap<>();
-        customersById = new ArrayList<>();
-        customersByUsername = new HashMap<>();
-        authorsById = new ArrayList<>();
-        booksById = new ArrayList<>();
+        countryById = new AppendOnlyList<>();
+        countryByName = new ConcurrentHashMap<>();
+        addressById = new AppendOnlyList<>();
+        addressByAll = new ConcurrentHashMap<>();
+        customersById = new AppendOnlyList<>();
+        customersByUsername = new ConcurrentHashMap<>();
+        authorsById = new AppendOnlyList<>();
+        booksById = new AppendOnlyList<>();
+        booksByTitle = new TitleIndex();
+        booksByAuthor = new AuthorIndex();
+        booksByText = new FullTextIndex();
+        booksBySubject = new EnumMap<>(SUBJECTS.class);
+        newBooksBySubject = new EnumMap<>(SUBJECTS.class);
+        for (SUBJECTS subject : SUBJECTS.values()) {
+            booksBySubject.put(subject, new TitleIndex());
+            newBooksBySubject.put(subject, new NewReleaseIndex());
+        }
         ratings.clear(); // Limpa as avaliações estáticas entre os testes
     }
 
@@ -136,10 +165,12 @@ public class Bookstore implements Serializable {
      */
     public Bookstore(final int id) {
         this.id = id;
-        cartsById = new ArrayList<>();
-        ordersById = new ArrayList<>();
-        ordersByCreation = new LinkedList<>();
-        stockByBook = new HashMap<>();
+        cartsById = new AppendOnlyList<>();
+        ordersById = new AppendOnlyList<>();
+        ordersByCreation = new ConcurrentLinkedDeque<>();
+        orderListeners = new CopyOnWriteArrayList<>();
+        stockListeners = new CopyOnWriteArrayList<>();
+        stockByBook = new ConcurrentHashMap<>();
     }
 
     /**
@@ -160,11 +191,7 @@ public class Bookstore implements Serializable {
      
      */
     private static Country alwaysGetCountry(String name) {
-        Country country = countryByName.get(name);
-        if (country == null) {
-            country = createCountry(name, "", 0);
-        }
-        return country;
+        return countryByName.computeIfAbsent(name, key -> newCountry(key, "", 0));
     }
 
     /**
@@ -178,13 +205,16 @@ public class Bookstore implements Serializable {
      
      */
     private static Country createCountry(String name, String currency, double exchange) {
-        int id = countryById.size();
-        Country country = new Country(id, name, currency, exchange);
-        countryById.add(country);
+        Country country = newCountry(name, currency, exchange);
         countryByName.put(name, country);
         return country;
     }
 
+    private static Country newCountry(String name, String currency, double exchange) {
+        return countryById
+                .append(id -> new Country(id, name, currency, exchange));
+    }
+
     /**
      
      */
@@ -194,8 +224,9 @@ public class Bookstore implements Serializable {
         Address key = new Address(0, street1, street2, city, state, zip, country);
         Address address = addressByAll.get(key);
         if (address == null) {
-            address = createAddress(street1, street2, city, state, zip,
-                    country);
+            // o endereço só ganha id se for mesmo novo
+            address = addressByAll.computeIfAbsent(key, k -> newAddress(street1,
+                    street2, city, state, zip, country));
         }
         return address;
     }
@@ -209,14 +240,17 @@ public class Bookstore implements Serializable {
 
     private static Address createAddress(String street1, String street2,
             String city, String state, String zip, Country country) {
-        int id = addressById.size();
-        Address address = new Address(id, street1, street2, city, state, zip,
-                country);
-        addressById.add(address);
+        Address address = newAddress(street1, street2, city, state, zip, country);
         addressByAll.put(address, address);
         return address;
     }
 
+    private static Address newAddress(String street1, String street2,
+            String city, String state, String zip, Country country) {
+        return addressById.append(id -> new Address(id,
+                street1, street2, city, state, zip, country));
+    }
+
     /**
      
      */
@@ -227,6 +261,13 @@ public class Bookstore implements Serializable {
         return customersById.get(cId);
     }
 
+    /**
+     * @return O número de clientes; os ids vão de 0 a este valor menos 1.
+     */
+    public static int getCustomerCount() {
+        return customersById.size();
+    }
+
     /**
      
      */
@@ -260,13 +301,13 @@ public class Bookstore implements Serializable {
             String phone, String email, Date since, Date lastVisit,
             Date login, Date expiration, double discount, Date birthdate,
             String data) {
-        int id = customersById.size();
-        String uname = TPCW_Util.DigSyl(id, 0);
-        Customer customer = new Customer(id, uname, uname.toLowerCase(), fname,
-                lname, phone, email, since, lastVisit, login, expiration,
-                discount, 0, 0, birthdate, data, address);
-        customersById.add(customer);
-        customersByUsername.put(uname, customer);
+        Customer customer = customersById.append(id -> {
+            String uname = TPCW_Util.DigSyl(id, 0);
+            return new Customer(id, uname, uname.toLowerCase(), fname,
+                    lname, phone, email, since, lastVisit, login, expiration,
+                    discount, 0, 0, birthdate, data, address);
+        });
+        customersByUsername.put(customer.getUname(), customer);
         return customer;
     }
 
@@ -306,8 +347,7 @@ public class Bookstore implements Serializable {
     /**
      * @deprecated A lógica de negócio para recomendações foi centralizada em
      * {@link Bookmarket}. Utilize
-     * {@link Bookmarket#getPriceBookRecommendationByUsers(int)} em vez deste
-     * método.
+     * {@link Bookmarket#getRecommendationByItens(int)} em vez deste método.
      */
     @Deprecated
     public static List<Book> getRecommendationByItens(int c_id) {
@@ -338,63 +378,93 @@ public class Bookstore implements Serializable {
     }
 
     /**
-     
+     * Retorna os primeiros livros de um assunto em ordem de título, lidos
+     * diretamente da visão por assunto mantida pelo catálogo.
+     *
+     * @param subject O assunto.
+     * @return Até 50 livros, em ordem de título.
      */
     public static List<Book> getBooksBySubject(SUBJECTS subject) {
-        ArrayList<Book> books = new ArrayList<>();
-        for (Book book : booksById) {
-            if (subject.equals(book.getSubject())) {
-                books.add(book);
-                if (books.size() > 50) {
-                    break;
-                }
-            }
+        catalogLock.readLock().lock();
+        try {
+            return booksBySubject.get(subject).first(50);
+        } finally {
+            catalogLock.readLock().unlock();
         }
-        Collections.sort(books, (Book a, Book b) -> a.getTitle().compareTo(b.getTitle()));
-        return books;
     }
 
     /**
-     
+     * Busca os livros cujo título começa com o texto informado.
+     * <p>
+     * A consulta é uma leitura por faixa no índice de títulos, construído em
+     * {@code populate} e atualizado a cada livro criado.
+     *
+     * @param title O início do título.
+     * @return Até 50 livros, em ordem de título.
      */
     public static List<Book> getBooksByTitle(String title) {
-        Pattern regex = Pattern.compile("^" + title);
-        ArrayList<Book> books = new ArrayList<>();
-        for (Book book : booksById) {
-            if (regex.matcher(book.getTitle()).matches()) {
-                books.add(book);
-                if (books.size() > 50) {
-                    break;
-                }
-            }
+        catalogLock.readLock().lock();
+        try {
+            return booksByTitle.startingWith(title, 50);
+        } finally {
+            catalogLock.readLock().unlock();
         }
-        Collections.sort(books, (Book a, Book b) -> a.getTitle().compareTo(b.getTitle()));
-        return books;
     }
 
     /**
-     
+     * Busca os livros cujo autor tem sobrenome iniciado pelo texto informado.
+     * <p>
+     * A comparação ignora acentos e maiúsculas e é resolvida pelo índice de
+     * sobrenomes, que guarda os livros de cada autor em ordem de título.
+     *
+     * @param author O início do sobrenome do autor.
+     * @return Até 50 livros, em ordem de título.
      */
     public static List<Book> getBooksByAuthor(String author) {
-        Pattern regex = Pattern.compile("^" + author);
-        ArrayList<Book> books = new ArrayList<>();
-        for (Book book : booksById) {
-            if (regex.matcher(book.getAuthor().getLname()).matches()) {
-                books.add(book);
-                if (books.size() > 50) {
-                    break;
-                }
-            }
+        catalogLock.readLock().lock();
+        try {
+            return booksByAuthor.startingWith(author, 50);
+        } finally {
+            catalogLock.readLock().unlock();
         }
-        Collections.sort(books, (Book a, Book b) -> a.getTitle().compareTo(b.getTitle()));
-        return books;
     }
 
     /**
-    
+     * Busca textual nos campos título, descrição, editora e ISBN dos livros.
+     * <p>
+     * A consulta é quebrada em termos (sem acentos e em minúsculas) e os
+     * livros são ordenados pelo escore BM25 calculado sobre o índice invertido
+     * do catálogo; empates são resolvidos pelo id do livro.
+     *
+     * @param query Os termos procurados.
+     * @param limit O número máximo de livros retornados.
+     * @return Até {@code limit} livros, do mais para o menos relevante.
+     */
+    public static List<Book> searchBooks(String query, int limit) {
+        catalogLock.readLock().lock();
+        try {
+            return booksByText.search(query, limit);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retorna os lançamentos de um assunto: os livros mais recentes por data
+     * de publicação, com empates ordenados pelo título. A lista é lida da
+     * visão de lançamentos do assunto, que {@link #updateBook} mantém em
+     * ordem ao alterar a data de publicação.
+     *
+     * @param subject O assunto.
+     * @return Até 50 livros, dos mais recentes para os mais antigos.
      */
     public static List<Book> getNewBooks(SUBJECTS subject) {
-        return getNewBooks0(subject);
+        catalogLock.readLock().lock();
+        try {
+            return newBooksBySubject.get(subject).first(50);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
     }
 
     static List<Book> getNewBooks0(SUBJECTS subject) {
@@ -419,16 +489,14 @@ public class Bookstore implements Serializable {
     /**
      * Adiciona uma nova avaliação ou atualiza uma existente.
      * <p>
-     * A unicidade é garantida pela implementação de `equals` e `hashCode` na
-     * classe {@link Rating}, que considera o par cliente/livro. Se uma avaliação
-     * para o mesmo par já existir no `Set`, ela é removida e a nova é adicionada,
-     * efetivamente atualizando a nota.
+     * A unicidade é dada pelo par cliente/livro, como em `equals` e `hashCode`
+     * da classe {@link Rating}: se já existir uma avaliação para o mesmo par no
+     * {@link RatingStore}, ela é substituída, efetivamente atualizando a nota.
      *
      * @param newRating A nova avaliação a ser armazenada.
      */
     public static void addOrUpdateRating(Rating newRating) {
-        ratings.remove(newRating); // Remove a avaliação antiga, se existir
-        ratings.add(newRating);    // Adiciona a nova avaliação
+        ratings.put(newRating);
     }
 
     /**
@@ -439,7 +507,7 @@ public class Bookstore implements Serializable {
      * @return O objeto {@link Rating} se encontrado, caso contrário, {@code null}.
      */
     public static Rating getRating(int customerId, int bookId) {
-        return ratings.stream().filter(r -> r.getCustomer().getId() == customerId && r.getBook().getId() == bookId).findFirst().orElse(null);
+        return ratings.get(customerId, bookId);
     }
 
     /**
@@ -447,18 +515,14 @@ public class Bookstore implements Serializable {
      * <p>
      * Este método serve como uma camada de mapeamento para alimentar o motor de
      * recomendação, desacoplando o domínio interno da representação de dados
-     * esperada pelo Mahout.
+     * esperada pelo Mahout. As avaliações são convertidas à medida que o
+     * stream é consumido, agrupadas por cliente, a partir de uma cópia das
+     * referências tirada na chamada ({@link RatingStore#evaluations()}).
      *
-     * @return Uma lista de {@link Evaluation}.
+     * @return Um stream de {@link Evaluation}.
      */
-    public static List<Evaluation> getAllEvaluations() {
-        return ratings.stream()
-                .map(rating -> new Evaluation(
-                        rating.getCustomer().getId(),
-                        rating.getBook().getId(),
-                        rating.getRating()
-                ))
-                .collect(Collectors.toList());
+    public static Stream<Evaluation> getAllEvaluations() {
+        return ratings.evaluations();
     }
 
     List<Book> getNewBooks1(SUBJECTS subject) {
@@ -561,23 +625,225 @@ public class Bookstore implements Serializable {
             SUBJECTS subject, String desc, String thumbnail,
             String image, double srp, Date avail, String isbn,
             int page, BACKINGS backing, int[] dimensions, double weight, Author author) {
-        int id = booksById.size();
-        Book book = new Book(id, title, pubDate, publisher, subject, desc,
-                thumbnail, image, srp, avail, isbn, page, backing,
-                dimensions, weight, author);
-        booksById.add(book);
-        return book;
+        catalogLock.writeLock().lock();
+        try {
+            int id = booksById.size();
+            Book book = new Book(id, title, pubDate, publisher, subject, desc,
+                    thumbnail, image, srp, avail, isbn, page, backing,
+                    dimensions, weight, author);
+            booksById.add(book);
+            if (populated) {
+                indexBook(book);
+            }
+            return book;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inclui um livro recém-criado em todos os índices do catálogo.
+     */
+    private static void indexBook(Book book) {
+        booksByTitle.add(book);
+        booksByAuthor.add(book);
+        booksBySubject.get(book.getSubject()).add(book);
+        newBooksBySubject.get(book.getSubject()).add(book);
+        booksByText.add(book);
+    }
+
+    /**
+     * Constrói em lote todos os índices do catálogo. Usado ao final da
+     * população, quando inserir livro a livro custaria O(n²).
+     */
+    private static void indexCatalog() {
+        catalogLock.writeLock().lock();
+        try {
+            buildIndexes();
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    private static void buildIndexes() {
+        booksByTitle.build(booksById);
+        booksByAuthor.build(booksById);
+        booksByText.build(booksById);
+        Map<SUBJECTS, List<Book>> bySubject = booksById.stream()
+                .collect(Collectors.groupingBy(Book::getSubject));
+        for (SUBJECTS subject : SUBJECTS.values()) {
+            List<Book> books = bySubject.getOrDefault(subject, Collections.emptyList());
+            booksBySubject.get(subject).build(books);
+            newBooksBySubject.get(subject).build(books);
+        }
+    }
+
+    /**
+     * @return Os países, na ordem dos ids.
+     */
+    static List<Country> countries() {
+        return countryById;
+    }
+
+    /**
+     * @return Os endereços, na ordem dos ids.
+     */
+    static List<Address> addresses() {
+        return addressById;
+    }
+
+    /**
+     * @return Os autores, na ordem de criação.
+     */
+    static List<Author> authors() {
+        return authorsById;
     }
 
     /**
-     * Retorna a lista de pedidos ordenada por data de criação.
+     * @return Os clientes, na ordem dos ids.
+     */
+    static List<Customer> customers() {
+        return customersById;
+    }
+
+    /**
+     * Substitui todo o estado global pelo de um checkpoint: cadastros,
+     * catálogo e avaliações. Os índices do catálogo são reconstruídos em lote.
      *
-     * @return Uma {@link LinkedList} de {@link Order}s.
+     * @param countries Os países, na ordem dos ids.
+     * @param addresses Os endereços, na ordem dos ids.
+     * @param authors Os autores.
+     * @param books Os livros, na ordem dos ids.
+     * @param customers Os clientes, na ordem dos ids.
+     * @param restoredRatings As avaliações.
      */
-    public LinkedList<Order> getOrdersByCreation() {
+    static void restoreCatalog(List<Country> countries, List<Address> addresses,
+            List<Author> authors, List<Book> books, List<Customer> customers,
+            Collection<Rating> restoredRatings) {
+        catalogLock.writeLock().lock();
+        try {
+            countryById.clear();
+            countryByName.clear();
+            countries.forEach(country -> {
+                countryById.add(country);
+                countryByName.put(country.getName(), country);
+            });
+            addressById.clear();
+            addressByAll.clear();
+            addresses.forEach(address -> {
+                addressById.add(address);
+                addressByAll.put(address, address);
+            });
+            authorsById.clear();
+            authorsById.addAll(authors);
+            booksById.clear();
+            booksById.addAll(books);
+            customersById.clear();
+            customersByUsername.clear();
+            customers.forEach(customer -> {
+                customersById.add(customer);
+                customersByUsername.put(customer.getUname(), customer);
+            });
+            ratings.clear();
+            restoredRatings.forEach(ratings::put);
+            buildIndexes();
+            if (rand == null) {
+                rand = new Random();
+            }
+            populated = true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retorna os pedidos do mais recente para o mais antigo. A fila pode ser
+     * percorrida enquanto outros pedidos são criados.
+     *
+     * @return Uma {@link Deque} de {@link Order}s.
+     */
+    public Deque<Order> getOrdersByCreation() {
         return ordersByCreation;
     }
 
+    /**
+     * @return Os estoques desta livraria, em qualquer ordem.
+     */
+    Collection<Stock> getStocks() {
+        return stockByBook.values();
+    }
+
+    /**
+     * @return Os carrinhos desta livraria, na ordem dos ids.
+     */
+    List<Cart> getCarts() {
+        return cartsById;
+    }
+
+    /**
+     * Carrega o estado de um checkpoint em uma livraria ainda vazia,
+     * apresentando os estoques e os pedidos aos observadores.
+     *
+     * @param stocks Os estoques.
+     * @param carts Os carrinhos, na ordem dos ids.
+     * @param orders Os pedidos, na ordem dos ids.
+     */
+    void restore(Collection<Stock> stocks, List<Cart> carts, List<Order> orders) {
+        if (!stockByBook.isEmpty() || !cartsById.isEmpty() || !ordersById.isEmpty()) {
+            throw new IllegalStateException("A livraria " + id + " não está vazia.");
+        }
+        stocks.forEach(this::putStock);
+        cartsById.addAll(carts);
+        synchronized (ordersByCreation) {
+            for (Order order : orders) {
+                ordersById.add(order);
+                ordersByCreation.addFirst(order);
+                announce(order);
+            }
+        }
+    }
+
+    /**
+     * Registra um observador dos pedidos desta livraria. Os pedidos já
+     * existentes são reapresentados a ele como criados, do mais antigo para o
+     * mais recente, para que a visão comece consistente com o histórico.
+     * <p>
+     * O registro e a reapresentação acontecem sob a mesma trava que cria os
+     * pedidos e os anuncia: um pedido criado ao mesmo tempo chega ao
+     * observador uma única vez, pela reapresentação ou pelo anúncio.
+     *
+     * @param listener O observador.
+     */
+    void addOrderListener(OrderListener listener) {
+        synchronized (ordersByCreation) {
+            orderListeners.add(listener);
+            ordersById.forEach(listener::orderCreated);
+        }
+    }
+
+    /**
+     * Remove um observador registrado por {@link #addOrderListener}.
+     *
+     * @param listener O observador.
+     */
+    void removeOrderListener(OrderListener listener) {
+        orderListeners.remove(listener);
+    }
+
+    /**
+     * Descarta todo o histórico de pedidos, avisando os observadores.
+     */
+    protected void clearOrders() {
+        synchronized (ordersByCreation) {
+            for (Order order : ordersById) {
+                order.setStatusListener(null);
+                orderListeners.forEach(listener -> listener.orderRemoved(order));
+            }
+            ordersById.clear();
+            ordersByCreation.clear();
+        }
+    }
+
     /**
      *
      * @param bId
@@ -588,10 +854,16 @@ public class Bookstore implements Serializable {
     public static void updateBook(int bId, String image,
             String thumbnail, long now) {
         Book book = getBook(bId).get();
-        book.setImage(image);
-        book.setThumbnail(thumbnail);
-        book.setPubDate(new Date(now));
-        
+        catalogLock.writeLock().lock();
+        try {
+            long previousPubDate = book.getPubDate().getTime();
+            book.setImage(image);
+            book.setThumbnail(thumbnail);
+            book.setPubDate(new Date(now));
+            newBooksBySubject.get(book.getSubject()).reposition(book, previousPubDate);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
     }
 
     /**
@@ -601,11 +873,53 @@ public class Bookstore implements Serializable {
      */
     public void updateStock(int bId, double cost) {
         Book book = getBook(bId).get();
-        if (!stockByBook.containsKey(book)) {
-            int stock = TPCW_Util.getRandomInt(rand, 10, 30);
-            stockByBook.put(book, new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, stock));
+        Stock stock = stockByBook.get(book);
+        if (stock == null) {
+            synchronized (stockByBook) {
+                stock = stockByBook.get(book);
+                if (stock == null) {
+                    stock = new Stock(this.id, getAnAddressAnyAddress(rand), book, cost,
+                            TPCW_Util.getRandomInt(rand, 10, 30));
+                    putStock(stock);
+                }
+            }
+        }
+        stock.setCost(cost);
+    }
+
+    /**
+     * Registra um novo estoque desta livraria, passando a avisar os
+     * observadores de estoque sobre ele e sobre as mudanças do seu preço.
+     * Os avisos correm sob o monitor de {@code stockByBook}, como os
+     * registros de observadores.
+     */
+    private void putStock(Stock stock) {
+        synchronized (stockByBook) {
+            stockByBook.put(stock.getBook(), stock);
+            stock.setCostListener((changed, previous) -> {
+                synchronized (stockByBook) {
+                    stockListeners.forEach(listener -> listener.stockCostChanged(changed, previous));
+                }
+            });
+            stockListeners.forEach(listener -> listener.stockCreated(stock));
+        }
+    }
+
+    /**
+     * Registra um observador dos estoques desta livraria. Os estoques já
+     * existentes são reapresentados a ele como criados.
+     * <p>
+     * O registro e a reapresentação acontecem sob o monitor de
+     * {@code stockByBook}, o mesmo que cria os estoques: um estoque criado ao
+     * mesmo tempo chega ao observador uma única vez.
+     *
+     * @param listener O observador.
+     */
+    void addStockListener(StockListener listener) {
+        synchronized (stockByBook) {
+            stockListeners.add(listener);
+            stockByBook.values().forEach(listener::stockCreated);
         }
-        stockByBook.get(book).setCost(cost);
     }
 
     /**
@@ -619,63 +933,6 @@ public class Bookstore implements Serializable {
         return stock;
     }
 
-    /**
-     
-     */
-    private void updateRelatedBooks(Book targetBook) {
-        HashSet<Integer> clientIds = new HashSet<>();
-        int j = 0;
-        Iterator<Order> i = ordersByCreation.iterator();
-        while (i.hasNext() && j <= 10000) {
-            Order order = i.next();
-            for (OrderLine line : order.getLines()) {
-                Book book = line.getBook();
-                if (targetBook.getId() == book.getId()) {
-                    clientIds.add(order.getCustomer().getId());
-                    break;
-                }
-            }
-            j++;
-        }
-        HashMap<Integer, Counter> counters = new HashMap<>();
-        i = ordersByCreation.iterator();
-        while (i.hasNext()) {
-            Order order = i.next();
-            if (clientIds.contains(order.getCustomer().getId())) {
-                order.getLines().forEach((line) -> {
-                    Book book = line.getBook();
-                    if (targetBook.getId() != book.getId()) {
-                        Counter counter = counters.get(book.getId());
-                        if (counter == null) {
-                            counter = new Counter();
-                            counter.book = book;
-                            counter.count = 0;
-                            counters.put(book.getId(), counter);
-                        }
-                        counter.count += line.getQty();
-                    }
-                });
-            }
-        }
-        Counter[] sorted = counters.values().toArray(new Counter[]{});
-        Arrays.sort(sorted, (Counter a, Counter b) -> {
-            if (b.count > a.count) {
-                return 1;
-            }
-            return b.count < a.count ? -1 : 0;
-        });
-        Book[] related = new Book[]{targetBook, targetBook, targetBook,
-            targetBook, targetBook};
-        for (j = 0; j < 5 && j < sorted.length; j++) {
-            related[j] = sorted[j].book;
-        }
-        targetBook.setRelated1(related[0]);
-        targetBook.setRelated2(related[1]);
-        targetBook.setRelated3(related[2]);
-        targetBook.setRelated4(related[3]);
-        targetBook.setRelated5(related[4]);
-    }
-
     /**
      *
      * @param id
@@ -691,10 +948,7 @@ public class Bookstore implements Serializable {
      * @return
      */
     public Cart createCart(long now) {
-        int idCart = cartsById.size();
-        Cart cart = new Cart(idCart, new Date(now));
-        cartsById.add(cart);
-        return cart;
+        return cartsById.append(idCart -> new Cart(idCart, new Date(now)));
     }
 
     /**
@@ -703,17 +957,17 @@ public class Bookstore implements Serializable {
     public Cart cartUpdate(int cId, Integer bId, List<Integer> bIds,
             List<Integer> quantities, long now) {
         Cart cart = getCart(cId);
+        synchronized (cart) {
+            if (bId != null) {
+                cart.increaseLine(stockByBook.get(getBook(bId).get()), 1);
+            }
 
-        if (bId != null) {
-            cart.increaseLine(stockByBook.get(getBook(bId).get()), 1);
-        }
+            for (int i = 0; i < bIds.size(); i++) {
+                cart.changeLine(stockByBook.get(getBook(bId).get()), quantities.get(i));
+            }
 
-        for (int i = 0; i < bIds.size(); i++) {
-            cart.changeLine(stockByBook.get(getBook(bId).get()), quantities.get(i));
+            cart.setTime(new Date(now));
         }
-
-        cart.setTime(new Date(now));
-
         return cart;
     }
 
@@ -729,35 +983,60 @@ public class Bookstore implements Serializable {
         if (addressId != -1) {
             shippingAddress = addressById.get(addressId);
         }
-        cart.getLines().stream().map((cartLine) -> {
-            Book book = cartLine.getBook();
-            stockByBook.get(book).addQty(-cartLine.getQty());
-            return book;
-        }).filter((book) -> (stockByBook.get(book).getQty() < 10)).forEachOrdered((book) -> {
-            stockByBook.get(book).addQty(21);
-        });
-        CCTransaction ccTransact = new CCTransaction(ccType, ccNumber, ccName,
-                ccExpiry, "", cart.total(customer),
-                new Date(now), shippingAddress.getCountry());
-        return createOrder(customer, new Date(now), cart, comment, shipping,
-                shippingDate, StatusTypes.PENDING, customer.getAddress(),
-                shippingAddress, ccTransact);
+        // o carrinho fica travado até ser esvaziado pelo pedido, e cada
+        // estoque só durante a sua baixa e reposição
+        synchronized (cart) {
+            cart.getLines().forEach(cartLine -> {
+                Stock stock = stockByBook.get(cartLine.getBook());
+                synchronized (stock) {
+                    stock.addQty(-cartLine.getQty());
+                    if (stock.getQty() < 10) {
+                        stock.addQty(21);
+                    }
+                }
+            });
+            CCTransaction ccTransact = new CCTransaction(ccType, ccNumber, ccName,
+                    ccExpiry, "", cart.total(customer),
+                    new Date(now), shippingAddress.getCountry());
+            return createOrder(customer, new Date(now), cart, comment, shipping,
+                    shippingDate, StatusTypes.PENDING, customer.getAddress(),
+                    shippingAddress, ccTransact);
+        }
     }
 
     private Order createOrder(Customer customer, Date date, Cart cart,
             String comment, ShipTypes shipType, Date shipDate,
             StatusTypes status, Address billingAddress, Address shippingAddress,
             CCTransaction cc) {
-        int idOrder = ordersById.size();
-        Order order = newOrderInstance(idOrder, customer, date, cart, comment, shipType,
-                shipDate, status, billingAddress, shippingAddress, cc);
-        ordersById.add(order);
-        ordersByCreation.addFirst(order);
+        Order order;
+        // o id, as duas listas e o anúncio acontecem juntos, de modo que os
+        // observadores recebem os pedidos na ordem de criação
+        synchronized (ordersByCreation) {
+            order = newOrderInstance(ordersById.size(), customer, date, cart, comment,
+                    shipType, shipDate, status, billingAddress, shippingAddress, cc);
+            ordersById.add(order);
+            ordersByCreation.addFirst(order);
+            announce(order);
+        }
         customer.logOrder(order);
         cart.clear();
         return order;
     }
 
+    /**
+     * Apresenta um novo pedido aos observadores e passa a avisá-los das
+     * mudanças do seu status. Chamado com a trava de {@code ordersByCreation},
+     * que também serializa os avisos de status com os registros.
+     */
+    private void announce(Order order) {
+        order.setStatusListener((changed, previous) -> {
+            synchronized (ordersByCreation) {
+                orderListeners.forEach(listener -> listener.orderStatusChanged(changed, previous));
+            }
+        });
+        orderListeners.forEach(listener -> listener.orderCreated(order));
+    }
+
     protected Order newOrderInstance(
         int idOrder,
         Customer customer,
@@ -1008,6 +1287,8 @@ public class Bookstore implements Serializable {
             book.setRelated5(relatedArray[4]);
         }
 
+        indexCatalog();
+
         System.out.println(" Done");
     }
 
@@ -1029,7 +1310,7 @@ public class Bookstore implements Serializable {
                 if (!stockByBook.containsKey(book)) {
                     double cost = TPCW_Util.getRandomDouble(rand, 10d, 500d);
                     int quantity = TPCW_Util.getRandomInt(rand, 300, 400);
-                    stockByBook.put(book, new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, quantity));
+                    putStock(new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, quantity));
                 }
             }
         }
@@ -1055,7 +1336,7 @@ public class Bookstore implements Serializable {
                 if (!stockByBook.containsKey(book)) {
                     double cost = TPCW_Util.getRandomDouble(rand, 10d, 500d);
                     int stock = TPCW_Util.getRandomInt(rand, 300, 400);
-                    stockByBook.put(book, new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, stock));
+                    putStock(new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, stock));
                 }
                 cart.changeLine(stockByBook.get(book), quantity);
             }
@@ -0,0 +1,817 @@
+package servico;
+
+import dominio.Address;
+import dominio.Author;
+import dominio.BACKINGS;
+import dominio.Book;
+import dominio.CCTransaction;
+import dominio.Cart;
+import dominio.CartLine;
+import dominio.Country;
+import dominio.CreditCards;
+import dominio.Customer;
+import dominio.Order;
+import dominio.OrderLine;
+import dominio.Rating;
+import dominio.SUBJECTS;
+import dominio.ShipTypes;
+import dominio.StatusTypes;
+import dominio.Stock;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Retrato de todo o estado das livrarias, gravado em um formato binário
+ * próprio e versionado.
+ * <p>
+ * A captura ({@link #capture}) copia só o que pode mudar depois dela:
+ * quantidades e preços dos estoques, linhas dos carrinhos, status dos
+ * pedidos, sessões dos clientes, imagens, datas e relacionados dos livros e
+ * as avaliações. O resto dos objetos não muda após criado e é lido na
+ * gravação ({@link #write}), que assim pode correr enquanto novas ações são
+ * aplicadas; cadastros e pedidos criados depois da captura ficam de fora,
+ * pois a captura guarda quantos havia.
+ * <p>
+ * O arquivo começa com um número mágico, a versão do formato e a posição do
+ * journal de ações correspondente ao retrato; inteiros são gravados em
+ * tamanho variável, referências entre objetos pelo id, e o arquivo termina
+ * com o CRC-32 do conteúdo. A gravação é feita em um arquivo temporário,
+ * renomeado ao final, de modo que um checkpoint interrompido não substitui o
+ * anterior.
+ */
+final class BookstoreSnapshot {
+
+    private static final int MAGIC = 0x424B5350; // "BKSP"
+    static final int VERSION = 1;
+    private static final int NONE = -1;
+    private static final int BUFFER = 1 << 16;
+
+    private final long journalOffset;
+    private final Country[] countries;
+    private final Address[] addresses;
+    private final Author[] authors;
+    private final Book[] books;
+    private final long[] pubDates;
+    private final String[] images;
+    private final String[] thumbnails;
+    // cinco relacionados por livro, NONE quando ausente
+    private final int[] related;
+    private final Customer[] customers;
+    private final long[] logins;
+    private final long[] expirations;
+    // livraria e pedido mais recente de cada cliente, NONE quando ausente
+    private final int[] recentStores;
+    private final int[] recentOrders;
+    private final Rating[] ratings;
+    private final Store[] stores;
+
+    /**
+     * O estado de uma livraria.
+     */
+    private static final class Store {
+
+        final int id;
+        final Stock[] stocks;
+        final int[] quantities;
+        final double[] costs;
+        final long[] cartTimes;
+        // pares (livro, quantidade) das linhas de cada carrinho
+        final int[][] cartLines;
+        final Order[] orders;
+        final StatusTypes[] statuses;
+
+        Store(int id, Stock[] stocks, int[] quantities, double[] costs, long[] cartTimes,
+                int[][] cartLines, Order[] orders, StatusTypes[] statuses) {
+            this.id = id;
+            this.stocks = stocks;
+            this.quantities = quantities;
+            this.costs = costs;
+            this.cartTimes = cartTimes;
+            this.cartLines = cartLines;
+            this.orders = orders;
+            this.statuses = statuses;
+        }
+    }
+
+    private BookstoreSnapshot(long journalOffset, Country[] countries, Address[] addresses,
+            Author[] authors, Book[] books, long[] pubDates, String[] images, String[] thumbnails,
+            int[] related, Customer[] customers, long[] logins, long[] expirations,
+            int[] recentStores, int[] recentOrders, Rating[] ratings, Store[] stores) {
+        this.journalOffset = journalOffset;
+        this.countries = countries;
+        this.addresses = addresses;
+        this.authors = authors;
+        this.books = books;
+        this.pubDates = pubDates;
+        this.images = images;
+        this.thumbnails = thumbnails;
+        this.related = related;
+        this.customers = customers;
+        this.logins = logins;
+        this.expirations = expirations;
+        this.recentStores = recentStores;
+        this.recentOrders = recentOrders;
+        this.ratings = ratings;
+        this.stores = stores;
+    }
+
+    /**
+     * Captura o estado atual. Deve ser chamado sem ações em andamento.
+     *
+     * @param bookstores As livrarias.
+     * @param journalOffset A posição do journal após a última ação aplicada.
+     * @return O retrato.
+     */
+    static BookstoreSnapshot capture(List<Bookstore> bookstores, long journalOffset) {
+        Book[] books = Bookstore.booksById.toArray(new Book[0]);
+        long[] pubDates = new long[books.length];
+        String[] images = new String[books.length];
+        String[] thumbnails = new String[books.length];
+        int[] related = new int[books.length * 5];
+        for (int b = 0; b < books.length; b++) {
+            Book book = books[b];
+            pubDates[b] = time(book.getPubDate());
+            images[b] = book.getImage();
+            thumbnails[b] = book.getThumbnail();
+            Book[] relatedBooks = {book.getRelated1(), book.getRelated2(), book.getRelated3(),
+                book.getRelated4(), book.getRelated5()};
+            for (int r = 0; r < 5; r++) {
+                related[b * 5 + r] = relatedBooks[r] == null ? NONE : relatedBooks[r].getId();
+            }
+        }
+        Customer[] customers = Bookstore.customers().toArray(new Customer[0]);
+        long[] logins = new long[customers.length];
+        long[] expirations = new long[customers.length];
+        for (int c = 0; c < customers.length; c++) {
+            logins[c] = time(customers[c].getLogin());
+            expirations[c] = time(customers[c].getExpiration());
+        }
+        int[] recentStores = new int[customers.length];
+        int[] recentOrders = new int[customers.length];
+        Arrays.fill(recentStores, NONE);
+        Arrays.fill(recentOrders, NONE);
+        Store[] stores = new Store[bookstores.size()];
+        for (int s = 0; s < stores.length; s++) {
+            Bookstore bookstore = bookstores.get(s);
+            Stock[] stocks = bookstore.getStocks().toArray(new Stock[0]);
+            int[] quantities = new int[stocks.length];
+            double[] costs = new double[stocks.length];
+            for (int i = 0; i < stocks.length; i++) {
+                quantities[i] = stocks[i].getQty();
+                costs[i] = stocks[i].getCost();
+            }
+            Cart[] carts = bookstore.getCarts().toArray(new Cart[0]);
+            long[] cartTimes = new long[carts.length];
+            int[][] cartLines = new int[carts.length][];
+            for (int c = 0; c < carts.length; c++) {
+                cartTimes[c] = time(carts[c].getTime());
+                Collection<CartLine> lines = carts[c].getLines();
+                int[] pairs = new int[lines.size() * 2];
+                int p = 0;
+                for (CartLine line : lines) {
+                    pairs[p++] = line.getBook().getId();
+                    pairs[p++] = line.getQty();
+                }
+                cartLines[c] = pairs;
+            }
+            Order[] orders = bookstore.getOrdersById().toArray(new Order[0]);
+            StatusTypes[] statuses = new StatusTypes[orders.length];
+            for (int o = 0; o < orders.length; o++) {
+                Order order = orders[o];
+                statuses[o] = order.getStatus();
+                Customer customer = order.getCustomer();
+                if (customer.getId() < customers.length && customer.getMostRecentOrder() == order) {
+                    recentStores[customer.getId()] = s;
+                    recentOrders[customer.getId()] = o;
+                }
+            }
+            stores[s] = new Store(bookstore.getId(), stocks, quantities, costs, cartTimes,
+                    cartLines, orders, statuses);
+        }
+        return new BookstoreSnapshot(journalOffset,
+                Bookstore.countries().toArray(new Country[0]),
+                Bookstore.addresses().toArray(new Address[0]),
+                Bookstore.authors().toArray(new Author[0]),
+                books, pubDates, images, thumbnails, related, customers, logins, expirations,
+                recentStores, recentOrders, Bookstore.ratings.toArray(new Rating[0]), stores);
+    }
+
+    /**
+     * @return A posição do journal de onde a recuperação continua.
+     */
+    long journalOffset() {
+        return journalOffset;
+    }
+
+    /**
+     * Grava o retrato, substituindo o arquivo só quando a gravação termina.
+     *
+     * @param file O arquivo.
+     * @throws IOException Se a gravação falhar.
+     */
+    void write(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                Encoder out = new Encoder(channel);
+                encode(out);
+                out.finish();
+                channel.force(true);
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void encode(Encoder out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(journalOffset);
+        out.writeVar(countries.length);
+        for (Country country : countries) {
+            out.writeString(country.getName());
+            out.writeString(country.getCurrency());
+            out.writeDouble(country.getExchange());
+        }
+        out.writeVar(addresses.length);
+        for (Address address : addresses) {
+            out.writeString(address.getStreet1());
+            out.writeString(address.getStreet2());
+            out.writeString(address.getCity());
+            out.writeString(address.getState());
+            out.writeString(address.getZip());
+            out.writeVar(address.getCountry().getId());
+        }
+        Map<Author, Integer> authorIds = new IdentityHashMap<>();
+        out.writeVar(authors.length);
+        for (Author author : authors) {
+            authorIds.put(author, authorIds.size());
+            out.writeString(author.getFname());
+            out.writeString(author.getMname());
+            out.writeString(author.getLname());
+            out.writeDate(time(author.getBirthdate()));
+            out.writeString(author.getBio());
+        }
+        out.writeVar(books.length);
+        for (int b = 0; b < books.length; b++) {
+            Book book = books[b];
+            out.writeString(book.getTitle());
+            out.writeDate(pubDates[b]);
+            out.writeString(book.getPublisher());
+            out.writeByte(book.getSubject().ordinal());
+            out.writeString(book.getDesc());
+            out.writeString(thumbnails[b]);
+            out.writeString(images[b]);
+            out.writeDouble(book.getSrp());
+            out.writeDate(time(book.getAvail()));
+            out.writeString(book.getIsbn());
+            out.writeVar(book.getPage());
+            out.writeByte(book.getBacking().ordinal());
+            int[] dimensions = book.getDimensions();
+            out.writeVar(dimensions.length);
+            for (int dimension : dimensions) {
+                out.writeVar(dimension);
+            }
+            out.writeDouble(book.getWeight());
+            out.writeVar(authorIds.get(book.getAuthor()));
+            for (int r = 0; r < 5; r++) {
+                out.writeVar(related[b * 5 + r] + 1);
+            }
+        }
+        out.writeVar(customers.length);
+        for (int c = 0; c < customers.length; c++) {
+            Customer customer = customers[c];
+            out.writeString(customer.getUname());
+            out.writeString(customer.getPasswd());
+            out.writeString(customer.getFname());
+            out.writeString(customer.getLname());
+            out.writeString(customer.getPhone());
+            out.writeString(customer.getEmail());
+            out.writeDate(time(customer.getSince()));
+            out.writeDate(time(customer.getLastVisit()));
+            out.writeDate(logins[c]);
+            out.writeDate(expirations[c]);
+            out.writeDouble(customer.getDiscount());
+            out.writeDouble(customer.getBalance());
+            out.writeDouble(customer.getYtdPmt());
+            out.writeDate(time(customer.getBirthdate()));
+            out.writeString(customer.getData());
+            out.writeVar(customer.getAddress().getId());
+            out.writeVar(recentStores[c] + 1);
+            out.writeVar(recentOrders[c] + 1);
+        }
+        out.writeVar(ratings.length);
+        for (Rating rating : ratings) {
+            out.writeVar(rating.getCustomer().getId());
+            out.writeVar(rating.getBook().getId());
+            out.writeByte(rating.getRating());
+        }
+        out.writeVar(stores.length);
+        for (Store store : stores) {
+            out.writeVar(store.id);
+            out.writeVar(store.stocks.length);
+            for (int i = 0; i < store.stocks.length; i++) {
+                Stock stock = store.stocks[i];
+                out.writeVar(stock.getBook().getId());
+                out.writeVar(stock.getAddress().getId());
+                out.writeDouble(store.costs[i]);
+                out.writeVar(store.quantities[i]);
+            }
+            out.writeVar(store.cartTimes.length);
+            for (int c = 0; c < store.cartTimes.length; c++) {
+                out.writeDate(store.cartTimes[c]);
+                int[] pairs = store.cartLines[c];
+                out.writeVar(pairs.length / 2);
+                for (int value : pairs) {
+                    out.writeVar(value);
+                }
+            }
+            out.writeVar(store.orders.length);
+            for (int o = 0; o < store.orders.length; o++) {
+                encodeOrder(out, store.orders[o], store.statuses[o]);
+            }
+        }
+    }
+
+    private static void encodeOrder(Encoder out, Order order, StatusTypes status) throws IOException {
+        out.writeVar(order.getCustomer().getId());
+        out.writeDate(time(order.getDate()));
+        out.writeDouble(order.getSubtotal());
+        out.writeDouble(order.getTax());
+        out.writeDouble(order.getTotal());
+        out.writeByte(order.getShipType().ordinal());
+        out.writeDate(time(order.getShipDate()));
+        out.writeByte(status.ordinal());
+        out.writeVar(order.getBillingAddress().getId());
+        out.writeVar(order.getShippingAddress().getId());
+        CCTransaction cc = order.getCC();
+        out.writeByte(cc.getType().ordinal());
+        out.writeLong(cc.getNum());
+        out.writeString(cc.getName());
+        out.writeDate(time(cc.getExpire()));
+        out.writeString(cc.getAuthId());
+        out.writeDouble(cc.getAmount());
+        out.writeDate(time(cc.getDate()));
+        out.writeVar(cc.getCountry().getId());
+        List<OrderLine> lines = order.getLines();
+        out.writeVar(lines.size());
+        // o comentário da compra se repete em todas as linhas
+        String comment = null;
+        for (OrderLine line : lines) {
+            out.writeVar(line.getBook().getId());
+            out.writeVar(line.getQty());
+            out.writeDouble(line.getDiscount());
+            out.writeDouble(line.getPrice());
+            boolean repeated = line.getComments() == comment
+                    || (comment != null && comment.equals(line.getComments()));
+            out.writeByte(repeated ? 1 : 0);
+            if (!repeated) {
+                out.writeString(line.getComments());
+                comment = line.getComments();
+            }
+        }
+    }
+
+    /**
+     * Lê um retrato gravado, sem aplicá-lo.
+     *
+     * @param file O arquivo.
+     * @return O retrato.
+     * @throws IOException Se o arquivo não puder ser lido, for de outra
+     * versão ou estiver corrompido.
+     */
+    static BookstoreSnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            verify(file, channel);
+            Decoder in = new Decoder(channel.position(0));
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " não é um checkpoint do Bookmarket.");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Versão de checkpoint não suportada: " + version + ".");
+            }
+            return decode(in);
+        }
+    }
+
+    /**
+     * Confere o CRC do arquivo inteiro antes de decodificá-lo, de modo que um
+     * arquivo corrompido não chega a ser aplicado.
+     */
+    private static void verify(Path file, FileChannel channel) throws IOException {
+        long size = channel.size() - Integer.BYTES;
+        if (size < 2 * Integer.BYTES) {
+            throw new IOException("Checkpoint " + file + " incompleto.");
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+        long position = 0;
+        while (position < size) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Checkpoint " + file + " incompleto.");
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+        while (trailer.hasRemaining()) {
+            if (channel.read(trailer, size + trailer.position()) < 0) {
+                throw new IOException("Checkpoint " + file + " incompleto.");
+            }
+        }
+        if (trailer.getInt(0) != (int) crc.getValue()) {
+            throw new IOException("Checkpoint " + file + " corrompido.");
+        }
+    }
+
+    private static BookstoreSnapshot decode(Decoder in) throws IOException {
+        long journalOffset = in.readLong();
+        Country[] countries = new Country[in.readVar()];
+        for (int i = 0; i < countries.length; i++) {
+            countries[i] = new Country(i, in.readString(), in.readString(), in.readDouble());
+        }
+        Address[] addresses = new Address[in.readVar()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = new Address(i, in.readString(), in.readString(), in.readString(),
+                    in.readString(), in.readString(), countries[in.readVar()]);
+        }
+        Author[] authors = new Author[in.readVar()];
+        for (int i = 0; i < authors.length; i++) {
+            authors[i] = new Author(in.readString(), in.readString(), in.readString(),
+                    in.readDate(), in.readString());
+        }
+        Book[] books = new Book[in.readVar()];
+        int[] related = new int[books.length * 5];
+        for (int i = 0; i < books.length; i++) {
+            String title = in.readString();
+            Date pubDate = in.readDate();
+            String publisher = in.readString();
+            SUBJECTS subject = SUBJECTS.values()[in.readByte()];
+            String desc = in.readString();
+            String thumbnail = in.readString();
+            String image = in.readString();
+            double srp = in.readDouble();
+            Date avail = in.readDate();
+            String isbn = in.readString();
+            int page = in.readVar();
+            BACKINGS backing = BACKINGS.values()[in.readByte()];
+            int[] dimensions = new int[in.readVar()];
+            for (int d = 0; d < dimensions.length; d++) {
+                dimensions[d] = in.readVar();
+            }
+            double weight = in.readDouble();
+            Author author = authors[in.readVar()];
+            books[i] = new Book(i, title, pubDate, publisher, subject, desc, thumbnail, image,
+                    srp, avail, isbn, page, backing, dimensions, weight, author);
+            for (int r = 0; r < 5; r++) {
+                related[i * 5 + r] = in.readVar() - 1;
+            }
+        }
+        for (int i = 0; i < books.length; i++) {
+            books[i].setRelated1(relatedBook(books, related[i * 5]));
+            books[i].setRelated2(relatedBook(books, related[i * 5 + 1]));
+            books[i].setRelated3(relatedBook(books, related[i * 5 + 2]));
+            books[i].setRelated4(relatedBook(books, related[i * 5 + 3]));
+            books[i].setRelated5(relatedBook(books, related[i * 5 + 4]));
+        }
+        Customer[] customers = new Customer[in.readVar()];
+        int[] recentStores = new int[customers.length];
+        int[] recentOrders = new int[customers.length];
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = new Customer(i, in.readString(), in.readString(), in.readString(),
+                    in.readString(), in.readString(), in.readString(), in.readDate(),
+                    in.readDate(), in.readDate(), in.readDate(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDate(), in.readString(),
+                    addresses[in.readVar()]);
+            recentStores[i] = in.readVar() - 1;
+            recentOrders[i] = in.readVar() - 1;
+        }
+        Rating[] ratings = new Rating[in.readVar()];
+        for (int i = 0; i < ratings.length; i++) {
+            ratings[i] = new Rating(customers[in.readVar()], books[in.readVar()], in.readByte());
+        }
+        Store[] stores = new Store[in.readVar()];
+        for (int s = 0; s < stores.length; s++) {
+            int id = in.readVar();
+            Stock[] stocks = new Stock[in.readVar()];
+            for (int i = 0; i < stocks.length; i++) {
+                Book book = books[in.readVar()];
+                Address address = addresses[in.readVar()];
+                double cost = in.readDouble();
+                stocks[i] = new Stock(id, address, book, cost, in.readVar());
+            }
+            int carts = in.readVar();
+            long[] cartTimes = new long[carts];
+            int[][] cartLines = new int[carts][];
+            for (int c = 0; c < carts; c++) {
+                cartTimes[c] = time(in.readDate());
+                cartLines[c] = new int[in.readVar() * 2];
+                for (int p = 0; p < cartLines[c].length; p++) {
+                    cartLines[c][p] = in.readVar();
+                }
+            }
+            Order[] orders = new Order[in.readVar()];
+            StatusTypes[] statuses = new StatusTypes[orders.length];
+            for (int o = 0; o < orders.length; o++) {
+                orders[o] = decodeOrder(in, o, customers, addresses, countries, books);
+                statuses[o] = orders[o].getStatus();
+            }
+            stores[s] = new Store(id, stocks, null, null, cartTimes, cartLines, orders, statuses);
+        }
+        return new BookstoreSnapshot(journalOffset, countries, addresses, authors, books, null,
+                null, null, null, customers, null, null, recentStores, recentOrders, ratings, stores);
+    }
+
+    private static Order decodeOrder(Decoder in, int id, Customer[] customers, Address[] addresses,
+            Country[] countries, Book[] books) throws IOException {
+        Customer customer = customers[in.readVar()];
+        Date date = in.readDate();
+        double subtotal = in.readDouble();
+        double tax = in.readDouble();
+        double total = in.readDouble();
+        ShipTypes shipType = ShipTypes.values()[in.readByte()];
+        Date shipDate = in.readDate();
+        StatusTypes status = StatusTypes.values()[in.readByte()];
+        Address billing = addresses[in.readVar()];
+        Address shipping = addresses[in.readVar()];
+        CCTransaction cc = new CCTransaction(CreditCards.values()[in.readByte()], in.readLong(),
+                in.readString(), in.readDate(), in.readString(), in.readDouble(), in.readDate(),
+                countries[in.readVar()]);
+        OrderLine[] lines = new OrderLine[in.readVar()];
+        String comment = null;
+        for (int l = 0; l < lines.length; l++) {
+            Book book = books[in.readVar()];
+            int qty = in.readVar();
+            double discount = in.readDouble();
+            double price = in.readDouble();
+            if (in.readByte() == 0) {
+                comment = in.readString();
+            }
+            lines[l] = new OrderLine(book, qty, discount, comment, price);
+        }
+        return new Order(id, customer, date, subtotal, tax, total, shipType, shipDate, status,
+                billing, shipping, cc, Arrays.asList(lines));
+    }
+
+    private static Book relatedBook(Book[] books, int id) {
+        return id == NONE ? null : books[id];
+    }
+
+    /**
+     * Substitui o estado global e carrega o de cada livraria, que deve estar
+     * vazia e ter o mesmo id da gravada.
+     *
+     * @param bookstores As livrarias.
+     */
+    void restore(List<Bookstore> bookstores) {
+        Bookstore[] targets = new Bookstore[stores.length];
+        for (int s = 0; s < stores.length; s++) {
+            int id = stores[s].id;
+            targets[s] = bookstores.stream().filter(bookstore -> bookstore.getId() == id)
+                    .findFirst().orElseThrow(() -> new IllegalStateException(
+                    "O checkpoint tem a livraria " + id + ", que não existe."));
+        }
+        Bookstore.restoreCatalog(Arrays.asList(countries), Arrays.asList(addresses),
+                Arrays.asList(authors), Arrays.asList(books), Arrays.asList(customers),
+                Arrays.asList(ratings));
+        for (int s = 0; s < stores.length; s++) {
+            Store store = stores[s];
+            Map<Integer, Stock> stockByBook = new HashMap<>();
+            for (Stock stock : store.stocks) {
+                stockByBook.put(stock.getBook().getId(), stock);
+            }
+            List<Cart> carts = new ArrayList<>(store.cartTimes.length);
+            for (int c = 0; c < store.cartTimes.length; c++) {
+                Cart cart = new Cart(c, date(store.cartTimes[c]));
+                int[] pairs = store.cartLines[c];
+                for (int p = 0; p < pairs.length; p += 2) {
+                    cart.changeLine(stockByBook.get(pairs[p]), pairs[p + 1]);
+                }
+                carts.add(cart);
+            }
+            targets[s].restore(Arrays.asList(store.stocks), carts, Arrays.asList(store.orders));
+        }
+        for (int c = 0; c < customers.length; c++) {
+            if (recentStores[c] != NONE) {
+                customers[c].logOrder(stores[recentStores[c]].orders[recentOrders[c]]);
+            }
+        }
+    }
+
+    private static long time(Date date) {
+        return date == null ? Long.MIN_VALUE : date.getTime();
+    }
+
+    private static Date date(long time) {
+        return time == Long.MIN_VALUE ? null : new Date(time);
+    }
+
+    /**
+     * Escrita dos valores no formato do checkpoint: inteiros não negativos em
+     * tamanho variável (7 bits por byte), textos em UTF-8 precedidos do
+     * tamanho mais um (zero para {@code null}), datas em milissegundos e o
+     * restante em big-endian. Os valores vão para um buffer próprio, sem a
+     * sincronização dos streams do JDK, e o CRC é calculado a cada bloco.
+     */
+    private static final class Encoder {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+        private final CRC32 crc = new CRC32();
+
+        Encoder(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Grava o que resta no buffer e o CRC de tudo o que foi escrito.
+         */
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void writeByte(int value) throws IOException {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        void writeInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void writeDouble(double value) throws IOException {
+            ensure(Double.BYTES);
+            buffer.putDouble(value);
+        }
+
+        void writeVar(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void writeDate(long time) throws IOException {
+            // zigue-zague: datas anteriores a 1970 e a ausência ficam pequenas
+            writeVar(time << 1 ^ time >> 63);
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVar(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVar(bytes.length + 1L);
+            for (int offset = 0; offset < bytes.length;) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+    }
+
+    /**
+     * Leitura dos valores escritos por {@link Encoder}.
+     */
+    private static final class Decoder {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+
+        Decoder(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Checkpoint incompleto.");
+                }
+            }
+            buffer.flip();
+        }
+
+        int readByte() throws IOException {
+            require(1);
+            return buffer.get() & 0xFF;
+        }
+
+        int readInt() throws IOException {
+            require(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        long readLong() throws IOException {
+            require(Long.BYTES);
+            return buffer.getLong();
+        }
+
+        double readDouble() throws IOException {
+            require(Double.BYTES);
+            return buffer.getDouble();
+        }
+
+        int readVar() throws IOException {
+            long value = readVarLong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Inteiro fora do intervalo no checkpoint.");
+            }
+            return (int) value;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Inteiro mal formado no checkpoint.");
+        }
+
+        Date readDate() throws IOException {
+            long zigzag = readVarLong();
+            return date(zigzag >>> 1 ^ -(zigzag & 1));
+        }
+
+        String readString() throws IOException {
+            int length = readVar();
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            for (int offset = 0; offset < bytes.length;) {
+                require(1);
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.get(bytes, offset, chunk);
+                offset += chunk;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package servico;
+
+import java.util.Objects;
+
+/**
+ * Parâmetros da fatoração de matrizes de {@link RecommendationService}
+ * ({@link RecommendationService.Engine#FACTORIZATION}).
+ * <p>
+ * A nota de um cliente para um livro é aproximada pela média geral mais o
+ * produto escalar de dois vetores de {@code factors} fatores latentes, um do
+ * cliente e outro do livro. Os vetores são ajustados por mínimos quadrados
+ * alternados (ALS): a cada iteração, os vetores dos clientes são resolvidos
+ * com os dos livros fixos, e depois o contrário.
+ * <ul>
+ * <li>Mais fatores representam gostos mais variados, com custo de
+ * treinamento quadrático e de consulta linear no número de fatores.</li>
+ * <li>Mais iterações aproximam melhor as avaliações conhecidas.</li>
+ * <li>{@code lambda} penaliza vetores grandes, em proporção ao número de
+ * avaliações de cada cliente ou livro, e evita o sobreajuste.</li>
+ * </ul>
+ */
+public final class FactorizationParameters {
+
+    /**
+     * Parâmetros usados por
+     * {@link RecommendationService.Engine#FACTORIZATION}: 20 fatores, 10
+     * iterações e {@code lambda} de 0,05.
+     */
+    public static final FactorizationParameters DEFAULT = of(20, 10, 0.05);
+
+    static final int MAX_FACTORS = 256;
+
+    private final int factors;
+    private final int iterations;
+    private final double lambda;
+
+    private FactorizationParameters(int factors, int iterations, double lambda) {
+        if (factors < 1 || factors > MAX_FACTORS) {
+            throw new IllegalArgumentException("O número de fatores deve estar entre 1 e " + MAX_FACTORS + ".");
+        }
+        if (iterations < 1) {
+            throw new IllegalArgumentException("O número de iterações deve ser positivo.");
+        }
+        if (!(lambda > 0) || Double.isInfinite(lambda)) {
+            throw new IllegalArgumentException("A regularização deve ser positiva.");
+        }
+        this.factors = factors;
+        this.iterations = iterations;
+        this.lambda = lambda;
+    }
+
+    /**
+     * @param factors O número de fatores latentes, de 1 a 256.
+     * @param iterations O número de iterações do treinamento.
+     * @param lambda A regularização, positiva.
+     * @return Os parâmetros.
+     */
+    public static FactorizationParameters of(int factors, int iterations, double lambda) {
+        return new FactorizationParameters(factors, iterations, lambda);
+    }
+
+    public int getFactors() {
+        return factors;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public double getLambda() {
+        return lambda;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FactorizationParameters other = (FactorizationParameters) o;
+        return factors == other.factors && iterations == other.iterations
+                && Double.compare(lambda, other.lambda) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(factors, iterations, lambda);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ALS(fatores=%d, iterações=%d, lambda=%s)", factors, iterations, lambda);
+    }
+}
@@ -0,0 +1,365 @@
+package servico;
+
+import dominio.Book;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Índice invertido sobre os campos de texto dos livros (título, descrição,
+ * editora e ISBN), com ranqueamento BM25.
+ * <p>
+ * Cada termo aponta para uma lista de ocorrências comprimida: pares
+ * (intervalo entre documentos, frequência do termo) codificados como inteiros
+ * de tamanho variável. Os documentos recebem números crescentes, de modo que
+ * novas ocorrências são sempre acrescentadas ao final da lista.
+ * <p>
+ * A carga inicial divide o catálogo em blocos indexados em paralelo, que
+ * depois são concatenados termo a termo. Os campos indexados não mudam
+ * depois do cadastro ({@link Bookstore#updateBook} altera só imagem,
+ * miniatura e data), então o índice apenas cresce com os livros novos.
+ */
+final class FullTextIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int MIN_CHUNK = 1024;
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}");
+
+    private Map<String, Postings> postings = new HashMap<>();
+    private Book[] docs = new Book[16];
+    private int[] lengths = new int[16];
+    private int docCount;
+    private long totalLength;
+
+    /**
+     * Reconstrói o índice a partir de uma coleção de livros, indexando blocos
+     * do catálogo em paralelo.
+     *
+     * @param catalog Os livros a indexar.
+     */
+    void build(Collection<Book> catalog) {
+        Book[] books = catalog.toArray(new Book[0]);
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(),
+                books.length / MIN_CHUNK));
+        int chunkSize = (books.length + chunks - 1) / chunks;
+        int[] docLengths = new int[Math.max(books.length, 16)];
+        List<Map<String, Postings>> parts = IntStream.range(0, chunks).parallel()
+                .mapToObj(c -> indexChunk(books, c * chunkSize,
+                        Math.min(books.length, (c + 1) * chunkSize), docLengths))
+                .collect(Collectors.toList());
+        Set<String> vocabulary = new HashSet<>();
+        parts.forEach(part -> vocabulary.addAll(part.keySet()));
+        postings = vocabulary.parallelStream()
+                .collect(Collectors.toMap(term -> term, term -> concat(parts, term)));
+
+        docs = Arrays.copyOf(books, docLengths.length);
+        lengths = docLengths;
+        totalLength = 0;
+        for (int doc = 0; doc < books.length; doc++) {
+            totalLength += docLengths[doc];
+        }
+        docCount = books.length;
+    }
+
+    /**
+     * Indexa um livro novo.
+     *
+     * @param book O livro a indexar.
+     */
+    void add(Book book) {
+        if (docCount == docs.length) {
+            int capacity = docs.length + (docs.length >> 1);
+            docs = Arrays.copyOf(docs, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        int doc = docCount++;
+        Map<String, int[]> frequencies = new HashMap<>();
+        int length = tokenize(book, frequencies);
+        frequencies.forEach((term, tf) -> postings
+                .computeIfAbsent(term, t -> new Postings()).add(doc, tf[0]));
+        docs[doc] = book;
+        lengths[doc] = length;
+        totalLength += length;
+    }
+
+    /**
+     * Retorna os livros mais relevantes para a consulta, pelo escore BM25. A
+     * consulta é disjuntiva: basta um termo em comum para o livro concorrer.
+     *
+     * @param query Os termos procurados.
+     * @param limit O número máximo de livros retornados.
+     * @return Até {@code limit} livros, do mais para o menos relevante.
+     */
+    List<Book> search(String query, int limit) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String token : SEPARATORS.split(normalize(query))) {
+            if (!token.isEmpty()) {
+                terms.add(token);
+            }
+        }
+        if (terms.isEmpty() || docCount == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+        float averageLength = (float) totalLength / docCount;
+        List<Postings> lists = new ArrayList<>(terms.size());
+        int occurrences = 0;
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list != null) {
+                lists.add(list);
+                occurrences += list.docFreq;
+            }
+        }
+        if (lists.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Scores scores = new Scores(occurrences);
+        for (Postings list : lists) {
+            float idf = (float) Math.log(1 + (docCount - list.docFreq + 0.5) / (list.docFreq + 0.5));
+            list.forEach((doc, tf) -> {
+                float norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                scores.add(doc, idf * tf * (K1 + 1) / (tf + norm));
+            });
+        }
+        // ordena as posições em Scores, não os documentos
+        Comparator<Integer> ranking = (a, b) -> scores.score(a) != scores.score(b)
+                ? Float.compare(scores.score(b), scores.score(a))
+                : Integer.compare(docs[scores.doc(a)].getId(), docs[scores.doc(b)].getId());
+        PriorityQueue<Integer> top = new PriorityQueue<>(limit + 1, ranking.reversed());
+        for (int entry = 0; entry < scores.size(); entry++) {
+            top.add(entry);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        Book[] result = new Book[top.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = docs[scores.doc(top.poll())];
+        }
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    /**
+     * Indexa os livros do intervalo [from, to), numerados pela sua posição no
+     * arranjo. Cada bloco escreve apenas na sua faixa de {@code docLengths}.
+     */
+    private static Map<String, Postings> indexChunk(Book[] books, int from, int to,
+            int[] docLengths) {
+        Map<String, Postings> part = new HashMap<>();
+        Map<String, int[]> frequencies = new HashMap<>();
+        for (int doc = from; doc < to; doc++) {
+            frequencies.clear();
+            docLengths[doc] = tokenize(books[doc], frequencies);
+            for (Map.Entry<String, int[]> entry : frequencies.entrySet()) {
+                part.computeIfAbsent(entry.getKey(), t -> new Postings())
+                        .add(doc, entry.getValue()[0]);
+            }
+        }
+        return part;
+    }
+
+    private static Postings concat(List<Map<String, Postings>> parts, String term) {
+        Postings result = null;
+        for (Map<String, Postings> part : parts) {
+            Postings next = part.get(term);
+            if (next == null) {
+                continue;
+            }
+            if (result == null) {
+                result = next;
+            } else {
+                result.append(next);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Conta a frequência de cada termo do livro e retorna o total de termos.
+     */
+    private static int tokenize(Book book, Map<String, int[]> frequencies) {
+        int length = 0;
+        for (String field : new String[]{book.getTitle(), book.getDesc(),
+            book.getPublisher(), book.getIsbn()}) {
+            if (field == null) {
+                continue;
+            }
+            for (String token : SEPARATORS.split(normalize(field))) {
+                if (!token.isEmpty()) {
+                    frequencies.computeIfAbsent(token, t -> new int[1])[0]++;
+                    length++;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Remove acentos e converte para minúsculas. Textos puramente ASCII, a
+     * maioria no catálogo, não passam pela decomposição Unicode.
+     */
+    static String normalize(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7f) {
+                String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+                return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+            }
+        }
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Escores acumulados pelos documentos encontrados em uma consulta. Uma
+     * tabela de dispersão aberta leva o documento à sua posição nos arranjos
+     * densos; tudo é dimensionado pelas ocorrências dos termos consultados, e
+     * não pelo tamanho do catálogo.
+     */
+    private static final class Scores {
+
+        // posição + 1 nos arranjos densos; 0 se livre
+        private final int[] slots;
+        private final int[] docs;
+        private final float[] scores;
+        private int size;
+
+        Scores(int occurrences) {
+            slots = new int[Integer.highestOneBit(Math.max(2, occurrences * 2) - 1) << 1];
+            docs = new int[occurrences];
+            scores = new float[occurrences];
+        }
+
+        void add(int doc, float score) {
+            int mask = slots.length - 1;
+            int hash = doc * 0x9E3779B9;
+            for (int i = (hash ^ hash >>> 16) & mask;; i = (i + 1) & mask) {
+                int entry = slots[i] - 1;
+                if (entry < 0) {
+                    docs[size] = doc;
+                    scores[size] = score;
+                    slots[i] = ++size;
+                    return;
+                }
+                if (docs[entry] == doc) {
+                    scores[entry] += score;
+                    return;
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        int doc(int entry) {
+            return docs[entry];
+        }
+
+        float score(int entry) {
+            return scores[entry];
+        }
+    }
+
+    private interface PostingVisitor {
+
+        void visit(int doc, int tf);
+    }
+
+    /**
+     * Lista de ocorrências de um termo: para cada documento, o intervalo em
+     * relação ao documento anterior e a frequência do termo, ambos como
+     * inteiros de tamanho variável (7 bits por byte).
+     */
+    private static final class Postings {
+
+        private byte[] data = new byte[8];
+        private int length;
+        private int lastDoc = -1;
+        private int docFreq;
+
+        void add(int doc, int tf) {
+            writeVInt(doc - lastDoc);
+            writeVInt(tf);
+            lastDoc = doc;
+            docFreq++;
+        }
+
+        /**
+         * Acrescenta uma lista cujos documentos são todos posteriores aos
+         * desta. Só o primeiro intervalo precisa ser recodificado.
+         */
+        void append(Postings next) {
+            int position = 0;
+            int firstGap = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = next.data[position++];
+                firstGap |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            writeVInt(firstGap - 1 - lastDoc);
+            ensureCapacity(next.length - position);
+            System.arraycopy(next.data, position, data, length, next.length - position);
+            length += next.length - position;
+            lastDoc = next.lastDoc;
+            docFreq += next.docFreq;
+        }
+
+        void forEach(PostingVisitor visitor) {
+            int position = 0;
+            int doc = -1;
+            while (position < length) {
+                int gap = 0;
+                for (int shift = 0;; shift += 7) {
+                    byte b = data[position++];
+                    gap |= (b & 0x7f) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                int tf = 0;
+                for (int shift = 0;; shift += 7) {
+                    byte b = data[position++];
+                    tf |= (b & 0x7f) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                doc += gap;
+                visitor.visit(doc, tf);
+            }
+        }
+
+        private void writeVInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                data[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(length + extra, data.length << 1));
+            }
+        }
+    }
+}
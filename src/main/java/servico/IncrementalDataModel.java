@@ -0,0 +1,385 @@
+package servico;
+
+import dominio.Evaluation;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.stream.Stream;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * {@code DataModel} do Mahout que aceita inclusão, alteração e remoção de
+ * preferências sem ser reconstruído.
+ * <p>
+ * Mantém as mesmas estruturas do {@code GenericDataModel}: um
+ * {@link PreferenceArray} por usuário (ordenado por item) e um por item
+ * (ordenado por usuário), além dos ids de usuários e itens em ordem. Uma
+ * alteração reescreve apenas o arranjo do usuário e o do item envolvidos, em
+ * O(grau); os arranjos de ids só mudam quando um usuário ou item aparece ou
+ * deixa de existir.
+ * <p>
+ * Os limites de nota (máxima e mínima), usados pelo recomendador para limitar
+ * as estimativas, apenas se expandem com as alterações.
+ * <p>
+ * Os arranjos de preferências nunca são alterados depois de publicados, só
+ * substituídos; por isso uma {@link #copy() cópia} do modelo os compartilha e
+ * custa apenas a cópia dos mapas.
+ */
+final class IncrementalDataModel extends AbstractDataModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private final FastByIDMap<PreferenceArray> preferencesFromUsers = new FastByIDMap<>();
+    private final FastByIDMap<PreferenceArray> preferencesForItems = new FastByIDMap<>();
+    private long[] userIDs = new long[0];
+    private long[] itemIDs = new long[0];
+
+    IncrementalDataModel() {
+        setMaxPreference(Float.NEGATIVE_INFINITY);
+        setMinPreference(Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Cria o modelo com as avaliações informadas.
+     *
+     * @param evaluations As avaliações.
+     * @return O modelo.
+     */
+    static IncrementalDataModel of(Stream<Evaluation> evaluations) {
+        IncrementalDataModel model = new IncrementalDataModel();
+        FastByIDMap<FastByIDMap<Float>> byUser = new FastByIDMap<>();
+        FastByIDMap<FastByIDMap<Float>> byItem = new FastByIDMap<>();
+        evaluations.forEach(evaluation -> {
+            group(byUser, evaluation.getUserId()).put(evaluation.getBookId(), evaluation.getRating());
+            group(byItem, evaluation.getBookId()).put(evaluation.getUserId(), evaluation.getRating());
+            model.expandBounds(evaluation.getRating());
+        });
+        for (java.util.Map.Entry<Long, FastByIDMap<Float>> entry : byUser.entrySet()) {
+            PreferenceArray prefs = new GenericUserPreferenceArray(entry.getValue().size());
+            prefs.setUserID(0, entry.getKey());
+            fill(prefs, entry.getValue(), true);
+            prefs.sortByItem();
+            model.preferencesFromUsers.put(entry.getKey(), prefs);
+        }
+        for (java.util.Map.Entry<Long, FastByIDMap<Float>> entry : byItem.entrySet()) {
+            PreferenceArray prefs = new GenericItemPreferenceArray(entry.getValue().size());
+            prefs.setItemID(0, entry.getKey());
+            fill(prefs, entry.getValue(), false);
+            prefs.sortByUser();
+            model.preferencesForItems.put(entry.getKey(), prefs);
+        }
+        model.userIDs = sortedKeys(model.preferencesFromUsers);
+        model.itemIDs = sortedKeys(model.preferencesForItems);
+        return model;
+    }
+
+    /**
+     * Cria uma cópia independente do modelo: alterações em uma não aparecem na
+     * outra.
+     *
+     * @return A cópia.
+     */
+    IncrementalDataModel copy() {
+        IncrementalDataModel copy = new IncrementalDataModel();
+        copyInto(preferencesFromUsers, copy.preferencesFromUsers);
+        copyInto(preferencesForItems, copy.preferencesForItems);
+        copy.userIDs = userIDs;
+        copy.itemIDs = itemIDs;
+        copy.setMaxPreference(getMaxPreference());
+        copy.setMinPreference(getMinPreference());
+        return copy;
+    }
+
+    @Override
+    public LongPrimitiveIterator getUserIDs() {
+        return new LongPrimitiveArrayIterator(userIDs);
+    }
+
+    @Override
+    public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+        PreferenceArray prefs = preferencesFromUsers.get(userID);
+        if (prefs == null) {
+            throw new NoSuchUserException(userID);
+        }
+        return prefs;
+    }
+
+    @Override
+    public FastIDSet getItemIDsFromUser(long userID) throws NoSuchUserException {
+        PreferenceArray prefs = getPreferencesFromUser(userID);
+        FastIDSet result = new FastIDSet(prefs.length());
+        for (int i = 0; i < prefs.length(); i++) {
+            result.add(prefs.getItemID(i));
+        }
+        return result;
+    }
+
+    @Override
+    public LongPrimitiveIterator getItemIDs() {
+        return new LongPrimitiveArrayIterator(itemIDs);
+    }
+
+    @Override
+    public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+        PreferenceArray prefs = preferencesForItems.get(itemID);
+        if (prefs == null) {
+            throw new NoSuchItemException(itemID);
+        }
+        return prefs;
+    }
+
+    @Override
+    public Float getPreferenceValue(long userID, long itemID) throws NoSuchUserException {
+        PreferenceArray prefs = getPreferencesFromUser(userID);
+        int position = search(prefs, itemID, true);
+        return position < 0 ? null : prefs.getValue(position);
+    }
+
+    @Override
+    public Long getPreferenceTime(long userID, long itemID) {
+        return null;
+    }
+
+    @Override
+    public int getNumItems() {
+        return itemIDs.length;
+    }
+
+    @Override
+    public int getNumUsers() {
+        return userIDs.length;
+    }
+
+    @Override
+    public int getNumUsersWithPreferenceFor(long itemID) {
+        PreferenceArray prefs = preferencesForItems.get(itemID);
+        return prefs == null ? 0 : prefs.length();
+    }
+
+    @Override
+    public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+        PreferenceArray prefs1 = preferencesForItems.get(itemID1);
+        PreferenceArray prefs2 = preferencesForItems.get(itemID2);
+        if (prefs1 == null || prefs2 == null) {
+            return 0;
+        }
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < prefs1.length() && j < prefs2.length()) {
+            long user1 = prefs1.getUserID(i);
+            long user2 = prefs2.getUserID(j);
+            if (user1 < user2) {
+                i++;
+            } else if (user1 > user2) {
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Inclui ou altera a preferência, reescrevendo apenas os arranjos do
+     * usuário e do item.
+     */
+    @Override
+    public void setPreference(long userID, long itemID, float value) {
+        PreferenceArray userPrefs = preferencesFromUsers.get(userID);
+        if (userPrefs == null) {
+            userIDs = insert(userIDs, userID);
+        }
+        preferencesFromUsers.put(userID, upsert(userPrefs, userID, itemID, value, true));
+        PreferenceArray itemPrefs = preferencesForItems.get(itemID);
+        if (itemPrefs == null) {
+            itemIDs = insert(itemIDs, itemID);
+        }
+        preferencesForItems.put(itemID, upsert(itemPrefs, userID, itemID, value, false));
+        expandBounds(value);
+    }
+
+    /**
+     * Remove a preferência, descartando o usuário ou o item que ficar sem
+     * nenhuma.
+     */
+    @Override
+    public void removePreference(long userID, long itemID) {
+        PreferenceArray userPrefs = preferencesFromUsers.get(userID);
+        if (userPrefs == null || search(userPrefs, itemID, true) < 0) {
+            return;
+        }
+        PreferenceArray remaining = remove(userPrefs, itemID, true);
+        if (remaining == null) {
+            preferencesFromUsers.remove(userID);
+            userIDs = delete(userIDs, userID);
+        } else {
+            preferencesFromUsers.put(userID, remaining);
+        }
+        remaining = remove(preferencesForItems.get(itemID), userID, false);
+        if (remaining == null) {
+            preferencesForItems.remove(itemID);
+            itemIDs = delete(itemIDs, itemID);
+        } else {
+            preferencesForItems.put(itemID, remaining);
+        }
+    }
+
+    @Override
+    public boolean hasPreferenceValues() {
+        return true;
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+        // não há fonte externa: as alterações já são aplicadas diretamente
+    }
+
+    private void expandBounds(float value) {
+        if (value > getMaxPreference()) {
+            setMaxPreference(value);
+        }
+        if (value < getMinPreference()) {
+            setMinPreference(value);
+        }
+    }
+
+    /**
+     * Copia o arranjo com a preferência incluída ou alterada, mantendo a
+     * ordem por item (arranjo do usuário) ou por usuário (arranjo do item).
+     */
+    private static PreferenceArray upsert(PreferenceArray prefs, long userID, long itemID,
+            float value, boolean byItem) {
+        long key = byItem ? itemID : userID;
+        int length = prefs == null ? 0 : prefs.length();
+        int position = prefs == null ? -1 : search(prefs, key, byItem);
+        if (position >= 0) {
+            PreferenceArray updated = prefs.clone();
+            updated.setValue(position, value);
+            return updated;
+        }
+        int insertion = -position - 1;
+        PreferenceArray updated = byItem
+                ? new GenericUserPreferenceArray(length + 1)
+                : new GenericItemPreferenceArray(length + 1);
+        for (int i = 0, j = 0; i <= length; i++) {
+            if (i == insertion) {
+                set(updated, i, userID, itemID, value);
+            } else {
+                set(updated, i, prefs.getUserID(j), prefs.getItemID(j), prefs.getValue(j));
+                j++;
+            }
+        }
+        return updated;
+    }
+
+    private static PreferenceArray remove(PreferenceArray prefs, long key, boolean byItem) {
+        int position = search(prefs, key, byItem);
+        int length = prefs.length();
+        if (length == 1) {
+            return null;
+        }
+        PreferenceArray updated = byItem
+                ? new GenericUserPreferenceArray(length - 1)
+                : new GenericItemPreferenceArray(length - 1);
+        for (int i = 0, j = 0; i < length; i++) {
+            if (i != position) {
+                set(updated, j++, prefs.getUserID(i), prefs.getItemID(i), prefs.getValue(i));
+            }
+        }
+        return updated;
+    }
+
+    private static void set(PreferenceArray prefs, int i, long userID, long itemID, float value) {
+        prefs.setUserID(i, userID);
+        prefs.setItemID(i, itemID);
+        prefs.setValue(i, value);
+    }
+
+    /**
+     * Busca binária pelo item (ou usuário) no arranjo ordenado; segue a
+     * convenção de {@link Arrays#binarySearch(long[], long)}.
+     */
+    private static int search(PreferenceArray prefs, long key, boolean byItem) {
+        int low = 0;
+        int high = prefs.length() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long id = byItem ? prefs.getItemID(mid) : prefs.getUserID(mid);
+            if (id < key) {
+                low = mid + 1;
+            } else if (id > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static long[] insert(long[] ids, long id) {
+        int position = -Arrays.binarySearch(ids, id) - 1;
+        long[] updated = new long[ids.length + 1];
+        System.arraycopy(ids, 0, updated, 0, position);
+        updated[position] = id;
+        System.arraycopy(ids, position, updated, position + 1, ids.length - position);
+        return updated;
+    }
+
+    private static long[] delete(long[] ids, long id) {
+        int position = Arrays.binarySearch(ids, id);
+        long[] updated = new long[ids.length - 1];
+        System.arraycopy(ids, 0, updated, 0, position);
+        System.arraycopy(ids, position + 1, updated, position, updated.length - position);
+        return updated;
+    }
+
+    private static void copyInto(FastByIDMap<PreferenceArray> from, FastByIDMap<PreferenceArray> to) {
+        for (java.util.Map.Entry<Long, PreferenceArray> entry : from.entrySet()) {
+            to.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static FastByIDMap<Float> group(FastByIDMap<FastByIDMap<Float>> groups, long key) {
+        FastByIDMap<Float> group = groups.get(key);
+        if (group == null) {
+            group = new FastByIDMap<>();
+            groups.put(key, group);
+        }
+        return group;
+    }
+
+    private static void fill(PreferenceArray prefs, FastByIDMap<Float> values, boolean byItem) {
+        int i = 0;
+        for (java.util.Map.Entry<Long, Float> entry : values.entrySet()) {
+            if (byItem) {
+                prefs.setItemID(i, entry.getKey());
+            } else {
+                prefs.setUserID(i, entry.getKey());
+            }
+            prefs.setValue(i, entry.getValue());
+            i++;
+        }
+    }
+
+    private static long[] sortedKeys(FastByIDMap<?> map) {
+        long[] keys = new long[map.size()];
+        LongPrimitiveIterator i = map.keySetIterator();
+        for (int j = 0; j < keys.length; j++) {
+            keys[j] = i.nextLong();
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+}
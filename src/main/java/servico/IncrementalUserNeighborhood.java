@@ -0,0 +1,75 @@
+package servico;
+
+import java.util.Collection;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+
+/**
+ * Vizinhança de usuários que guarda o resultado calculado para cada usuário
+ * e permite descartá-lo usuário a usuário.
+ * <p>
+ * Ao contrário do {@code CachingUserNeighborhood} do Mahout, que só sabe
+ * descartar tudo, aqui uma avaliação alterada invalida apenas as vizinhanças
+ * que podem ter mudado (ver {@link RecommendationService#upsertRating}).
+ */
+final class IncrementalUserNeighborhood implements UserNeighborhood {
+
+    private final UserNeighborhood delegate;
+    private final FastByIDMap<long[]> neighborhoods = new FastByIDMap<>();
+
+    IncrementalUserNeighborhood(UserNeighborhood delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Cria a vizinhança de um novo modelo aproveitando as vizinhanças já
+     * calculadas no anterior; cabe ao chamador invalidar as que mudaram.
+     *
+     * @param delegate A vizinhança sobre o novo modelo.
+     * @param previous A vizinhança do modelo anterior.
+     */
+    IncrementalUserNeighborhood(UserNeighborhood delegate, IncrementalUserNeighborhood previous) {
+        this(delegate);
+        synchronized (previous.neighborhoods) {
+            for (java.util.Map.Entry<Long, long[]> entry : previous.neighborhoods.entrySet()) {
+                neighborhoods.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public long[] getUserNeighborhood(long userID) throws TasteException {
+        synchronized (neighborhoods) {
+            long[] neighborhood = neighborhoods.get(userID);
+            if (neighborhood != null) {
+                return neighborhood;
+            }
+        }
+        long[] neighborhood = delegate.getUserNeighborhood(userID);
+        synchronized (neighborhoods) {
+            neighborhoods.put(userID, neighborhood);
+        }
+        return neighborhood;
+    }
+
+    /**
+     * Descarta a vizinhança calculada de um usuário.
+     *
+     * @param userID O id do usuário.
+     */
+    void invalidate(long userID) {
+        synchronized (neighborhoods) {
+            neighborhoods.remove(userID);
+        }
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+        synchronized (neighborhoods) {
+            neighborhoods.clear();
+        }
+        delegate.refresh(alreadyRefreshed);
+    }
+}
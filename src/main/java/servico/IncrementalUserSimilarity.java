@@ -0,0 +1,97 @@
+package servico;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.LongPair;
+
+/**
+ * Similaridade entre usuários que guarda os pares já calculados e permite
+ * descartá-los usuário a usuário.
+ * <p>
+ * Ao contrário do {@code CachingUserSimilarity} do Mahout, os pares calculados
+ * passam para a similaridade do modelo seguinte, que descarta apenas os pares
+ * dos usuários cujas avaliações mudaram (ver
+ * {@link MahoutRecommenderEngine#apply}). Depois de {@code maxSize} pares, os
+ * novos deixam de ser guardados.
+ */
+final class IncrementalUserSimilarity implements UserSimilarity {
+
+    private final UserSimilarity delegate;
+    private final int maxSize;
+    private final Map<LongPair, Double> similarities = new HashMap<>();
+
+    IncrementalUserSimilarity(UserSimilarity delegate, int maxSize) {
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Cria a similaridade de um novo modelo aproveitando os pares já
+     * calculados no anterior; cabe ao chamador invalidar os que mudaram.
+     *
+     * @param delegate A similaridade sobre o novo modelo.
+     * @param previous A similaridade do modelo anterior.
+     */
+    IncrementalUserSimilarity(UserSimilarity delegate, IncrementalUserSimilarity previous) {
+        this(delegate, previous.maxSize);
+        synchronized (previous.similarities) {
+            similarities.putAll(previous.similarities);
+        }
+    }
+
+    @Override
+    public double userSimilarity(long userID1, long userID2) throws TasteException {
+        LongPair key = userID1 < userID2 ? new LongPair(userID1, userID2) : new LongPair(userID2, userID1);
+        synchronized (similarities) {
+            Double similarity = similarities.get(key);
+            if (similarity != null) {
+                return similarity;
+            }
+        }
+        double similarity = delegate.userSimilarity(userID1, userID2);
+        synchronized (similarities) {
+            if (similarities.size() < maxSize) {
+                similarities.put(key, similarity);
+            }
+        }
+        return similarity;
+    }
+
+    /**
+     * Descarta, numa só passada, os pares calculados que envolvem algum dos
+     * usuários.
+     *
+     * @param userIDs Os ids dos usuários.
+     */
+    void invalidate(FastIDSet userIDs) {
+        if (userIDs.isEmpty()) {
+            return;
+        }
+        synchronized (similarities) {
+            similarities.keySet().removeIf(
+                    pair -> userIDs.contains(pair.getFirst()) || userIDs.contains(pair.getSecond()));
+        }
+    }
+
+    @Override
+    public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+        synchronized (similarities) {
+            similarities.clear();
+        }
+        delegate.setPreferenceInferrer(inferrer);
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+        synchronized (similarities) {
+            similarities.clear();
+        }
+        delegate.refresh(alreadyRefreshed);
+    }
+}
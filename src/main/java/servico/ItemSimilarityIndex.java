@@ -0,0 +1,453 @@
+package servico;
+
+import dominio.Evaluation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * Recomendação baseada em itens com os vizinhos de cada livro calculados de
+ * antemão.
+ * <p>
+ * Na construção, as avaliações são organizadas em duas matrizes esparsas no
+ * formato CSR (arranjos primitivos de deslocamentos, índices e notas): livro →
+ * avaliadores e avaliador → livros. A similaridade de cosseno ajustado (notas
+ * centradas na média de cada cliente) é calculada em paralelo, com fork/join
+ * sobre faixas de livros, e apenas entre pares de livros com algum avaliador
+ * em comum. Para cada livro ficam os {@code k} vizinhos mais similares, também
+ * em arranjos primitivos.
+ * <p>
+ * Uma recomendação apenas combina as listas de vizinhos dos livros avaliados
+ * pelo cliente: a nota estimada de um livro é a média das notas do cliente
+ * ponderada pelas similaridades. O índice é imutável e pode ser consultado por
+ * várias threads; o perfil do cliente é informado a cada consulta, de modo que
+ * avaliações feitas depois da construção já são consideradas.
+ */
+final class ItemSimilarityIndex {
+
+    private static final int LEAF_ITEMS = 64;
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private final long[] itemIds;
+    private final int[] neighborOffsets;
+    private final int[] neighbors;
+    private final float[] similarities;
+
+    private ItemSimilarityIndex(long[] itemIds, int[] neighborOffsets, int[] neighbors,
+            float[] similarities) {
+        this.itemIds = itemIds;
+        this.neighborOffsets = neighborOffsets;
+        this.neighbors = neighbors;
+        this.similarities = similarities;
+    }
+
+    /**
+     * Constrói o índice a partir das avaliações.
+     *
+     * @param evaluations As avaliações.
+     * @param k O número máximo de vizinhos guardados por livro.
+     * @return O índice.
+     */
+    static ItemSimilarityIndex build(Stream<Evaluation> evaluations, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("O número de vizinhos deve ser positivo.");
+        }
+        Evaluation[] all = evaluations.toArray(Evaluation[]::new);
+        long[] itemIds = distinct(all, false);
+        long[] userIds = distinct(all, true);
+        Matrix byUser = Matrix.of(all, userIds, itemIds, true);
+        Matrix byItem = Matrix.of(all, itemIds, userIds, false);
+        // centraliza as notas na média de cada cliente
+        float[] means = new float[userIds.length];
+        for (int u = 0; u < userIds.length; u++) {
+            float sum = 0;
+            for (int p = byUser.offsets[u]; p < byUser.offsets[u + 1]; p++) {
+                sum += byUser.values[p];
+            }
+            means[u] = sum / (byUser.offsets[u + 1] - byUser.offsets[u]);
+        }
+        byUser.center(means, true);
+        byItem.center(means, false);
+        double[] norms = new double[itemIds.length];
+        for (int i = 0; i < itemIds.length; i++) {
+            double sum = 0;
+            for (int p = byItem.offsets[i]; p < byItem.offsets[i + 1]; p++) {
+                sum += byItem.values[p] * byItem.values[p];
+            }
+            norms[i] = Math.sqrt(sum);
+        }
+
+        int[][] topNeighbors = new int[itemIds.length][];
+        float[][] topSimilarities = new float[itemIds.length][];
+        ForkJoinPool.commonPool().invoke(new SimilarityTask(byItem, byUser, norms, k,
+                topNeighbors, topSimilarities, 0, itemIds.length));
+
+        int[] offsets = new int[itemIds.length + 1];
+        for (int i = 0; i < itemIds.length; i++) {
+            offsets[i + 1] = offsets[i] + topNeighbors[i].length;
+        }
+        int[] neighbors = new int[offsets[itemIds.length]];
+        float[] similarities = new float[neighbors.length];
+        for (int i = 0; i < itemIds.length; i++) {
+            System.arraycopy(topNeighbors[i], 0, neighbors, offsets[i], topNeighbors[i].length);
+            System.arraycopy(topSimilarities[i], 0, similarities, offsets[i], topSimilarities[i].length);
+        }
+        return new ItemSimilarityIndex(itemIds, offsets, neighbors, similarities);
+    }
+
+    /**
+     * Recomenda livros para um cliente a partir das notas que ele deu.
+     *
+     * @param ratedItems Os ids dos livros avaliados pelo cliente.
+     * @param ratings As notas, na mesma ordem.
+     * @param howMany O número máximo de livros recomendados.
+     * @return Os ids dos livros, da maior para a menor nota estimada; os
+     * livros já avaliados nunca são recomendados.
+     */
+    List<Long> recommend(long[] ratedItems, float[] ratings, int howMany) {
+        if (ratedItems.length != ratings.length) {
+            throw new IllegalArgumentException("Cada livro avaliado deve ter uma nota.");
+        }
+        int[] rated = new int[ratedItems.length];
+        for (int r = 0; r < ratedItems.length; r++) {
+            rated[r] = Arrays.binarySearch(itemIds, ratedItems[r]);
+        }
+        Workspace work = WORKSPACE.get();
+        work.ensureCapacity(itemIds.length);
+        int stamp = work.nextStamp();
+        float[] weightedSum = work.weightedSum;
+        float[] weights = work.weights;
+        int[] touched = work.touched;
+        for (int i : rated) {
+            if (i >= 0) {
+                work.excluded[i] = stamp;
+            }
+        }
+        int touchedCount = 0;
+        for (int r = 0; r < rated.length; r++) {
+            int i = rated[r];
+            if (i < 0) {
+                continue; // livro sem vizinhos calculados
+            }
+            for (int p = neighborOffsets[i]; p < neighborOffsets[i + 1]; p++) {
+                int j = neighbors[p];
+                if (work.excluded[j] == stamp) {
+                    continue;
+                }
+                if (work.seen[j] != stamp) {
+                    work.seen[j] = stamp;
+                    weightedSum[j] = 0;
+                    weights[j] = 0;
+                    touched[touchedCount++] = j;
+                }
+                weightedSum[j] += similarities[p] * ratings[r];
+                weights[j] += similarities[p];
+            }
+        }
+        TopItems top = new TopItems(howMany);
+        for (int t = 0; t < touchedCount; t++) {
+            int j = touched[t];
+            top.offer(j, weightedSum[j] / weights[j]);
+        }
+        int[] best = top.sorted();
+        List<Long> result = new ArrayList<>(best.length);
+        for (int j : best) {
+            result.add(itemIds[j]);
+        }
+        return result;
+    }
+
+    /**
+     * @param itemId O id do livro.
+     * @return Os ids dos vizinhos do livro, do mais para o menos similar.
+     */
+    List<Long> neighborsOf(long itemId) {
+        int i = Arrays.binarySearch(itemIds, itemId);
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+        List<Long> result = new ArrayList<>(neighborOffsets[i + 1] - neighborOffsets[i]);
+        for (int p = neighborOffsets[i]; p < neighborOffsets[i + 1]; p++) {
+            result.add(itemIds[neighbors[p]]);
+        }
+        return result;
+    }
+
+    private static long[] distinct(Evaluation[] evaluations, boolean users) {
+        long[] ids = new long[evaluations.length];
+        for (int i = 0; i < evaluations.length; i++) {
+            ids[i] = users ? evaluations[i].getUserId() : evaluations[i].getBookId();
+        }
+        return Arrays.stream(ids).sorted().distinct().toArray();
+    }
+
+    /**
+     * Matriz esparsa em formato CSR: as entradas da linha {@code r} ocupam as
+     * posições {@code offsets[r]} a {@code offsets[r + 1] - 1}.
+     */
+    private static final class Matrix {
+
+        private final int[] offsets;
+        private final int[] columns;
+        private final float[] values;
+
+        private Matrix(int[] offsets, int[] columns, float[] values) {
+            this.offsets = offsets;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        static Matrix of(Evaluation[] evaluations, long[] rowIds, long[] columnIds, boolean byUser) {
+            int[] offsets = new int[rowIds.length + 1];
+            int[] rows = new int[evaluations.length];
+            int[] cols = new int[evaluations.length];
+            for (int e = 0; e < evaluations.length; e++) {
+                Evaluation evaluation = evaluations[e];
+                long row = byUser ? evaluation.getUserId() : evaluation.getBookId();
+                long column = byUser ? evaluation.getBookId() : evaluation.getUserId();
+                rows[e] = Arrays.binarySearch(rowIds, row);
+                cols[e] = Arrays.binarySearch(columnIds, column);
+                offsets[rows[e] + 1]++;
+            }
+            for (int r = 0; r < rowIds.length; r++) {
+                offsets[r + 1] += offsets[r];
+            }
+            int[] next = Arrays.copyOf(offsets, rowIds.length);
+            int[] columns = new int[evaluations.length];
+            float[] values = new float[evaluations.length];
+            for (int e = 0; e < evaluations.length; e++) {
+                int p = next[rows[e]]++;
+                columns[p] = cols[e];
+                values[p] = evaluations[e].getRating();
+            }
+            return new Matrix(offsets, columns, values);
+        }
+
+        void center(float[] means, boolean rowsAreUsers) {
+            for (int r = 0; r + 1 < offsets.length; r++) {
+                for (int p = offsets[r]; p < offsets[r + 1]; p++) {
+                    values[p] -= means[rowsAreUsers ? r : columns[p]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Calcula os vizinhos de uma faixa de livros, dividindo-a enquanto for
+     * maior que {@link #LEAF_ITEMS}.
+     */
+    private static final class SimilarityTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Matrix byItem;
+        private final Matrix byUser;
+        private final double[] norms;
+        private final int k;
+        private final int[][] topNeighbors;
+        private final float[][] topSimilarities;
+        private final int from;
+        private final int to;
+
+        SimilarityTask(Matrix byItem, Matrix byUser, double[] norms, int k,
+                int[][] topNeighbors, float[][] topSimilarities, int from, int to) {
+            this.byItem = byItem;
+            this.byUser = byUser;
+            this.norms = norms;
+            this.k = k;
+            this.topNeighbors = topNeighbors;
+            this.topSimilarities = topSimilarities;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_ITEMS) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SimilarityTask(byItem, byUser, norms, k, topNeighbors, topSimilarities, from, middle),
+                        new SimilarityTask(byItem, byUser, norms, k, topNeighbors, topSimilarities, middle, to));
+                return;
+            }
+            // arranjos da thread, reaproveitados entre as faixas: só as
+            // posições tocadas por cada livro são limpas
+            Workspace work = WORKSPACE.get();
+            work.ensureCapacity(norms.length);
+            double[] dots = work.dots;
+            int[] touched = work.touched;
+            int[] seen = work.seen;
+            for (int i = from; i < to; i++) {
+                int stamp = work.nextStamp();
+                int touchedCount = 0;
+                // produtos internos com todos os livros que têm avaliadores em comum
+                for (int p = byItem.offsets[i]; p < byItem.offsets[i + 1]; p++) {
+                    int u = byItem.columns[p];
+                    double value = byItem.values[p];
+                    for (int q = byUser.offsets[u]; q < byUser.offsets[u + 1]; q++) {
+                        int j = byUser.columns[q];
+                        if (j == i) {
+                            continue;
+                        }
+                        if (seen[j] != stamp) {
+                            seen[j] = stamp;
+                            touched[touchedCount++] = j;
+                        }
+                        dots[j] += value * byUser.values[q];
+                    }
+                }
+                TopItems top = new TopItems(k);
+                for (int t = 0; t < touchedCount; t++) {
+                    int j = touched[t];
+                    double denominator = norms[i] * norms[j];
+                    if (denominator > 0 && dots[j] > 0) {
+                        top.offer(j, (float) (dots[j] / denominator));
+                    }
+                    dots[j] = 0;
+                }
+                topNeighbors[i] = top.sorted();
+                topSimilarities[i] = top.sortedScores();
+            }
+        }
+    }
+
+    /**
+     * Arranjos de trabalho de uma thread, do tamanho do catálogo, usados na
+     * construção e nas consultas. Posições marcadas com a etapa atual
+     * ({@link #nextStamp}) foram tocadas nela; as demais têm valores antigos.
+     */
+    private static final class Workspace {
+
+        private double[] dots = new double[0];
+        private float[] weightedSum = new float[0];
+        private float[] weights = new float[0];
+        private int[] touched = new int[0];
+        private int[] seen = new int[0];
+        private int[] excluded = new int[0];
+        private int stamp;
+
+        void ensureCapacity(int items) {
+            if (seen.length < items) {
+                dots = new double[items];
+                weightedSum = new float[items];
+                weights = new float[items];
+                touched = new int[items];
+                seen = new int[items];
+                excluded = new int[items];
+                stamp = 0;
+            }
+        }
+
+        /**
+         * @return Uma marca ainda não usada em {@link #seen} e
+         * {@link #excluded}.
+         */
+        int nextStamp() {
+            if (stamp == Integer.MAX_VALUE) {
+                Arrays.fill(seen, 0);
+                Arrays.fill(excluded, 0);
+                stamp = 0;
+            }
+            return ++stamp;
+        }
+    }
+
+    /**
+     * Seleção dos {@code n} maiores valores com um heap mínimo em arranjos
+     * primitivos; empates são resolvidos pelo menor índice.
+     */
+    private static final class TopItems {
+
+        private final int[] items;
+        private final float[] scores;
+        private int size;
+
+        TopItems(int n) {
+            items = new int[n];
+            scores = new float[n];
+        }
+
+        void offer(int item, float score) {
+            if (size < items.length) {
+                items[size] = item;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (size > 0 && worse(items[0], scores[0], item, score)) {
+                items[0] = item;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        int[] sorted() {
+            sort();
+            return Arrays.copyOf(items, size);
+        }
+
+        float[] sortedScores() {
+            sort();
+            return Arrays.copyOf(scores, size);
+        }
+
+        private void sort() {
+            // ordenação por inserção: n é pequeno
+            for (int a = 1; a < size; a++) {
+                int item = items[a];
+                float score = scores[a];
+                int b = a - 1;
+                while (b >= 0 && worse(items[b], scores[b], item, score)) {
+                    items[b + 1] = items[b];
+                    scores[b + 1] = scores[b];
+                    b--;
+                }
+                items[b + 1] = item;
+                scores[b + 1] = score;
+            }
+        }
+
+        private static boolean worse(int item, float score, int otherItem, float otherScore) {
+            return score < otherScore || (score == otherScore && item > otherItem);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(items[i], scores[i], items[parent], scores[parent])) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                int smallest = i;
+                if (left < size && worse(items[left], scores[left], items[smallest], scores[smallest])) {
+                    smallest = left;
+                }
+                if (left + 1 < size && worse(items[left + 1], scores[left + 1], items[smallest], scores[smallest])) {
+                    smallest = left + 1;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int item = items[a];
+            items[a] = items[b];
+            items[b] = item;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
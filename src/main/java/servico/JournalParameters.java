@@ -0,0 +1,90 @@
+package servico;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parâmetros do journal de ações de {@link Bookmarket}
+ * ({@link Bookmarket#openJournal}).
+ * <p>
+ * As ações que chegam enquanto uma gravação está em andamento são gravadas
+ * juntas na próxima, com uma só sincronização com o disco (group commit).
+ * <ul>
+ * <li>{@code durability} diz quando uma ação é dada como gravada: depois de
+ * sincronizada com o disco, ou só depois de entregue ao sistema
+ * operacional, o que resiste à queda do processo mas não à da máquina.</li>
+ * <li>{@code maxBatch} limita as ações gravadas de uma vez.</li>
+ * <li>{@code maxDelay} é quanto a gravação espera por mais ações quando o
+ * lote ainda não está cheio: lotes maiores e menos sincronizações, ao custo
+ * de mais latência para cada ação.</li>
+ * </ul>
+ */
+public final class JournalParameters {
+
+    /**
+     * Quando uma ação é dada como gravada.
+     */
+    public enum Durability {
+        /**
+         * Depois de sincronizada com o disco ({@code FileChannel.force}).
+         */
+        FSYNC,
+        /**
+         * Depois de entregue ao sistema operacional.
+         */
+        WRITE
+    }
+
+    /**
+     * Sincroniza cada lote com o disco, com até 256 ações por lote e sem
+     * espera: o lote reúne as ações que chegaram durante a gravação anterior.
+     */
+    public static final JournalParameters DEFAULT = of(Durability.FSYNC, 256, 0, TimeUnit.MICROSECONDS);
+
+    private final Durability durability;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+
+    private JournalParameters(Durability durability, int maxBatch, long maxDelayNanos) {
+        if (durability == null) {
+            throw new IllegalArgumentException("A durabilidade é obrigatória.");
+        }
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("O tamanho máximo do lote deve ser positivo.");
+        }
+        if (maxDelayNanos < 0) {
+            throw new IllegalArgumentException("A espera máxima não pode ser negativa.");
+        }
+        this.durability = durability;
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = maxDelayNanos;
+    }
+
+    /**
+     * @param durability Quando uma ação é dada como gravada.
+     * @param maxBatch O número máximo de ações por gravação.
+     * @param maxDelay A espera máxima por mais ações antes de gravar.
+     * @param unit A unidade da espera.
+     * @return Os parâmetros.
+     */
+    public static JournalParameters of(Durability durability, int maxBatch, long maxDelay, TimeUnit unit) {
+        return new JournalParameters(durability, maxBatch, unit.toNanos(maxDelay));
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    public long getMaxDelay(TimeUnit unit) {
+        return unit.convert(maxDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Journal(%s, lote=%d, espera=%d µs)", durability, maxBatch,
+                TimeUnit.NANOSECONDS.toMicros(maxDelayNanos));
+    }
+}
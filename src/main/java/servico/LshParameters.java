@@ -0,0 +1,110 @@
+package servico;
+
+/**
+ * Parâmetros da vizinhança aproximada de {@link RecommendationService}
+ * ({@link RecommendationService.Engine#APPROXIMATE}).
+ * <p>
+ * Os usuários são agrupados por hashing sensível à localidade: cada uma das
+ * {@code tables} tabelas separa os vetores de notas (centrados na média do
+ * usuário) por {@code bits} hiperplanos aleatórios. Os candidatos a vizinho
+ * são os usuários que caem no mesmo grupo em alguma tabela e, se faltarem,
+ * nos grupos que diferem em um hiperplano; a similaridade de Pearson exata é
+ * calculada apenas para eles.
+ * <ul>
+ * <li>Mais tabelas aumentam a revocação (a fração dos vizinhos exatos
+ * encontrados) e o custo da indexação.</li>
+ * <li>Mais bits tornam os grupos menores e mais parecidos.</li>
+ * <li>{@code maxCandidates} limita o trabalho de uma consulta e, com ele, a
+ * latência.</li>
+ * </ul>
+ * Com {@link #forRecall}, o número de tabelas é escolhido na construção do
+ * modelo: o menor que atinge a revocação pedida em uma amostra de usuários.
+ */
+public final class LshParameters {
+
+    /**
+     * Parâmetros usados por {@link RecommendationService.Engine#APPROXIMATE}:
+     * revocação de 90% com até 500 candidatos por consulta.
+     */
+    public static final LshParameters DEFAULT = forRecall(0.9, 12, 500);
+
+    static final int MAX_TABLES = 32;
+
+    private final int tables;
+    private final int bits;
+    private final int maxCandidates;
+    private final double targetRecall;
+
+    private LshParameters(int tables, int bits, int maxCandidates, double targetRecall) {
+        if (tables < 1 || tables > MAX_TABLES) {
+            throw new IllegalArgumentException("O número de tabelas deve estar entre 1 e " + MAX_TABLES + ".");
+        }
+        if (bits < 1 || bits > 30) {
+            throw new IllegalArgumentException("O número de bits deve estar entre 1 e 30.");
+        }
+        if (maxCandidates < 1) {
+            throw new IllegalArgumentException("O número de candidatos deve ser positivo.");
+        }
+        if (!(targetRecall >= 0 && targetRecall <= 1)) {
+            throw new IllegalArgumentException("A revocação deve estar entre 0 e 1.");
+        }
+        this.tables = tables;
+        this.bits = bits;
+        this.maxCandidates = maxCandidates;
+        this.targetRecall = targetRecall;
+    }
+
+    /**
+     * @param tables O número de tabelas de hash, de 1 a 32.
+     * @param bits O número de hiperplanos por tabela, de 1 a 30.
+     * @param maxCandidates O número máximo de candidatos por consulta.
+     * @return Parâmetros com o número de tabelas fixo.
+     */
+    public static LshParameters of(int tables, int bits, int maxCandidates) {
+        return new LshParameters(tables, bits, maxCandidates, 0);
+    }
+
+    /**
+     * @param targetRecall A fração desejada dos vizinhos exatos, de 0 a 1.
+     * @param bits O número de hiperplanos por tabela, de 1 a 30.
+     * @param maxCandidates O número máximo de candidatos por consulta.
+     * @return Parâmetros com o número de tabelas calibrado na construção do
+     * modelo, até 32.
+     */
+    public static LshParameters forRecall(double targetRecall, int bits, int maxCandidates) {
+        return new LshParameters(MAX_TABLES, bits, maxCandidates, targetRecall);
+    }
+
+    /**
+     * @return O número de tabelas; com {@link #forRecall}, o máximo.
+     */
+    public int getTables() {
+        return tables;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    public int getMaxCandidates() {
+        return maxCandidates;
+    }
+
+    /**
+     * @return A revocação desejada, ou 0 se o número de tabelas é fixo.
+     */
+    public double getTargetRecall() {
+        return targetRecall;
+    }
+
+    boolean isCalibrated() {
+        return targetRecall > 0;
+    }
+
+    @Override
+    public String toString() {
+        return isCalibrated()
+                ? String.format("LSH(recall=%.2f, bits=%d, candidatos=%d)", targetRecall, bits, maxCandidates)
+                : String.format("LSH(tabelas=%d, bits=%d, candidatos=%d)", tables, bits, maxCandidates);
+    }
+}
@@ -0,0 +1,259 @@
+package servico;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Índice de usuários por hashing sensível à localidade com projeções
+ * aleatórias, usado para escolher os candidatos a vizinho sem comparar o
+ * usuário com todos os outros.
+ * <p>
+ * Para cada tabela, o vetor de notas do usuário, centrado na sua média, é
+ * projetado em {@code bits} hiperplanos aleatórios com coeficientes ±1; o
+ * sinal de cada projeção dá um bit da assinatura. Vetores com ângulo pequeno
+ * (correlação alta) tendem a ter a mesma assinatura. Os coeficientes são
+ * derivados do id do livro por hash, de modo que a assinatura de um usuário
+ * só muda quando mudam as suas próprias notas: ao chegar uma avaliação, só
+ * as assinaturas dos usuários alterados são recalculadas ({@link #update}).
+ * <p>
+ * Cada tabela guarda os usuários ordenados pela assinatura; um grupo é uma
+ * faixa contígua, localizada por busca binária. Usuários com todas as notas
+ * iguais ficam fora do índice: a correlação de Pearson com eles nunca é
+ * definida.
+ */
+final class LshUserIndex {
+
+    private static final long SEED = 0x5DEECE66DL;
+    private static final int NONE = -1;
+
+    private final LshParameters parameters;
+    private final int tables;
+    private final long[] userIds;
+    // assinatura do usuário u na tabela t em signatures[u * tables + t]; NONE fora do índice
+    private final int[] signatures;
+    private final int[][] bucketUsers;
+    private final int[][] bucketSignatures;
+
+    private LshUserIndex(LshParameters parameters, int tables, long[] userIds, int[] signatures) {
+        this.parameters = parameters;
+        this.tables = tables;
+        this.userIds = userIds;
+        this.signatures = signatures;
+        this.bucketUsers = new int[tables][];
+        this.bucketSignatures = new int[tables][];
+        for (int t = 0; t < tables; t++) {
+            sortTable(t);
+        }
+    }
+
+    /**
+     * Indexa todos os usuários com o número de tabelas dos parâmetros.
+     *
+     * @param ratings As avaliações.
+     * @param parameters Os parâmetros.
+     * @return O índice.
+     */
+    static LshUserIndex build(SparseRatings ratings, LshParameters parameters) {
+        int tables = parameters.getTables();
+        int[] signatures = new int[ratings.numUsers() * tables];
+        int[] masks = itemMasks(ratings, tables, parameters.getBits());
+        IntStream.range(0, ratings.numUsers()).parallel()
+                .forEach(u -> sign(ratings, u, masks, tables, parameters.getBits(), signatures));
+        return new LshUserIndex(parameters, tables, ratings.userIds, signatures);
+    }
+
+    /**
+     * @param tables O número de tabelas usadas, no máximo o atual.
+     * @return Um índice com as primeiras tabelas deste.
+     */
+    LshUserIndex withTables(int tables) {
+        int[] kept = new int[userIds.length * tables];
+        for (int u = 0; u < userIds.length; u++) {
+            System.arraycopy(signatures, u * this.tables, kept, u * tables, tables);
+        }
+        return new LshUserIndex(parameters, tables, userIds, kept);
+    }
+
+    /**
+     * Atualiza o índice para novas avaliações, recalculando só as assinaturas
+     * dos usuários alterados ou novos.
+     *
+     * @param ratings As novas avaliações.
+     * @param changedUsers Os ids dos usuários cujas notas mudaram, ordenados.
+     * @return O novo índice; este não muda.
+     */
+    LshUserIndex update(SparseRatings ratings, long[] changedUsers) {
+        int[] updated = new int[ratings.numUsers() * tables];
+        int[] masks = null;
+        int old = 0;
+        for (int u = 0; u < ratings.numUsers(); u++) {
+            long userId = ratings.userIds[u];
+            while (old < userIds.length && userIds[old] < userId) {
+                old++;
+            }
+            if (old < userIds.length && userIds[old] == userId
+                    && Arrays.binarySearch(changedUsers, userId) < 0) {
+                System.arraycopy(signatures, old * tables, updated, u * tables, tables);
+            } else {
+                if (masks == null) {
+                    masks = itemMasks(ratings, tables, parameters.getBits());
+                }
+                sign(ratings, u, masks, tables, parameters.getBits(), updated);
+            }
+        }
+        return new LshUserIndex(parameters, tables, ratings.userIds, updated);
+    }
+
+    /**
+     * @return O número de tabelas em uso.
+     */
+    int tables() {
+        return tables;
+    }
+
+    LshParameters parameters() {
+        return parameters;
+    }
+
+    /**
+     * Reúne os candidatos a vizinho do usuário: primeiro os do mesmo grupo em
+     * cada tabela, depois os dos grupos a um bit de distância, até o limite de
+     * candidatos.
+     *
+     * @param user O índice do usuário.
+     * @param out Recebe os índices dos candidatos.
+     * @param seen Marcas por usuário, com {@code stamp} ainda não usada.
+     * @param stamp A marca desta consulta.
+     * @return O número de candidatos.
+     */
+    int candidates(int user, int[] out, int[] seen, int stamp) {
+        if (signatures[user * tables] == NONE) {
+            return 0;
+        }
+        int max = Math.min(parameters.getMaxCandidates(), out.length);
+        seen[user] = stamp;
+        int count = 0;
+        for (int t = 0; t < tables && count < max; t++) {
+            count = probe(t, signatures[user * tables + t], out, count, max, seen, stamp);
+        }
+        for (int b = 0; b < parameters.getBits() && count < max; b++) {
+            for (int t = 0; t < tables && count < max; t++) {
+                count = probe(t, signatures[user * tables + t] ^ (1 << b), out, count, max, seen, stamp);
+            }
+        }
+        return count;
+    }
+
+    private int probe(int table, int signature, int[] out, int count, int max, int[] seen, int stamp) {
+        int[] keys = bucketSignatures[table];
+        int[] users = bucketUsers[table];
+        // primeira posição com a assinatura procurada
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < signature) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int k = low; k < keys.length && keys[k] == signature && count < max; k++) {
+            int other = users[k];
+            if (seen[other] != stamp) {
+                seen[other] = stamp;
+                out[count++] = other;
+            }
+        }
+        return count;
+    }
+
+    private void sortTable(int table) {
+        int indexed = 0;
+        for (int u = 0; u < userIds.length; u++) {
+            if (signatures[u * tables + table] != NONE) {
+                indexed++;
+            }
+        }
+        // ordena pares (assinatura, usuário) empacotados em um long
+        long[] pairs = new long[indexed];
+        int k = 0;
+        for (int u = 0; u < userIds.length; u++) {
+            int signature = signatures[u * tables + table];
+            if (signature != NONE) {
+                pairs[k++] = (long) signature << 32 | u;
+            }
+        }
+        Arrays.sort(pairs);
+        int[] users = new int[indexed];
+        int[] keys = new int[indexed];
+        for (k = 0; k < indexed; k++) {
+            keys[k] = (int) (pairs[k] >>> 32);
+            users[k] = (int) pairs[k];
+        }
+        bucketUsers[table] = users;
+        bucketSignatures[table] = keys;
+    }
+
+    /**
+     * @return Os sinais dos coeficientes de cada livro em cada tabela: bit
+     * {@code b} de {@code masks[i * tables + t]} ligado para +1.
+     */
+    private static int[] itemMasks(SparseRatings ratings, int tables, int bits) {
+        int[] masks = new int[ratings.numItems() * tables];
+        for (int i = 0; i < ratings.numItems(); i++) {
+            for (int t = 0; t < tables; t++) {
+                masks[i * tables + t] = (int) mix(SEED ^ ratings.itemIds[i] * 0x9E3779B97F4A7C15L ^ t)
+                        & ((1 << bits) - 1);
+            }
+        }
+        return masks;
+    }
+
+    private static void sign(SparseRatings ratings, int user, int[] masks, int tables, int bits,
+            int[] signatures) {
+        int from = ratings.userOffsets[user];
+        int to = ratings.userOffsets[user + 1];
+        double sum = 0;
+        boolean constant = true;
+        for (int p = from; p < to; p++) {
+            sum += ratings.userValues[p];
+            constant &= ratings.userValues[p] == ratings.userValues[from];
+        }
+        if (constant) {
+            Arrays.fill(signatures, user * tables, (user + 1) * tables, NONE);
+            return;
+        }
+        double mean = sum / (to - from);
+        // como as notas centradas somam zero, a projeção com coeficientes ±1
+        // é o dobro da soma das notas com coeficiente +1
+        double[] projections = new double[tables * bits];
+        for (int p = from; p < to; p++) {
+            double centered = ratings.userValues[p] - mean;
+            int item = ratings.userItems[p];
+            for (int t = 0; t < tables; t++) {
+                for (int mask = masks[item * tables + t]; mask != 0; mask &= mask - 1) {
+                    projections[t * bits + Integer.numberOfTrailingZeros(mask)] += centered;
+                }
+            }
+        }
+        for (int t = 0; t < tables; t++) {
+            int signature = 0;
+            for (int b = 0; b < bits; b++) {
+                if (projections[t * bits + b] > 0) {
+                    signature |= 1 << b;
+                }
+            }
+            signatures[user * tables + t] = signature;
+        }
+    }
+
+    /**
+     * Finalizador do SplitMix64.
+     */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
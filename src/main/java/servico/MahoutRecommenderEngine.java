@@ -0,0 +1,160 @@
+package servico;
+
+import dominio.Evaluation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.UserBasedRecommender;
+
+/**
+ * Recomendação baseada em usuários com o Apache Mahout: similaridade de
+ * Pearson, vizinhança dos {@value #NEIGHBORHOOD_SIZE} usuários mais similares
+ * e {@link GenericUserBasedRecommender}.
+ * <p>
+ * Depois de publicado, o DataModel não é mais alterado; apenas os caches de
+ * similaridade e vizinhança são preenchidos sob demanda, de forma segura entre
+ * threads. Uma alteração copia o modelo anterior, reescreve apenas as
+ * preferências dos usuários e livros alterados e aproveita as similaridades e
+ * vizinhanças que as alterações não afetam.
+ */
+final class MahoutRecommenderEngine implements RecommenderEngine {
+
+    static final int NEIGHBORHOOD_SIZE = 10;
+    private static final int SIMILARITY_CACHE_SIZE = 100_000;
+
+    private final IncrementalDataModel dataModel;
+    private final IncrementalUserSimilarity similarity;
+    private final IncrementalUserNeighborhood neighborhood;
+    private final UserBasedRecommender recommender;
+
+    private MahoutRecommenderEngine(IncrementalDataModel dataModel, IncrementalUserSimilarity similarity,
+            IncrementalUserNeighborhood neighborhood, UserBasedRecommender recommender) {
+        this.dataModel = dataModel;
+        this.similarity = similarity;
+        this.neighborhood = neighborhood;
+        this.recommender = recommender;
+    }
+
+    /**
+     * @param evaluations As avaliações de usuários.
+     * @return O modelo treinado.
+     * @throws TasteException se o modelo não puder ser construído.
+     */
+    static MahoutRecommenderEngine build(Stream<Evaluation> evaluations) throws TasteException {
+        // 1. Carrega as avaliações no DataModel, que aceita alterações incrementais.
+        return build(IncrementalDataModel.of(evaluations), null);
+    }
+
+    private static MahoutRecommenderEngine build(IncrementalDataModel dataModel,
+            MahoutRecommenderEngine previous) throws TasteException {
+        // 2. Instancia a Similaridade (PearsonCorrelationSimilarity), guardando os pares já calculados.
+        PearsonCorrelationSimilarity pearson = new PearsonCorrelationSimilarity(dataModel);
+        IncrementalUserSimilarity similarity = previous == null
+                ? new IncrementalUserSimilarity(pearson, SIMILARITY_CACHE_SIZE)
+                : new IncrementalUserSimilarity(pearson, previous.similarity);
+
+        // 3. Instancia a Vizinhança (NearestNUserNeighborhood), guardando a de cada usuário.
+        NearestNUserNeighborhood nearest = new NearestNUserNeighborhood(NEIGHBORHOOD_SIZE, similarity, dataModel);
+        IncrementalUserNeighborhood neighborhood = previous == null
+                ? new IncrementalUserNeighborhood(nearest)
+                : new IncrementalUserNeighborhood(nearest, previous.neighborhood);
+
+        // 4. Instancia o Recomendador (GenericUserBasedRecommender)
+        UserBasedRecommender recommender = new GenericUserBasedRecommender(dataModel, neighborhood, similarity);
+        return new MahoutRecommenderEngine(dataModel, similarity, neighborhood, recommender);
+    }
+
+    @Override
+    public List<Long> recommend(long userId, int howMany) throws TasteException {
+        return recommender.recommend(userId, howMany).stream()
+                .map(RecommendedItem::getItemID)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public float estimate(long userId, long itemId) throws TasteException {
+        return recommender.estimatePreference(userId, itemId);
+    }
+
+    @Override
+    public long[] neighbors(long userId) {
+        try {
+            return neighborhood.getUserNeighborhood(userId);
+        } catch (TasteException e) {
+            return new long[0];
+        }
+    }
+
+    @Override
+    public SparseRatings ratings() {
+        List<Evaluation> evaluations = new ArrayList<>();
+        for (LongPrimitiveIterator users = dataModel.getUserIDs(); users.hasNext();) {
+            long userId = users.nextLong();
+            try {
+                for (Preference preference : dataModel.getPreferencesFromUser(userId)) {
+                    evaluations.add(new Evaluation(userId, preference.getItemID(), preference.getValue()));
+                }
+            } catch (TasteException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return SparseRatings.of(evaluations.stream());
+    }
+
+    @Override
+    public MahoutRecommenderEngine apply(List<RecommendationService.Change> changes) throws TasteException {
+        IncrementalDataModel copy = dataModel.copy();
+        FastIDSet changed = new FastIDSet();
+        FastIDSet affected = new FastIDSet();
+        for (RecommendationService.Change change : changes) {
+            apply(change, copy, affected);
+            changed.add(change.userId());
+        }
+        MahoutRecommenderEngine built = build(copy, this);
+        built.similarity.invalidate(changed);
+        for (LongPrimitiveIterator i = affected.iterator(); i.hasNext();) {
+            built.neighborhood.invalidate(i.nextLong());
+        }
+        return built;
+    }
+
+    /**
+     * Aplica a alteração ao modelo ainda não publicado e anota os usuários
+     * cujas vizinhanças ela pode ter alterado. A correlação de Pearson entre
+     * dois usuários só considera as avaliações dos dois; portanto só mudam as
+     * similaridades do usuário que avaliou, e elas só podem mudar a vizinhança
+     * de quem avaliou o livro, antes ou depois da alteração.
+     */
+    private static void apply(RecommendationService.Change change, IncrementalDataModel dataModel,
+            FastIDSet affected) throws TasteException {
+        addRaters(change.itemId(), dataModel, affected);
+        if (change.isRemoval()) {
+            dataModel.removePreference(change.userId(), change.itemId());
+        } else {
+            dataModel.setPreference(change.userId(), change.itemId(), change.value());
+        }
+        addRaters(change.itemId(), dataModel, affected);
+        affected.add(change.userId());
+    }
+
+    private static void addRaters(long itemId, IncrementalDataModel dataModel, FastIDSet affected)
+            throws TasteException {
+        if (dataModel.getNumUsersWithPreferenceFor(itemId) == 0) {
+            return;
+        }
+        PreferenceArray raters = dataModel.getPreferencesForItem(itemId);
+        for (int i = 0; i < raters.length(); i++) {
+            affected.add(raters.getUserID(i));
+        }
+    }
+}
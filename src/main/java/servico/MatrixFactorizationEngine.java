@@ -0,0 +1,484 @@
+package servico;
+
+import dominio.Evaluation;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * Recomendação por fatoração de matrizes com mínimos quadrados alternados
+ * ({@link FactorizationParameters}).
+ * <p>
+ * Os fatores ficam em dois arranjos {@code float[]} contíguos, {@code k}
+ * valores por cliente e por livro, na ordem dos índices de
+ * {@link SparseRatings}. Cada meia iteração resolve, em paralelo, um sistema
+ * {@code k × k} por cliente (ou por livro) a partir da linha (ou coluna) das
+ * suas avaliações; os sistemas são independentes e cada um escreve apenas
+ * nos seus fatores.
+ * <p>
+ * Uma consulta calcula o produto escalar do cliente com cada livro que ele
+ * não avaliou e guarda os maiores em um heap: o custo é proporcional ao
+ * número de livros e de fatores, o mesmo para qualquer cliente.
+ * <p>
+ * As alterações não retreinam o modelo: os fatores dos clientes e livros
+ * alterados são recalculados com os demais fixos ({@link #apply}). O
+ * treinamento completo acontece em {@link RecommendationService#initialize};
+ * um modelo gravado é restaurado com os seus fatores ({@link #restore}).
+ */
+final class MatrixFactorizationEngine implements RecommenderEngine {
+
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[0]);
+
+    private final SparseRatings ratings;
+    private final FactorizationParameters parameters;
+    private final int k;
+    private final float mean;
+    private final float[] userFactors;
+    private final float[] itemFactors;
+
+    private MatrixFactorizationEngine(SparseRatings ratings, FactorizationParameters parameters, float mean,
+            float[] userFactors, float[] itemFactors) {
+        this.ratings = ratings;
+        this.parameters = parameters;
+        this.k = parameters.getFactors();
+        this.mean = mean;
+        this.userFactors = userFactors;
+        this.itemFactors = itemFactors;
+    }
+
+    /**
+     * @param ratings As avaliações.
+     * @param parameters Os parâmetros da fatoração.
+     * @return O modelo treinado.
+     */
+    static MatrixFactorizationEngine train(SparseRatings ratings, FactorizationParameters parameters) {
+        int k = parameters.getFactors();
+        double sum = 0;
+        for (float value : ratings.userValues) {
+            sum += value;
+        }
+        float mean = ratings.numRatings() == 0 ? 0 : (float) (sum / ratings.numRatings());
+        float[] users = new float[ratings.numUsers() * k];
+        float[] items = new float[ratings.numItems() * k];
+        for (int i = 0; i < ratings.numItems(); i++) {
+            initialize(ratings.itemIds[i], items, i, k);
+        }
+        MatrixFactorizationEngine engine = new MatrixFactorizationEngine(ratings, parameters, mean, users, items);
+        for (int iteration = 0; iteration < parameters.getIterations(); iteration++) {
+            engine.solveUsers(IntStream.range(0, ratings.numUsers()));
+            engine.solveItems(IntStream.range(0, ratings.numItems()));
+        }
+        return engine;
+    }
+
+    /**
+     * Reconstrói um modelo gravado, sem treinamento.
+     *
+     * @param ratings As avaliações do modelo.
+     * @param factors Os fatores gravados com elas, do tamanho das avaliações.
+     * @return O modelo.
+     */
+    static MatrixFactorizationEngine restore(SparseRatings ratings, Factors factors) {
+        int k = factors.parameters.getFactors();
+        if (factors.users.length != ratings.numUsers() * k || factors.items.length != ratings.numItems() * k) {
+            throw new IllegalArgumentException("Os fatores não correspondem às avaliações.");
+        }
+        return new MatrixFactorizationEngine(ratings, factors.parameters, factors.mean,
+                factors.users, factors.items);
+    }
+
+    @Override
+    public List<Long> recommend(long userId, int howMany) throws TasteException {
+        if (howMany < 1) {
+            throw new IllegalArgumentException("howMany must be at least 1");
+        }
+        int user = ratings.userIndex(userId);
+        if (user < 0) {
+            throw new NoSuchUserException(userId);
+        }
+        int capacity = Math.min(howMany, ratings.numItems());
+        int[] heap = new int[capacity];
+        float[] scores = new float[capacity];
+        int size = 0;
+        // a linha do cliente está ordenada pelo livro
+        int p = ratings.userOffsets[user];
+        int end = ratings.userOffsets[user + 1];
+        for (int item = 0; item < ratings.numItems(); item++) {
+            if (p < end && ratings.userItems[p] == item) {
+                p++;
+                continue;
+            }
+            size = offer(item, dot(userFactors, user * k, itemFactors, item * k, k), size, heap, scores);
+        }
+        // ordenação por extração: o pior sai do heap e vai para o fim
+        for (int last = size - 1; last > 0; last--) {
+            swap(heap, scores, 0, last);
+            siftDown(heap, scores, 0, last);
+        }
+        List<Long> result = new ArrayList<>(size);
+        for (int t = 0; t < size; t++) {
+            result.add(ratings.itemIds[heap[t]]);
+        }
+        return result;
+    }
+
+    /**
+     * A fatoração não forma vizinhanças.
+     *
+     * @return Sempre vazio.
+     */
+    @Override
+    public long[] neighbors(long userId) {
+        return new long[0];
+    }
+
+    @Override
+    public SparseRatings ratings() {
+        return ratings;
+    }
+
+    @Override
+    public Factors factors() {
+        return new Factors(parameters, mean, userFactors, itemFactors);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Os clientes e livros alterados ou novos têm os fatores recalculados com
+     * os dos demais fixos (primeiro os clientes, depois os livros); os outros
+     * fatores e a média são mantidos. A qualidade se afasta aos poucos da de
+     * um treinamento completo à medida que as alterações se acumulam.
+     */
+    @Override
+    public MatrixFactorizationEngine apply(List<RecommendationService.Change> changes) {
+        SparseRatings updated = ratings.withChanges(changes);
+        float[] users = new float[updated.numUsers() * k];
+        float[] items = new float[updated.numItems() * k];
+        int[] changedUsers = carry(ratings.userIds, userFactors, updated.userIds, users,
+                changes.stream().mapToLong(RecommendationService.Change::userId).sorted().distinct().toArray());
+        int[] changedItems = carry(ratings.itemIds, itemFactors, updated.itemIds, items,
+                changes.stream().mapToLong(RecommendationService.Change::itemId).sorted().distinct().toArray());
+        MatrixFactorizationEngine engine = new MatrixFactorizationEngine(updated, parameters, mean, users, items);
+        engine.solveUsers(IntStream.of(changedUsers));
+        engine.solveItems(IntStream.of(changedItems));
+        return engine;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A estimativa é limitada às notas mínima e máxima das avaliações.
+     */
+    @Override
+    public float estimate(long userId, long itemId) throws TasteException {
+        int user = ratings.userIndex(userId);
+        if (user < 0) {
+            throw new NoSuchUserException(userId);
+        }
+        int item = ratings.itemIndex(itemId);
+        if (item < 0) {
+            throw new NoSuchItemException(itemId);
+        }
+        int p = Arrays.binarySearch(ratings.userItems, ratings.userOffsets[user], ratings.userOffsets[user + 1], item);
+        if (p >= 0) {
+            return ratings.userValues[p];
+        }
+        float estimate = dot(userFactors, user * k, itemFactors, item * k, k);
+        return Math.max(ratings.minValue, Math.min(ratings.maxValue, estimate));
+    }
+
+    /**
+     * @param evaluations Avaliações, em geral fora do treinamento.
+     * @return A raiz do erro quadrático médio das notas estimadas, ignorando
+     * os clientes e livros fora do modelo.
+     */
+    double rmse(Stream<Evaluation> evaluations) {
+        double[] sums = new double[2];
+        evaluations.forEach(evaluation -> {
+            int user = ratings.userIndex(evaluation.getUserId());
+            int item = ratings.itemIndex(evaluation.getBookId());
+            if (user >= 0 && item >= 0) {
+                double estimate = dot(userFactors, user * k, itemFactors, item * k, k);
+                double error = estimate - evaluation.getRating();
+                sums[0] += error * error;
+                sums[1]++;
+            }
+        });
+        return Math.sqrt(sums[0] / sums[1]);
+    }
+
+    private float dot(float[] a, int from, float[] b, int to, int length) {
+        float sum = mean;
+        for (int f = 0; f < length; f++) {
+            sum += a[from + f] * b[to + f];
+        }
+        return sum;
+    }
+
+    private void solveUsers(IntStream users) {
+        users.parallel().forEach(u -> solve(u, ratings.userOffsets, ratings.userItems, ratings.userValues,
+                itemFactors, userFactors));
+    }
+
+    private void solveItems(IntStream items) {
+        items.parallel().forEach(i -> solve(i, ratings.itemOffsets, ratings.itemUsers, ratings.itemValues,
+                userFactors, itemFactors));
+    }
+
+    /**
+     * Resolve os fatores de uma linha com os do outro lado fixos:
+     * {@code (YᵀY + λnI) x = Yᵀ(r - média)}, por Cholesky.
+     */
+    private void solve(int row, int[] offsets, int[] indices, float[] values, float[] fixed, float[] target) {
+        int from = offsets[row];
+        int to = offsets[row + 1];
+        if (from == to) {
+            Arrays.fill(target, row * k, (row + 1) * k, 0);
+            return;
+        }
+        double[] a = scratch(k);
+        int b = k * k;
+        Arrays.fill(a, 0, b + k, 0);
+        // apenas o triângulo inferior de YᵀY
+        for (int p = from; p < to; p++) {
+            int other = indices[p] * k;
+            double residual = values[p] - mean;
+            for (int i = 0; i < k; i++) {
+                double y = fixed[other + i];
+                a[b + i] += residual * y;
+                for (int j = 0; j <= i; j++) {
+                    a[i * k + j] += y * fixed[other + j];
+                }
+            }
+        }
+        double regularization = parameters.getLambda() * (to - from);
+        for (int i = 0; i < k; i++) {
+            a[i * k + i] += regularization;
+        }
+        // A = LLᵀ, com L no lugar do triângulo inferior
+        for (int j = 0; j < k; j++) {
+            double diagonal = a[j * k + j];
+            for (int q = 0; q < j; q++) {
+                diagonal -= a[j * k + q] * a[j * k + q];
+            }
+            diagonal = Math.sqrt(diagonal);
+            a[j * k + j] = diagonal;
+            for (int i = j + 1; i < k; i++) {
+                double value = a[i * k + j];
+                for (int q = 0; q < j; q++) {
+                    value -= a[i * k + q] * a[j * k + q];
+                }
+                a[i * k + j] = value / diagonal;
+            }
+        }
+        // Lz = Yᵀr e Lᵀx = z
+        for (int i = 0; i < k; i++) {
+            double value = a[b + i];
+            for (int q = 0; q < i; q++) {
+                value -= a[i * k + q] * a[b + q];
+            }
+            a[b + i] = value / a[i * k + i];
+        }
+        for (int i = k - 1; i >= 0; i--) {
+            double value = a[b + i];
+            for (int q = i + 1; q < k; q++) {
+                value -= a[q * k + i] * a[b + q];
+            }
+            a[b + i] = value / a[i * k + i];
+        }
+        for (int i = 0; i < k; i++) {
+            target[row * k + i] = (float) a[b + i];
+        }
+    }
+
+    private static double[] scratch(int k) {
+        double[] scratch = SCRATCH.get();
+        if (scratch.length < k * k + k) {
+            scratch = new double[k * k + k];
+            SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
+    /**
+     * Copia os fatores dos ids que continuam no modelo e inicializa os dos
+     * novos.
+     *
+     * @param changed Os ids alterados, ordenados.
+     * @return Os novos índices dos ids alterados ou novos.
+     */
+    private int[] carry(long[] oldIds, float[] oldFactors, long[] newIds, float[] newFactors, long[] changed) {
+        int[] resolve = new int[newIds.length];
+        int count = 0;
+        int old = 0;
+        for (int index = 0; index < newIds.length; index++) {
+            long id = newIds[index];
+            while (old < oldIds.length && oldIds[old] < id) {
+                old++;
+            }
+            if (old < oldIds.length && oldIds[old] == id) {
+                System.arraycopy(oldFactors, old * k, newFactors, index * k, k);
+                if (Arrays.binarySearch(changed, id) >= 0) {
+                    resolve[count++] = index;
+                }
+            } else {
+                initialize(id, newFactors, index, k);
+                resolve[count++] = index;
+            }
+        }
+        return Arrays.copyOf(resolve, count);
+    }
+
+    /**
+     * Fatores iniciais pequenos e pseudoaleatórios, derivados do id para que o
+     * treinamento seja reproduzível.
+     */
+    private static void initialize(long id, float[] factors, int index, int k) {
+        for (int f = 0; f < k; f++) {
+            long h = mix(id * 0x9E3779B97F4A7C15L + f);
+            factors[index * k + f] = (float) (((h >>> 11) * 0x1.0p-53 - 0.5) * 0.1);
+        }
+    }
+
+    /**
+     * Finalizador do SplitMix64.
+     */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * Mantém os {@code heap.length} maiores em um heap de mínimo: a raiz é o
+     * pior livro selecionado. Empates favorecem o livro de menor id.
+     */
+    private static int offer(int item, float score, int size, int[] heap, float[] scores) {
+        if (size < heap.length) {
+            int i = size++;
+            heap[i] = item;
+            scores[i] = score;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(heap[i], scores[i], heap[parent], scores[parent])) {
+                    break;
+                }
+                swap(heap, scores, i, parent);
+                i = parent;
+            }
+        } else if (worse(heap[0], scores[0], item, score)) {
+            heap[0] = item;
+            scores[0] = score;
+            siftDown(heap, scores, 0, size);
+        }
+        return size;
+    }
+
+    private static void siftDown(int[] heap, float[] scores, int i, int size) {
+        while (true) {
+            int left = 2 * i + 1;
+            int worst = i;
+            if (left < size && worse(heap[left], scores[left], heap[worst], scores[worst])) {
+                worst = left;
+            }
+            if (left + 1 < size && worse(heap[left + 1], scores[left + 1], heap[worst], scores[worst])) {
+                worst = left + 1;
+            }
+            if (worst == i) {
+                return;
+            }
+            swap(heap, scores, i, worst);
+            i = worst;
+        }
+    }
+
+    private static boolean worse(int item, float score, int otherItem, float otherScore) {
+        return score < otherScore || (score == otherScore && item > otherItem);
+    }
+
+    private static void swap(int[] heap, float[] scores, int a, int b) {
+        int item = heap[a];
+        heap[a] = heap[b];
+        heap[b] = item;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+
+    /**
+     * Os fatores de um modelo, com os parâmetros e a média do treinamento. Os
+     * arranjos são os do modelo e não devem ser alterados.
+     */
+    static final class Factors {
+
+        final FactorizationParameters parameters;
+        final float mean;
+        final float[] users;
+        final float[] items;
+
+        Factors(FactorizationParameters parameters, float mean, float[] users, float[] items) {
+            this.parameters = parameters;
+            this.mean = mean;
+            this.users = users;
+            this.items = items;
+        }
+
+        /**
+         * @return O número de bytes ocupados por {@link #write}.
+         */
+        long serializedSize() {
+            return 4 + 4 + 8 + 4 + 4L * (users.length + items.length);
+        }
+
+        /**
+         * Grava os parâmetros, a média e os fatores dos clientes e dos livros.
+         *
+         * @param buffer O destino, com ao menos {@link #serializedSize()}
+         * bytes restantes.
+         */
+        void write(ByteBuffer buffer) {
+            buffer.putInt(parameters.getFactors()).putInt(parameters.getIterations())
+                    .putDouble(parameters.getLambda()).putFloat(mean);
+            SparseRatings.write(buffer, users);
+            SparseRatings.write(buffer, items);
+        }
+
+        /**
+         * Lê fatores gravados por {@link #write}.
+         *
+         * @param buffer A origem, posicionada no início dos dados, que vão
+         * até o fim do buffer.
+         * @param ratings As avaliações lidas antes deles.
+         * @return Os fatores.
+         * @throws IOException se os dados estiverem truncados ou
+         * inconsistentes com as avaliações.
+         */
+        static Factors read(ByteBuffer buffer, SparseRatings ratings) throws IOException {
+            if (buffer.remaining() < 4 + 4 + 8 + 4) {
+                throw new IOException("Fatores truncados.");
+            }
+            FactorizationParameters parameters;
+            try {
+                parameters = FactorizationParameters.of(buffer.getInt(), buffer.getInt(), buffer.getDouble());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Parâmetros da fatoração inválidos.", e);
+            }
+            float mean = buffer.getFloat();
+            int k = parameters.getFactors();
+            if (buffer.remaining() != 4L * k * (ratings.numUsers() + ratings.numItems())) {
+                throw new IOException("Tamanho dos fatores inconsistente.");
+            }
+            float[] users = SparseRatings.readFloats(buffer, ratings.numUsers() * k);
+            float[] items = SparseRatings.readFloats(buffer, ratings.numItems() * k);
+            return new Factors(parameters, mean, users, items);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package servico;
+
+import dominio.Book;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Índice de lançamentos: livros ordenados por data de publicação decrescente
+ * e, em caso de empate, por título (o id desempata títulos repetidos).
+ * <p>
+ * A data de publicação de um livro pode mudar ({@link Bookstore#updateBook}),
+ * por isso o índice guarda a data com que cada livro foi indexado. Isso
+ * permite localizar a posição antiga por busca binária e mover o livro para a
+ * nova posição deslocando apenas o trecho entre as duas, sem reconstruir o
+ * índice.
+ */
+final class NewReleaseIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final Comparator<Book> BY_PUB_DATE_DESC
+            = Comparator.comparing(Book::getPubDate).reversed()
+                    .thenComparing(Book::getTitle)
+                    .thenComparingInt(Book::getId);
+
+    private long[] pubDates;
+    private Book[] books;
+    private int size;
+
+    NewReleaseIndex() {
+        pubDates = new long[INITIAL_CAPACITY];
+        books = new Book[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Reconstrói o índice a partir de uma coleção de livros.
+     *
+     * @param catalog Os livros a indexar.
+     */
+    void build(Collection<Book> catalog) {
+        Book[] sorted = catalog.toArray(new Book[0]);
+        Arrays.parallelSort(sorted, BY_PUB_DATE_DESC);
+        long[] keys = new long[Math.max(sorted.length, INITIAL_CAPACITY)];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = sorted[i].getPubDate().getTime();
+        }
+        books = Arrays.copyOf(sorted, keys.length);
+        pubDates = keys;
+        size = sorted.length;
+    }
+
+    /**
+     * Insere um livro na posição correspondente à sua data de publicação.
+     *
+     * @param book O livro a indexar.
+     */
+    void add(Book book) {
+        long pubDate = book.getPubDate().getTime();
+        int position = search(pubDate, book);
+        if (size == pubDates.length) {
+            int capacity = pubDates.length + (pubDates.length >> 1);
+            pubDates = Arrays.copyOf(pubDates, capacity);
+            books = Arrays.copyOf(books, capacity);
+        }
+        System.arraycopy(pubDates, position, pubDates, position + 1, size - position);
+        System.arraycopy(books, position, books, position + 1, size - position);
+        pubDates[position] = pubDate;
+        books[position] = book;
+        size++;
+    }
+
+    /**
+     * Move um livro cuja data de publicação mudou para a sua nova posição.
+     *
+     * @param book O livro, já com a nova data de publicação.
+     * @param previousPubDate A data com que o livro estava indexado.
+     */
+    void reposition(Book book, long previousPubDate) {
+        int from = search(previousPubDate, book);
+        if (from >= size || books[from] != book) {
+            throw new IllegalStateException("Livro " + book.getId()
+                    + " não está indexado com a data " + previousPubDate);
+        }
+        long pubDate = book.getPubDate().getTime();
+        int to = search(pubDate, book);
+        if (to > from) {
+            to--; // a posição de inserção conta com o próprio livro ainda no arranjo
+            System.arraycopy(pubDates, from + 1, pubDates, from, to - from);
+            System.arraycopy(books, from + 1, books, from, to - from);
+        } else if (to < from) {
+            System.arraycopy(pubDates, to, pubDates, to + 1, from - to);
+            System.arraycopy(books, to, books, to + 1, from - to);
+        }
+        pubDates[to] = pubDate;
+        books[to] = book;
+    }
+
+    /**
+     * Retorna os livros mais recentes do índice.
+     *
+     * @param limit O número máximo de livros retornados.
+     * @return Até {@code limit} livros, dos mais recentes para os mais antigos.
+     */
+    List<Book> first(int limit) {
+        return new ArrayList<>(Arrays.asList(books).subList(0, Math.min(limit, size)));
+    }
+
+    /**
+     * Primeira posição cuja chave é maior ou igual a (data, título, id) do
+     * livro, na ordem do índice.
+     */
+    private int search(long pubDate, Book book) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, pubDate, book) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int position, long pubDate, Book book) {
+        int result = Long.compare(pubDate, pubDates[position]);
+        if (result == 0) {
+            result = books[position].getTitle().compareTo(book.getTitle());
+        }
+        return result != 0 ? result : Integer.compare(books[position].getId(), book.getId());
+    }
+}
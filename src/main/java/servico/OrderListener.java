@@ -0,0 +1,37 @@
+package servico;
+
+import dominio.Order;
+import dominio.StatusTypes;
+
+/**
+ * Observador do ciclo de vida dos pedidos de uma {@link Bookstore}.
+ * <p>
+ * As visões materializadas (bestsellers, agregados de vendas etc.) se
+ * registram em cada livraria por {@link Bookstore#addOrderListener} e são
+ * mantidas a cada evento, em vez de varrer o histórico de pedidos a cada
+ * consulta.
+ */
+interface OrderListener {
+
+    /**
+     * Um pedido foi criado (ou já existia quando o observador se registrou).
+     *
+     * @param order O pedido.
+     */
+    void orderCreated(Order order);
+
+    /**
+     * O status de um pedido mudou.
+     *
+     * @param order O pedido, já com o novo status.
+     * @param previous O status anterior.
+     */
+    void orderStatusChanged(Order order, StatusTypes previous);
+
+    /**
+     * Um pedido foi removido do histórico da livraria.
+     *
+     * @param order O pedido.
+     */
+    void orderRemoved(Order order);
+}
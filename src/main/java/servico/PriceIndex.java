@@ -0,0 +1,204 @@
+package servico;
+
+import dominio.Stock;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Índice de preços por livro que atravessa todas as livrarias observadas.
+ * <p>
+ * Para cada livro, guarda os estoques de todas as livrarias em um arranjo
+ * ordenado por preço (e pelo id da livraria, em caso de empate). O menor
+ * preço é o primeiro elemento e as listas ordenadas são visões sobre o
+ * arranjo, sem varrer as livrarias nem ordenar a cada consulta.
+ * <p>
+ * Cada alteração substitui o arranjo do livro por uma cópia; visões já
+ * entregues continuam válidas e consistentes, como um retrato do momento em
+ * que foram obtidas. A troca dos arranjos é sincronizada; as consultas só
+ * travam para obter o arranjo do livro.
+ */
+final class PriceIndex implements StockListener {
+
+    private static final Stock[] NONE = new Stock[0];
+
+    private Stock[][] stocksByBook = new Stock[1024][];
+
+    @Override
+    public synchronized void stockCreated(Stock stock) {
+        int bookId = stock.getBook().getId();
+        if (bookId >= stocksByBook.length) {
+            stocksByBook = Arrays.copyOf(stocksByBook,
+                    Math.max(bookId + 1, stocksByBook.length + (stocksByBook.length >> 1)));
+        }
+        Stock[] current = stocksOf(bookId);
+        int position = -search(current, stock.getCost(), stock.getIdBookstore()) - 1;
+        Stock[] updated = new Stock[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, position);
+        updated[position] = stock;
+        System.arraycopy(current, position, updated, position + 1, current.length - position);
+        stocksByBook[bookId] = updated;
+    }
+
+    @Override
+    public synchronized void stockCostChanged(Stock stock, double previousCost) {
+        int bookId = stock.getBook().getId();
+        Stock[] updated = stocksOf(bookId).clone();
+        int from = locate(updated, stock, previousCost);
+        if (from < 0) {
+            throw new IllegalStateException("Estoque da livraria " + stock.getIdBookstore()
+                    + " não está indexado para o livro " + bookId);
+        }
+        // desloca os vizinhos até o estoque chegar à posição do novo preço
+        while (from > 0 && compare(updated[from - 1], stock.getCost(), stock.getIdBookstore()) > 0) {
+            updated[from] = updated[from - 1];
+            from--;
+        }
+        while (from < updated.length - 1
+                && compare(updated[from + 1], stock.getCost(), stock.getIdBookstore()) < 0) {
+            updated[from] = updated[from + 1];
+            from++;
+        }
+        updated[from] = stock;
+        stocksByBook[bookId] = updated;
+    }
+
+    /**
+     * Retorna o menor preço de um livro entre todas as livrarias.
+     *
+     * @param bookId O id do livro.
+     * @return O menor preço, ou 0 se nenhuma livraria tem o livro.
+     */
+    double lowestCost(int bookId) {
+        Stock[] stocks = stocksOf(bookId);
+        return stocks.length == 0 ? 0.0 : stocks[0].getCost();
+    }
+
+    /**
+     * Retorna os estoques de um livro, do mais barato para o mais caro.
+     *
+     * @param bookId O id do livro.
+     * @return Uma lista imutável.
+     */
+    List<Stock> stocks(int bookId) {
+        return Collections.unmodifiableList(Arrays.asList(stocksOf(bookId)));
+    }
+
+    /**
+     * Retorna os estoques de um livro como um conjunto ordenado por preço.
+     *
+     * @param bookId O id do livro.
+     * @return Um conjunto imutável, iterado do mais barato para o mais caro.
+     */
+    Set<Stock> stocksByCost(int bookId) {
+        return new StockSet(stocksOf(bookId));
+    }
+
+    /**
+     * Retorna o arranjo de estoques de um livro, ordenado por preço. O
+     * arranjo não é mais alterado: cada mudança cria outro.
+     *
+     * @param bookId O id do livro.
+     * @return O arranjo, vazio se nenhuma livraria tem o livro.
+     */
+    synchronized Stock[] stocksOf(int bookId) {
+        Stock[] stocks = bookId >= 0 && bookId < stocksByBook.length ? stocksByBook[bookId] : null;
+        return stocks == null ? NONE : stocks;
+    }
+
+    /**
+     * Busca binária pela chave (preço, livraria); segue a convenção de
+     * {@link Arrays#binarySearch(Object[], Object)} para chaves ausentes.
+     */
+    private static int search(Stock[] stocks, double cost, int idBookstore) {
+        int low = 0;
+        int high = stocks.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = compare(stocks[mid], cost, idBookstore);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Posição de um estoque cujo preço acabou de mudar: no arranjo ele ainda
+     * está na posição do preço anterior, que é o usado na comparação. Se o
+     * preço de um vizinho também mudou e o aviso dele ainda não chegou, a
+     * busca binária pode se perder; o estoque é então procurado um a um.
+     */
+    private static int locate(Stock[] stocks, Stock stock, double previousCost) {
+        int low = 0;
+        int high = stocks.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (stocks[mid] == stock) {
+                return mid;
+            }
+            int result = compare(stocks[mid], previousCost, stock.getIdBookstore());
+            if (result < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = 0; i < stocks.length; i++) {
+            if (stocks[i] == stock) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(Stock stock, double cost, int idBookstore) {
+        int result = Double.compare(stock.getCost(), cost);
+        return result != 0 ? result : Integer.compare(stock.getIdBookstore(), idBookstore);
+    }
+
+    /**
+     * Conjunto imutável sobre um arranjo de estoques já ordenado por preço.
+     */
+    static final class StockSet extends AbstractSet<Stock> {
+
+        private final Stock[] stocks;
+
+        StockSet(Stock[] stocks) {
+            this.stocks = stocks;
+        }
+
+        @Override
+        public Iterator<Stock> iterator() {
+            return new Iterator<Stock>() {
+                private int position;
+
+                @Override
+                public boolean hasNext() {
+                    return position < stocks.length;
+                }
+
+                @Override
+                public Stock next() {
+                    if (position >= stocks.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return stocks[position++];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return stocks.length;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package servico;
+
+import dominio.Evaluation;
+import dominio.Rating;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * Repositório das avaliações, indexado por cliente e por livro.
+ * <p>
+ * As avaliações ficam em dois níveis de {@link FastByIDMap} (mapas com chave
+ * primitiva do Mahout): cliente → livro → avaliação e livro → cliente →
+ * avaliação. Assim a busca de uma avaliação é O(1), as avaliações de um
+ * cliente ou de um livro são percorridas em O(grau) e saber se um cliente já
+ * avaliou algum livro custa O(1).
+ * <p>
+ * Continua sendo um {@link java.util.Set} de {@link Rating}, com a mesma
+ * unicidade pelo par cliente/livro; a iteração percorre as avaliações
+ * agrupadas por cliente.
+ * <p>
+ * Os mapas não são seguros para acesso concorrente, então ficam atrás de uma
+ * trava de leitura e escrita: as consultas correm em paralelo entre si, e
+ * cada alteração é exclusiva. Nada sai do repositório como visão dos mapas:
+ * as coleções, a iteração e os streams trabalham sobre cópias tiradas sob a
+ * trava.
+ * <p>
+ * Toda alteração incrementa uma versão ({@link #version()}) e atualiza uma
+ * soma de verificação do conteúdo ({@link #checksum()}), que não depende da
+ * ordem das alterações; juntas, elas dizem se um modelo treinado antes
+ * corresponde às avaliações atuais.
+ */
+public final class RatingStore extends AbstractSet<Rating> {
+
+    private final FastByIDMap<FastByIDMap<Rating>> byCustomer = new FastByIDMap<>();
+    private final FastByIDMap<FastByIDMap<Rating>> byBook = new FastByIDMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int size;
+    private long version;
+    private long checksum;
+
+    /**
+     * Inclui a avaliação, substituindo a existente para o mesmo par
+     * cliente/livro.
+     *
+     * @param rating A avaliação.
+     * @return A avaliação substituída, ou {@code null}.
+     */
+    public Rating put(Rating rating) {
+        lock.writeLock().lock();
+        try {
+            return putLocked(rating);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Rating putLocked(Rating rating) {
+        long customerId = rating.getCustomer().getId();
+        long bookId = rating.getBook().getId();
+        Rating previous = index(byCustomer, customerId, bookId, rating);
+        index(byBook, bookId, customerId, rating);
+        if (previous == null) {
+            size++;
+        } else {
+            checksum -= hash(previous);
+        }
+        checksum += hash(rating);
+        version++;
+        return previous;
+    }
+
+    /**
+     * Busca a avaliação de um cliente para um livro.
+     *
+     * @param customerId O id do cliente.
+     * @param bookId O id do livro.
+     * @return A avaliação, ou {@code null} se não houver.
+     */
+    public Rating get(int customerId, int bookId) {
+        lock.readLock().lock();
+        try {
+            return getLocked(customerId, bookId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Rating getLocked(long customerId, long bookId) {
+        FastByIDMap<Rating> ratings = byCustomer.get(customerId);
+        return ratings == null ? null : ratings.get(bookId);
+    }
+
+    /**
+     * @param customerId O id do cliente.
+     * @return Uma cópia das avaliações feitas pelo cliente.
+     */
+    public Collection<Rating> byCustomer(int customerId) {
+        return valuesOf(byCustomer, customerId);
+    }
+
+    /**
+     * @param bookId O id do livro.
+     * @return Uma cópia das avaliações recebidas pelo livro.
+     */
+    public Collection<Rating> byBook(int bookId) {
+        return valuesOf(byBook, bookId);
+    }
+
+    /**
+     * @param customerId O id do cliente.
+     * @return {@code true} se o cliente avaliou ao menos um livro.
+     */
+    public boolean hasRatings(int customerId) {
+        lock.readLock().lock();
+        try {
+            return byCustomer.containsKey(customerId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Percorre as avaliações como {@link Evaluation}, agrupadas por cliente.
+     * Só as referências às avaliações são copiadas, sob a trava; a conversão
+     * acontece à medida que o stream é consumido.
+     *
+     * @return Um stream sobre as avaliações no momento da chamada.
+     */
+    public Stream<Evaluation> evaluations() {
+        return Arrays.stream(snapshot()).map(rating -> new Evaluation(
+                rating.getCustomer().getId(),
+                rating.getBook().getId(),
+                rating.getRating()));
+    }
+
+    @Override
+    public boolean add(Rating rating) {
+        lock.writeLock().lock();
+        try {
+            if (containsLocked(rating)) {
+                return false;
+            }
+            putLocked(rating);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        lock.readLock().lock();
+        try {
+            return containsLocked(o);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean containsLocked(Object o) {
+        if (!(o instanceof Rating)) {
+            return false;
+        }
+        Rating rating = (Rating) o;
+        Rating stored = getLocked(rating.getCustomer().getId(), rating.getBook().getId());
+        return stored != null && stored.equals(rating);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.writeLock().lock();
+        try {
+            if (!containsLocked(o)) {
+                return false;
+            }
+            Rating rating = (Rating) o;
+            int customerId = rating.getCustomer().getId();
+            int bookId = rating.getBook().getId();
+            checksum -= hash(getLocked(customerId, bookId));
+            unindex(byCustomer, customerId, bookId);
+            unindex(byBook, bookId, customerId);
+            size--;
+            version++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            byCustomer.clear();
+            byBook.clear();
+            size = 0;
+            checksum = 0;
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return O número de alterações feitas desde a criação do repositório.
+     */
+    public long version() {
+        lock.readLock().lock();
+        try {
+            return version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Uma soma de verificação das avaliações atuais: dois repositórios
+     * com as mesmas avaliações têm a mesma soma.
+     */
+    public long checksum() {
+        lock.readLock().lock();
+        try {
+            return checksum;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Itera, agrupando por cliente, sobre uma cópia das avaliações tirada na
+     * chamada. A remoção deve ser feita por {@link #remove(Object)}.
+     */
+    @Override
+    public Iterator<Rating> iterator() {
+        return Collections.unmodifiableList(Arrays.asList(snapshot())).iterator();
+    }
+
+    @Override
+    public Object[] toArray() {
+        return snapshot();
+    }
+
+    /**
+     * @return As avaliações atuais, agrupadas por cliente.
+     */
+    private Rating[] snapshot() {
+        lock.readLock().lock();
+        try {
+            Rating[] all = new Rating[size];
+            int n = 0;
+            for (FastByIDMap<Rating> group : byCustomer.values()) {
+                for (Rating rating : group.values()) {
+                    all[n++] = rating;
+                }
+            }
+            return all;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Espalha os bits de cliente, livro e nota (finalizador do SplitMix64),
+     * para que a soma dos hashes dependa de cada avaliação.
+     */
+    private static long hash(Rating rating) {
+        long h = ((long) rating.getCustomer().getId() << 32) ^ ((long) rating.getBook().getId() << 8)
+                ^ rating.getRating();
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private static Rating index(FastByIDMap<FastByIDMap<Rating>> index, long key,
+            long innerKey, Rating rating) {
+        FastByIDMap<Rating> group = index.get(key);
+        if (group == null) {
+            group = new FastByIDMap<>();
+            index.put(key, group);
+        }
+        return group.put(innerKey, rating);
+    }
+
+    private static void unindex(FastByIDMap<FastByIDMap<Rating>> index, long key, long innerKey) {
+        FastByIDMap<Rating> group = index.get(key);
+        group.remove(innerKey);
+        if (group.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private Collection<Rating> valuesOf(FastByIDMap<FastByIDMap<Rating>> index, long key) {
+        lock.readLock().lock();
+        try {
+            FastByIDMap<Rating> group = index.get(key);
+            if (group == null) {
+                return Collections.emptyList();
+            }
+            List<Rating> values = new ArrayList<>(group.size());
+            values.addAll(group.values());
+            return values;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package servico;
+
+import dominio.BestsellerBook;
+import dominio.Category;
+import dominio.SUBJECTS;
+import dominio.Stock;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Retrato imutável do que as consultas de bestsellers e de preços leem,
+ * publicado por {@link ReadSnapshotPublisher} e lido sem trava.
+ * <p>
+ * Os preços ficam em segmentos de {@value #SEGMENT} livros: um retrato novo
+ * copia só os segmentos dos livros alterados e compartilha os demais com o
+ * anterior. Os bestsellers guardam os {@value #MAX_BESTSELLERS} primeiros do
+ * ranking geral e de cada assunto, e só as listas alteradas são refeitas.
+ * <p>
+ * Os estoques entregues são os objetos das livrarias, cuja quantidade pode
+ * ser mais recente que o retrato; a ordem e os preços são os da publicação.
+ */
+final class ReadSnapshot {
+
+    static final int SEGMENT = 256;
+    static final int MAX_BESTSELLERS = 100;
+
+    static final ReadSnapshot EMPTY = new ReadSnapshot(0, Bestsellers.EMPTY, new Prices[0][]);
+
+    private final long version;
+    private final Bestsellers bestsellers;
+    private final Prices[][] prices;
+
+    ReadSnapshot(long version, Bestsellers bestsellers, Prices[][] prices) {
+        this.version = version;
+        this.bestsellers = bestsellers;
+        this.prices = prices;
+    }
+
+    /**
+     * @return O número da publicação, crescente.
+     */
+    long version() {
+        return version;
+    }
+
+    Bestsellers bestsellers() {
+        return bestsellers;
+    }
+
+    /**
+     * @return Os segmentos de preços, para o publicador derivar o próximo
+     * retrato; não devem ser alterados.
+     */
+    Prices[][] segments() {
+        return prices;
+    }
+
+    /**
+     * Retorna os livros mais vendidos.
+     *
+     * @param category O assunto, ou {@code null} para todo o catálogo.
+     * @param limit O número máximo de livros, até {@value #MAX_BESTSELLERS}.
+     * @return Uma lista imutável, por vendas decrescentes e título.
+     */
+    List<BestsellerBook> bestsellers(Category category, int limit) {
+        return bestsellers.top(category, limit);
+    }
+
+    /**
+     * Retorna os estoques e preços de um livro.
+     *
+     * @param bookId O id do livro.
+     * @return Os preços, vazios se nenhuma livraria tem o livro.
+     */
+    Prices prices(int bookId) {
+        int segment = bookId / SEGMENT;
+        if (bookId < 0 || segment >= prices.length || prices[segment] == null) {
+            return Prices.NONE;
+        }
+        Prices result = prices[segment][bookId % SEGMENT];
+        return result == null ? Prices.NONE : result;
+    }
+
+    /**
+     * Os estoques de um livro, do mais barato para o mais caro, com os preços
+     * do momento da publicação.
+     */
+    static final class Prices {
+
+        static final Prices NONE = new Prices(new Stock[0]);
+
+        private final Stock[] stocks;
+        private final double[] costs;
+
+        /**
+         * Lê o preço de cada estoque uma vez e ordena os estoques por esses
+         * preços (e pela livraria, em caso de empate), de modo que a ordem e
+         * os preços entregues concordam mesmo se um preço mudou depois de
+         * indexado. São poucos estoques por livro, um por livraria.
+         *
+         * @param stocks Os estoques, em qualquer ordem; o arranjo não é
+         * alterado.
+         */
+        Prices(Stock[] stocks) {
+            this.stocks = stocks.clone();
+            this.costs = new double[stocks.length];
+            for (int i = 0; i < stocks.length; i++) {
+                Stock stock = this.stocks[i];
+                double cost = stock.getCost();
+                int j = i;
+                for (; j > 0 && (costs[j - 1] > cost || costs[j - 1] == cost
+                        && this.stocks[j - 1].getIdBookstore() > stock.getIdBookstore()); j--) {
+                    this.stocks[j] = this.stocks[j - 1];
+                    costs[j] = costs[j - 1];
+                }
+                this.stocks[j] = stock;
+                costs[j] = cost;
+            }
+        }
+
+        /**
+         * @return O menor preço, ou 0 se nenhuma livraria tem o livro.
+         */
+        double lowestCost() {
+            return costs.length == 0 ? 0.0 : costs[0];
+        }
+
+        List<Stock> stocks() {
+            return Collections.unmodifiableList(Arrays.asList(stocks));
+        }
+
+        List<Double> costs() {
+            return new DoubleList(costs);
+        }
+
+        /**
+         * @return Um conjunto imutável, iterado do mais barato para o mais
+         * caro.
+         */
+        Set<Stock> stocksByCost() {
+            return new PriceIndex.StockSet(stocks);
+        }
+    }
+
+    /**
+     * Os primeiros livros do ranking de vendas, geral e por assunto.
+     */
+    static final class Bestsellers {
+
+        static final Bestsellers EMPTY = new Bestsellers(Collections.emptyList(),
+                new EnumMap<>(SUBJECTS.class));
+
+        private final List<BestsellerBook> all;
+        private final Map<SUBJECTS, List<BestsellerBook>> bySubject;
+
+        /**
+         * @param all Os primeiros do ranking geral.
+         * @param bySubject Os primeiros de cada assunto; assuntos ausentes
+         * não têm vendas.
+         */
+        Bestsellers(List<BestsellerBook> all, Map<SUBJECTS, List<BestsellerBook>> bySubject) {
+            this.all = Collections.unmodifiableList(all);
+            this.bySubject = bySubject;
+        }
+
+        List<BestsellerBook> top(Category category, int limit) {
+            List<BestsellerBook> source;
+            if (category == null) {
+                source = all;
+            } else if (category instanceof SUBJECTS) {
+                source = bySubject.getOrDefault((SUBJECTS) category, Collections.emptyList());
+            } else {
+                return Collections.emptyList();
+            }
+            return source.subList(0, Math.min(limit, source.size()));
+        }
+
+        /**
+         * Deriva um retrato com novas listas para o ranking geral e para os
+         * assuntos dados, mantendo as demais.
+         */
+        Bestsellers with(List<BestsellerBook> all, Map<SUBJECTS, List<BestsellerBook>> changed) {
+            Map<SUBJECTS, List<BestsellerBook>> bySubject = new EnumMap<>(SUBJECTS.class);
+            bySubject.putAll(this.bySubject);
+            changed.forEach((subject, top) -> bySubject.put(subject,
+                    Collections.unmodifiableList(top)));
+            return new Bestsellers(all, bySubject);
+        }
+    }
+
+    /**
+     * Lista imutável sobre um arranjo de preços, sem criar os objetos
+     * {@link Double} antes de serem lidos.
+     */
+    private static final class DoubleList extends AbstractList<Double> implements RandomAccess {
+
+        private final double[] values;
+
+        DoubleList(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package servico;
+
+import dominio.Order;
+import dominio.StatusTypes;
+import dominio.Stock;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publica os retratos ({@link ReadSnapshot}) lidos pelas consultas de
+ * bestsellers e de preços, a partir de {@link BestsellerView} e
+ * {@link PriceIndex}.
+ * <p>
+ * Observa as mesmas livrarias que as visões, registrado depois delas: cada
+ * evento já encontra a visão atualizada, marca o livro alterado e conta uma
+ * mudança. Uma publicação refaz só os segmentos de preços dos livros
+ * marcados e as listas de bestsellers dos assuntos alterados.
+ * <p>
+ * Garantias de atualidade:
+ * <ul>
+ * <li>Cada ação da máquina de estados publica um retrato antes de retornar;
+ * uma consulta iniciada depois enxerga a ação e todas as anteriores.</li>
+ * <li>As publicações são numeradas em ordem crescente, e uma consulta nunca
+ * enxerga um retrato mais antigo que o de uma consulta que terminou antes
+ * dela.</li>
+ * <li>Ações em andamento em outras threads podem aparecer em parte: cada
+ * livro e cada ranking refletem um estado que de fato existiu, mas livros
+ * diferentes podem refletir momentos diferentes dentro da mesma
+ * publicação.</li>
+ * <li>Alterações feitas diretamente nas livrarias, fora da máquina de
+ * estados, são publicadas pela primeira consulta seguinte, que nesse caso
+ * paga a publicação.</li>
+ * </ul>
+ * Sem mudanças pendentes, uma consulta lê duas variáveis voláteis e o retrato,
+ * sem trava.
+ */
+final class ReadSnapshotPublisher implements StockListener, OrderListener {
+
+    private final BestsellerView bestsellers;
+    private final PriceIndex priceIndex;
+    private final Set<Integer> changedBooks = ConcurrentHashMap.newKeySet();
+    private final AtomicLong changes = new AtomicLong();
+    // mudanças contadas até a última publicação; escrito depois de current
+    private volatile long published;
+    private volatile ReadSnapshot current = ReadSnapshot.EMPTY;
+
+    ReadSnapshotPublisher(BestsellerView bestsellers, PriceIndex priceIndex) {
+        this.bestsellers = bestsellers;
+        this.priceIndex = priceIndex;
+    }
+
+    @Override
+    public void stockCreated(Stock stock) {
+        bookChanged(stock);
+    }
+
+    @Override
+    public void stockCostChanged(Stock stock, double previousCost) {
+        bookChanged(stock);
+    }
+
+    private void bookChanged(Stock stock) {
+        changedBooks.add(stock.getBook().getId());
+        changes.incrementAndGet();
+    }
+
+    @Override
+    public void orderCreated(Order order) {
+        changes.incrementAndGet();
+    }
+
+    @Override
+    public void orderStatusChanged(Order order, StatusTypes previous) {
+        changes.incrementAndGet();
+    }
+
+    @Override
+    public void orderRemoved(Order order) {
+        changes.incrementAndGet();
+    }
+
+    /**
+     * Retorna o retrato mais recente, publicando antes as mudanças ainda não
+     * publicadas.
+     *
+     * @return O retrato.
+     */
+    ReadSnapshot current() {
+        if (changes.get() != published) {
+            return publish();
+        }
+        return current;
+    }
+
+    /**
+     * Publica um retrato com as mudanças contadas até aqui, se houver.
+     *
+     * @return O retrato publicado.
+     */
+    synchronized ReadSnapshot publish() {
+        long seen = changes.get();
+        ReadSnapshot previous = current;
+        if (seen == published) {
+            return previous;
+        }
+        ReadSnapshot.Bestsellers top = bestsellers.publish(previous.bestsellers());
+        ReadSnapshot.Prices[][] segments = previous.segments();
+        if (!changedBooks.isEmpty()) {
+            segments = publishPrices(segments);
+        }
+        if (top != previous.bestsellers() || segments != previous.segments()) {
+            current = new ReadSnapshot(previous.version() + 1, top, segments);
+        }
+        published = seen;
+        return current;
+    }
+
+    /**
+     * Copia os segmentos anteriores e substitui, nas cópias, os preços dos
+     * livros marcados; os segmentos sem livros marcados são compartilhados.
+     */
+    private ReadSnapshot.Prices[][] publishPrices(ReadSnapshot.Prices[][] previous) {
+        ReadSnapshot.Prices[][] segments = previous.clone();
+        boolean[] copied = new boolean[segments.length];
+        for (Iterator<Integer> i = changedBooks.iterator(); i.hasNext();) {
+            int bookId = i.next();
+            i.remove();
+            int segment = bookId / ReadSnapshot.SEGMENT;
+            if (segment >= segments.length) {
+                int length = Math.max(segment + 1, segments.length + (segments.length >> 1));
+                segments = Arrays.copyOf(segments, length);
+                copied = Arrays.copyOf(copied, length);
+            }
+            if (!copied[segment]) {
+                segments[segment] = segments[segment] == null
+                        ? new ReadSnapshot.Prices[ReadSnapshot.SEGMENT] : segments[segment].clone();
+                copied[segment] = true;
+            }
+            segments[segment][bookId % ReadSnapshot.SEGMENT]
+                    = new ReadSnapshot.Prices(priceIndex.stocksOf(bookId));
+        }
+        return segments;
+    }
+}
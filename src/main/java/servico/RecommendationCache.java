@@ -0,0 +1,268 @@
+package servico;
+
+import dominio.Book;
+import dominio.Order;
+import dominio.OrderLine;
+import dominio.Rating;
+import dominio.StatusTypes;
+import dominio.Stock;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache das recomendações com preço por cliente, limitado em tamanho e com
+ * descarte do menos usado recentemente.
+ * <p>
+ * Cada resultado guardado registra do que depende: os livros recomendados
+ * (cujo preço muda com o custo dos estoques e com as vendas) e os vizinhos do
+ * cliente no recomendador. Índices reversos levam de um livro ou de um
+ * vizinho aos clientes afetados, de modo que uma avaliação, uma mudança de
+ * preço ou um pedido invalidam apenas esses clientes.
+ * <p>
+ * Uma avaliação do cliente {@code c} para o livro {@code b} muda as
+ * recomendações de {@code c}, de quem avaliou {@code b} (a similaridade de
+ * Pearson com {@code c} mudou) e de quem tem {@code c} como vizinho. Um
+ * resultado só é guardado se nada foi invalidado durante o seu cálculo
+ * ({@link #generation()}), nem um novo modelo foi publicado
+ * ({@link #modelPublished()}): um cálculo iniciado com a avaliação ainda
+ * pendente usou o modelo anterior.
+ */
+final class RecommendationCache implements StockListener, OrderListener {
+
+    private final Map<Integer, CachedRecommendations> entries;
+    private final Map<Integer, Set<Integer>> customersByBook = new HashMap<>();
+    private final Map<Long, Set<Integer>> customersByNeighbor = new HashMap<>();
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param capacity O número máximo de clientes guardados.
+     */
+    RecommendationCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("A capacidade do cache deve ser positiva.");
+        }
+        this.entries = new LinkedHashMap<Integer, CachedRecommendations>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedRecommendations> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                unindex(eldest.getKey(), eldest.getValue());
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param customerId O id do cliente.
+     * @return Uma cópia das recomendações guardadas, ou {@code null}.
+     */
+    synchronized Map<Book, Double> get(int customerId) {
+        CachedRecommendations entry = entries.get(customerId);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new LinkedHashMap<>(entry.prices);
+    }
+
+    /**
+     * @return Um contador que muda a cada invalidação; informado a
+     * {@link #put} para descartar resultados calculados sobre dados que
+     * mudaram no meio do cálculo.
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Guarda as recomendações de um cliente.
+     *
+     * @param customerId O id do cliente.
+     * @param prices Os livros recomendados e os seus preços.
+     * @param neighbors Os vizinhos do cliente usados no cálculo.
+     * @param generation O valor de {@link #generation()} antes do cálculo.
+     */
+    synchronized void put(int customerId, Map<Book, Double> prices, long[] neighbors, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        CachedRecommendations previous = entries.remove(customerId);
+        if (previous != null) {
+            unindex(customerId, previous);
+        }
+        CachedRecommendations entry = new CachedRecommendations(new LinkedHashMap<>(prices), neighbors);
+        entries.put(customerId, entry);
+        for (Book book : entry.prices.keySet()) {
+            customersByBook.computeIfAbsent(book.getId(), id -> new HashSet<>()).add(customerId);
+        }
+        for (long neighbor : neighbors) {
+            customersByNeighbor.computeIfAbsent(neighbor, id -> new HashSet<>()).add(customerId);
+        }
+    }
+
+    /**
+     * Invalida os clientes afetados por uma avaliação.
+     *
+     * @param customerId O cliente que avaliou.
+     * @param raters As avaliações do livro avaliado.
+     */
+    synchronized void ratingChanged(int customerId, Collection<Rating> raters) {
+        generation++;
+        invalidate(customerId);
+        for (Rating rating : raters) {
+            invalidate(rating.getCustomer().getId());
+        }
+        Set<Integer> dependents = customersByNeighbor.get((long) customerId);
+        if (dependents != null) {
+            for (Integer dependent : dependents.toArray(new Integer[0])) {
+                invalidate(dependent);
+            }
+        }
+    }
+
+    /**
+     * Registra a publicação de um novo modelo: os resultados em cálculo sobre
+     * o anterior não são guardados. Os já guardados continuam, pois as
+     * avaliações que o novo modelo aplicou já os invalidaram.
+     */
+    synchronized void modelPublished() {
+        generation++;
+    }
+
+    /**
+     * Descarta todos os resultados, como depois de recarregar o modelo.
+     */
+    synchronized void clear() {
+        generation++;
+        invalidations += entries.size();
+        entries.clear();
+        customersByBook.clear();
+        customersByNeighbor.clear();
+    }
+
+    @Override
+    public void stockCreated(Stock stock) {
+        bookChanged(stock.getBook().getId());
+    }
+
+    @Override
+    public void stockCostChanged(Stock stock, double previousCost) {
+        bookChanged(stock.getBook().getId());
+    }
+
+    @Override
+    public void orderCreated(Order order) {
+        linesChanged(order);
+    }
+
+    @Override
+    public void orderStatusChanged(Order order, StatusTypes previous) {
+        // o preço médio considera todos os pedidos, qualquer que seja o status
+    }
+
+    @Override
+    public void orderRemoved(Order order) {
+        linesChanged(order);
+    }
+
+    /**
+     * @return A fração das consultas atendidas pelo cache.
+     */
+    synchronized double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return Quantos resultados foram descartados por falta de espaço.
+     */
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Quantos resultados foram descartados por mudanças nos dados.
+     */
+    synchronized long invalidations() {
+        return invalidations;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void linesChanged(Order order) {
+        for (OrderLine line : order.getLines()) {
+            bookChanged(line.getBook().getId());
+        }
+    }
+
+    private synchronized void bookChanged(int bookId) {
+        generation++;
+        Set<Integer> customers = customersByBook.get(bookId);
+        if (customers != null) {
+            for (Integer customerId : customers.toArray(new Integer[0])) {
+                invalidate(customerId);
+            }
+        }
+    }
+
+    private void invalidate(int customerId) {
+        CachedRecommendations entry = entries.remove(customerId);
+        if (entry != null) {
+            unindex(customerId, entry);
+            invalidations++;
+        }
+    }
+
+    private void unindex(int customerId, CachedRecommendations entry) {
+        for (Book book : entry.prices.keySet()) {
+            remove(customersByBook, book.getId(), customerId);
+        }
+        for (long neighbor : entry.neighbors) {
+            remove(customersByNeighbor, neighbor, customerId);
+        }
+    }
+
+    private static <K> void remove(Map<K, Set<Integer>> index, K key, int customerId) {
+        Set<Integer> customers = index.get(key);
+        if (customers != null) {
+            customers.remove(customerId);
+            if (customers.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static final class CachedRecommendations {
+
+        private final Map<Book, Double> prices;
+        private final long[] neighbors;
+
+        CachedRecommendations(Map<Book, Double> prices, long[] neighbors) {
+            this.prices = prices;
+            this.neighbors = neighbors;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package servico;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Arquivo binário com o modelo de recomendação treinado.
+ * <p>
+ * Formato: um cabeçalho com o número mágico, a versão do formato, a versão
+ * das avaliações usadas no treino e a soma de verificação do seu conteúdo
+ * (ver {@link RatingStore}), seguido dos arranjos de {@link SparseRatings}
+ * e, opcionalmente, dos fatores de {@link MatrixFactorizationEngine}, que
+ * vão até o fim do arquivo. A versão 1 do formato, sem fatores, continua
+ * sendo lida.
+ * <p>
+ * Gravação e leitura usam arquivos mapeados em memória: os arranjos são
+ * copiados em bloco, sem reconstruir os índices. A gravação é feita em um
+ * arquivo temporário, movido por cima do anterior só no final, de modo que
+ * uma falha no meio nunca deixa um modelo pela metade.
+ */
+final class RecommendationModelFile {
+
+    private static final int MAGIC = 0x424D524D; // "BMRM"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+    private RecommendationModelFile() {
+    }
+
+    /**
+     * Um modelo lido do arquivo.
+     */
+    static final class Contents {
+
+        final SparseRatings ratings;
+        // null se o modelo foi gravado sem fatores
+        final MatrixFactorizationEngine.Factors factors;
+
+        Contents(SparseRatings ratings, MatrixFactorizationEngine.Factors factors) {
+            this.ratings = ratings;
+            this.factors = factors;
+        }
+    }
+
+    /**
+     * Grava o modelo.
+     *
+     * @param file O arquivo.
+     * @param ratings As avaliações do modelo.
+     * @param factors Os fatores do modelo, ou {@code null} se ele não os tem.
+     * @param ratingVersion A versão das avaliações.
+     * @param ratingChecksum A soma de verificação das avaliações.
+     * @throws IOException se o arquivo não puder ser gravado.
+     */
+    static void write(Path file, SparseRatings ratings, MatrixFactorizationEngine.Factors factors,
+            long ratingVersion, long ratingChecksum) throws IOException {
+        long size = HEADER_SIZE + ratings.serializedSize() + (factors == null ? 0 : factors.serializedSize());
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Modelo grande demais para um único mapeamento: " + size + " bytes.");
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(ratingVersion).putLong(ratingChecksum);
+            ratings.write(buffer);
+            if (factors != null) {
+                factors.write(buffer);
+            }
+            buffer.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lê o modelo, se ele corresponde às avaliações atuais.
+     *
+     * @param file O arquivo.
+     * @param ratingVersion A versão atual das avaliações.
+     * @param ratingChecksum A soma de verificação atual das avaliações.
+     * @return As avaliações e os fatores do modelo, ou {@code null} se ele foi
+     * treinado com uma versão mais antiga ou com outras avaliações.
+     * @throws IOException se o arquivo não existe, não pode ser lido ou não é
+     * um modelo neste formato.
+     */
+    static Contents read(Path file, long ratingVersion, long ratingChecksum) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Tamanho inválido para um modelo: " + size + " bytes.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("O arquivo não contém um modelo de recomendação.");
+            }
+            int format = buffer.getInt();
+            if (format != 1 && format != FORMAT_VERSION) {
+                throw new IOException("Formato de modelo não suportado: " + format + ".");
+            }
+            long savedVersion = buffer.getLong();
+            long savedChecksum = buffer.getLong();
+            if (savedVersion < ratingVersion || savedChecksum != ratingChecksum) {
+                return null;
+            }
+            SparseRatings ratings = SparseRatings.read(buffer);
+            if (!buffer.hasRemaining()) {
+                return new Contents(ratings, null);
+            }
+            if (format == 1) {
+                throw new IOException("Tamanho do modelo inconsistente.");
+            }
+            return new Contents(ratings, MatrixFactorizationEngine.Factors.read(buffer, ratings));
+        }
+    }
+}
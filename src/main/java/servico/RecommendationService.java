@@ -2,26 +2,18 @@ package servico;
 
 import dominio.Evaluation;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
-import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
-import org.apache.mahout.cf.taste.impl.model.GenericPreference;
-import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
-import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
-import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
-import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
-import org.apache.mahout.cf.taste.model.DataModel;
-import org.apache.mahout.cf.taste.model.Preference;
-import org.apache.mahout.cf.taste.model.PreferenceArray;
-import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
-import org.apache.mahout.cf.taste.recommender.RecommendedItem;
-import org.apache.mahout.cf.taste.recommender.UserBasedRecommender;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 /**
  * Serviço dedicado a encapsular a lógica do motor de recomendação Apache Mahout.
@@ -29,18 +21,183 @@ import java.util.stream.Collectors;
  * Esta classe é responsável por inicializar o DataModel com as avaliações dos
  * usuários, configurar os algoritmos de similaridade e vizinhança, e gerar as
  * recomendações de livros "cruas" (sem a lógica de preço).
+ * <p>
+ * O modelo treinado fica em um retrato imutável ({@link Snapshot}), publicado
+ * por uma única troca atômica; as consultas leem o retrato atual e nunca
+ * bloqueiam. As avaliações incluídas, alteradas ou removidas
+ * ({@link #upsertRating}, {@link #removeRating}) são acumuladas e aplicadas
+ * em segundo plano, em uma única thread: uma sequência de avaliações gera no
+ * máximo uma reconstrução por vez, que aproveita do modelo anterior o que as
+ * alterações não afetam.
+ * <p>
+ * O modelo pode ser o do próprio Mahout, um equivalente em matrizes esparsas
+ * ou uma fatoração de matrizes ({@link Engine}), escolhido na construção do
+ * serviço.
  */
 public class RecommendationService {
 
-    private UserBasedRecommender recommender;
-    private DataModel dataModel;
-    private boolean isInitialized = false;
-    private static final int NEIGHBORHOOD_SIZE = 10;
+    /**
+     * Implementações do modelo de recomendação. As baseadas em usuários usam
+     * a similaridade de Pearson e a vizinhança dos 10 usuários mais
+     * similares; {@link #MAHOUT} e {@link #SPARSE} produzem as mesmas
+     * recomendações, e {@link #APPROXIMATE} troca parte da exatidão da
+     * vizinhança por consultas de custo limitado. {@link #FACTORIZATION}
+     * substitui a vizinhança por fatores latentes.
+     */
+    public enum Engine {
+
+        /**
+         * Os objetos do Apache Mahout ({@code GenericUserBasedRecommender}),
+         * com caches de similaridade e de vizinhança.
+         */
+        MAHOUT {
+            @Override
+            RecommenderEngine build(Stream<Evaluation> evaluations, LshParameters lsh,
+                FactorizationParameters factorization) throws TasteException {
+                return MahoutRecommenderEngine.build(evaluations);
+            }
+
+            @Override
+            RecommenderEngine load(SparseRatings ratings, MatrixFactorizationEngine.Factors factors,
+                LshParameters lsh, FactorizationParameters factorization) throws TasteException {
+                return MahoutRecommenderEngine.build(ratings.evaluations());
+            }
+        },
+
+        /**
+         * Matrizes esparsas em arranjos primitivos, calculando similaridades
+         * e vizinhanças a cada consulta sem alocação. Ocupa uma fração da
+         * memória do Mahout e responde mais rápido que ele sem cache.
+         */
+        SPARSE {
+            @Override
+            RecommenderEngine build(Stream<Evaluation> evaluations, LshParameters lsh,
+                FactorizationParameters factorization) {
+                return SparseRecommenderEngine.build(evaluations);
+            }
+
+            @Override
+            RecommenderEngine load(SparseRatings ratings, MatrixFactorizationEngine.Factors factors,
+                LshParameters lsh, FactorizationParameters factorization) {
+                return SparseRecommenderEngine.of(ratings);
+            }
+        },
+
+        /**
+         * As matrizes esparsas de {@link #SPARSE} com a vizinhança aproximada
+         * por hashing sensível à localidade ({@link LshParameters}): a
+         * correlação é calculada apenas para um número limitado de
+         * candidatos, em vez de para todos os usuários com livros em comum.
+         */
+        APPROXIMATE {
+            @Override
+            RecommenderEngine build(Stream<Evaluation> evaluations, LshParameters lsh,
+                FactorizationParameters factorization) {
+                return SparseRecommenderEngine.approximate(SparseRatings.of(evaluations), lsh);
+            }
+
+            @Override
+            RecommenderEngine load(SparseRatings ratings, MatrixFactorizationEngine.Factors factors,
+                LshParameters lsh, FactorizationParameters factorization) {
+                return SparseRecommenderEngine.approximate(ratings, lsh);
+            }
+        },
+
+        /**
+         * Fatoração de matrizes por mínimos quadrados alternados
+         * ({@link FactorizationParameters}), treinada em paralelo. O modelo
+         * tem tamanho fixo por cliente e por livro, e uma consulta custa o
+         * mesmo para qualquer cliente: um produto escalar por livro. Não há
+         * vizinhança ({@link RecommendationService#getNeighbors} fica vazio).
+         */
+        FACTORIZATION {
+            @Override
+            RecommenderEngine build(Stream<Evaluation> evaluations, LshParameters lsh,
+                    FactorizationParameters factorization) {
+                return MatrixFactorizationEngine.train(SparseRatings.of(evaluations), factorization);
+            }
+
+            @Override
+            RecommenderEngine load(SparseRatings ratings, MatrixFactorizationEngine.Factors factors,
+                LshParameters lsh, FactorizationParameters factorization) {
+                if (factors != null && factors.parameters.equals(factorization)) {
+                    return MatrixFactorizationEngine.restore(ratings, factors);
+                }
+                return MatrixFactorizationEngine.train(ratings, factorization);
+            }
+        };
+
+        abstract RecommenderEngine build(Stream<Evaluation> evaluations, LshParameters lsh,
+                FactorizationParameters factorization) throws TasteException;
+
+        /**
+         * Constrói o modelo a partir das avaliações lidas de um arquivo e,
+         * quando gravados com os mesmos parâmetros, dos seus fatores.
+         */
+        abstract RecommenderEngine load(SparseRatings ratings, MatrixFactorizationEngine.Factors factors,
+                LshParameters lsh, FactorizationParameters factorization) throws TasteException;
+    }
+
+    private final Engine engine;
+    private final LshParameters lsh;
+    private final FactorizationParameters factorization;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recommendation-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // alterações ainda não publicadas; protegidas pelo monitor do serviço
+    private List<Change> pending = new ArrayList<>();
+    private long pendingSince;
+    private boolean rebuilding;
+    private volatile long lastRebuildNanos;
+    private volatile long rebuilds;
+    private volatile Runnable publishListener;
 
     /**
-     * Construtor padrão.
+     * Construtor padrão, com o modelo em matrizes esparsas
+     * ({@link Engine#SPARSE}).
      */
     public RecommendationService() {
+        this(Engine.SPARSE);
+    }
+
+    /**
+     * @param engine A implementação do modelo de recomendação; a vizinhança
+     * aproximada usa {@link LshParameters#DEFAULT}, e a fatoração,
+     * {@link FactorizationParameters#DEFAULT}.
+     */
+    public RecommendationService(Engine engine) {
+        this(engine, LshParameters.DEFAULT, FactorizationParameters.DEFAULT);
+    }
+
+    /**
+     * Serviço com a vizinhança aproximada ({@link Engine#APPROXIMATE}).
+     *
+     * @param lsh Os parâmetros do índice de vizinhança.
+     */
+    public RecommendationService(LshParameters lsh) {
+        this(Engine.APPROXIMATE, lsh, FactorizationParameters.DEFAULT);
+    }
+
+    /**
+     * Serviço com a fatoração de matrizes ({@link Engine#FACTORIZATION}).
+     *
+     * @param factorization Os parâmetros da fatoração.
+     */
+    public RecommendationService(FactorizationParameters factorization) {
+        this(Engine.FACTORIZATION, LshParameters.DEFAULT, factorization);
+    }
+
+    private RecommendationService(Engine engine, LshParameters lsh, FactorizationParameters factorization) {
+        if (engine == null || lsh == null || factorization == null) {
+            throw new IllegalArgumentException("O motor de recomendação é obrigatório.");
+        }
+        this.engine = engine;
+        this.lsh = lsh;
+        this.factorization = factorization;
     }
 
     /**
@@ -51,45 +208,150 @@ public class RecommendationService {
      * @param evaluations A lista de todas as avaliações de usuários.
      */
     public void initialize(List<Evaluation> evaluations) {
-        try {
-            // 1. Converte a lista de `Evaluation` para o formato que o Mahout espera (FastByIDMap<PreferenceArray>).
-            Map<Long, List<Preference>> preferencesByUser = evaluations.stream()
-                .collect(Collectors.groupingBy(
-                    Evaluation::getUserId,
-                    Collectors.mapping(
-                        eval -> new GenericPreference(eval.getUserId(), eval.getBookId(), eval.getRating()),
-                        Collectors.toList()
-                    )
-                ));
-
-            FastByIDMap<PreferenceArray> preferences = new FastByIDMap<>();
-            for (Map.Entry<Long, List<Preference>> entry : preferencesByUser.entrySet()) {
-                preferences.put(entry.getKey(), new GenericUserPreferenceArray(entry.getValue()));
-            }
-
-            this.dataModel = new GenericDataModel(preferences);
-
-            // 2. Instancia a Similaridade (PearsonCorrelationSimilarity)
-            UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
-
-            // 3. Instancia a Vizinhança (NearestNUserNeighborhood)
-            UserNeighborhood neighborhood = new NearestNUserNeighborhood(NEIGHBORHOOD_SIZE, similarity, dataModel);
-
-            // 4. Instancia o Recomendador (GenericUserBasedRecommender)
-            this.recommender = new GenericUserBasedRecommender(dataModel, neighborhood, similarity);
+        initialize(evaluations.stream());
+    }
 
-            // 5. Marca o serviço como inicializado.
-            this.isInitialized = true;
+    /**
+     * Inicializa o serviço consumindo as avaliações de um stream, sem exigir
+     * que elas sejam antes copiadas para uma lista.
+     * <p>
+     * O modelo é construído na thread que chama e publicado de uma vez; as
+     * alterações pendentes são descartadas, pois as avaliações informadas já
+     * são o estado completo.
+     *
+     * @param evaluations As avaliações de usuários.
+     */
+    public void initialize(Stream<Evaluation> evaluations) {
+        try {
+            long start = System.nanoTime();
+            initialize(engine.build(evaluations, lsh, factorization));
+            lastRebuildNanos = System.nanoTime() - start;
             System.out.println("RecommendationService inicializado com sucesso.");
 
         } catch (TasteException e) {
             // Em um cenário real, um logging mais robusto seria ideal.
             System.err.println("Falha ao inicializar o RecommendationService: " + e.getMessage());
             e.printStackTrace();
-            this.isInitialized = false;
         }
     }
 
+    /**
+     * Publica um modelo já construído, descartando as alterações pendentes,
+     * como {@link #initialize(Stream)}.
+     *
+     * @param model O modelo.
+     */
+    void initialize(RecommenderEngine model) {
+        Snapshot built = new Snapshot(model);
+        synchronized (this) {
+            pending = new ArrayList<>();
+            snapshot.set(built);
+        }
+        published();
+    }
+
+    /**
+     * Grava o modelo publicado em um arquivo binário versionado
+     * ({@link RecommendationModelFile}), para ser recarregado por
+     * {@link #load} em vez de treinado de novo.
+     * <p>
+     * A versão informada deve ser lida antes de {@link #awaitUpdates}: se
+     * chegar uma avaliação no meio, o arquivo fica com uma versão anterior à
+     * real e será descartado, nunca o contrário.
+     *
+     * @param file O arquivo.
+     * @param ratingVersion A versão das avaliações contidas no modelo.
+     * @param ratingChecksum A soma de verificação dessas avaliações.
+     * @throws IOException se o arquivo não puder ser gravado.
+     * @throws IllegalStateException se o serviço não foi inicializado.
+     */
+    public void save(Path file, long ratingVersion, long ratingChecksum) throws IOException {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            throw new IllegalStateException("Serviço de recomendação não foi inicializado.");
+        }
+        RecommendationModelFile.write(file, current.engine.ratings(), current.engine.factors(),
+                ratingVersion, ratingChecksum);
+    }
+
+    /**
+     * Carrega um modelo gravado por {@link #save}, se ele corresponde às
+     * avaliações atuais, e o publica como em {@link #initialize}.
+     *
+     * @param file O arquivo.
+     * @param ratingVersion A versão atual das avaliações.
+     * @param ratingChecksum A soma de verificação atual das avaliações.
+     * @return {@code true} se o modelo foi carregado; {@code false} se o
+     * arquivo não existe, é inválido ou foi gravado com avaliações mais
+     * antigas ou diferentes, casos em que o modelo deve ser treinado.
+     */
+    public boolean load(Path file, long ratingVersion, long ratingChecksum) {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try {
+            long start = System.nanoTime();
+            RecommendationModelFile.Contents contents = RecommendationModelFile.read(file, ratingVersion,
+                    ratingChecksum);
+            if (contents == null) {
+                return false;
+            }
+            initialize(engine.load(contents.ratings, contents.factors, lsh, factorization));
+            lastRebuildNanos = System.nanoTime() - start;
+            return true;
+        } catch (IOException | TasteException e) {
+            System.err.println("Falha ao carregar o modelo de recomendação: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Inclui ou altera a avaliação de um usuário para um livro. A alteração é
+     * aplicada na próxima reconstrução, em segundo plano.
+     *
+     * @param userId O ID do usuário.
+     * @param itemId O ID do livro.
+     * @param value A nota.
+     * @throws IllegalStateException se o serviço não foi inicializado.
+     */
+    public void upsertRating(long userId, long itemId, float value) {
+        submit(new Change(userId, itemId, value));
+    }
+
+    /**
+     * Remove a avaliação de um usuário para um livro. A remoção é aplicada na
+     * próxima reconstrução, em segundo plano.
+     *
+     * @param userId O ID do usuário.
+     * @param itemId O ID do livro.
+     * @throws IllegalStateException se o serviço não foi inicializado.
+     */
+    public void removeRating(long userId, long itemId) {
+        submit(new Change(userId, itemId, Float.NaN));
+    }
+
+    /**
+     * Aguarda até que todas as alterações enviadas estejam publicadas. Se a
+     * reconstrução falhar, retorna sem esperar pela próxima tentativa.
+     *
+     * @param timeout O tempo máximo de espera.
+     * @param unit A unidade do tempo.
+     * @return {@code true} se não restam alterações pendentes.
+     * @throws InterruptedException se a espera for interrompida.
+     */
+    public synchronized boolean awaitUpdates(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        // sem reconstrução em curso, as pendentes são de uma que falhou
+        while (rebuilding) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return pending.isEmpty();
+    }
+
     /**
      * Gera uma lista de recomendações de livros para um usuário.
      *
@@ -99,18 +361,75 @@ public class RecommendationService {
      * @throws TasteException se o Mahout encontrar um erro, como um usuário desconhecido.
      */
     public List<Long> getRecommendations(long userId, int howMany) throws TasteException {
-        if (!isInitialized) {
+        Snapshot current = snapshot.get();
+        if (current == null) {
             System.err.println("Serviço de recomendação não foi inicializado corretamente.");
             return Collections.emptyList();
         }
 
-        // 1. Chama o método recommender.recommend(userId, howMany).
-        List<RecommendedItem> items = recommender.recommend(userId, howMany);
+        return current.engine.recommend(userId, howMany);
+    }
+
+    /**
+     * Retorna a vizinhança de um usuário no modelo atual.
+     *
+     * @param userId O ID do usuário.
+     * @return Os IDs dos usuários vizinhos; vazio se o usuário não está no
+     * modelo.
+     */
+    public long[] getNeighbors(long userId) {
+        Snapshot current = snapshot.get();
+        return current == null ? new long[0] : current.neighbors(userId);
+    }
+
+    /**
+     * Estima, no modelo atual, a nota de um usuário para um livro.
+     *
+     * @param userId O ID do usuário.
+     * @param bookId O ID do livro.
+     * @return A nota dada pelo usuário ou a estimada; {@code NaN} se o
+     * usuário ou o livro não está no modelo, ou se não há como estimá-la.
+     */
+    public float estimatePreference(long userId, long bookId) {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            return Float.NaN;
+        }
+        try {
+            return current.engine.estimate(userId, bookId);
+        } catch (TasteException e) {
+            return Float.NaN;
+        }
+    }
+
+    /**
+     * Mede, no modelo atual, a fração dos vizinhos exatos encontrada pela
+     * vizinhança aproximada ({@link Engine#APPROXIMATE}).
+     *
+     * @param userIds Os IDs dos usuários avaliados.
+     * @return A revocação, de 0 a 1; 1 para os motores exatos.
+     */
+    public double getNeighborhoodRecall(long[] userIds) {
+        Snapshot current = snapshot.get();
+        return current == null ? 1.0 : current.engine.recall(userIds);
+    }
 
-        // 2. Extrai os IDs dos itens (livros) da lista de RecommendedItem.
-        return items.stream()
-                .map(RecommendedItem::getItemID)
-                .collect(Collectors.toList());
+    /**
+     * @return O número de tabelas de hash da vizinhança aproximada no modelo
+     * atual, como escolhido por {@link LshParameters#forRecall}; 0 para os
+     * motores exatos.
+     */
+    public int getNeighborhoodTables() {
+        Snapshot current = snapshot.get();
+        return current == null ? 0 : current.engine.neighborhoodTables();
+    }
+
+    /**
+     * @return {@code true} se todas as alterações enviadas já estão no modelo
+     * publicado.
+     */
+    public synchronized boolean isUpToDate() {
+        return pending.isEmpty() && !rebuilding;
     }
 
     /**
@@ -118,6 +437,201 @@ public class RecommendationService {
      * @return {@code true} se o serviço estiver pronto, {@code false} caso contrário.
      */
     public boolean isInitialized() {
-        return isInitialized;
+        return snapshot.get() != null;
+    }
+
+    /**
+     * @return Há quanto tempo, em milissegundos, a alteração pendente mais
+     * antiga espera ser publicada; 0 se o modelo está em dia.
+     */
+    public synchronized long getStalenessMillis() {
+        return isUpToDate()
+                ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pendingSince);
+    }
+
+    /**
+     * @return O número de alterações ainda não publicadas.
+     */
+    public synchronized int getPendingUpdates() {
+        return pending.size();
+    }
+
+    /**
+     * @return A duração, em milissegundos, da última construção do modelo.
+     */
+    public long getLastRebuildMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastRebuildNanos);
+    }
+
+    /**
+     * @return O número de reconstruções em segundo plano já publicadas.
+     */
+    public long getRebuildCount() {
+        return rebuilds;
+    }
+
+    /**
+     * Define quem é avisado a cada modelo publicado, depois da troca: por
+     * exemplo, um cache de resultados calculados sobre o modelo anterior.
+     *
+     * @param listener O aviso, ou {@code null} para nenhum.
+     */
+    void setPublishListener(Runnable listener) {
+        this.publishListener = listener;
+    }
+
+    private void published() {
+        Runnable listener = publishListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private synchronized void submit(Change change) {
+        if (snapshot.get() == null) {
+            throw new IllegalStateException("Serviço de recomendação não foi inicializado.");
+        }
+        if (pending.isEmpty() && !rebuilding) {
+            pendingSince = change.submittedAt;
+        }
+        pending.add(change);
+        if (!rebuilding) {
+            rebuilding = true;
+            rebuilder.execute(this::rebuild);
+        }
+    }
+
+    /**
+     * Aplica as alterações acumuladas sobre uma cópia do modelo atual e
+     * publica o resultado. Se novas alterações chegarem durante a
+     * reconstrução, uma nova rodada as aplica em seguida.
+     */
+    private void rebuild() {
+        while (true) {
+            Snapshot base;
+            List<Change> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    rebuilding = false;
+                    notifyAll();
+                    return;
+                }
+                base = snapshot.get();
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            long start = System.nanoTime();
+            try {
+                Snapshot built = new Snapshot(base.engine.apply(batch));
+                boolean swapped;
+                synchronized (this) {
+                    // uma inicialização durante a reconstrução já contém as alterações
+                    swapped = snapshot.compareAndSet(base, built);
+                    if (swapped) {
+                        rebuilds++;
+                    }
+                    if (!pending.isEmpty()) {
+                        pendingSince = pending.get(0).submittedAt;
+                    }
+                }
+                if (swapped) {
+                    published();
+                }
+            } catch (TasteException | RuntimeException e) {
+                System.err.println("Falha ao reconstruir o RecommendationService: " + e.getMessage());
+                e.printStackTrace();
+                synchronized (this) {
+                    // devolve o lote à frente das pendentes, para que o modelo
+                    // não perca as alterações; a próxima alteração tenta de
+                    // novo. Uma inicialização no meio já as contém.
+                    if (snapshot.get() == base) {
+                        batch.addAll(pending);
+                        pending = batch;
+                        pendingSince = batch.get(0).submittedAt;
+                    }
+                    rebuilding = false;
+                    notifyAll();
+                }
+                return;
+            }
+            lastRebuildNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return O retrato do modelo publicado agora, ou {@code null} se o
+     * serviço não foi inicializado. Consultas em lote usam o mesmo retrato do
+     * início ao fim, mesmo que um novo seja publicado no meio.
+     */
+    Snapshot current() {
+        return snapshot.get();
+    }
+
+    /**
+     * Retrato imutável do modelo treinado, publicado de uma vez.
+     */
+    static final class Snapshot {
+
+        private final RecommenderEngine engine;
+
+        private Snapshot(RecommenderEngine engine) {
+            this.engine = engine;
+        }
+
+        /**
+         * @return Os IDs dos livros recomendados; vazio se o usuário não está
+         * no modelo.
+         */
+        List<Long> recommend(long userId, int howMany) {
+            try {
+                return engine.recommend(userId, howMany);
+            } catch (TasteException e) {
+                return Collections.emptyList();
+            }
+        }
+
+        /**
+         * @return Os IDs dos vizinhos do usuário; vazio se ele não está no
+         * modelo.
+         */
+        long[] neighbors(long userId) {
+            return engine.neighbors(userId);
+        }
+    }
+
+    /**
+     * Uma avaliação incluída, alterada ou removida (nota {@code NaN}).
+     */
+    static final class Change {
+
+        private final long userId;
+        private final long itemId;
+        private final float value;
+        private final long submittedAt = System.nanoTime();
+
+        Change(long userId, long itemId, float value) {
+            this.userId = userId;
+            this.itemId = itemId;
+            this.value = value;
+        }
+
+        long userId() {
+            return userId;
+        }
+
+        long itemId() {
+            return itemId;
+        }
+
+        /**
+         * @return A nota; {@code NaN} em uma remoção.
+         */
+        float value() {
+            return value;
+        }
+
+        boolean isRemoval() {
+            return Float.isNaN(value);
+        }
     }
 }
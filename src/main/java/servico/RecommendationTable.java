@@ -0,0 +1,166 @@
+package servico;
+
+import dominio.Rating;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Recomendações pré-calculadas para todos os clientes, em uma tabela densa.
+ * <p>
+ * A linha do cliente {@code c} ocupa as posições {@code c * width} a
+ * {@code (c + 1) * width - 1} de um único {@code int[]} com os ids dos livros,
+ * completada com {@code -1}. O cálculo é paralelo, com todas as linhas sobre o
+ * mesmo retrato do modelo. Só os ids ficam na tabela: os preços mudam a todo
+ * momento e são calculados na consulta.
+ * <p>
+ * Uma linha fica desatualizada quando chega uma avaliação que muda as
+ * recomendações do cliente (as mesmas regras de {@link RecommendationCache}).
+ * Para os vizinhos, a tabela guarda um índice reverso vizinho → clientes em
+ * formato CSR. Clientes criados depois do cálculo não têm linha.
+ * <p>
+ * A tabela é criada vazia antes do cálculo, de modo que avaliações que chegam
+ * enquanto ele corre também marcam as linhas afetadas.
+ */
+final class RecommendationTable {
+
+    private static final int EMPTY = -1;
+
+    private final int width;
+    private final int customers;
+    private final int[] books;
+    private final BitSet stale = new BitSet();
+    // índice reverso vizinho → clientes; null enquanto a tabela é calculada
+    private int[] dependentOffsets;
+    private int[] dependents;
+    private final BitSet ratedDuringCompute = new BitSet();
+
+    /**
+     * Cria a tabela vazia. Avaliações recebidas a partir daqui, mesmo durante
+     * {@link #compute}, já marcam as linhas afetadas.
+     *
+     * @param customers O número de clientes (ids {@code 0} a {@code customers - 1}).
+     * @param width O número de livros por cliente.
+     */
+    RecommendationTable(int customers, int width) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("O número de recomendações deve ser positivo.");
+        }
+        this.width = width;
+        this.customers = customers;
+        this.books = new int[customers * width];
+        Arrays.fill(books, EMPTY);
+    }
+
+    /**
+     * Calcula as recomendações de todos os clientes, em paralelo.
+     *
+     * @param model O retrato do modelo usado em todas as linhas.
+     */
+    void compute(RecommendationService.Snapshot model) {
+        long[][] neighbors = new long[customers][];
+        IntStream.range(0, customers).parallel().forEach(customer -> {
+            List<Long> row = model.recommend(customer, width);
+            for (int i = 0; i < row.size(); i++) {
+                books[customer * width + i] = row.get(i).intValue();
+            }
+            neighbors[customer] = model.neighbors(customer);
+        });
+
+        // índice reverso: para cada vizinho, os clientes que o têm na vizinhança
+        int[] offsets = new int[customers + 1];
+        for (long[] list : neighbors) {
+            for (long neighbor : list) {
+                if (neighbor >= 0 && neighbor < customers) {
+                    offsets[(int) neighbor + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < customers; c++) {
+            offsets[c + 1] += offsets[c];
+        }
+        int[] next = Arrays.copyOf(offsets, customers);
+        int[] index = new int[offsets[customers]];
+        for (int customer = 0; customer < customers; customer++) {
+            for (long neighbor : neighbors[customer]) {
+                if (neighbor >= 0 && neighbor < customers) {
+                    index[next[(int) neighbor]++] = customer;
+                }
+            }
+        }
+        synchronized (this) {
+            dependentOffsets = offsets;
+            dependents = index;
+            // quem avaliou durante o cálculo pode já ter sido usado como vizinho
+            for (int c = ratedDuringCompute.nextSetBit(0); c >= 0; c = ratedDuringCompute.nextSetBit(c + 1)) {
+                markDependents(c);
+            }
+            ratedDuringCompute.clear();
+        }
+    }
+
+    /**
+     * @param customerId O id do cliente.
+     * @return {@code true} se a linha do cliente existe e não foi afetada por
+     * avaliações posteriores ao cálculo.
+     */
+    synchronized boolean isFresh(int customerId) {
+        return dependents != null && customerId >= 0 && customerId < customers
+                && !stale.get(customerId);
+    }
+
+    /**
+     * @param customerId O id do cliente, com linha atualizada.
+     * @return Os ids dos livros recomendados, na ordem do recomendador.
+     */
+    int[] row(int customerId) {
+        int from = customerId * width;
+        int to = from;
+        while (to < from + width && books[to] != EMPTY) {
+            to++;
+        }
+        return Arrays.copyOfRange(books, from, to);
+    }
+
+    /**
+     * Marca as linhas afetadas por uma avaliação.
+     *
+     * @param customerId O cliente que avaliou.
+     * @param raters As avaliações do livro avaliado.
+     */
+    synchronized void ratingChanged(int customerId, Collection<Rating> raters) {
+        markStale(customerId);
+        for (Rating rating : raters) {
+            markStale(rating.getCustomer().getId());
+        }
+        if (customerId < 0 || customerId >= customers) {
+            return;
+        }
+        if (dependents == null) {
+            ratedDuringCompute.set(customerId);
+        } else {
+            markDependents(customerId);
+        }
+    }
+
+    /**
+     * @return O número de linhas desatualizadas.
+     */
+    synchronized int staleRows() {
+        return stale.cardinality();
+    }
+
+    private void markStale(int customerId) {
+        if (customerId >= 0 && customerId < customers) {
+            stale.set(customerId);
+        }
+    }
+
+    private void markDependents(int customerId) {
+        for (int p = dependentOffsets[customerId]; p < dependentOffsets[customerId + 1]; p++) {
+            stale.set(dependents[p]);
+        }
+    }
+}
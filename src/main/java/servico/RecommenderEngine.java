@@ -0,0 +1,82 @@
+package servico;
+
+import java.util.List;
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * Um modelo de recomendação baseada em usuários já treinado, como usado por
+ * {@link RecommendationService}.
+ * <p>
+ * Uma instância é imutável depois de construída e pode ser consultada por
+ * várias threads; alterações nas avaliações produzem uma nova instância
+ * ({@link #apply}), publicada pelo serviço no lugar da anterior.
+ */
+interface RecommenderEngine {
+
+    /**
+     * @param userId O ID do usuário.
+     * @param howMany O número máximo de recomendações, ao menos 1.
+     * @return Os IDs dos livros recomendados, da maior para a menor nota
+     * estimada.
+     * @throws TasteException se o usuário não está no modelo.
+     */
+    List<Long> recommend(long userId, int howMany) throws TasteException;
+
+    /**
+     * @param userId O ID do usuário.
+     * @param itemId O ID do livro.
+     * @return A nota que o usuário deu ao livro ou, se não avaliou, a nota
+     * estimada pelo modelo; {@code NaN} se não há como estimá-la.
+     * @throws TasteException se o usuário ou o livro não está no modelo.
+     */
+    float estimate(long userId, long itemId) throws TasteException;
+
+    /**
+     * @param userId O ID do usuário.
+     * @return Os IDs dos vizinhos do usuário, do mais para o menos similar;
+     * vazio se ele não está no modelo.
+     */
+    long[] neighbors(long userId);
+
+    /**
+     * @param userIds Os IDs dos usuários avaliados.
+     * @return A fração dos vizinhos exatos desses usuários que o modelo
+     * encontra; 1 se a vizinhança é exata.
+     */
+    default double recall(long[] userIds) {
+        return 1.0;
+    }
+
+    /**
+     * @return O número de tabelas de hash da vizinhança aproximada; 0 se a
+     * vizinhança é exata.
+     */
+    default int neighborhoodTables() {
+        return 0;
+    }
+
+    /**
+     * @return As avaliações do modelo, como gravadas em
+     * {@link RecommendationModelFile}.
+     */
+    SparseRatings ratings();
+
+    /**
+     * @return Os fatores latentes do modelo, gravados em
+     * {@link RecommendationModelFile} junto com as avaliações; {@code null}
+     * se o modelo não os tem.
+     */
+    default MatrixFactorizationEngine.Factors factors() {
+        return null;
+    }
+
+    /**
+     * Constrói o modelo que resulta das alterações, aproveitando o que elas
+     * não afetam. Este modelo não muda.
+     *
+     * @param changes As alterações, na ordem em que foram feitas.
+     * @return O novo modelo.
+     * @throws TasteException se o modelo não puder ser construído.
+     */
+    RecommenderEngine apply(List<RecommendationService.Change> changes) throws TasteException;
+}
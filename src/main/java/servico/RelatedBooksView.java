@@ -0,0 +1,439 @@
+package servico;
+
+import dominio.Book;
+import dominio.Order;
+import dominio.OrderLine;
+import dominio.StatusTypes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Livros relacionados por compra conjunta: para cada livro, os
+ * {@value #RELATED} livros mais comprados pelos clientes que também o
+ * compraram, somando as quantidades de todos os pedidos desses clientes. O
+ * resultado é publicado em {@link Book#setRelated1} a
+ * {@link Book#setRelated5}, de modo que {@link Bookmarket#getRelated} é uma
+ * leitura O(1).
+ * <p>
+ * São mantidas as quantidades compradas por cliente e, por livro, os
+ * contadores de compra conjunta, ambos esparsos, e os {@value #RELATED}
+ * maiores contadores. Um pedido novo só altera os contadores dos livros que o
+ * cliente já comprou e dos livros do pedido; a seleção dos maiores é
+ * atualizada no lugar, e refeita apenas quando um dos selecionados diminui.
+ * <p>
+ * Os pedidos recebidos entre {@link #beginBackfill} e {@link #finishBackfill}
+ * (inclusive os reapresentados no registro do observador) são acumulados e
+ * processados de uma vez, em paralelo por livro. Empates favorecem o livro de
+ * menor id; um livro com menos de {@value #RELATED} livros comprados em
+ * conjunto mantém, nas posições restantes, os relacionados que já tinha.
+ */
+final class RelatedBooksView implements OrderListener {
+
+    static final int RELATED = 5;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NONE = -1;
+
+    // quantidades compradas, por id do cliente
+    private Counts[] purchases = new Counts[INITIAL_CAPACITY];
+    // contadores de compra conjunta e os maiores deles, por id do livro
+    private Counts[] coPurchases = new Counts[INITIAL_CAPACITY];
+    private int[][] top = new int[INITIAL_CAPACITY][];
+    private Book[] books = new Book[INITIAL_CAPACITY];
+    private List<Order> backlog = new ArrayList<>();
+
+    /**
+     * Passa a acumular os pedidos criados até {@link #finishBackfill}.
+     */
+    synchronized void beginBackfill() {
+        if (backlog == null) {
+            backlog = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Processa os pedidos acumulados e recalcula, em paralelo, os contadores
+     * e os relacionados de todos os livros. A partir daí cada pedido é
+     * aplicado assim que criado.
+     */
+    synchronized void finishBackfill() {
+        if (backlog == null) {
+            return;
+        }
+        List<Order> orders = backlog;
+        backlog = null;
+        for (Order order : orders) {
+            Counts bought = purchases(order.getCustomer().getId());
+            for (OrderLine line : order.getLines()) {
+                bought.add(register(line.getBook()), line.getQty());
+            }
+        }
+        rebuild();
+    }
+
+    @Override
+    public synchronized void orderCreated(Order order) {
+        if (backlog != null) {
+            backlog.add(order);
+        } else {
+            apply(order, 1);
+        }
+    }
+
+    @Override
+    public void orderStatusChanged(Order order, StatusTypes previous) {
+        // a compra conjunta considera todos os pedidos, qualquer que seja o status
+    }
+
+    @Override
+    public synchronized void orderRemoved(Order order) {
+        if (backlog == null || !backlog.remove(order)) {
+            apply(order, -1);
+        }
+    }
+
+    /**
+     * @param bookId O id do livro.
+     * @return Os ids dos livros mais comprados em conjunto com ele, do maior
+     * para o menor contador; vazio se ele nunca foi comprado com outro.
+     */
+    synchronized int[] related(int bookId) {
+        if (bookId < 0 || bookId >= top.length || top[bookId] == null) {
+            return new int[0];
+        }
+        int[] best = top[bookId];
+        int size = 0;
+        while (size < RELATED && best[size] != NONE) {
+            size++;
+        }
+        return Arrays.copyOf(best, size);
+    }
+
+    /**
+     * Aplica ({@code sign} 1) ou desfaz ({@code sign} -1) um pedido. Com as
+     * quantidades do cliente sem o pedido, o pedido soma a cada livro já
+     * comprado as quantidades dos seus livros, e a cada livro que o cliente
+     * compra pela primeira vez, também as quantidades já compradas.
+     */
+    private void apply(Order order, int sign) {
+        Counts bought = purchases(order.getCustomer().getId());
+        Counts lines = new Counts();
+        for (OrderLine line : order.getLines()) {
+            lines.add(register(line.getBook()), line.getQty());
+        }
+        if (sign < 0) {
+            lines.forEach((book, quantity) -> bought.add(book, -quantity));
+        }
+        List<Integer> changed = new ArrayList<>();
+        bought.forEach((target, owned) -> {
+            if (owned > 0 && addLines(target, lines, sign)) {
+                changed.add(target);
+            }
+        });
+        lines.forEach((target, ignored) -> {
+            if (bought.get(target) <= 0) {
+                boolean updated = addLines(target, lines, sign);
+                for (int slot = 0; slot < bought.capacity(); slot++) {
+                    int other = bought.keyAt(slot);
+                    if (other != NONE && other != target && bought.valueAt(slot) > 0) {
+                        updated |= add(target, other, sign * bought.valueAt(slot));
+                    }
+                }
+                if (updated) {
+                    changed.add(target);
+                }
+            }
+        });
+        if (sign > 0) {
+            lines.forEach(bought::add);
+        }
+        for (int book : changed) {
+            publish(book);
+        }
+    }
+
+    private boolean addLines(int target, Counts lines, int sign) {
+        boolean updated = false;
+        for (int slot = 0; slot < lines.capacity(); slot++) {
+            int book = lines.keyAt(slot);
+            if (book != NONE && book != target) {
+                updated |= add(target, book, sign * lines.valueAt(slot));
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Soma {@code delta} ao contador de compra conjunta e atualiza os maiores.
+     *
+     * @return {@code true} se os maiores mudaram.
+     */
+    private boolean add(int target, int book, long delta) {
+        if (coPurchases[target] == null) {
+            coPurchases[target] = new Counts();
+        }
+        Counts counts = coPurchases[target];
+        long count = counts.add(book, delta);
+        int[] best = top[target];
+        if (best == null) {
+            best = new int[RELATED];
+            Arrays.fill(best, NONE);
+            top[target] = best;
+        }
+        int position = 0;
+        while (position < RELATED && best[position] != book) {
+            position++;
+        }
+        if (delta < 0) {
+            if (position == RELATED) {
+                return false;
+            }
+            top[target] = best(counts);
+            return true;
+        }
+        if (position == RELATED) {
+            int last = RELATED - 1;
+            if (best[last] != NONE && !better(book, count, best[last], counts.get(best[last]))) {
+                return false;
+            }
+            position = last;
+            best[position] = book;
+        }
+        while (position > 0 && (best[position - 1] == NONE
+                || better(book, count, best[position - 1], counts.get(best[position - 1])))) {
+            best[position] = best[position - 1];
+            best[--position] = book;
+        }
+        return true;
+    }
+
+    /**
+     * Recalcula os contadores e os relacionados de todos os livros a partir
+     * das quantidades compradas por cliente.
+     */
+    private void rebuild() {
+        int[] buyerCount = new int[books.length];
+        for (Counts bought : purchases) {
+            if (bought != null) {
+                bought.forEach((book, quantity) -> {
+                    if (quantity > 0) {
+                        buyerCount[book]++;
+                    }
+                });
+            }
+        }
+        int[][] buyers = new int[books.length][];
+        for (int book = 0; book < books.length; book++) {
+            buyers[book] = new int[buyerCount[book]];
+            buyerCount[book] = 0;
+        }
+        for (int customer = 0; customer < purchases.length; customer++) {
+            Counts bought = purchases[customer];
+            if (bought != null) {
+                int id = customer;
+                bought.forEach((book, quantity) -> {
+                    if (quantity > 0) {
+                        buyers[book][buyerCount[book]++] = id;
+                    }
+                });
+            }
+        }
+        // cada livro escreve apenas nas suas posições e no seu Book
+        IntStream.range(0, books.length).parallel().forEach(target -> {
+            Counts counts = new Counts();
+            for (int customer : buyers[target]) {
+                purchases[customer].forEach((book, quantity) -> {
+                    if (book != target && quantity > 0) {
+                        counts.add(book, quantity);
+                    }
+                });
+            }
+            coPurchases[target] = counts.isEmpty() ? null : counts;
+            top[target] = counts.isEmpty() ? null : best(counts);
+            if (top[target] != null) {
+                publish(target);
+            }
+        });
+    }
+
+    private static int[] best(Counts counts) {
+        int[] best = new int[RELATED];
+        long[] values = new long[RELATED];
+        Arrays.fill(best, NONE);
+        for (int slot = 0; slot < counts.capacity(); slot++) {
+            int book = counts.keyAt(slot);
+            long count = counts.valueAt(slot);
+            if (book == NONE || count <= 0) {
+                continue;
+            }
+            int position = RELATED;
+            while (position > 0 && (best[position - 1] == NONE
+                    || better(book, count, best[position - 1], values[position - 1]))) {
+                position--;
+            }
+            if (position < RELATED) {
+                System.arraycopy(best, position, best, position + 1, RELATED - 1 - position);
+                System.arraycopy(values, position, values, position + 1, RELATED - 1 - position);
+                best[position] = book;
+                values[position] = count;
+            }
+        }
+        return best;
+    }
+
+    private static boolean better(int book, long count, int other, long otherCount) {
+        return count > otherCount || (count == otherCount && book < other);
+    }
+
+    /**
+     * Grava os relacionados no livro, completando com os que ele já tinha.
+     */
+    private void publish(int target) {
+        Book book = books[target];
+        int[] best = top[target];
+        if (book == null || best == null) {
+            return;
+        }
+        List<Book> related = new ArrayList<>(RELATED);
+        for (int id : best) {
+            if (id != NONE && books[id] != null) {
+                related.add(books[id]);
+            }
+        }
+        Book[] previous = {book.getRelated1(), book.getRelated2(), book.getRelated3(), book.getRelated4(),
+            book.getRelated5()};
+        for (Book candidate : previous) {
+            if (related.size() < RELATED && candidate != null && candidate != book
+                    && !related.contains(candidate)) {
+                related.add(candidate);
+            }
+        }
+        while (related.size() < RELATED) {
+            related.add(book);
+        }
+        book.setRelated1(related.get(0));
+        book.setRelated2(related.get(1));
+        book.setRelated3(related.get(2));
+        book.setRelated4(related.get(3));
+        book.setRelated5(related.get(4));
+    }
+
+    private int register(Book book) {
+        int id = book.getId();
+        if (id >= books.length) {
+            int capacity = Math.max(id + 1, books.length + (books.length >> 1));
+            books = Arrays.copyOf(books, capacity);
+            coPurchases = Arrays.copyOf(coPurchases, capacity);
+            top = Arrays.copyOf(top, capacity);
+        }
+        books[id] = book;
+        return id;
+    }
+
+    private Counts purchases(int customerId) {
+        if (customerId >= purchases.length) {
+            purchases = Arrays.copyOf(purchases, Math.max(customerId + 1, purchases.length + (purchases.length >> 1)));
+        }
+        if (purchases[customerId] == null) {
+            purchases[customerId] = new Counts();
+        }
+        return purchases[customerId];
+    }
+
+    /**
+     * Recebe as entradas de um {@link Counts}.
+     */
+    interface CountConsumer {
+
+        void accept(int key, long value);
+    }
+
+    /**
+     * Mapa esparso de id (não negativo) para contador, com endereçamento
+     * aberto em arranjos primitivos.
+     */
+    static final class Counts {
+
+        // id + 1 em cada posição; 0 é uma posição vazia
+        private int[] keys = new int[8];
+        private long[] values = new long[8];
+        private int size;
+
+        long get(int key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key + 1) {
+                    return values[slot];
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return O novo valor do contador.
+         */
+        long add(int key, long delta) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != 0 && keys[slot] != key + 1) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = key + 1;
+                size++;
+            }
+            values[slot] += delta;
+            return values[slot];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        /**
+         * @return O id na posição, ou {@value RelatedBooksView#NONE} se ela
+         * está vazia.
+         */
+        int keyAt(int slot) {
+            return keys[slot] - 1;
+        }
+
+        long valueAt(int slot) {
+            return values[slot];
+        }
+
+        void forEach(CountConsumer consumer) {
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0) {
+                    consumer.accept(keys[slot] - 1, values[slot]);
+                }
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != 0) {
+                    add(oldKeys[slot] - 1, oldValues[slot]);
+                }
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
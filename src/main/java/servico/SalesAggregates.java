@@ -0,0 +1,69 @@
+package servico;
+
+import dominio.Order;
+import dominio.OrderLine;
+import dominio.StatusTypes;
+import java.util.Arrays;
+
+/**
+ * Agregados de venda por livro: unidades vendidas e receita (soma de
+ * quantidade × preço), em arranjos primitivos indexados pelo id do livro.
+ * <p>
+ * Os totais são atualizados a cada pedido criado ou removido, de modo que o
+ * preço médio de venda de um livro é uma consulta O(1), sem percorrer o
+ * histórico nem alocar objetos. Os métodos são sincronizados, pois os pedidos
+ * das livrarias chegam de várias threads.
+ */
+final class SalesAggregates implements OrderListener {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] units = new long[INITIAL_CAPACITY];
+    private double[] revenue = new double[INITIAL_CAPACITY];
+
+    @Override
+    public synchronized void orderCreated(Order order) {
+        apply(order, 1);
+    }
+
+    @Override
+    public void orderStatusChanged(Order order, StatusTypes previous) {
+        // o preço médio considera todos os pedidos, qualquer que seja o status
+    }
+
+    @Override
+    public synchronized void orderRemoved(Order order) {
+        apply(order, -1);
+    }
+
+    /**
+     * Retorna o preço médio por unidade vendida de um livro.
+     *
+     * @param bookId O id do livro.
+     * @return O preço médio, ou 0 se o livro nunca foi vendido.
+     */
+    synchronized double averagePrice(int bookId) {
+        if (bookId < 0 || bookId >= units.length || units[bookId] == 0) {
+            return 0.0;
+        }
+        return revenue[bookId] / units[bookId];
+    }
+
+    private void apply(Order order, int sign) {
+        for (OrderLine line : order.getLines()) {
+            int bookId = line.getBook().getId();
+            if (bookId >= units.length) {
+                int capacity = Math.max(bookId + 1, units.length + (units.length >> 1));
+                units = Arrays.copyOf(units, capacity);
+                revenue = Arrays.copyOf(revenue, capacity);
+            }
+            units[bookId] += sign * line.getQty();
+            if (units[bookId] == 0) {
+                // descarta o resíduo de arredondamento das subtrações
+                revenue[bookId] = 0.0;
+            } else {
+                revenue[bookId] += sign * line.getQty() * line.getPrice();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package servico;
+
+import dominio.BestsellerBook;
+import dominio.Book;
+import dominio.Category;
+import dominio.Order;
+import dominio.OrderLine;
+import dominio.SUBJECTS;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Contadores de unidades vendidas por livro, com rankings ordenados por
+ * vendas (decrescente) e título (crescente): um geral e um por assunto.
+ * <p>
+ * Cada ajuste retira o livro dos conjuntos ordenados antes de alterar a sua
+ * chave de ordenação e o recoloca depois, em O(log n); ler os N primeiros
+ * custa O(N). Livros sem vendas não ocupam espaço.
+ */
+final class SalesRanking {
+
+    private static final Comparator<Sales> RANKING
+            = Comparator.comparingLong((Sales sales) -> sales.count).reversed()
+                    .thenComparing(sales -> sales.book.getTitle())
+                    .thenComparingInt(sales -> sales.book.getId());
+
+    private final Map<Book, Sales> salesByBook = new HashMap<>();
+    private final TreeSet<Sales> ranking = new TreeSet<>(RANKING);
+    private final Map<SUBJECTS, TreeSet<Sales>> rankingBySubject = new EnumMap<>(SUBJECTS.class);
+    // assuntos com vendas alteradas desde o último publish
+    private final EnumSet<SUBJECTS> changed = EnumSet.noneOf(SUBJECTS.class);
+
+    SalesRanking() {
+        for (SUBJECTS subject : SUBJECTS.values()) {
+            rankingBySubject.put(subject, new TreeSet<>(RANKING));
+        }
+    }
+
+    /**
+     * Soma (ou subtrai) as linhas de um pedido aos contadores.
+     *
+     * @param order O pedido.
+     * @param sign 1 para somar, -1 para subtrair.
+     */
+    void apply(Order order, int sign) {
+        for (OrderLine line : order.getLines()) {
+            update(line.getBook(), sign * (long) line.getQty());
+        }
+    }
+
+    /**
+     * Retorna os livros mais vendidos.
+     *
+     * @param category O assunto, ou {@code null} para todo o catálogo. Outras
+     * categorias não têm vendas associadas.
+     * @param limit O número máximo de livros retornados.
+     * @return Até {@code limit} livros, por vendas decrescentes e título.
+     */
+    List<BestsellerBook> top(Category category, int limit) {
+        List<BestsellerBook> result = new ArrayList<>(Math.min(limit, 16));
+        TreeSet<Sales> source;
+        if (category == null) {
+            source = ranking;
+        } else if (category instanceof SUBJECTS) {
+            source = rankingBySubject.get((SUBJECTS) category);
+        } else {
+            return result;
+        }
+        Iterator<Sales> i = source.iterator();
+        while (result.size() < limit && i.hasNext()) {
+            Sales sales = i.next();
+            result.add(new BestsellerBook(sales.book, sales.count));
+        }
+        return result;
+    }
+
+    /**
+     * Deriva do retrato anterior um com as listas do ranking geral e dos
+     * assuntos alterados desde a chamada anterior refeitas.
+     *
+     * @param previous O retrato publicado por último.
+     * @param limit O número de livros de cada lista.
+     * @return O novo retrato, ou o anterior se nada mudou.
+     */
+    ReadSnapshot.Bestsellers publish(ReadSnapshot.Bestsellers previous, int limit) {
+        if (changed.isEmpty()) {
+            return previous;
+        }
+        Map<SUBJECTS, List<BestsellerBook>> tops = new EnumMap<>(SUBJECTS.class);
+        for (SUBJECTS subject : changed) {
+            tops.put(subject, top(subject, limit));
+        }
+        changed.clear();
+        return previous.with(top(null, limit), tops);
+    }
+
+    private void update(Book book, long delta) {
+        changed.add(book.getSubject());
+        Sales sales = salesByBook.computeIfAbsent(book, Sales::new);
+        TreeSet<Sales> bySubject = rankingBySubject.get(book.getSubject());
+        if (sales.count > 0) {
+            ranking.remove(sales);
+            bySubject.remove(sales);
+        }
+        sales.count += delta;
+        if (sales.count > 0) {
+            ranking.add(sales);
+            bySubject.add(sales);
+        } else {
+            salesByBook.remove(book);
+        }
+    }
+
+    private static final class Sales {
+
+        private final Book book;
+        private long count;
+
+        Sales(Book book) {
+            this.book = book;
+        }
+    }
+}
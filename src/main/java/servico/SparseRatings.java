@@ -0,0 +1,569 @@
+package servico;
+
+import dominio.Evaluation;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Avaliações em arranjos primitivos, nas duas orientações: cliente → livros
+ * (CSR) e livro → clientes (CSC).
+ * <p>
+ * Clientes e livros são identificados por índices densos, as posições dos
+ * seus ids nos arranjos ordenados {@link #userIds} e {@link #itemIds}. As
+ * entradas da linha do cliente {@code u} ocupam as posições
+ * {@code userOffsets[u]} a {@code userOffsets[u + 1] - 1}, ordenadas pelo
+ * livro; as da coluna do livro {@code i}, as posições {@code itemOffsets[i]}
+ * a {@code itemOffsets[i + 1] - 1}, ordenadas pelo cliente. Cada avaliação
+ * ocupa um {@code int} e um {@code float} em cada orientação.
+ * <p>
+ * A estrutura é imutável: os arranjos são expostos ao pacote para leitura e
+ * nunca são alterados. Alterações geram uma nova instância
+ * ({@link #withChanges}). Os arranjos podem ser gravados e lidos de uma vez
+ * ({@link #write}, {@link #read}), sem reconstruir os índices.
+ */
+final class SparseRatings {
+
+    final long[] userIds;
+    final long[] itemIds;
+    final int[] userOffsets;
+    final int[] userItems;
+    final float[] userValues;
+    final int[] itemOffsets;
+    final int[] itemUsers;
+    final float[] itemValues;
+    // menor e maior nota já informadas, mesmo que depois alteradas; como no
+    // DataModel, só se expandem
+    final float minValue;
+    final float maxValue;
+
+    private SparseRatings(long[] userIds, long[] itemIds, int[] userOffsets, int[] userItems,
+            float[] userValues, int[] itemOffsets, int[] itemUsers, float[] itemValues,
+            float minValue, float maxValue) {
+        this.userIds = userIds;
+        this.itemIds = itemIds;
+        this.userOffsets = userOffsets;
+        this.userItems = userItems;
+        this.userValues = userValues;
+        this.itemOffsets = itemOffsets;
+        this.itemUsers = itemUsers;
+        this.itemValues = itemValues;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * Organiza as avaliações. Se um cliente avaliou o mesmo livro mais de uma
+     * vez, vale a última nota.
+     *
+     * @param evaluations As avaliações.
+     * @return As avaliações organizadas.
+     */
+    static SparseRatings of(Stream<Evaluation> evaluations) {
+        Evaluation[] all = evaluations.toArray(Evaluation[]::new);
+        long[] users = new long[all.length];
+        long[] items = new long[all.length];
+        float[] values = new float[all.length];
+        for (int e = 0; e < all.length; e++) {
+            users[e] = all[e].getUserId();
+            items[e] = all[e].getBookId();
+            values[e] = all[e].getRating();
+        }
+        return build(users, items, values, all.length, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Aplica alterações sobre uma cópia das avaliações.
+     * <p>
+     * Só as linhas e colunas alteradas são combinadas com as alterações; as
+     * demais são copiadas em blocos, com os índices renumerados apenas se
+     * algum cliente ou livro entrou ou saiu. O custo é o de copiar os
+     * arranjos, sem ordenar de novo todas as avaliações.
+     *
+     * @param changes As alterações, na ordem em que foram feitas.
+     * @return As novas avaliações; esta instância não muda.
+     */
+    SparseRatings withChanges(List<RecommendationService.Change> changes) {
+        if (changes.isEmpty()) {
+            return this;
+        }
+        // a última alteração de cada par prevalece; a ordenação é estável
+        RecommendationService.Change[] sorted = changes.toArray(new RecommendationService.Change[0]);
+        Arrays.sort(sorted, Comparator.comparingLong(RecommendationService.Change::userId)
+                .thenComparingLong(RecommendationService.Change::itemId));
+        float min = minValue;
+        float max = maxValue;
+        int size = 0;
+        for (int k = 0; k < sorted.length; k++) {
+            RecommendationService.Change change = sorted[k];
+            if (!change.isRemoval()) {
+                min = Math.min(min, change.value());
+                max = Math.max(max, change.value());
+            }
+            if (k + 1 == sorted.length || sorted[k + 1].userId() != change.userId()
+                    || sorted[k + 1].itemId() != change.itemId()) {
+                sorted[size++] = change;
+            }
+        }
+        RecommendationService.Change[] byUser = Arrays.copyOf(sorted, size);
+        RecommendationService.Change[] byItem = byUser.clone();
+        Arrays.sort(byItem, Comparator.comparingLong(RecommendationService.Change::itemId)
+                .thenComparingLong(RecommendationService.Change::userId));
+
+        MergedRows users = new MergedRows(userIds, userOffsets, userItems, userValues, itemIds, byUser, true);
+        MergedRows items = new MergedRows(itemIds, itemOffsets, itemUsers, itemValues, userIds, byItem, false);
+        users.fill(userOffsets, userItems, userValues, items);
+        items.fill(itemOffsets, itemUsers, itemValues, users);
+        return new SparseRatings(users.ids, items.ids, users.offsets, users.columns, users.values,
+                items.offsets, items.columns, items.values, min, max);
+    }
+
+    /**
+     * @return As avaliações, agrupadas por cliente.
+     */
+    Stream<Evaluation> evaluations() {
+        return IntStream.range(0, userIds.length).boxed()
+                .flatMap(u -> IntStream.range(userOffsets[u], userOffsets[u + 1])
+                        .mapToObj(p -> new Evaluation(userIds[u], itemIds[userItems[p]], userValues[p])));
+    }
+
+    /**
+     * @param userId O id do cliente.
+     * @return O índice do cliente, ou um valor negativo se ele não tem
+     * avaliações.
+     */
+    int userIndex(long userId) {
+        return Arrays.binarySearch(userIds, userId);
+    }
+
+    /**
+     * @param itemId O id do livro.
+     * @return O índice do livro, ou um valor negativo se ele não tem
+     * avaliações.
+     */
+    int itemIndex(long itemId) {
+        return Arrays.binarySearch(itemIds, itemId);
+    }
+
+    int numUsers() {
+        return userIds.length;
+    }
+
+    int numItems() {
+        return itemIds.length;
+    }
+
+    int numRatings() {
+        return userItems.length;
+    }
+
+    /**
+     * @return Uma estimativa, em bytes, da memória ocupada pelos arranjos.
+     */
+    long sizeInBytes() {
+        return 8L * (userIds.length + itemIds.length)
+                + 4L * (userOffsets.length + itemOffsets.length)
+                + 8L * 2 * userItems.length;
+    }
+
+    /**
+     * @return O número de bytes ocupados por {@link #write}.
+     */
+    long serializedSize() {
+        return 5 * 4L + sizeInBytes();
+    }
+
+    /**
+     * Grava os arranjos na posição atual do buffer, na ordem dos campos.
+     *
+     * @param buffer O destino, com ao menos {@link #serializedSize()} bytes
+     * restantes.
+     */
+    void write(ByteBuffer buffer) {
+        buffer.putInt(userIds.length).putInt(itemIds.length).putInt(userItems.length)
+                .putFloat(minValue).putFloat(maxValue);
+        buffer.asLongBuffer().put(userIds).put(itemIds);
+        skip(buffer, 8L * (userIds.length + itemIds.length));
+        write(buffer, userOffsets);
+        write(buffer, userItems);
+        write(buffer, userValues);
+        write(buffer, itemOffsets);
+        write(buffer, itemUsers);
+        write(buffer, itemValues);
+    }
+
+    /**
+     * Lê arranjos gravados por {@link #write}, conferindo se formam matrizes
+     * válidas.
+     *
+     * @param buffer A origem, posicionada no início dos dados; ao final, fica
+     * posicionada logo depois deles.
+     * @return As avaliações.
+     * @throws IOException se os dados estiverem truncados ou inconsistentes.
+     */
+    static SparseRatings read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 5 * 4) {
+            throw new IOException("Modelo truncado.");
+        }
+        int users = buffer.getInt();
+        int items = buffer.getInt();
+        int ratings = buffer.getInt();
+        float minValue = buffer.getFloat();
+        float maxValue = buffer.getFloat();
+        if (users < 0 || items < 0 || ratings < 0
+                || buffer.remaining() < 8L * (users + items) + 4L * (users + items + 2) + 16L * ratings) {
+            throw new IOException("Tamanho do modelo inconsistente.");
+        }
+        long[] userIds = new long[users];
+        long[] itemIds = new long[items];
+        buffer.asLongBuffer().get(userIds).get(itemIds);
+        skip(buffer, 8L * (users + items));
+        int[] userOffsets = readInts(buffer, users + 1);
+        int[] userItems = readInts(buffer, ratings);
+        float[] userValues = readFloats(buffer, ratings);
+        int[] itemOffsets = readInts(buffer, items + 1);
+        int[] itemUsers = readInts(buffer, ratings);
+        float[] itemValues = readFloats(buffer, ratings);
+        if (!sorted(userIds) || !sorted(itemIds)
+                || !validOffsets(userOffsets, ratings) || !validOffsets(itemOffsets, ratings)
+                || !inRange(userItems, items) || !inRange(itemUsers, users)) {
+            throw new IOException("Modelo inconsistente.");
+        }
+        return new SparseRatings(userIds, itemIds, userOffsets, userItems, userValues,
+                itemOffsets, itemUsers, itemValues, minValue, maxValue);
+    }
+
+    private static void write(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        skip(buffer, 4L * values.length);
+    }
+
+    static void write(ByteBuffer buffer, float[] values) {
+        buffer.asFloatBuffer().put(values);
+        skip(buffer, 4L * values.length);
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        skip(buffer, 4L * length);
+        return values;
+    }
+
+    static float[] readFloats(ByteBuffer buffer, int length) {
+        float[] values = new float[length];
+        buffer.asFloatBuffer().get(values);
+        skip(buffer, 4L * length);
+        return values;
+    }
+
+    private static void skip(ByteBuffer buffer, long bytes) {
+        buffer.position(buffer.position() + (int) bytes);
+    }
+
+    private static boolean sorted(long[] ids) {
+        for (int k = 1; k < ids.length; k++) {
+            if (ids[k - 1] >= ids[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean validOffsets(int[] offsets, int total) {
+        if (offsets[0] != 0 || offsets[offsets.length - 1] != total) {
+            return false;
+        }
+        for (int r = 1; r < offsets.length; r++) {
+            if (offsets[r] < offsets[r - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean inRange(int[] indexes, int bound) {
+        for (int index : indexes) {
+            if (index < 0 || index >= bound) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Constrói as duas orientações a partir de triplas (cliente, livro, nota)
+     * em ordem de chegada. Duas ordenações por contagem, estáveis (primeiro
+     * pelo livro, depois pelo cliente), deixam as linhas ordenadas pelo livro
+     * e as repetições de um par na ordem de chegada; fica a última, e uma
+     * última nota NaN remove o par.
+     */
+    private static SparseRatings build(long[] users, long[] items, float[] values, int size,
+            float minValue, float maxValue) {
+        long[] distinctUsers = distinct(users, size);
+        long[] distinctItems = distinct(items, size);
+        int[] u = new int[size];
+        int[] i = new int[size];
+        for (int e = 0; e < size; e++) {
+            u[e] = Arrays.binarySearch(distinctUsers, users[e]);
+            i[e] = Arrays.binarySearch(distinctItems, items[e]);
+        }
+        int[] byItem = countingSort(i, identity(size), distinctItems.length);
+        int[] order = countingSort(u, byItem, distinctUsers.length);
+
+        // ids ainda presentes depois das remoções
+        boolean[] keep = new boolean[size];
+        boolean[] userKept = new boolean[distinctUsers.length];
+        boolean[] itemKept = new boolean[distinctItems.length];
+        int kept = 0;
+        for (int k = 0; k < size; k++) {
+            int e = order[k];
+            boolean last = k + 1 == size || u[order[k + 1]] != u[e] || i[order[k + 1]] != i[e];
+            if (Float.isNaN(values[e])) {
+                continue;
+            }
+            minValue = Math.min(minValue, values[e]);
+            maxValue = Math.max(maxValue, values[e]);
+            if (last) {
+                keep[e] = true;
+                userKept[u[e]] = true;
+                itemKept[i[e]] = true;
+                kept++;
+            }
+        }
+        int[] userRemap = new int[distinctUsers.length];
+        long[] userIds = compact(distinctUsers, userKept, userRemap);
+        int[] itemRemap = new int[distinctItems.length];
+        long[] itemIds = compact(distinctItems, itemKept, itemRemap);
+
+        int[] userOffsets = new int[userIds.length + 1];
+        int[] itemOffsets = new int[itemIds.length + 1];
+        for (int e = 0; e < size; e++) {
+            if (keep[e]) {
+                userOffsets[userRemap[u[e]] + 1]++;
+                itemOffsets[itemRemap[i[e]] + 1]++;
+            }
+        }
+        prefixSum(userOffsets);
+        prefixSum(itemOffsets);
+        int[] userItems = new int[kept];
+        float[] userValues = new float[kept];
+        int[] itemUsers = new int[kept];
+        float[] itemValues = new float[kept];
+        int[] nextInItem = Arrays.copyOf(itemOffsets, itemIds.length);
+        int p = 0;
+        // percorrer na ordem (cliente, livro) preenche as colunas já ordenadas pelo cliente
+        for (int k = 0; k < size; k++) {
+            int e = order[k];
+            if (keep[e]) {
+                int user = userRemap[u[e]];
+                int item = itemRemap[i[e]];
+                userItems[p] = item;
+                userValues[p++] = values[e];
+                int q = nextInItem[item]++;
+                itemUsers[q] = user;
+                itemValues[q] = values[e];
+            }
+        }
+        return new SparseRatings(userIds, itemIds, userOffsets, userItems, userValues,
+                itemOffsets, itemUsers, itemValues, minValue, maxValue);
+    }
+
+    /**
+     * Uma orientação reconstruída por {@link #withChanges}. As linhas com
+     * alterações são combinadas com elas em ordem de coluna, com as colunas
+     * ainda como ids; as demais serão copiadas. Linhas que ficam vazias
+     * saem, e linhas novas entram, na ordem dos ids.
+     */
+    private static final class MergedRows {
+
+        // ids das linhas que restam, ordenados
+        final long[] ids;
+        // por linha nova: o índice antigo, ou -(linha alterada + 1)
+        private final int[] source;
+        // por linha antiga: o índice novo, ou -1 se saiu
+        private final int[] remap;
+        private final boolean sameIds;
+        private final int[] changedOffsets;
+        private final long[] changedColumns;
+        private final float[] changedValues;
+        int[] offsets;
+        int[] columns;
+        float[] values;
+
+        /**
+         * @param changes Alterações sem pares repetidos, ordenadas pela
+         * linha e depois pela coluna.
+         * @param byUser Se as linhas são os clientes.
+         */
+        MergedRows(long[] rowIds, int[] rowOffsets, int[] rowColumns, float[] rowValues,
+                long[] columnIds, RecommendationService.Change[] changes, boolean byUser) {
+            int groups = 0;
+            int capacity = changes.length;
+            long[] groupIds = new long[changes.length];
+            for (int k = 0; k < changes.length; k++) {
+                long row = byUser ? changes[k].userId() : changes[k].itemId();
+                if (groups == 0 || groupIds[groups - 1] != row) {
+                    groupIds[groups++] = row;
+                    int old = Arrays.binarySearch(rowIds, row);
+                    if (old >= 0) {
+                        capacity += rowOffsets[old + 1] - rowOffsets[old];
+                    }
+                }
+            }
+            changedOffsets = new int[groups + 1];
+            changedColumns = new long[capacity];
+            changedValues = new float[capacity];
+            int n = 0;
+            int k = 0;
+            for (int g = 0; g < groups; g++) {
+                int old = Arrays.binarySearch(rowIds, groupIds[g]);
+                int p = old >= 0 ? rowOffsets[old] : 0;
+                int end = old >= 0 ? rowOffsets[old + 1] : 0;
+                // as linhas e as alterações estão ordenadas pela coluna
+                while (k < changes.length
+                        && (byUser ? changes[k].userId() : changes[k].itemId()) == groupIds[g]) {
+                    long column = byUser ? changes[k].itemId() : changes[k].userId();
+                    while (p < end && columnIds[rowColumns[p]] < column) {
+                        changedColumns[n] = columnIds[rowColumns[p]];
+                        changedValues[n++] = rowValues[p++];
+                    }
+                    if (p < end && columnIds[rowColumns[p]] == column) {
+                        p++;
+                    }
+                    if (!changes[k].isRemoval()) {
+                        changedColumns[n] = column;
+                        changedValues[n++] = changes[k].value();
+                    }
+                    k++;
+                }
+                while (p < end) {
+                    changedColumns[n] = columnIds[rowColumns[p]];
+                    changedValues[n++] = rowValues[p++];
+                }
+                changedOffsets[g + 1] = n;
+            }
+
+            long[] merged = new long[rowIds.length + groups];
+            int[] from = new int[merged.length];
+            remap = new int[rowIds.length];
+            Arrays.fill(remap, -1);
+            int size = 0;
+            int x = 0;
+            for (int g = 0; g <= groups; g++) {
+                long next = g < groups ? groupIds[g] : Long.MAX_VALUE;
+                while (x < rowIds.length && (rowIds[x] < next || g == groups)) {
+                    remap[x] = size;
+                    from[size] = x;
+                    merged[size++] = rowIds[x++];
+                }
+                if (g == groups) {
+                    break;
+                }
+                if (x < rowIds.length && rowIds[x] == next) {
+                    x++;
+                }
+                if (changedOffsets[g + 1] > changedOffsets[g]) {
+                    if (x > 0 && rowIds[x - 1] == next) {
+                        remap[x - 1] = size;
+                    }
+                    from[size] = -(g + 1);
+                    merged[size++] = next;
+                }
+            }
+            ids = Arrays.copyOf(merged, size);
+            source = Arrays.copyOf(from, size);
+            sameIds = Arrays.equals(ids, rowIds);
+        }
+
+        /**
+         * Monta os arranjos da orientação, renumerando as colunas pelos ids
+         * que restam na outra.
+         */
+        void fill(int[] rowOffsets, int[] rowColumns, float[] rowValues, MergedRows other) {
+            offsets = new int[ids.length + 1];
+            for (int r = 0; r < ids.length; r++) {
+                int s = source[r];
+                offsets[r + 1] = offsets[r] + (s >= 0
+                        ? rowOffsets[s + 1] - rowOffsets[s]
+                        : changedOffsets[-s] - changedOffsets[-s - 1]);
+            }
+            columns = new int[offsets[ids.length]];
+            values = new float[columns.length];
+            for (int r = 0; r < ids.length; r++) {
+                int s = source[r];
+                int q = offsets[r];
+                if (s >= 0) {
+                    int length = rowOffsets[s + 1] - rowOffsets[s];
+                    System.arraycopy(rowValues, rowOffsets[s], values, q, length);
+                    if (other.sameIds) {
+                        System.arraycopy(rowColumns, rowOffsets[s], columns, q, length);
+                    } else {
+                        // uma linha sem alterações não cita colunas que saíram
+                        for (int p = rowOffsets[s]; p < rowOffsets[s + 1]; p++) {
+                            columns[q++] = other.remap[rowColumns[p]];
+                        }
+                    }
+                } else {
+                    for (int p = changedOffsets[-s - 1]; p < changedOffsets[-s]; p++) {
+                        columns[q] = Arrays.binarySearch(other.ids, changedColumns[p]);
+                        values[q++] = changedValues[p];
+                    }
+                }
+            }
+        }
+    }
+
+    private static long[] distinct(long[] ids, int size) {
+        return Arrays.stream(ids, 0, size).sorted().distinct().toArray();
+    }
+
+    private static int[] identity(int size) {
+        int[] order = new int[size];
+        for (int e = 0; e < size; e++) {
+            order[e] = e;
+        }
+        return order;
+    }
+
+    /**
+     * @return As posições de {@code order} reordenadas por {@code keys},
+     * mantendo a ordem relativa de chaves iguais.
+     */
+    private static int[] countingSort(int[] keys, int[] order, int range) {
+        int[] offsets = new int[range + 1];
+        for (int e : order) {
+            offsets[keys[e] + 1]++;
+        }
+        prefixSum(offsets);
+        int[] sorted = new int[order.length];
+        for (int e : order) {
+            sorted[offsets[keys[e]]++] = e;
+        }
+        return sorted;
+    }
+
+    private static void prefixSum(int[] offsets) {
+        for (int r = 0; r + 1 < offsets.length; r++) {
+            offsets[r + 1] += offsets[r];
+        }
+    }
+
+    private static long[] compact(long[] ids, boolean[] kept, int[] remap) {
+        int n = 0;
+        for (int k = 0; k < ids.length; k++) {
+            remap[k] = kept[k] ? n++ : -1;
+        }
+        long[] result = new long[n];
+        for (int k = 0; k < ids.length; k++) {
+            if (kept[k]) {
+                result[remap[k]] = ids[k];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,664 @@
+package servico;
+
+import dominio.Evaluation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * Recomendação baseada em usuários sobre {@link SparseRatings}, sem objetos
+ * por avaliação e sem alocação no cálculo.
+ * <p>
+ * Reproduz o pipeline do Mahout usado em {@link MahoutRecommenderEngine}:
+ * <ul>
+ * <li>similaridade de Pearson sobre os livros avaliados pelos dois usuários,
+ * com médias e normas desses livros, limitada a [-1, 1];</li>
+ * <li>vizinhança com os {@value MahoutRecommenderEngine#NEIGHBORHOOD_SIZE}
+ * usuários mais similares (empates pelo menor id);</li>
+ * <li>nota estimada de um livro igual à média das notas dos vizinhos que o
+ * avaliaram, ponderada pela similaridade, exigindo ao menos dois vizinhos e
+ * limitada às notas mínima e máxima do modelo.</li>
+ * </ul>
+ * As somas são feitas em {@code double} e na mesma ordem do Mahout, de modo
+ * que similaridades e notas estimadas são idênticas; livros com a mesma nota
+ * estimada saem pelo menor id, enquanto no Mahout a ordem entre eles depende
+ * da iteração de um conjunto de hash.
+ * <p>
+ * Como a correlação considera só os livros em comum, as médias não podem ser
+ * calculadas de antemão: as somas de todos os pares de um usuário são
+ * acumuladas de uma vez, percorrendo a linha do usuário e as colunas dos seus
+ * livros, em arranjos densos reaproveitados pela thread. O custo é
+ * proporcional às avaliações em comum, que crescem com o número de usuários.
+ * <p>
+ * Com um {@link LshUserIndex}, a vizinhança é aproximada: a correlação é
+ * calculada só para os candidatos do índice, intercalando as linhas dos dois
+ * usuários, e o custo de uma consulta fica limitado pelo número máximo de
+ * candidatos. Os vizinhos encontrados têm a mesma similaridade da vizinhança
+ * exata, mas alguns dos exatos podem faltar.
+ */
+final class SparseRecommenderEngine implements RecommenderEngine {
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private static final int CALIBRATION_USERS = 200;
+
+    private final SparseRatings ratings;
+    private final LshUserIndex index;
+
+    private SparseRecommenderEngine(SparseRatings ratings, LshUserIndex index) {
+        this.ratings = ratings;
+        this.index = index;
+    }
+
+    /**
+     * @param evaluations As avaliações de usuários.
+     * @return O modelo.
+     */
+    static SparseRecommenderEngine build(Stream<Evaluation> evaluations) {
+        return new SparseRecommenderEngine(SparseRatings.of(evaluations), null);
+    }
+
+    /**
+     * @param ratings Avaliações já organizadas, como as lidas de um arquivo.
+     * @return O modelo, sem nenhum cálculo adicional.
+     */
+    static SparseRecommenderEngine of(SparseRatings ratings) {
+        return new SparseRecommenderEngine(ratings, null);
+    }
+
+    /**
+     * Constrói o modelo com vizinhança aproximada. Com
+     * {@link LshParameters#forRecall}, usa o menor número de tabelas que
+     * atinge a revocação pedida em uma amostra de usuários.
+     *
+     * @param ratings As avaliações.
+     * @param parameters Os parâmetros do índice.
+     * @return O modelo.
+     */
+    static SparseRecommenderEngine approximate(SparseRatings ratings, LshParameters parameters) {
+        LshUserIndex index = LshUserIndex.build(ratings, parameters);
+        if (parameters.isCalibrated()) {
+            index = calibrate(ratings, index, parameters.getTargetRecall());
+        }
+        return new SparseRecommenderEngine(ratings, index);
+    }
+
+    /**
+     * Busca binária pelo menor número de tabelas com a revocação desejada,
+     * supondo que ela cresce com as tabelas.
+     */
+    private static LshUserIndex calibrate(SparseRatings ratings, LshUserIndex index, double targetRecall) {
+        int samples = Math.min(CALIBRATION_USERS, ratings.numUsers());
+        int[] sample = new int[samples];
+        for (int s = 0; s < samples; s++) {
+            sample[s] = (int) ((long) s * ratings.numUsers() / samples);
+        }
+        double[] thresholds = new double[samples];
+        int[] sizes = new SparseRecommenderEngine(ratings, null).exactNeighborhoods(sample, thresholds);
+        int low = 1;
+        int high = index.tables();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (new SparseRecommenderEngine(ratings, index.withTables(middle)).recall(sample, sizes, thresholds)
+                    >= targetRecall) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return index.withTables(low);
+    }
+
+    @Override
+    public SparseRatings ratings() {
+        return ratings;
+    }
+
+    @Override
+    public List<Long> recommend(long userId, int howMany) throws TasteException {
+        if (howMany < 1) {
+            throw new IllegalArgumentException("howMany must be at least 1");
+        }
+        int user = ratings.userIndex(userId);
+        if (user < 0) {
+            throw new NoSuchUserException(userId);
+        }
+        Workspace work = WORKSPACE.get();
+        work.ensureCapacity(ratings.numUsers(), ratings.numItems(), howMany);
+        int neighbors = nearest(user, work);
+        if (neighbors == 0) {
+            return new ArrayList<>(0);
+        }
+        int found = estimate(user, neighbors, howMany, work);
+        List<Long> result = new ArrayList<>(found);
+        for (int t = 0; t < found; t++) {
+            result.add(ratings.itemIds[work.topItems[t]]);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Como no Mahout: a média das notas dos vizinhos que avaliaram o livro,
+     * ponderada pela similaridade, com ao menos dois deles.
+     */
+    @Override
+    public float estimate(long userId, long itemId) throws TasteException {
+        int user = ratings.userIndex(userId);
+        if (user < 0) {
+            throw new NoSuchUserException(userId);
+        }
+        int item = ratings.itemIndex(itemId);
+        if (item < 0) {
+            throw new NoSuchItemException(itemId);
+        }
+        float own = value(user, item);
+        if (!Float.isNaN(own)) {
+            return own;
+        }
+        Workspace work = WORKSPACE.get();
+        work.ensureCapacity(ratings.numUsers(), ratings.numItems(), 1);
+        int neighbors = nearest(user, work);
+        double weightedSum = 0;
+        double totalSimilarity = 0;
+        int raters = 0;
+        for (int n = 0; n < neighbors; n++) {
+            float value = value(work.neighbors[n], item);
+            if (!Float.isNaN(value)) {
+                weightedSum += work.similarities[n] * value;
+                totalSimilarity += work.similarities[n];
+                raters++;
+            }
+        }
+        if (raters <= 1) {
+            return Float.NaN;
+        }
+        float estimate = (float) (weightedSum / totalSimilarity);
+        return Math.max(ratings.minValue, Math.min(ratings.maxValue, estimate));
+    }
+
+    /**
+     * @return A nota do usuário para o livro, ou {@code NaN}.
+     */
+    private float value(int user, int item) {
+        int p = Arrays.binarySearch(ratings.userItems, ratings.userOffsets[user], ratings.userOffsets[user + 1], item);
+        return p < 0 ? Float.NaN : ratings.userValues[p];
+    }
+
+    @Override
+    public long[] neighbors(long userId) {
+        int user = ratings.userIndex(userId);
+        if (user < 0) {
+            return new long[0];
+        }
+        Workspace work = WORKSPACE.get();
+        work.ensureCapacity(ratings.numUsers(), ratings.numItems(), 1);
+        int neighbors = nearest(user, work);
+        long[] result = new long[neighbors];
+        for (int n = 0; n < neighbors; n++) {
+            result[n] = ratings.userIds[work.neighbors[n]];
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Um vizinho aproximado conta como encontrado se a sua similaridade é ao
+     * menos a do último vizinho exato: na avaliação esparsa, muitos usuários
+     * empatam com similaridade 1 em poucos livros comuns, e entre eles a
+     * vizinhança exata escolhe simplesmente os de menor id.
+     */
+    @Override
+    public double recall(long[] userIds) {
+        if (index == null) {
+            return 1.0;
+        }
+        int[] users = Arrays.stream(userIds).mapToInt(ratings::userIndex).filter(u -> u >= 0).toArray();
+        double[] thresholds = new double[users.length];
+        int[] sizes = new SparseRecommenderEngine(ratings, null).exactNeighborhoods(users, thresholds);
+        return recall(users, sizes, thresholds);
+    }
+
+    @Override
+    public int neighborhoodTables() {
+        return index == null ? 0 : index.tables();
+    }
+
+    /**
+     * @param thresholds Recebe a similaridade do último vizinho de cada
+     * usuário.
+     * @return O tamanho da vizinhança de cada usuário.
+     */
+    private int[] exactNeighborhoods(int[] users, double[] thresholds) {
+        Workspace work = WORKSPACE.get();
+        work.ensureCapacity(ratings.numUsers(), ratings.numItems(), 1);
+        int[] sizes = new int[users.length];
+        for (int s = 0; s < users.length; s++) {
+            sizes[s] = nearest(users[s], work);
+            thresholds[s] = sizes[s] == 0 ? Double.NaN : work.similarities[sizes[s] - 1];
+        }
+        return sizes;
+    }
+
+    private double recall(int[] users, int[] sizes, double[] thresholds) {
+        Workspace work = WORKSPACE.get();
+        work.ensureCapacity(ratings.numUsers(), ratings.numItems(), 1);
+        long found = 0;
+        long total = 0;
+        for (int s = 0; s < users.length; s++) {
+            int actual = nearest(users[s], work);
+            for (int n = 0; n < actual && work.similarities[n] >= thresholds[s]; n++) {
+                found++;
+            }
+            total += sizes[s];
+        }
+        return total == 0 ? 1.0 : (double) found / total;
+    }
+
+    @Override
+    public SparseRecommenderEngine apply(List<RecommendationService.Change> changes) {
+        SparseRatings updated = ratings.withChanges(changes);
+        if (index == null) {
+            return new SparseRecommenderEngine(updated, null);
+        }
+        long[] changedUsers = changes.stream().mapToLong(RecommendationService.Change::userId)
+                .sorted().distinct().toArray();
+        return new SparseRecommenderEngine(updated, index.update(updated, changedUsers));
+    }
+
+    /**
+     * Calcula a vizinhança do usuário em {@code work.neighbors} e
+     * {@code work.similarities}, do mais para o menos similar.
+     *
+     * @return O tamanho da vizinhança.
+     */
+    private int nearest(int user, Workspace work) {
+        if (index != null) {
+            return approximateNearest(user, work);
+        }
+        int touched = 0;
+        for (int p = ratings.userOffsets[user]; p < ratings.userOffsets[user + 1]; p++) {
+            int item = ratings.userItems[p];
+            double x = ratings.userValues[p];
+            for (int q = ratings.itemOffsets[item]; q < ratings.itemOffsets[item + 1]; q++) {
+                int other = ratings.itemUsers[q];
+                if (other == user) {
+                    continue;
+                }
+                if (work.count[other] == 0) {
+                    work.touched[touched++] = other;
+                }
+                double y = ratings.itemValues[q];
+                work.sumXY[other] += x * y;
+                work.sumX[other] += x;
+                work.sumX2[other] += x * x;
+                work.sumY[other] += y;
+                work.sumY2[other] += y * y;
+                work.count[other]++;
+            }
+        }
+        int size = 0;
+        for (int t = 0; t < touched; t++) {
+            int other = work.touched[t];
+            double similarity = other > user
+                    ? pearson(work.sumXY[other], work.sumX[other], work.sumX2[other],
+                            work.sumY[other], work.sumY2[other], work.count[other])
+                    // o Mahout calcula cada par a partir do usuário de menor id
+                    : pearson(work.sumXY[other], work.sumY[other], work.sumY2[other],
+                            work.sumX[other], work.sumX2[other], work.count[other]);
+            work.sumXY[other] = 0;
+            work.sumX[other] = 0;
+            work.sumX2[other] = 0;
+            work.sumY[other] = 0;
+            work.sumY2[other] = 0;
+            work.count[other] = 0;
+            if (!Double.isNaN(similarity)) {
+                size = offerNeighbor(other, similarity, size, work);
+            }
+        }
+        sortNeighbors(size, work);
+        return size;
+    }
+
+    /**
+     * Vizinhança aproximada: correlação apenas com os candidatos do índice.
+     */
+    private int approximateNearest(int user, Workspace work) {
+        int candidates = index.candidates(user, work.touched, work.seen, work.nextUserStamp());
+        int size = 0;
+        for (int c = 0; c < candidates; c++) {
+            int other = work.touched[c];
+            double similarity = other > user ? pearson(user, other) : pearson(other, user);
+            if (!Double.isNaN(similarity)) {
+                size = offerNeighbor(other, similarity, size, work);
+            }
+        }
+        sortNeighbors(size, work);
+        return size;
+    }
+
+    /**
+     * Correlação entre dois usuários intercalando as suas linhas, ordenadas
+     * pelo livro; {@code x} é o de menor id, como no Mahout.
+     */
+    private double pearson(int x, int y) {
+        double sumXY = 0;
+        double sumX = 0;
+        double sumX2 = 0;
+        double sumY = 0;
+        double sumY2 = 0;
+        int count = 0;
+        int p = ratings.userOffsets[x];
+        int q = ratings.userOffsets[y];
+        int endX = ratings.userOffsets[x + 1];
+        int endY = ratings.userOffsets[y + 1];
+        while (p < endX && q < endY) {
+            int itemX = ratings.userItems[p];
+            int itemY = ratings.userItems[q];
+            if (itemX < itemY) {
+                p++;
+            } else if (itemX > itemY) {
+                q++;
+            } else {
+                double valueX = ratings.userValues[p++];
+                double valueY = ratings.userValues[q++];
+                sumXY += valueX * valueY;
+                sumX += valueX;
+                sumX2 += valueX * valueX;
+                sumY += valueY;
+                sumY2 += valueY * valueY;
+                count++;
+            }
+        }
+        return count == 0 ? Double.NaN : pearson(sumXY, sumX, sumX2, sumY, sumY2, count);
+    }
+
+    /**
+     * Ordenação por inserção: a vizinhança é pequena.
+     */
+    private static void sortNeighbors(int size, Workspace work) {
+        for (int a = 1; a < size; a++) {
+            int neighbor = work.neighbors[a];
+            double similarity = work.similarities[a];
+            int b = a - 1;
+            while (b >= 0 && worseNeighbor(work.neighbors[b], work.similarities[b], neighbor, similarity)) {
+                work.neighbors[b + 1] = work.neighbors[b];
+                work.similarities[b + 1] = work.similarities[b];
+                b--;
+            }
+            work.neighbors[b + 1] = neighbor;
+            work.similarities[b + 1] = similarity;
+        }
+    }
+
+    /**
+     * Correlação de Pearson como em {@code AbstractSimilarity} do Mahout, a
+     * partir das somas sobre os livros em comum.
+     */
+    private static double pearson(double sumXY, double sumX, double sumX2, double sumY, double sumY2,
+            int count) {
+        double meanX = sumX / count;
+        double meanY = sumY / count;
+        double centeredSumXY = sumXY - meanY * sumX;
+        double centeredSumX2 = sumX2 - meanX * sumX;
+        double centeredSumY2 = sumY2 - meanY * sumY;
+        double denominator = Math.sqrt(centeredSumX2) * Math.sqrt(centeredSumY2);
+        if (denominator == 0.0) {
+            return Double.NaN;
+        }
+        double result = centeredSumXY / denominator;
+        if (result < -1.0) {
+            return -1.0;
+        }
+        return result > 1.0 ? 1.0 : result;
+    }
+
+    /**
+     * Mantém os vizinhos em um heap mínimo de tamanho fixo, com o pior na
+     * raiz.
+     */
+    private static int offerNeighbor(int other, double similarity, int size, Workspace work) {
+        int[] heap = work.neighbors;
+        double[] values = work.similarities;
+        if (size < MahoutRecommenderEngine.NEIGHBORHOOD_SIZE) {
+            int i = size++;
+            heap[i] = other;
+            values[i] = similarity;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worseNeighbor(heap[i], values[i], heap[parent], values[parent])) {
+                    break;
+                }
+                swap(heap, values, i, parent);
+                i = parent;
+            }
+        } else if (worseNeighbor(heap[0], values[0], other, similarity)) {
+            heap[0] = other;
+            values[0] = similarity;
+            int i = 0;
+            while (true) {
+                int left = 2 * i + 1;
+                int worst = i;
+                if (left < size && worseNeighbor(heap[left], values[left], heap[worst], values[worst])) {
+                    worst = left;
+                }
+                if (left + 1 < size && worseNeighbor(heap[left + 1], values[left + 1], heap[worst], values[worst])) {
+                    worst = left + 1;
+                }
+                if (worst == i) {
+                    break;
+                }
+                swap(heap, values, i, worst);
+                i = worst;
+            }
+        }
+        return size;
+    }
+
+    private static boolean worseNeighbor(int user, double similarity, int otherUser, double otherSimilarity) {
+        return similarity < otherSimilarity || (similarity == otherSimilarity && user > otherUser);
+    }
+
+    private static void swap(int[] heap, double[] values, int a, int b) {
+        int user = heap[a];
+        heap[a] = heap[b];
+        heap[b] = user;
+        double value = values[a];
+        values[a] = values[b];
+        values[b] = value;
+    }
+
+    /**
+     * Estima as notas dos livros avaliados pelos vizinhos e não pelo usuário
+     * e deixa os {@code howMany} maiores em {@code work.topItems}, em ordem.
+     *
+     * @return O número de livros selecionados.
+     */
+    private int estimate(int user, int neighbors, int howMany, Workspace work) {
+        int stamp = work.nextStamp();
+        for (int p = ratings.userOffsets[user]; p < ratings.userOffsets[user + 1]; p++) {
+            work.rated[ratings.userItems[p]] = stamp;
+        }
+        int touched = 0;
+        // vizinhos na ordem da vizinhança, como no Mahout
+        for (int n = 0; n < neighbors; n++) {
+            int neighbor = work.neighbors[n];
+            double similarity = work.similarities[n];
+            for (int p = ratings.userOffsets[neighbor]; p < ratings.userOffsets[neighbor + 1]; p++) {
+                int item = ratings.userItems[p];
+                if (work.rated[item] == stamp) {
+                    continue;
+                }
+                if (work.raters[item] == 0) {
+                    work.touched[touched++] = item;
+                }
+                work.weightedSum[item] += similarity * ratings.userValues[p];
+                work.totalSimilarity[item] += similarity;
+                work.raters[item]++;
+            }
+        }
+        int size = 0;
+        for (int t = 0; t < touched; t++) {
+            int item = work.touched[t];
+            if (work.raters[item] > 1) {
+                float estimate = (float) (work.weightedSum[item] / work.totalSimilarity[item]);
+                if (estimate > ratings.maxValue) {
+                    estimate = ratings.maxValue;
+                } else if (estimate < ratings.minValue) {
+                    estimate = ratings.minValue;
+                }
+                if (!Float.isNaN(estimate)) {
+                    size = offerItem(item, estimate, size, howMany, work);
+                }
+            }
+            work.weightedSum[item] = 0;
+            work.totalSimilarity[item] = 0;
+            work.raters[item] = 0;
+        }
+        for (int a = 1; a < size; a++) {
+            int item = work.topItems[a];
+            float score = work.topScores[a];
+            int b = a - 1;
+            while (b >= 0 && worseItem(work.topItems[b], work.topScores[b], item, score)) {
+                work.topItems[b + 1] = work.topItems[b];
+                work.topScores[b + 1] = work.topScores[b];
+                b--;
+            }
+            work.topItems[b + 1] = item;
+            work.topScores[b + 1] = score;
+        }
+        return size;
+    }
+
+    private static int offerItem(int item, float score, int size, int howMany, Workspace work) {
+        int[] heap = work.topItems;
+        float[] scores = work.topScores;
+        if (size < howMany) {
+            int i = size++;
+            heap[i] = item;
+            scores[i] = score;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worseItem(heap[i], scores[i], heap[parent], scores[parent])) {
+                    break;
+                }
+                swapItems(heap, scores, i, parent);
+                i = parent;
+            }
+        } else if (worseItem(heap[0], scores[0], item, score)) {
+            heap[0] = item;
+            scores[0] = score;
+            int i = 0;
+            while (true) {
+                int left = 2 * i + 1;
+                int worst = i;
+                if (left < size && worseItem(heap[left], scores[left], heap[worst], scores[worst])) {
+                    worst = left;
+                }
+                if (left + 1 < size && worseItem(heap[left + 1], scores[left + 1], heap[worst], scores[worst])) {
+                    worst = left + 1;
+                }
+                if (worst == i) {
+                    break;
+                }
+                swapItems(heap, scores, i, worst);
+                i = worst;
+            }
+        }
+        return size;
+    }
+
+    private static boolean worseItem(int item, float score, int otherItem, float otherScore) {
+        return score < otherScore || (score == otherScore && item > otherItem);
+    }
+
+    private static void swapItems(int[] heap, float[] scores, int a, int b) {
+        int item = heap[a];
+        heap[a] = heap[b];
+        heap[b] = item;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+
+    /**
+     * Arranjos de trabalho de uma thread, zerados depois de cada uso e
+     * aumentados apenas quando um modelo maior aparece.
+     */
+    private static final class Workspace {
+
+        private double[] sumXY = new double[0];
+        private double[] sumX = new double[0];
+        private double[] sumX2 = new double[0];
+        private double[] sumY = new double[0];
+        private double[] sumY2 = new double[0];
+        private int[] count = new int[0];
+        private int[] seen = new int[0];
+        private int userStamp;
+        private int[] touched = new int[0];
+        private final int[] neighbors = new int[MahoutRecommenderEngine.NEIGHBORHOOD_SIZE];
+        private final double[] similarities = new double[MahoutRecommenderEngine.NEIGHBORHOOD_SIZE];
+        private double[] weightedSum = new double[0];
+        private double[] totalSimilarity = new double[0];
+        private int[] raters = new int[0];
+        private int[] rated = new int[0];
+        private int stamp;
+        private int[] topItems = new int[0];
+        private float[] topScores = new float[0];
+
+        void ensureCapacity(int users, int items, int howMany) {
+            if (sumXY.length < users) {
+                sumXY = new double[users];
+                sumX = new double[users];
+                sumX2 = new double[users];
+                sumY = new double[users];
+                sumY2 = new double[users];
+                count = new int[users];
+                seen = new int[users];
+                userStamp = 0;
+            }
+            if (weightedSum.length < items) {
+                weightedSum = new double[items];
+                totalSimilarity = new double[items];
+                raters = new int[items];
+                rated = new int[items];
+                stamp = 0;
+            }
+            if (touched.length < Math.max(users, items)) {
+                touched = new int[Math.max(users, items)];
+            }
+            if (topItems.length < howMany) {
+                topItems = new int[howMany];
+                topScores = new float[howMany];
+            }
+        }
+
+        /**
+         * @return Uma marca ainda não usada em {@link #rated}.
+         */
+        int nextStamp() {
+            if (stamp == Integer.MAX_VALUE) {
+                Arrays.fill(rated, 0);
+                stamp = 0;
+            }
+            return ++stamp;
+        }
+
+        /**
+         * @return Uma marca ainda não usada em {@link #seen}.
+         */
+        int nextUserStamp() {
+            if (userStamp == Integer.MAX_VALUE) {
+                Arrays.fill(seen, 0);
+                userStamp = 0;
+            }
+            return ++userStamp;
+        }
+    }
+}
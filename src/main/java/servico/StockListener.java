@@ -0,0 +1,28 @@
+package servico;
+
+import dominio.Stock;
+
+/**
+ * Observador dos estoques de uma {@link Bookstore}.
+ * <p>
+ * Índices que atravessam as livrarias, como o de menor preço por livro, se
+ * registram por {@link Bookstore#addStockListener} e acompanham a criação dos
+ * estoques e as mudanças de preço sem consultar cada livraria.
+ */
+interface StockListener {
+
+    /**
+     * Um estoque foi criado (ou já existia quando o observador se registrou).
+     *
+     * @param stock O estoque.
+     */
+    void stockCreated(Stock stock);
+
+    /**
+     * O preço de um estoque mudou.
+     *
+     * @param stock O estoque, já com o novo preço.
+     * @param previousCost O preço anterior.
+     */
+    void stockCostChanged(Stock stock, double previousCost);
+}
@@ -0,0 +1,150 @@
+package servico;
+
+import dominio.Book;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Índice de livros ordenado por título.
+ * <p>
+ * Os títulos ficam em um arranjo ordenado (com o id do livro como critério de
+ * desempate), paralelo ao arranjo de livros. Uma busca por prefixo é então
+ * uma busca binária pelo primeiro título maior ou igual ao prefixo, seguida
+ * de uma leitura sequencial enquanto os títulos começarem pelo prefixo. O
+ * resultado já sai em ordem de título, sem nenhuma ordenação por consulta.
+ * <p>
+ * A carga inicial é feita em lote por {@link #build(Collection)}; inserções
+ * posteriores ({@link #add(Book)}) deslocam apenas a cauda do arranjo.
+ */
+final class TitleIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final Comparator<Book> BY_TITLE
+            = Comparator.comparing(Book::getTitle).thenComparingInt(Book::getId);
+
+    private String[] titles;
+    private Book[] books;
+    private int size;
+
+    TitleIndex() {
+        titles = new String[INITIAL_CAPACITY];
+        books = new Book[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Reconstrói o índice a partir de uma coleção de livros.
+     *
+     * @param catalog Os livros a indexar.
+     */
+    void build(Collection<Book> catalog) {
+        Book[] sorted = catalog.toArray(new Book[0]);
+        Arrays.parallelSort(sorted, BY_TITLE);
+        String[] keys = new String[Math.max(sorted.length, INITIAL_CAPACITY)];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = sorted[i].getTitle();
+        }
+        books = Arrays.copyOf(sorted, keys.length);
+        titles = keys;
+        size = sorted.length;
+    }
+
+    /**
+     * Insere um livro na sua posição de título.
+     *
+     * @param book O livro a indexar.
+     */
+    void add(Book book) {
+        int position = insertionPoint(book.getTitle(), book.getId());
+        if (size == titles.length) {
+            int capacity = titles.length + (titles.length >> 1);
+            titles = Arrays.copyOf(titles, capacity);
+            books = Arrays.copyOf(books, capacity);
+        }
+        System.arraycopy(titles, position, titles, position + 1, size - position);
+        System.arraycopy(books, position, books, position + 1, size - position);
+        titles[position] = book.getTitle();
+        books[position] = book;
+        size++;
+    }
+
+    /**
+     * Retorna os primeiros livros, em ordem de título, cujo título começa com o
+     * prefixo informado.
+     *
+     * @param prefix O início do título.
+     * @param limit O número máximo de livros retornados.
+     * @return Até {@code limit} livros ordenados pelo título.
+     */
+    List<Book> startingWith(String prefix, int limit) {
+        List<Book> result = new ArrayList<>(Math.min(limit, 16));
+        for (int i = lowerBound(prefix); i < size && result.size() < limit
+                && titles[i].startsWith(prefix); i++) {
+            result.add(books[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Retorna os primeiros livros do índice em ordem de título.
+     *
+     * @param limit O número máximo de livros retornados.
+     * @return Até {@code limit} livros ordenados pelo título.
+     */
+    List<Book> first(int limit) {
+        return new ArrayList<>(Arrays.asList(books).subList(0, Math.min(limit, size)));
+    }
+
+    Book get(int position) {
+        return books[position];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Primeira posição cujo título é maior ou igual a {@code key}.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (titles[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Posição em que o par (título, id) deve ser inserido.
+     */
+    private int insertionPoint(String title, int id) {
+        if (size == 0 || compare(size - 1, title, id) < 0) {
+            return size;
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, title, id) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int position, String title, int id) {
+        int result = titles[position].compareTo(title);
+        return result != 0 ? result : Integer.compare(books[position].getId(), id);
+    }
+}
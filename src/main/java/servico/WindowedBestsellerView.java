@@ -0,0 +1,193 @@
+package servico;
+
+import dominio.BestsellerBook;
+import dominio.Category;
+import dominio.Order;
+import dominio.StatusTypes;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Bestsellers calculados apenas sobre os pedidos mais recentes, como define o
+ * TPC-W (os 3.333 últimos pedidos), em vez de todo o histórico.
+ * <p>
+ * A janela é limitada pelo número de pedidos ou pelo período desde a data
+ * do pedido. Os pedidos da janela ficam ordenados por data; ao
+ * entrar um pedido novo, os que saem da janela têm as suas linhas subtraídas
+ * do {@link SalesRanking}, de modo que uma consulta nunca reprocessa a
+ * janela. Uma janela por período também expira pedidos antigos no momento da
+ * consulta, mesmo sem pedidos novos.
+ * <p>
+ * Leituras compartilham um bloqueio de leitura e podem ocorrer em paralelo;
+ * apenas as atualizações são exclusivas.
+ */
+final class WindowedBestsellerView implements OrderListener {
+
+    private static final Comparator<Member> BY_DATE
+            = Comparator.comparingLong((Member member) -> member.date)
+                    .thenComparingLong(member -> member.sequence);
+
+    private final int maxOrders;
+    private final long period;
+    private final LongSupplier clock;
+    private final TreeSet<Member> window = new TreeSet<>(BY_DATE);
+    private final Map<Order, Member> members = new IdentityHashMap<>();
+    private final SalesRanking ranking = new SalesRanking();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long sequence;
+
+    private WindowedBestsellerView(int maxOrders, long period, LongSupplier clock) {
+        this.maxOrders = maxOrders;
+        this.period = period;
+        this.clock = clock;
+    }
+
+    /**
+     * Janela com os últimos pedidos, pela data do pedido.
+     *
+     * @param orders O número de pedidos na janela.
+     * @return A visão.
+     */
+    static WindowedBestsellerView lastOrders(int orders) {
+        if (orders <= 0) {
+            throw new IllegalArgumentException("A janela deve ter ao menos um pedido.");
+        }
+        return new WindowedBestsellerView(orders, 0, System::currentTimeMillis);
+    }
+
+    /**
+     * Janela com os pedidos feitos no período mais recente.
+     *
+     * @param millis A duração do período, em milissegundos.
+     * @param clock A fonte do instante atual.
+     * @return A visão.
+     */
+    static WindowedBestsellerView lastPeriod(long millis, LongSupplier clock) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("O período da janela deve ser positivo.");
+        }
+        return new WindowedBestsellerView(0, millis, clock);
+    }
+
+    @Override
+    public void orderCreated(Order order) {
+        lock.writeLock().lock();
+        try {
+            Member member = new Member(order, sequence++);
+            window.add(member);
+            members.put(order, member);
+            if (order.getStatus() == StatusTypes.SHIPPED) {
+                ranking.apply(order, 1);
+            }
+            expire();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void orderStatusChanged(Order order, StatusTypes previous) {
+        lock.writeLock().lock();
+        try {
+            if (!members.containsKey(order)) {
+                return;
+            }
+            if (previous == StatusTypes.SHIPPED) {
+                ranking.apply(order, -1);
+            }
+            if (order.getStatus() == StatusTypes.SHIPPED) {
+                ranking.apply(order, 1);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void orderRemoved(Order order) {
+        lock.writeLock().lock();
+        try {
+            Member member = members.remove(order);
+            if (member != null) {
+                window.remove(member);
+                if (order.getStatus() == StatusTypes.SHIPPED) {
+                    ranking.apply(order, -1);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retorna os livros mais vendidos dentro da janela.
+     *
+     * @param category O assunto, ou {@code null} para todo o catálogo.
+     * @param limit O número máximo de livros retornados.
+     * @return Até {@code limit} livros, por vendas decrescentes e título.
+     */
+    List<BestsellerBook> top(Category category, int limit) {
+        lock.readLock().lock();
+        try {
+            if (!hasExpired()) {
+                return ranking.top(category, limit);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            expire();
+            return ranking.top(category, limit);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Número de pedidos atualmente na janela.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return window.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean hasExpired() {
+        return period > 0 && !window.isEmpty()
+                && window.first().date < clock.getAsLong() - period;
+    }
+
+    private void expire() {
+        long cutoff = period > 0 ? clock.getAsLong() - period : Long.MIN_VALUE;
+        while (!window.isEmpty()
+                && ((maxOrders > 0 && window.size() > maxOrders) || window.first().date < cutoff)) {
+            Member member = window.pollFirst();
+            members.remove(member.order);
+            if (member.order.getStatus() == StatusTypes.SHIPPED) {
+                ranking.apply(member.order, -1);
+            }
+        }
+    }
+
+    private static final class Member {
+
+        private final Order order;
+        private final long date;
+        private final long sequence;
+
+        Member(Order order, long sequence) {
+            this.order = order;
+            this.date = order.getDate().getTime();
+            this.sequence = sequence;
+        }
+    }
+}
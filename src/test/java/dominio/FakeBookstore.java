@@ -29,9 +29,9 @@ public class FakeBookstore extends Bookstore {
     /**
      * Limpa o histórico de pedidos da livraria para isolar cenários de teste.
      */
+    @Override
     public void clearOrders() {
-        this.ordersById.clear();
-        this.ordersByCreation.clear();
+        super.clearOrders();
     }
 
     @Override
@@ -41,7 +41,8 @@ public class FakeOrder extends Order {
      *
      * @param status o novo status do pedido
      */
+    @Override
     public void setStatus(StatusTypes status) {
-        this.status = status;
+        super.setStatus(status);
     }
 }
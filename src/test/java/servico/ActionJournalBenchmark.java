@@ -0,0 +1,83 @@
+package servico;
+
+import dominio.CreditCards;
+import dominio.ShipTypes;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Vazão do {@link ActionJournal} com escritores concorrentes, por tamanho
+ * máximo do lote, espera e durabilidade.
+ * <p>
+ * Cada operação serializa uma compra, enfileira o registro e espera a sua
+ * gravação, como {@code Bookmarket.StateMachine.execute}. Com lote de um
+ * registro, cada compra paga uma sincronização com o disco; com lotes
+ * maiores, as compras que chegam durante uma sincronização saem juntas na
+ * seguinte.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ActionJournalBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class ActionJournalBenchmark {
+
+    @Param({"1", "16", "256"})
+    public int maxBatch;
+
+    @Param({"0", "200"})
+    public long maxDelayMicros;
+
+    @Param({"FSYNC", "WRITE"})
+    public JournalParameters.Durability durability;
+
+    private Path file;
+    private ActionJournal journal;
+    private Bookmarket.ConfirmBuyAction action;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        file = Files.createTempFile("journal", ".bench");
+        journal = ActionJournal.open(file, JournalParameters.of(durability, maxBatch,
+                maxDelayMicros, TimeUnit.MICROSECONDS), replayed -> {
+                });
+        action = new Bookmarket.ConfirmBuyAction(0, 42, 17, "comentário da compra",
+                CreditCards.VISA, 1234567890123456L, "Nome no Cartão", new Date(),
+                ShipTypes.AIR, new Date(), -1, System.currentTimeMillis());
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        journal.close();
+        System.out.printf("%n%d bytes gravados%n", Files.size(file));
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public long append() throws IOException {
+        long sequence = journal.append(ActionJournal.encode(action));
+        journal.await(sequence);
+        return sequence;
+    }
+}
@@ -0,0 +1,134 @@
+package servico;
+
+import dominio.CreditCards;
+import dominio.Order;
+import dominio.ShipTypes;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Vazão de compras completas (carrinho vazio, item e confirmação) com
+ * clientes concorrentes, aplicadas diretamente na thread de quem chama, como
+ * antes ({@code pipelines=false}), ou pelas filas de ações de cada livraria
+ * ({@code pipelines=true}), com e sem journal.
+ * <p>
+ * {@code buy} espera cada ação antes da seguinte; {@code buyAsync} encadeia
+ * {@value #CHAINS} compras sem esperar e só então espera todas. Nas filas, um
+ * lote espera o journal e publica o retrato das consultas uma só vez.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ActionPipelineBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+@Threads(8)
+@State(Scope.Benchmark)
+public class ActionPipelineBenchmark {
+
+    static final int CHAINS = 16;
+
+    private static final int STORES = 4;
+    private static final int CUSTOMERS = 1000;
+
+    @Param({"false", "true"})
+    public boolean pipelines;
+
+    @Param({"NONE", "FSYNC"})
+    public String journal;
+
+    private Path file;
+    private final int[] bookByStore = new int[STORES];
+
+    @Setup(Level.Trial)
+    public void populate() throws IOException {
+        Bookstore.populate(0, System.currentTimeMillis(), 1000, CUSTOMERS, 1000, 250);
+        Bookstore[] bookstores = new Bookstore[STORES];
+        Random random = new Random(0);
+        for (int id = 0; id < STORES; id++) {
+            bookstores[id] = new Bookstore(id);
+            bookstores[id].populateInstanceBookstore(500, random, System.currentTimeMillis());
+            int bookId = 0;
+            while (bookstores[id].getStock(bookId) == null) {
+                bookId++;
+            }
+            bookByStore[id] = bookId;
+        }
+        Bookmarket.init(0, bookstores);
+        if (!"NONE".equals(journal)) {
+            file = Files.createTempFile("journal", ".bench");
+            Bookmarket.openJournal(file, JournalParameters.of(
+                    JournalParameters.Durability.valueOf(journal), 256, 0, TimeUnit.MICROSECONDS));
+        }
+        if (pipelines) {
+            Bookmarket.startPipelines(1024);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        Bookmarket.stopPipelines();
+        if (file != null) {
+            Bookmarket.closeJournal();
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public Order buy() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int storeId = random.nextInt(STORES);
+        int cartId = Bookmarket.createEmptyCart(storeId);
+        Bookmarket.doCart(storeId, cartId, bookByStore[storeId],
+                new ArrayList<>(), new ArrayList<>());
+        return Bookmarket.doBuyConfirm(storeId, cartId, random.nextInt(CUSTOMERS),
+                CreditCards.VISA, 1234567890123456L, "Nome no Cartão", new Date(),
+                ShipTypes.AIR);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHAINS)
+    public List<Order> buyAsync() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<CompletableFuture<Order>> chains = new ArrayList<>(CHAINS);
+        for (int i = 0; i < CHAINS; i++) {
+            int storeId = random.nextInt(STORES);
+            int customerId = random.nextInt(CUSTOMERS);
+            chains.add(Bookmarket.createEmptyCartAsync(storeId)
+                    .thenCompose(cartId -> Bookmarket.doCartAsync(storeId, cartId,
+                            bookByStore[storeId], new ArrayList<>(), new ArrayList<>()))
+                    .thenCompose(cart -> Bookmarket.doBuyConfirmAsync(storeId, cart.getId(),
+                            customerId, CreditCards.VISA, 1234567890123456L,
+                            "Nome no Cartão", new Date(), ShipTypes.AIR)));
+        }
+        List<Order> orders = new ArrayList<>(CHAINS);
+        for (CompletableFuture<Order> chain : chains) {
+            orders.add(chain.join());
+        }
+        return orders;
+    }
+}
@@ -0,0 +1,84 @@
+package servico;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compara o preço médio de venda calculado expandindo cada linha de pedido em
+ * {@code qty} cópias do preço (a implementação anterior de
+ * {@code Bookmarket.getAverageSalePrice}) com a leitura dos agregados de
+ * vendas mantidos por {@link SalesAggregates}.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=AverageSalePriceBenchmark}
+ * <p>
+ * O profiler "gc", ligado por padrão no perfil, mostra a queda de alocação
+ * por operação em {@code gc.alloc.rate.norm}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AverageSalePriceBenchmark {
+
+    @Param({"1000", "10000"})
+    public int orders;
+
+    private static final int ITEMS = 1000;
+
+    private final SalesAggregates aggregates = new SalesAggregates();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        Bookstore.populate(0, System.currentTimeMillis(), ITEMS, 1000, 1000, 100);
+        Bookstore[] bookstores = new Bookstore[5];
+        for (int i = 0; i < bookstores.length; i++) {
+            bookstores[i] = new Bookstore(i);
+        }
+        Bookmarket.init(0, bookstores);
+        Bookmarket.populate(ITEMS, 1000, 1000, 100, orders);
+        for (Bookstore bookstore : bookstores) {
+            bookstore.addOrderListener(aggregates);
+        }
+    }
+
+    private int nextBook() {
+        return next++ % ITEMS;
+    }
+
+    @Benchmark
+    public double streamedCopies() {
+        int bookId = nextBook();
+        List<Double> pricesOfAllUnitsSold = Bookmarket.getStateMachine().getState().stream()
+                .flatMap(bookstore -> bookstore.getOrdersByCreation().stream())
+                .flatMap(order -> order.getLines().stream())
+                .filter(line -> line.getBook().getId() == bookId)
+                .flatMap(line -> Collections.nCopies(line.getQty(), line.getPrice()).stream())
+                .collect(Collectors.toList());
+        return pricesOfAllUnitsSold.stream()
+                .mapToDouble(Double::doubleValue)
+                .average()
+                .orElse(0.0);
+    }
+
+    @Benchmark
+    public double runningAggregates() {
+        return aggregates.averagePrice(nextBook());
+    }
+}
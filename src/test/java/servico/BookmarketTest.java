@@ -1,10 +1,12 @@
 package servico;
 
+import dominio.Address;
 import dominio.Book;
 import dominio.BestsellerBook;
 import dominio.Cart;
 import dominio.CreditCards;
 import dominio.Customer;
+import dominio.Evaluation;
 import dominio.FakeOrder;
 import dominio.Order;
 import dominio.OrderLine;
@@ -13,12 +15,43 @@ import dominio.SUBJECTS;
 import dominio.ShipTypes;
 import dominio.StatusTypes;
 import dominio.Stock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Date;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.CachingUserSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -148,6 +181,45 @@ public class BookmarketTest {
         }
     }
 
+    /**
+     * Testa os agregados de venda por livro, que mantêm o preço médio de
+     * venda (US3) a cada pedido criado ou removido depois da carga.
+     */
+    @Test
+    public void testSalesAggregates_ShouldFollowOrdersCreatedAndRemovedAfterInit() {
+        System.out.println("SalesAggregates: incremental average sale price");
+        // Arrange: agregados que recebem o histórico ao serem registrados
+        FakeBookstore fakeBookstore = (FakeBookstore) Bookmarket.getStateMachine().getState().get(0);
+        SalesAggregates aggregates = new SalesAggregates();
+        fakeBookstore.addOrderListener(aggregates);
+        Customer regularCustomer = findRegularCustomer();
+        Book book = Bookstore.getBook(100).get();
+        Book unsold = Bookstore.getBook(101).get();
+        fakeBookstore.clearOrders();
+        assertEquals(0.0, aggregates.averagePrice(book.getId()), 0.0);
+
+        // Act & Assert: duas unidades a 10 e uma a 40
+        fakeBookstore.updateStock(book.getId(), 10.0);
+        int cartId1 = Bookmarket.createEmptyCart(fakeBookstore.getId());
+        Bookmarket.getCart(fakeBookstore.getId(), cartId1).increaseLine(fakeBookstore.getStock(book.getId()), 2);
+        Bookmarket.doBuyConfirm(fakeBookstore.getId(), cartId1, regularCustomer.getId(), CreditCards.VISA, 123L, "Test", new Date(), ShipTypes.AIR);
+        assertEquals(10.0, aggregates.averagePrice(book.getId()), 1e-9);
+
+        fakeBookstore.updateStock(book.getId(), 40.0);
+        int cartId2 = Bookmarket.createEmptyCart(fakeBookstore.getId());
+        Bookmarket.getCart(fakeBookstore.getId(), cartId2).increaseLine(fakeBookstore.getStock(book.getId()), 1);
+        Bookmarket.doBuyConfirm(fakeBookstore.getId(), cartId2, regularCustomer.getId(), CreditCards.VISA, 123L, "Test", new Date(), ShipTypes.AIR);
+        assertEquals(20.0, aggregates.averagePrice(book.getId()), 1e-9);
+
+        // livros sem venda, inclusive fora da capacidade inicial, valem 0
+        assertEquals(0.0, aggregates.averagePrice(unsold.getId()), 0.0);
+        assertEquals(0.0, aggregates.averagePrice(1_000_000), 0.0);
+
+        // remover os pedidos desfaz a média
+        fakeBookstore.clearOrders();
+        assertEquals(0.0, aggregates.averagePrice(book.getId()), 0.0);
+    }
+
     /**
      * Testa o cenário de recomendação para um cliente assinante (US4).
      * Verifica se os livros recomendados vêm com o menor preço de estoque (promocional).
@@ -814,4 +886,1499 @@ public class BookmarketTest {
         // Act
         Bookmarket.rateBook(customerId, nonExistentBookId, ratingValue);
     }
+    @Test
+    public void testGetBestSellerBooks_ShouldFollowStatusChanges() {
+        System.out.println("getBestSellerBooks: status change scenario");
+        // Arrange
+        List<Order> orders = new ArrayList<>();
+        Bookmarket.getStateMachine().getState()
+                .forEach(bookstore -> orders.addAll(bookstore.getOrdersById()));
+        assertEquals(scanBestSellers(null, 100), describe(Bookmarket.getBestSellerBooks(null, 100)));
+
+        // Act
+        StatusTypes[] statuses = StatusTypes.values();
+        for (int i = 0; i < orders.size(); i += 3) {
+            ((FakeOrder) orders.get(i)).setStatus(statuses[i % statuses.length]);
+        }
+
+        // Assert
+        assertEquals(scanBestSellers(null, 100), describe(Bookmarket.getBestSellerBooks(null, 100)));
+        for (SUBJECTS subject : SUBJECTS.values()) {
+            assertEquals(scanBestSellers(subject, 20), describe(Bookmarket.getBestSellerBooks(subject, 20)));
+        }
+    }
+
+    @Test
+    public void testGetRecentBestSellerBooks_ShouldExpireOldOrders() {
+        System.out.println("getRecentBestSellerBooks: window scenario");
+        // Arrange
+        Bookmarket.getStateMachine().getState()
+                .forEach(bookstore -> ((FakeBookstore) bookstore).clearOrders());
+        Bookmarket.setRecentBestSellersWindow(2);
+        Customer customer = Bookstore.getCustomer(1);
+        int[] quantities = {5, 3, 1};
+
+        // Act
+        for (int i = 0; i < quantities.length; i++) {
+            int cartId = Bookmarket.createEmptyCart(0);
+            Bookmarket.getCart(0, cartId).increaseLine(Bookmarket.getStock(0, i + 1), quantities[i]);
+            Order order = Bookmarket.doBuyConfirm(0, cartId, customer.getId(), CreditCards.VISA,
+                    1234567890123456L, customer.getFname(), new Date(), ShipTypes.AIR);
+            ((FakeOrder) order).setStatus(StatusTypes.SHIPPED);
+        }
+
+        // Assert
+        assertEquals(Arrays.asList("2:3", "3:1"),
+                describe(Bookmarket.getRecentBestSellerBooks(null, 10)));
+        assertEquals(3, Bookmarket.getBestSellerBooks(null, 10).size());
+
+        Bookmarket.setRecentBestSellersWindow(1, TimeUnit.HOURS);
+        assertEquals(Arrays.asList("1:5", "2:3", "3:1"),
+                describe(Bookmarket.getRecentBestSellerBooks(null, 10)));
+    }
+
+    /**
+     * Ranking calculado varrendo todos os pedidos enviados, para comparação
+     * com a visão materializada.
+     */
+    private static List<String> scanBestSellers(SUBJECTS subject, int limit) {
+        Map<Book, Long> sales = new HashMap<>();
+        Bookmarket.getStateMachine().getState().stream()
+                .flatMap(bookstore -> bookstore.getOrdersByCreation().stream())
+                .filter(order -> order.getStatus() == StatusTypes.SHIPPED)
+                .flatMap(order -> order.getLines().stream())
+                .filter(line -> subject == null || line.getBook().getSubject() == subject)
+                .forEach(line -> sales.merge(line.getBook(), (long) line.getQty(), Long::sum));
+        List<String> result = new ArrayList<>();
+        sales.entrySet().stream()
+                .sorted(Comparator.comparing((Map.Entry<Book, Long> e) -> -e.getValue())
+                        .thenComparing(e -> e.getKey().getTitle())
+                        .thenComparing(e -> e.getKey().getId()))
+                .limit(limit)
+                .forEach(e -> result.add(e.getKey().getId() + ":" + e.getValue()));
+        return result;
+    }
+
+    private static List<String> describe(List<BestsellerBook> bestsellers) {
+        List<String> result = new ArrayList<>();
+        bestsellers.forEach(b -> result.add(b.getBook().getId() + ":" + b.getSalesCount()));
+        return result;
+    }
+
+    @Test
+    public void testGetStocks_ShouldFollowCostChanges() {
+        System.out.println("getStocks: cost change scenario");
+        // Arrange
+        int bookId = 7;
+        Stock cheapest = Bookmarket.getStateMachine().getState().get(2).getStock(bookId);
+        assertNotNull(cheapest);
+
+        // Act
+        cheapest.setCost(0.5);
+        Bookmarket.getStateMachine().getState().get(3).updateStock(bookId, 1000.0);
+
+        // Assert
+        long holders = Bookmarket.getStateMachine().getState().stream()
+                .filter(bookstore -> bookstore.getStock(bookId) != null)
+                .count();
+        List<Stock> stocks = Bookmarket.getStocks(bookId);
+        assertEquals(holders, stocks.size());
+        assertSame(cheapest, stocks.get(0));
+        assertEquals(1000.0, stocks.get(stocks.size() - 1).getCost(), 0.0);
+        List<Double> costs = Bookmarket.getCosts(Bookmarket.getBook(bookId));
+        for (int i = 1; i < costs.size(); i++) {
+            assertTrue(costs.get(i - 1) <= costs.get(i));
+        }
+    }
+
+    @Test
+    public void testPriceIndex_InterleavedCostChangesShouldKeepStocksSorted() {
+        System.out.println("price index with interleaved cost changes");
+        // Arrange: o mesmo livro em cinco livrarias, de 10 a 50
+        Book book = Bookmarket.getBook(0);
+        PriceIndex index = new PriceIndex();
+        List<Stock> stocks = new ArrayList<>();
+        for (int store = 0; store < 5; store++) {
+            Stock stock = new Stock(store, null, book, 10 * (store + 1), 1);
+            stocks.add(stock);
+            index.stockCreated(stock);
+        }
+
+        // Act: dois preços mudam antes que o índice receba o primeiro aviso,
+        // como em duas livrarias alterando o livro ao mesmo tempo
+        stocks.get(3).setCost(45);
+        stocks.get(2).setCost(60);
+        index.stockCostChanged(stocks.get(3), 40);
+        index.stockCostChanged(stocks.get(2), 30);
+
+        // Assert
+        assertEquals(Arrays.asList(stocks.get(0), stocks.get(1), stocks.get(3),
+                stocks.get(4), stocks.get(2)), index.stocks(book.getId()));
+    }
+
+    @Test
+    public void testReadSnapshot_ConcurrentReadsShouldSeeConsistentPublishedPrices() throws Exception {
+        System.out.println("read snapshots under concurrent cost changes");
+        // Arrange: livros com estoque em várias livrarias
+        List<Bookstore> bookstores = Bookmarket.getStateMachine().getState();
+        List<Stock> hot = new ArrayList<>();
+        for (int bookId = 0; hot.size() < 8; bookId++) {
+            for (Bookstore bookstore : bookstores) {
+                Stock stock = bookstore.getStock(bookId);
+                if (stock != null) {
+                    hot.add(stock);
+                }
+            }
+        }
+        ReadSnapshot before = Bookmarket.getReadSnapshot();
+        int bookId = hot.get(0).getBook().getId();
+        List<Double> costsBefore = new ArrayList<>(before.prices(bookId).costs());
+
+        // Act: escritores mudam preços enquanto leitores consultam
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final Random random = new Random(t);
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    hot.get(random.nextInt(hot.size())).setCost(1 + random.nextInt(100));
+                }
+            }));
+            results.add(executor.submit(() -> {
+                long version = 0;
+                for (int i = 0; i < 2000; i++) {
+                    ReadSnapshot snapshot = Bookmarket.getReadSnapshot();
+                    assertTrue(snapshot.version() >= version);
+                    version = snapshot.version();
+                    Stock stock = hot.get(random.nextInt(hot.size()));
+                    List<Double> costs = Bookmarket.getCosts(stock.getBook());
+                    List<Stock> stocks = Bookmarket.getStocks(stock.getBook().getId());
+                    assertTrue(stocks.contains(stock));
+                    for (int c = 1; c < costs.size(); c++) {
+                        assertTrue(costs.get(c - 1) <= costs.get(c));
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+        for (Future<?> result : results) {
+            result.get(1, TimeUnit.MINUTES);
+        }
+
+        // Assert: o retrato antigo não mudou e a última alteração já é lida
+        assertEquals(costsBefore, before.prices(bookId).costs());
+        hot.get(0).setCost(0.25);
+        assertTrue(Bookmarket.getReadSnapshot().version() > before.version());
+        assertEquals(0.25, Bookmarket.getCosts(hot.get(0).getBook()).get(0), 0.0);
+        assertSame(hot.get(0), Bookmarket.getStocks(bookId).get(0));
+    }
+
+    @Test
+    public void testPipelines_ConcurrentAsyncActionsShouldApplyInOrderPerStore() throws Exception {
+        System.out.println("async carts and buys through per-store pipelines");
+        // Arrange: um livro com estoque em cada livraria
+        List<Bookstore> bookstores = Bookmarket.getStateMachine().getState();
+        Map<Integer, Integer> bookByStore = new HashMap<>();
+        Map<Integer, Integer> ordersBefore = new HashMap<>();
+        for (Bookstore bookstore : bookstores) {
+            int bookId = 0;
+            while (bookstore.getStock(bookId) == null) {
+                bookId++;
+            }
+            bookByStore.put(bookstore.getId(), bookId);
+            ordersBefore.put(bookstore.getId(), bookstore.getOrdersById().size());
+        }
+        Customer customer = Bookstore.getCustomer(1);
+        int perThread = 200;
+
+        // Act: várias threads encadeiam carrinho, item e compra sem esperar
+        Bookmarket.startPipelines(64);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<Order>>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(() -> {
+                    List<CompletableFuture<Order>> orders = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        int storeId = bookstores.get(i % bookstores.size()).getId();
+                        orders.add(Bookmarket.createEmptyCartAsync(storeId)
+                                .thenCompose(cartId -> Bookmarket.doCartAsync(storeId, cartId,
+                                        bookByStore.get(storeId), new ArrayList<>(), new ArrayList<>()))
+                                .thenCompose(cart -> Bookmarket.doBuyConfirmAsync(storeId,
+                                        cart.getId(), customer.getId(), CreditCards.VISA, 123L,
+                                        customer.getFname(), new Date(), ShipTypes.AIR)));
+                    }
+                    List<Order> done = new ArrayList<>();
+                    for (CompletableFuture<Order> order : orders) {
+                        done.add(order.get(1, TimeUnit.MINUTES));
+                    }
+                    return done;
+                }));
+            }
+            executor.shutdown();
+            for (Future<List<Order>> result : results) {
+                for (Order order : result.get(1, TimeUnit.MINUTES)) {
+                    assertEquals(1, order.getLines().size());
+                }
+            }
+        } finally {
+            Bookmarket.stopPipelines();
+        }
+
+        // Assert: cada livraria recebeu os seus pedidos, com ids sem lacunas
+        int total = 0;
+        for (Bookstore bookstore : bookstores) {
+            List<Order> orders = bookstore.getOrdersById();
+            total += orders.size() - ordersBefore.get(bookstore.getId());
+            for (int id = 0; id < orders.size(); id++) {
+                assertEquals(id, orders.get(id).getId());
+            }
+        }
+        assertEquals(4 * perThread, total);
+        // sem filas, as ações voltam a ser aplicadas na thread de quem chama
+        int cartId = Bookmarket.createEmptyCart(0);
+        assertNotNull(Bookmarket.getCart(0, cartId));
+    }
+
+    @Test
+    public void testSparseRatings_WithChangesShouldMatchRatingsLeft() {
+        Random random = new Random(7);
+        Map<String, Float> expected = new HashMap<>();
+        List<Evaluation> initial = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Evaluation evaluation = new Evaluation(random.nextInt(20), random.nextInt(30), 1 + random.nextInt(5));
+            initial.add(evaluation);
+            expected.put(evaluation.getUserId() + ":" + evaluation.getBookId(), evaluation.getRating());
+        }
+        SparseRatings ratings = SparseRatings.of(initial.stream());
+        for (int batch = 0; batch < 20; batch++) {
+            List<RecommendationService.Change> changes = new ArrayList<>();
+            for (int c = 0; c < 15; c++) {
+                // clientes e livros novos entram; uma nota NaN remove o par
+                long userId = random.nextInt(25);
+                long itemId = random.nextInt(35);
+                float value = random.nextInt(3) == 0 ? Float.NaN : 1 + random.nextInt(5);
+                changes.add(new RecommendationService.Change(userId, itemId, value));
+            }
+            // o cliente sai das avaliações quando todas as suas notas são removidas
+            long removed = random.nextInt(25);
+            for (long itemId = 0; itemId < 35; itemId++) {
+                changes.add(new RecommendationService.Change(removed, itemId, Float.NaN));
+            }
+            Collections.shuffle(changes, random);
+            for (RecommendationService.Change change : changes) {
+                String key = change.userId() + ":" + change.itemId();
+                if (change.isRemoval()) {
+                    expected.remove(key);
+                } else {
+                    expected.put(key, change.value());
+                }
+            }
+            ratings = ratings.withChanges(changes);
+
+            Map<String, Float> actual = ratings.evaluations().collect(Collectors.toMap(
+                    evaluation -> evaluation.getUserId() + ":" + evaluation.getBookId(), Evaluation::getRating));
+            assertEquals(expected, actual);
+            assertEquals(expected.size(), ratings.numRatings());
+            assertEquals(expected.keySet().stream().map(key -> key.split(":")[0]).distinct().count(),
+                    ratings.numUsers());
+            assertEquals(expected.keySet().stream().map(key -> key.split(":")[1]).distinct().count(),
+                    ratings.numItems());
+        }
+    }
+
+    @Test
+    public void testPipelines_SyncCallOnWriterThreadShouldFailInsteadOfBlocking() throws Exception {
+        System.out.println("sync call from a pipeline writer thread");
+        // Arrange: a escritora fica presa na primeira ação até a continuação
+        // estar registrada, de modo que é ela quem a executa
+        CountDownLatch registered = new CountDownLatch(1);
+        ActionPipeline<String> pipeline = new ActionPipeline<>("test", 4, new ActionPipeline.Handler<String>() {
+            @Override
+            public Object apply(String action) {
+                try {
+                    registered.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return action;
+            }
+
+            @Override
+            public void endOfBatch() {
+            }
+        });
+        try {
+            CompletableFuture<Boolean> onWriter = pipeline.submit("ação")
+                    .thenApply(result -> ActionPipeline.isWriterThread());
+            registered.countDown();
+            assertTrue(onWriter.get(10, TimeUnit.SECONDS));
+            assertFalse(ActionPipeline.isWriterThread());
+        } finally {
+            pipeline.close();
+        }
+
+        // Act: a continuação chama uma versão síncrona, às vezes na escritora
+        int storeId = Bookmarket.getStateMachine().getState().get(0).getId();
+        Bookmarket.startPipelines(64);
+        try {
+            for (int i = 0; i < 50; i++) {
+                CompletableFuture<Boolean> expected = Bookmarket.createEmptyCartAsync(storeId)
+                        .thenApply(cartId -> {
+                            boolean writer = ActionPipeline.isWriterThread();
+                            try {
+                                Bookmarket.createEmptyCart(storeId);
+                                return !writer;
+                            } catch (IllegalStateException e) {
+                                return writer;
+                            }
+                        });
+
+                // Assert: falha na escritora, funciona fora dela, e nunca trava
+                assertTrue(expected.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            Bookmarket.stopPipelines();
+        }
+    }
+
+    @Test
+    public void testBookstore_OrderListenerAddedDuringBuysShouldSeeEachOrderOnce() throws Exception {
+        System.out.println("order listener registered during concurrent buys");
+        // Arrange
+        Bookstore bookstore = Bookmarket.getStateMachine().getState().get(0);
+        int bookId = 0;
+        while (bookstore.getStock(bookId) == null) {
+            bookId++;
+        }
+        final int book = bookId;
+        Map<Integer, Integer> seen = new java.util.concurrent.ConcurrentHashMap<>();
+        List<Integer> arrival = Collections.synchronizedList(new ArrayList<>());
+        OrderListener listener = new OrderListener() {
+            @Override
+            public void orderCreated(Order order) {
+                seen.merge(order.getId(), 1, Integer::sum);
+                arrival.add(order.getId());
+            }
+
+            @Override
+            public void orderStatusChanged(Order order, StatusTypes previous) {
+            }
+
+            @Override
+            public void orderRemoved(Order order) {
+            }
+        };
+
+        // Act: o observador se registra enquanto outras threads compram
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> buys = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            buys.add(executor.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    int cartId = Bookmarket.createEmptyCart(bookstore.getId());
+                    Bookmarket.doCart(bookstore.getId(), cartId, book, new ArrayList<>(), new ArrayList<>());
+                    Bookmarket.doBuyConfirm(bookstore.getId(), cartId, 0, CreditCards.VISA, 123L,
+                            "Nome", new Date(), ShipTypes.AIR);
+                }
+            }));
+        }
+        Thread.sleep(20);
+        bookstore.addOrderListener(listener);
+        try {
+            for (Future<?> buy : buys) {
+                buy.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdown();
+            bookstore.removeOrderListener(listener);
+        }
+
+        // Assert: todos os pedidos, uma vez cada, na ordem de criação
+        assertEquals(bookstore.getOrdersById().size(), seen.size());
+        for (Map.Entry<Integer, Integer> entry : seen.entrySet()) {
+            assertEquals("pedido " + entry.getKey(), 1, entry.getValue().intValue());
+        }
+        for (int i = 0; i < arrival.size(); i++) {
+            assertEquals(i, arrival.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testBookstore_StockListenerAddedDuringStockCreationShouldSeeEachStockOnce() throws Exception {
+        System.out.println("stock listener registered during concurrent stock creation");
+        // Arrange: uma livraria nova com estoque para metade dos livros; o
+        // observador demora na reapresentação, enquanto a outra metade é criada
+        Bookstore bookstore = new Bookstore(99);
+        int books = 0;
+        while (books < 200 && Bookstore.getBook(books).isPresent()) {
+            books++;
+        }
+        final int bookCount = books;
+        for (int bookId = 0; bookId < bookCount; bookId += 2) {
+            bookstore.updateStock(bookId, 10 + bookId % 7);
+        }
+        PriceIndex index = new PriceIndex();
+        Thread registering = Thread.currentThread();
+        StockListener slowReplay = new StockListener() {
+            @Override
+            public void stockCreated(Stock stock) {
+                if (Thread.currentThread() == registering) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                index.stockCreated(stock);
+            }
+
+            @Override
+            public void stockCostChanged(Stock stock, double previousCost) {
+                index.stockCostChanged(stock, previousCost);
+            }
+        };
+
+        // Act
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> creating = executor.submit(() -> {
+            for (int bookId = 1; bookId < bookCount; bookId += 2) {
+                bookstore.updateStock(bookId, 10 + bookId % 7);
+                Thread.yield();
+            }
+        });
+        bookstore.addStockListener(slowReplay);
+        try {
+            creating.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdown();
+        }
+
+        // Assert: cada estoque aparece uma única vez no índice de preços
+        for (int bookId = 0; bookId < bookCount; bookId++) {
+            assertArrayEquals("livro " + bookId, new Stock[]{bookstore.getStock(bookId)}, index.stocksOf(bookId));
+        }
+    }
+
+    @Test
+    public void testRateBook_ConcurrentRatingsOfSamePairShouldLeaveModelWithStoredValue() throws Exception {
+        System.out.println("concurrent ratings of the same customer and book");
+        // Arrange
+        Bookmarket.rateBook(0, 0, 3);
+        RecommendationService service = Bookmarket.getRecommendationService();
+        assertTrue(service.isInitialized());
+        int pairs = 20;
+
+        // Act: várias threads avaliam os mesmos pares com notas diferentes
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> ratings = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final Random random = new Random(t);
+            ratings.add(executor.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    int pair = random.nextInt(pairs);
+                    Bookmarket.rateBook(pair, pair, 1 + random.nextInt(5));
+                }
+            }));
+        }
+        try {
+            for (Future<?> rating : ratings) {
+                rating.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(service.awaitUpdates(1, TimeUnit.MINUTES));
+
+        // Assert: o modelo tem, para cada par, a nota que ficou gravada
+        for (int pair = 0; pair < pairs; pair++) {
+            assertEquals("par " + pair, Bookstore.getRating(pair, pair).getRating(),
+                    service.estimatePreference(pair, pair), 0);
+        }
+    }
+
+    @Test
+    public void testDoSearch_ByIsbn_ShouldRankBookFirst() {
+        System.out.println("doSearch: isbn scenario");
+        // Arrange
+        Book book = Bookmarket.getBook(42);
+
+        // Act
+        List<Book> result = Bookmarket.doSearch(book.getIsbn(), 10);
+
+        // Assert
+        assertFalse(result.isEmpty());
+        assertEquals(book, result.get(0));
+        assertTrue(result.size() <= 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDoSearch_WithInvalidLimit_ShouldThrowException() {
+        System.out.println("doSearch: invalid limit scenario");
+        // Act
+        Bookmarket.doSearch("arts", 0);
+    }
+
+    @Test
+    public void testRecommendationService_IncrementalUpdatesMatchFullRebuild() throws Exception {
+        System.out.println("RecommendationService: incremental update scenario");
+        // Arrange
+        Random random = new Random(7);
+        Map<Long, Evaluation> ratings = new HashMap<>();
+        for (int i = 0; i < 800; i++) {
+            long user = random.nextInt(60);
+            long item = random.nextInt(40);
+            ratings.put(user * 1000 + item, new Evaluation(user, item, 1 + random.nextInt(5)));
+        }
+        RecommendationService incremental = new RecommendationService();
+        incremental.initialize(new ArrayList<>(ratings.values()));
+        for (long user = 0; user < 60; user++) {
+            incremental.getRecommendations(user, 5); // aquece as vizinhanças
+        }
+
+        // Act
+        for (int i = 0; i < 50; i++) {
+            long user = random.nextInt(62);
+            long item = random.nextInt(42);
+            Evaluation evaluation = new Evaluation(user, item, 1 + random.nextInt(5));
+            ratings.put(user * 1000 + item, evaluation);
+            incremental.upsertRating(user, item, evaluation.getRating());
+        }
+        Evaluation removed = ratings.values().iterator().next();
+        ratings.remove(removed.getUserId() * 1000 + removed.getBookId());
+        incremental.removeRating(removed.getUserId(), removed.getBookId());
+        assertTrue(incremental.awaitUpdates(10, TimeUnit.SECONDS));
+        assertEquals(0, incremental.getStalenessMillis());
+        RecommendationService rebuilt = new RecommendationService();
+        rebuilt.initialize(new ArrayList<>(ratings.values()));
+
+        // Assert
+        Set<Long> users = new HashSet<>();
+        for (Evaluation evaluation : ratings.values()) {
+            users.add(evaluation.getUserId());
+        }
+        for (long user = 0; user < 62; user++) {
+            if (users.contains(user)) {
+                assertEquals("usuário " + user, rebuilt.getRecommendations(user, 5),
+                        incremental.getRecommendations(user, 5));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalUserSimilarity_ShouldRecomputeOnlyPairsOfChangedUser() throws Exception {
+        System.out.println("IncrementalUserSimilarity: carried cache scenario");
+        // Arrange
+        Random random = new Random(11);
+        List<Evaluation> evaluations = new ArrayList<>();
+        for (long user = 0; user < 20; user++) {
+            for (long item = 0; item < 15; item++) {
+                if (random.nextInt(3) > 0) {
+                    evaluations.add(new Evaluation(user, item, 1 + random.nextInt(5)));
+                }
+            }
+        }
+        IncrementalDataModel model = IncrementalDataModel.of(evaluations.stream());
+        AtomicInteger computed = new AtomicInteger();
+        IncrementalUserSimilarity previous = new IncrementalUserSimilarity(
+                countingPearson(model, computed), 100_000);
+        for (long a = 0; a < 20; a++) {
+            for (long b = a + 1; b < 20; b++) {
+                previous.userSimilarity(a, b);
+            }
+        }
+
+        // Act
+        IncrementalDataModel changed = model.copy();
+        changed.setPreference(3, 4, 5f);
+        changed.setPreference(3, 20, 2f);
+        computed.set(0);
+        IncrementalUserSimilarity similarity = new IncrementalUserSimilarity(
+                countingPearson(changed, computed), previous);
+        FastIDSet users = new FastIDSet();
+        users.add(3);
+        similarity.invalidate(users);
+
+        // Assert
+        PearsonCorrelationSimilarity fresh = new PearsonCorrelationSimilarity(changed);
+        for (long a = 0; a < 20; a++) {
+            for (long b = a + 1; b < 20; b++) {
+                assertEquals(a + "-" + b, fresh.userSimilarity(a, b), similarity.userSimilarity(a, b), 0d);
+            }
+        }
+        assertEquals(19, computed.get());
+    }
+
+    private static UserSimilarity countingPearson(IncrementalDataModel model, AtomicInteger computed)
+            throws TasteException {
+        UserSimilarity pearson = new PearsonCorrelationSimilarity(model);
+        return new UserSimilarity() {
+            @Override
+            public double userSimilarity(long userID1, long userID2) throws TasteException {
+                computed.incrementAndGet();
+                return pearson.userSimilarity(userID1, userID2);
+            }
+
+            @Override
+            public void setPreferenceInferrer(PreferenceInferrer inferrer) {
+                pearson.setPreferenceInferrer(inferrer);
+            }
+
+            @Override
+            public void refresh(Collection<Refreshable> alreadyRefreshed) {
+                pearson.refresh(alreadyRefreshed);
+            }
+        };
+    }
+
+    @Test
+    public void testRecommendationService_ShouldCoalesceBackgroundRebuilds() throws Exception {
+        System.out.println("RecommendationService: background rebuild scenario");
+        // Arrange
+        List<Evaluation> evaluations = new ArrayList<>();
+        for (long user = 0; user < 20; user++) {
+            for (long item = 0; item < 10; item++) {
+                evaluations.add(new Evaluation(user, item, 1 + item * (user % 3 + 1) % 5));
+            }
+        }
+        RecommendationService service = new RecommendationService();
+        service.initialize(evaluations);
+        List<Long> before = service.getRecommendations(0, 5);
+
+        // Act
+        for (long item = 10; item < 35; item++) {
+            // usuários com o mesmo gosto do usuário 0
+            service.upsertRating(3, item, 5);
+            service.upsertRating(6, item, 4);
+        }
+        List<Long> during = service.getRecommendations(0, 5); // nunca bloqueia
+        assertTrue(service.awaitUpdates(10, TimeUnit.SECONDS));
+
+        // Assert
+        assertTrue(before.isEmpty());
+        assertNotNull(during);
+        assertTrue(service.getRebuildCount() >= 1);
+        assertTrue(service.getRebuildCount() <= 50);
+        assertEquals(0, service.getPendingUpdates());
+        assertEquals(0, service.getStalenessMillis());
+        assertFalse(service.getRecommendations(0, 5).isEmpty());
+    }
+
+    @Test
+    public void testGetRecommendationByItens_ShouldUseSimilarBooks() {
+        System.out.println("getRecommendationByItens: similar books scenario");
+        // Arrange
+        Bookmarket.rateBook(900, 470, 5);
+        Bookmarket.rateBook(900, 471, 1);
+        Bookmarket.rateBook(901, 470, 5);
+        Bookmarket.rateBook(901, 471, 1);
+        Bookmarket.rateBook(901, 472, 5);
+        Bookmarket.rateBook(902, 470, 4);
+        Bookmarket.rateBook(902, 471, 1);
+        Bookmarket.rateBook(902, 472, 5);
+        Bookmarket.refreshItemSimilarities();
+
+        // Act
+        List<Book> recommendations = Bookmarket.getRecommendationByItens(900);
+
+        // Assert
+        assertTrue(recommendations.contains(Bookmarket.getBook(472)));
+        assertFalse(recommendations.contains(Bookmarket.getBook(470)));
+        assertFalse(recommendations.contains(Bookmarket.getBook(471)));
+        assertTrue(recommendations.size() <= 5);
+    }
+
+    @Test
+    public void testRecommendationService_FailedRebuildShouldKeepChangesPending() throws Exception {
+        System.out.println("RecommendationService: failed background rebuild");
+        // Arrange: um modelo cuja primeira reconstrução falha
+        RecommenderEngine model = SparseRecommenderEngine.build(Bookstore.getAllEvaluations());
+        AtomicInteger failures = new AtomicInteger(1);
+        RecommenderEngine flaky = new RecommenderEngine() {
+            @Override
+            public List<Long> recommend(long userId, int howMany) throws TasteException {
+                return model.recommend(userId, howMany);
+            }
+
+            @Override
+            public float estimate(long userId, long itemId) throws TasteException {
+                return model.estimate(userId, itemId);
+            }
+
+            @Override
+            public long[] neighbors(long userId) {
+                return model.neighbors(userId);
+            }
+
+            @Override
+            public SparseRatings ratings() {
+                return model.ratings();
+            }
+
+            @Override
+            public RecommenderEngine apply(List<RecommendationService.Change> changes) throws TasteException {
+                if (failures.getAndDecrement() > 0) {
+                    throw new TasteException("falha simulada");
+                }
+                return model.apply(changes);
+            }
+        };
+        RecommendationService service = new RecommendationService();
+        service.initialize(flaky);
+
+        // Act: a primeira avaliação cai na reconstrução que falha
+        service.upsertRating(1, 10, 5.0f);
+        boolean publishedAfterFailure = service.awaitUpdates(1, TimeUnit.MINUTES);
+
+        // Assert: a avaliação continua pendente e entra na tentativa seguinte
+        assertFalse(publishedAfterFailure);
+        assertFalse(service.isUpToDate());
+        assertEquals(1, service.getPendingUpdates());
+        service.upsertRating(2, 11, 4.0f);
+        assertTrue(service.awaitUpdates(1, TimeUnit.MINUTES));
+        assertEquals(5.0f, service.estimatePreference(1, 10), 0.0f);
+        assertEquals(4.0f, service.estimatePreference(2, 11), 0.0f);
+    }
+
+    @Test
+    public void testRecommendationCache_ShouldInvalidateOnlyAffectedCustomers() {
+        System.out.println("RecommendationCache: targeted invalidation scenario");
+        // Arrange
+        RecommendationCache cache = new RecommendationCache(2);
+        Book first = Bookmarket.getBook(10);
+        Book second = Bookmarket.getBook(20);
+        Map<Book, Double> firstPrices = new HashMap<>();
+        firstPrices.put(first, 1.0);
+        Map<Book, Double> secondPrices = new HashMap<>();
+        secondPrices.put(second, 2.0);
+        cache.put(1, firstPrices, new long[]{7}, cache.generation());
+        cache.put(2, secondPrices, new long[0], cache.generation());
+
+        // Act & Assert: mudança de preço afeta só quem recebeu o livro
+        assertEquals(firstPrices, cache.get(1));
+        cache.stockCostChanged(Bookmarket.getStocks(20).get(0), 0.0);
+        assertNull(cache.get(2));
+        assertEquals(firstPrices, cache.get(1));
+
+        // avaliação de um vizinho invalida quem depende dele
+        cache.ratingChanged(7, Collections.<Rating>emptyList());
+        assertNull(cache.get(1));
+
+        // resultado calculado durante uma invalidação não é guardado
+        long generation = cache.generation();
+        cache.ratingChanged(3, Collections.<Rating>emptyList());
+        cache.put(1, firstPrices, new long[0], generation);
+        assertNull(cache.get(1));
+
+        // descarte do menos usado ao exceder a capacidade
+        for (int customer = 1; customer <= 3; customer++) {
+            cache.put(customer, firstPrices, new long[0], cache.generation());
+        }
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertNull(cache.get(1));
+        assertEquals(2.0 / 6, cache.hitRate(), 1e-9);
+    }
+
+    @Test
+    public void testRecommendationCache_ShouldRejectResultComputedOnReplacedModel() throws Exception {
+        System.out.println("RecommendationCache: model published during a computation");
+        // Arrange: cache avisado das publicações do serviço
+        RecommendationService service = new RecommendationService();
+        RecommendationCache cache = new RecommendationCache(10);
+        service.setPublishListener(cache::modelPublished);
+        service.initialize(Bookstore.getAllEvaluations());
+        Map<Book, Double> prices = new HashMap<>();
+        prices.put(Bookmarket.getBook(10), 1.0);
+
+        // Act: o cálculo começa com a avaliação pendente, e o modelo que a
+        // contém é publicado antes de o resultado ser guardado
+        long generation = cache.generation();
+        service.upsertRating(1, 10, 5.0f);
+        assertTrue(service.awaitUpdates(1, TimeUnit.MINUTES));
+        cache.put(1, prices, new long[0], generation);
+
+        // Assert
+        assertTrue(service.isUpToDate());
+        assertNull(cache.get(1));
+        cache.put(1, prices, new long[0], cache.generation());
+        assertEquals(prices, cache.get(1));
+    }
+
+    @Test
+    public void testRecommendationTable_ShouldMatchLiveAndTrackStaleRows() throws Exception {
+        System.out.println("RecommendationTable: batch precomputation scenario");
+        // Arrange
+        List<Evaluation> evaluations = new ArrayList<>();
+        Random random = new Random(3);
+        for (long user = 0; user < 40; user++) {
+            for (long item = 0; item < 30; item++) {
+                if (random.nextInt(3) == 0) {
+                    evaluations.add(new Evaluation(user, item, 1 + random.nextInt(5)));
+                }
+            }
+        }
+        RecommendationService service = new RecommendationService();
+        service.initialize(evaluations);
+
+        // Act
+        RecommendationTable table = new RecommendationTable(45, 5);
+        table.compute(service.current());
+
+        // Assert
+        for (int customer = 0; customer < 45; customer++) {
+            assertTrue(table.isFresh(customer));
+            List<Long> row = new ArrayList<>();
+            for (int bookId : table.row(customer)) {
+                row.add((long) bookId);
+            }
+            List<Long> live = customer < 40 ? service.getRecommendations(customer, 5) : new ArrayList<Long>();
+            assertEquals("cliente " + customer, live, row);
+        }
+        assertFalse(table.isFresh(45));
+
+        table.ratingChanged(3, Collections.<Rating>emptyList());
+        assertFalse(table.isFresh(3));
+        for (int customer = 0; customer < 40; customer++) {
+            boolean dependsOn3 = false;
+            for (long neighbor : service.getNeighbors(customer)) {
+                dependsOn3 |= neighbor == 3;
+            }
+            assertEquals("cliente " + customer, !dependsOn3 && customer != 3, table.isFresh(customer));
+        }
+    }
+
+    @Test
+    public void testRecommendationService_SparseEngineShouldMatchMahout() throws Exception {
+        System.out.println("RecommendationService: sparse engine scenario");
+        // Arrange
+        Random random = new Random(11);
+        Map<Long, Evaluation> ratings = new HashMap<>();
+        for (long user = 0; user < 150; user++) {
+            for (long item = 0; item < 60; item++) {
+                if (random.nextInt(4) == 0) {
+                    ratings.put(user * 1000 + item, new Evaluation(user, item, 1 + random.nextInt(5)));
+                }
+            }
+        }
+        RecommendationService sparse = new RecommendationService(RecommendationService.Engine.SPARSE);
+        sparse.initialize(new ArrayList<>(ratings.values()));
+
+        // Act
+        for (int i = 0; i < 30; i++) {
+            long user = random.nextInt(155);
+            long item = random.nextInt(65);
+            Evaluation evaluation = new Evaluation(user, item, 1 + random.nextInt(5));
+            ratings.put(user * 1000 + item, evaluation);
+            sparse.upsertRating(user, item, evaluation.getRating());
+        }
+        Evaluation removed = ratings.values().iterator().next();
+        ratings.remove(removed.getUserId() * 1000 + removed.getBookId());
+        sparse.removeRating(removed.getUserId(), removed.getBookId());
+        assertTrue(sparse.awaitUpdates(10, TimeUnit.SECONDS));
+        // o pipeline do Mahout sobre as mesmas avaliações, como referência
+        IncrementalDataModel model = IncrementalDataModel.of(ratings.values().stream());
+        UserSimilarity similarity = new CachingUserSimilarity(new PearsonCorrelationSimilarity(model), 100_000);
+        UserNeighborhood neighborhood = new NearestNUserNeighborhood(10, similarity, model);
+        GenericUserBasedRecommender mahout = new GenericUserBasedRecommender(model, neighborhood, similarity);
+
+        // Assert
+        Set<Long> users = new HashSet<>();
+        for (Evaluation evaluation : ratings.values()) {
+            users.add(evaluation.getUserId());
+        }
+        for (long user : users) {
+            assertArrayEquals("usuário " + user, neighborhood.getUserNeighborhood(user), sparse.getNeighbors(user));
+            // mesmas notas estimadas, posição a posição; livros empatados podem trocar de lugar
+            List<RecommendedItem> expected = mahout.recommend(user, 5);
+            List<Long> actual = sparse.getRecommendations(user, 5);
+            assertEquals("usuário " + user, expected.size(), actual.size());
+            for (int i = 0; i < actual.size(); i++) {
+                assertEquals("usuário " + user, expected.get(i).getValue(),
+                        mahout.estimatePreference(user, actual.get(i)), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void testRecommendationService_ShouldReloadSavedModel() throws Exception {
+        System.out.println("RecommendationService: saved model scenario");
+        // Arrange
+        Random random = new Random(5);
+        List<Evaluation> evaluations = new ArrayList<>();
+        for (long user = 0; user < 80; user++) {
+            for (long item = 0; item < 40; item++) {
+                if (random.nextInt(3) == 0) {
+                    evaluations.add(new Evaluation(user, item, 1 + random.nextInt(5)));
+                }
+            }
+        }
+        RecommendationService trained = new RecommendationService();
+        trained.initialize(evaluations);
+        trained.upsertRating(1, 39, 5);
+        assertTrue(trained.awaitUpdates(10, TimeUnit.SECONDS));
+        Path file = Files.createTempFile("recommendation", ".model");
+        try {
+            // Act
+            trained.save(file, 42, 7);
+            RecommendationService loaded = new RecommendationService();
+            RecommendationService mahout = new RecommendationService(RecommendationService.Engine.MAHOUT);
+
+            // Assert
+            assertFalse(loaded.load(file, 43, 7)); // avaliações mais novas que o modelo
+            assertFalse(loaded.load(file, 42, 8)); // outras avaliações
+            assertFalse(loaded.isInitialized());
+            assertTrue(loaded.load(file, 42, 7));
+            assertTrue(mahout.load(file, 41, 7));
+            for (long user = 0; user < 80; user++) {
+                assertEquals("usuário " + user, trained.getRecommendations(user, 5),
+                        loaded.getRecommendations(user, 5));
+                assertArrayEquals("usuário " + user, trained.getNeighbors(user), mahout.getNeighbors(user));
+            }
+
+            // um arquivo corrompido é recusado sem derrubar o serviço
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+            assertFalse(new RecommendationService().load(file, 42, 7));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRecommendationService_ShouldRestoreSavedFactorsWithoutTraining() throws Exception {
+        System.out.println("RecommendationService: saved factorization scenario");
+        // Arrange
+        Random random = new Random(11);
+        List<Evaluation> evaluations = new ArrayList<>();
+        for (long user = 0; user < 80; user++) {
+            for (long item = 0; item < 40; item++) {
+                if (random.nextInt(3) == 0) {
+                    evaluations.add(new Evaluation(user, item, 1 + random.nextInt(5)));
+                }
+            }
+        }
+        FactorizationParameters parameters = FactorizationParameters.of(4, 5, 0.05);
+        RecommendationService trained = new RecommendationService(parameters);
+        trained.initialize(evaluations);
+        // fatores ajustados só em parte, diferentes dos de um treinamento completo
+        trained.upsertRating(1, 39, 5);
+        trained.upsertRating(90, 3, 4);
+        assertTrue(trained.awaitUpdates(10, TimeUnit.SECONDS));
+        Path file = Files.createTempFile("recommendation", ".model");
+        try {
+            // Act
+            trained.save(file, 42, 7);
+            RecommendationService loaded = new RecommendationService(parameters);
+            RecommendationService retrained = new RecommendationService(FactorizationParameters.of(4, 6, 0.05));
+
+            // Assert
+            assertTrue(loaded.load(file, 42, 7));
+            assertTrue(retrained.load(file, 42, 7)); // outros parâmetros: treina com as avaliações gravadas
+            boolean differs = false;
+            for (long user = 0; user < 80; user++) {
+                assertEquals("usuário " + user, trained.getRecommendations(user, 5),
+                        loaded.getRecommendations(user, 5));
+                for (long item = 0; item < 40; item++) {
+                    assertEquals(trained.estimatePreference(user, item), loaded.estimatePreference(user, item), 0);
+                    differs |= trained.estimatePreference(user, item) != retrained.estimatePreference(user, item);
+                }
+            }
+            assertTrue(differs);
+            assertEquals(4f, loaded.estimatePreference(90, 3), 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRecommendationService_ApproximateNeighborhoodShouldKeepRecall() throws Exception {
+        System.out.println("RecommendationService: approximate neighborhood scenario");
+        // Arrange: clientes em grupos de gosto parecido
+        Random random = new Random(17);
+        Map<Long, Evaluation> ratings = new HashMap<>();
+        for (long user = 0; user < 400; user++) {
+            long group = user % 8;
+            for (long item = 0; item < 80; item++) {
+                if (random.nextInt(3) != 0) {
+                    int taste = (int) ((item * 7 + group * 13) % 5);
+                    int rating = Math.max(1, Math.min(5, 1 + taste + random.nextInt(3) - 1));
+                    ratings.put(user * 1000 + item, new Evaluation(user, item, rating));
+                }
+            }
+        }
+        LshParameters parameters = LshParameters.of(8, 6, 150);
+        RecommendationService exact = new RecommendationService(RecommendationService.Engine.SPARSE);
+        RecommendationService approximate = new RecommendationService(parameters);
+        exact.initialize(new ArrayList<>(ratings.values()));
+        approximate.initialize(new ArrayList<>(ratings.values()));
+
+        // Act
+        for (int i = 0; i < 40; i++) {
+            long user = random.nextInt(410);
+            long item = random.nextInt(85);
+            Evaluation evaluation = new Evaluation(user, item, 1 + random.nextInt(5));
+            ratings.put(user * 1000 + item, evaluation);
+            exact.upsertRating(user, item, evaluation.getRating());
+            approximate.upsertRating(user, item, evaluation.getRating());
+        }
+        assertTrue(exact.awaitUpdates(10, TimeUnit.SECONDS));
+        assertTrue(approximate.awaitUpdates(10, TimeUnit.SECONDS));
+        RecommendationService rebuilt = new RecommendationService(parameters);
+        rebuilt.initialize(new ArrayList<>(ratings.values()));
+
+        // Assert
+        long found = 0;
+        long total = 0;
+        for (long user = 0; user < 410; user++) {
+            long[] expected = exact.getNeighbors(user);
+            long[] actual = approximate.getNeighbors(user);
+            // o índice atualizado é o mesmo de uma reconstrução
+            assertArrayEquals("usuário " + user, rebuilt.getNeighbors(user), actual);
+            assertTrue("usuário " + user, actual.length <= expected.length);
+            for (long neighbor : actual) {
+                assertTrue("usuário " + user, neighbor != user);
+            }
+            for (long neighbor : expected) {
+                for (long candidate : actual) {
+                    if (candidate == neighbor) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+            total += expected.length;
+        }
+        double recall = (double) found / total;
+        System.out.printf("revocação: %.3f%n", recall);
+        assertTrue("revocação " + recall, recall >= 0.8);
+        assertEquals(8, approximate.getNeighborhoodTables());
+        assertEquals(0, exact.getNeighborhoodTables());
+    }
+
+    @Test
+    public void testRecommendationService_FactorizationShouldLearnTastes() throws Exception {
+        System.out.println("RecommendationService: matrix factorization scenario");
+        // Arrange: clientes em grupos de gosto parecido; uma avaliação em cinco fica de fora
+        Random random = new Random(18);
+        List<Evaluation> training = new ArrayList<>();
+        List<Evaluation> heldOut = new ArrayList<>();
+        for (long user = 0; user < 300; user++) {
+            long group = user % 6;
+            for (long item = 0; item < 60; item++) {
+                if (random.nextInt(2) == 0) {
+                    int rating = 1 + (int) ((item * 7 + group * 11) % 5);
+                    (random.nextInt(5) == 0 ? heldOut : training).add(new Evaluation(user, item, rating));
+                }
+            }
+        }
+        double mean = training.stream().mapToDouble(Evaluation::getRating).average().getAsDouble();
+        double baseline = Math.sqrt(heldOut.stream()
+                .mapToDouble(evaluation -> (evaluation.getRating() - mean) * (evaluation.getRating() - mean))
+                .average().getAsDouble());
+
+        // Act
+        MatrixFactorizationEngine model = MatrixFactorizationEngine.train(SparseRatings.of(training.stream()),
+                FactorizationParameters.of(8, 10, 0.05));
+        RecommendationService service = new RecommendationService(FactorizationParameters.of(8, 10, 0.05));
+        service.initialize(training);
+        service.upsertRating(1000, 3, 5);
+        service.upsertRating(1000, 4, 1);
+        assertTrue(service.awaitUpdates(10, TimeUnit.SECONDS));
+
+        // Assert
+        double rmse = model.rmse(heldOut.stream());
+        System.out.printf("RMSE: %.3f (média: %.3f)%n", rmse, baseline);
+        assertTrue("RMSE " + rmse, rmse < baseline / 2);
+        Set<Long> rated = new HashSet<>();
+        for (Evaluation evaluation : training) {
+            if (evaluation.getUserId() == 0) {
+                rated.add(evaluation.getBookId());
+            }
+        }
+        List<Long> recommended = model.recommend(0, 10);
+        assertEquals(10, recommended.size());
+        for (int i = 0; i < recommended.size(); i++) {
+            assertFalse(rated.contains(recommended.get(i)));
+            if (i > 0) {
+                assertTrue(model.estimate(0, recommended.get(i - 1)) >= model.estimate(0, recommended.get(i)));
+            }
+        }
+        // o cliente novo entra no modelo sem retreinamento
+        List<Long> folded = service.getRecommendations(1000, 5);
+        assertEquals(5, folded.size());
+        assertFalse(folded.contains(3L));
+        assertFalse(folded.contains(4L));
+        assertEquals(0, service.getNeighbors(1000).length);
+    }
+
+    @Test
+    public void testRecommenderEvaluation_ShouldReportMetricsPerEngine() throws Exception {
+        System.out.println("RecommenderEvaluation: offline evaluation scenario");
+        // Arrange
+        Map<String, String> options = new HashMap<>();
+        options.put("customers", "300");
+        options.put("items", "120");
+        options.put("ratings", "30");
+        options.put("users", "100");
+        options.put("engines", "MAHOUT,SPARSE,FACTORIZATION");
+
+        // Act
+        String json = RecommenderEvaluation.run(options);
+
+        // Assert
+        Matcher engines = Pattern.compile("\"engine\": \"(\\w+)\"").matcher(json);
+        List<String> names = new ArrayList<>();
+        while (engines.find()) {
+            names.add(engines.group(1));
+        }
+        assertEquals(Arrays.asList("MAHOUT", "SPARSE", "FACTORIZATION"), names);
+        List<Double> rmse = metric(json, "rmse");
+        List<Double> precision = metric(json, "precisionAtK");
+        List<Double> recall = metric(json, "recallAtK");
+        List<Double> p50 = metric(json, "p50Micros");
+        List<Double> p99 = metric(json, "p99Micros");
+        assertEquals(3, rmse.size());
+        // os dois motores baseados em usuários estimam as mesmas notas
+        assertEquals(rmse.get(0), rmse.get(1));
+        for (int e = 0; e < 3; e++) {
+            assertTrue(rmse.get(e) > 0 && rmse.get(e) < 4);
+            assertTrue(precision.get(e) >= 0 && precision.get(e) <= 1);
+            assertTrue(recall.get(e) >= 0 && recall.get(e) <= 1);
+            assertTrue(p50.get(e) <= p99.get(e));
+        }
+    }
+
+    private static List<Double> metric(String json, String name) {
+        Matcher matcher = Pattern.compile("\"" + name + "\": ([-0-9.eE+]+)").matcher(json);
+        List<Double> values = new ArrayList<>();
+        while (matcher.find()) {
+            values.add(Double.parseDouble(matcher.group(1)));
+        }
+        return values;
+    }
+
+    @Test
+    public void testGetRelated_ShouldFollowCoPurchases() {
+        System.out.println("getRelated: co-purchase scenario");
+        // Arrange: a carga já foi processada de uma vez
+        assertRelatedMatchCoPurchases();
+        Book book1 = Bookstore.getBook(7).get();
+        Book book2 = Bookstore.getBook(8).get();
+        int cartId = Bookmarket.createEmptyCart(0);
+        Cart cart = Bookmarket.getCart(0, cartId);
+        cart.increaseLine(Bookmarket.getStock(0, book1.getId()), 1000);
+        cart.increaseLine(Bookmarket.getStock(0, book2.getId()), 1000);
+        Customer customer = Bookstore.getCustomer(1);
+
+        // Act
+        Bookmarket.doBuyConfirm(0, cartId, customer.getId(), CreditCards.VISA, 1234567890123456L,
+                customer.getFname(), new Date(), ShipTypes.AIR);
+
+        // Assert
+        assertEquals(book2, Bookmarket.getRelated(book1.getId()).get(0));
+        assertEquals(book1, Bookmarket.getRelated(book2.getId()).get(0));
+        assertRelatedMatchCoPurchases();
+    }
+
+    /**
+     * Compara os relacionados de cada livro com a contagem direta sobre todos
+     * os pedidos: quantidades compradas pelos clientes que compraram o livro.
+     */
+    private static void assertRelatedMatchCoPurchases() {
+        Map<Integer, Map<Integer, Long>> purchases = new HashMap<>();
+        for (Bookstore bookstore : Bookmarket.getStateMachine().getState()) {
+            for (Order order : bookstore.getOrdersByCreation()) {
+                Map<Integer, Long> bought = purchases.computeIfAbsent(order.getCustomer().getId(),
+                        customer -> new HashMap<>());
+                for (OrderLine line : order.getLines()) {
+                    bought.merge(line.getBook().getId(), (long) line.getQty(), Long::sum);
+                }
+            }
+        }
+        Map<Integer, Map<Integer, Long>> coPurchases = new HashMap<>();
+        for (Map<Integer, Long> bought : purchases.values()) {
+            for (int target : bought.keySet()) {
+                for (Map.Entry<Integer, Long> other : bought.entrySet()) {
+                    if (other.getKey() != target) {
+                        coPurchases.computeIfAbsent(target, book -> new HashMap<>())
+                                .merge(other.getKey(), other.getValue(), Long::sum);
+                    }
+                }
+            }
+        }
+        assertFalse(coPurchases.isEmpty());
+        for (Map.Entry<Integer, Map<Integer, Long>> entry : coPurchases.entrySet()) {
+            List<Integer> expected = entry.getValue().entrySet().stream()
+                    .sorted(Comparator.comparing((Map.Entry<Integer, Long> e) -> -e.getValue())
+                            .thenComparing(Map.Entry::getKey))
+                    .limit(5).map(Map.Entry::getKey).collect(Collectors.toList());
+            List<Book> related = Bookmarket.getRelated(entry.getKey());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals("livro " + entry.getKey(), expected.get(i).intValue(), related.get(i).getId());
+            }
+        }
+    }
+
+    @Test
+    public void testBookstore_ConcurrentBuysShouldKeepStockAndOrdersConsistent() throws Exception {
+        System.out.println("concurrent carts and buys");
+        // Arrange: poucos livros por livraria, para que as compras disputem os estoques
+        int threads = 8;
+        int buysPerThread = 250;
+        List<Bookstore> bookstores = Bookmarket.getStateMachine().getState();
+        Map<Bookstore, List<Integer>> hotBooks = new HashMap<>();
+        Map<Stock, Integer> initialQty = new HashMap<>();
+        Map<Bookstore, Integer> initialOrders = new HashMap<>();
+        for (Bookstore bookstore : bookstores) {
+            List<Integer> books = new ArrayList<>();
+            for (int bookId = 0; books.size() < 3; bookId++) {
+                Stock stock = bookstore.getStock(bookId);
+                if (stock != null) {
+                    books.add(bookId);
+                    initialQty.put(stock, stock.getQty());
+                }
+            }
+            hotBooks.put(bookstore, books);
+            initialOrders.put(bookstore, bookstore.getOrdersById().size());
+        }
+
+        // Act: cada thread cria carrinhos, compra, consulta o catálogo, altera
+        // preços e avalia livros, com clientes próprios nas avaliações
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Order>>> results = new ArrayList<>();
+        List<Map<List<Integer>, Integer>> rated = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            final int thread = t;
+            final Map<List<Integer>, Integer> lastRatings = new HashMap<>();
+            rated.add(lastRatings);
+            results.add(executor.submit((Callable<List<Order>>) () -> {
+                List<Order> orders = new ArrayList<>();
+                for (int i = 0; i < buysPerThread; i++) {
+                    Bookstore bookstore = bookstores.get(random.nextInt(bookstores.size()));
+                    List<Integer> books = hotBooks.get(bookstore);
+                    int cartId = Bookmarket.createEmptyCart(bookstore.getId());
+                    for (int line = 0; line < 2; line++) {
+                        Bookmarket.doCart(bookstore.getId(), cartId, books.get(random.nextInt(books.size())),
+                                new ArrayList<>(), new ArrayList<>());
+                    }
+                    Customer customer = Bookstore.getCustomer(random.nextInt(Bookstore.getCustomerCount()));
+                    orders.add(Bookmarket.doBuyConfirm(bookstore.getId(), cartId, customer.getId(),
+                            CreditCards.VISA, 1234567890123456L, customer.getFname(), new Date(),
+                            ShipTypes.AIR));
+                    assertTrue(Bookmarket.getCart(bookstore.getId(), cartId).getLines().isEmpty());
+                    if (i % 10 == 0) {
+                        assertNotNull(Bookmarket.doTitleSearch("A"));
+                        assertNotNull(Bookmarket.getBestSellerBooks(null, 10));
+                        assertFalse(Bookmarket.getCosts(Bookstore.getBook(books.get(0)).get()).isEmpty());
+                    }
+                    if (i % 50 == 0) {
+                        Bookmarket.adminUpdate(books.get(0), 10 + random.nextInt(100), "image", "thumbnail");
+                    }
+                    if (i % 5 == 0) {
+                        int customerId = thread + threads * random.nextInt(Bookstore.getCustomerCount() / threads);
+                        int bookId = books.get(random.nextInt(books.size()));
+                        int rating = 1 + random.nextInt(5);
+                        Bookmarket.rateBook(customerId, bookId, rating);
+                        lastRatings.put(Arrays.asList(customerId, bookId), rating);
+                        for (Rating other : Bookstore.ratings.byBook(bookId)) {
+                            assertEquals(bookId, other.getBook().getId());
+                        }
+                    }
+                }
+                return orders;
+            }));
+        }
+        Set<Order> created = new HashSet<>();
+        for (Future<List<Order>> result : results) {
+            created.addAll(result.get(2, TimeUnit.MINUTES));
+        }
+        executor.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d compras em %.2f s (%.0f compras/s)%n", threads * buysPerThread,
+                seconds, threads * buysPerThread / seconds);
+
+        // Assert: nenhum pedido perdido ou com id repetido
+        assertEquals(threads * buysPerThread, created.size());
+        int newOrders = 0;
+        Map<Stock, Integer> sold = new HashMap<>();
+        for (Bookstore bookstore : bookstores) {
+            List<Order> orders = bookstore.getOrdersById();
+            newOrders += orders.size() - initialOrders.get(bookstore);
+            for (Order order : orders.subList(initialOrders.get(bookstore), orders.size())) {
+                for (OrderLine line : order.getLines()) {
+                    sold.merge(bookstore.getStock(line.getBook().getId()), line.getQty(), Integer::sum);
+                }
+            }
+            for (int i = 0; i < orders.size(); i++) {
+                assertEquals(i, orders.get(i).getId());
+            }
+            List<Order> byCreation = new ArrayList<>(bookstore.getOrdersByCreation());
+            assertEquals(orders.size(), byCreation.size());
+            for (int i = 0; i < byCreation.size(); i++) {
+                assertEquals(orders.size() - 1 - i, byCreation.get(i).getId());
+            }
+        }
+        assertEquals(threads * buysPerThread, newOrders);
+        // nenhuma avaliação perdida, nem no tamanho e na soma do repositório
+        for (Map<List<Integer>, Integer> lastRatings : rated) {
+            for (Map.Entry<List<Integer>, Integer> entry : lastRatings.entrySet()) {
+                Rating stored = Bookstore.getRating(entry.getKey().get(0), entry.getKey().get(1));
+                assertEquals(entry.getValue().intValue(), stored.getRating());
+            }
+        }
+        RatingStore copy = new RatingStore();
+        copy.addAll(Bookstore.ratings);
+        assertEquals(copy.size(), Bookstore.ratings.size());
+        assertEquals(copy.checksum(), Bookstore.ratings.checksum());
+        // cada baixa foi aplicada: o saldo só difere do esperado pelas reposições de 21
+        for (Map.Entry<Stock, Integer> entry : initialQty.entrySet()) {
+            Stock stock = entry.getKey();
+            int restocked = stock.getQty() - entry.getValue() + sold.getOrDefault(stock, 0);
+            assertTrue(stock.toString(), restocked >= 0 && restocked % 21 == 0);
+            assertTrue(stock.toString(), stock.getQty() >= 0);
+        }
+    }
+
+    @Test
+    public void testJournal_ReplayShouldRebuildState() throws Exception {
+        System.out.println("journal replay");
+        // Arrange: livrarias novas, com todas as mutações gravadas no journal
+        Path file = Files.createTempFile("bookmarket", ".journal");
+        try {
+            Bookmarket.init(0, new FakeBookstore(0), new FakeBookstore(1));
+            assertEquals(0, Bookmarket.openJournal(file, JournalParameters.DEFAULT));
+            Bookmarket.populate(500, 1000, 1000, 1000, 50);
+            Random random = new Random(1);
+            for (int i = 0; i < 40; i++) {
+                int storeId = i % 2;
+                int cartId = Bookmarket.createEmptyCart(storeId);
+                int bookId = random.nextInt(500);
+                while (Bookmarket.getStock(storeId, bookId) == null) {
+                    bookId = (bookId + 1) % 500;
+                }
+                Bookmarket.doCart(storeId, cartId, bookId, new ArrayList<>(), new ArrayList<>());
+                Customer customer = Bookstore.getCustomer(random.nextInt(Bookstore.getCustomerCount()));
+                if (i % 3 == 0) {
+                    // um endereço já cadastrado: endereços novos mudariam o
+                    // sorteio da carga reaplicada nesta mesma JVM
+                    Address address = Bookstore.getCustomer(i).getAddress();
+                    Bookmarket.doBuyConfirm(storeId, cartId, customer.getId(), CreditCards.VISA,
+                            1234567890123456L, customer.getFname(), new Date(), ShipTypes.AIR,
+                            address.getStreet1(), address.getStreet2(), address.getCity(),
+                            address.getState(), address.getZip(), address.getCountry().getName());
+                } else if (i % 3 == 1) {
+                    Bookmarket.doBuyConfirm(storeId, cartId, customer.getId(), CreditCards.VISA,
+                            1234567890123456L, customer.getFname(), new Date(), ShipTypes.AIR);
+                }
+            }
+            Bookmarket.rateBook(3, 7, 5);
+            List<String> before = journaledState();
+            Bookmarket.closeJournal();
+            // uma gravação interrompida deixa um registro incompleto no final
+            long valid = Files.size(file);
+            Files.write(file, new byte[]{0, 0, 1, 0, 42, 42}, StandardOpenOption.APPEND);
+
+            // Act
+            Bookmarket.init(0, new FakeBookstore(0), new FakeBookstore(1));
+            int replayed = Bookmarket.openJournal(file, JournalParameters.of(
+                    JournalParameters.Durability.WRITE, 16, 100, TimeUnit.MICROSECONDS));
+
+            // Assert: carga, carrinhos, compras e avaliação, nesta ordem
+            assertEquals(1 + 40 + 40 + 27 + 1, replayed);
+            assertEquals(valid, Files.size(file));
+            assertEquals(before, journaledState());
+            assertEquals(5, Bookstore.getRating(3, 7).getRating());
+        } finally {
+            Bookmarket.closeJournal();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testCheckpoint_RecoveryShouldLoadSnapshotAndReplayLaterActions() throws Exception {
+        System.out.println("checkpoint recovery");
+        // Arrange: carga e compras antes do checkpoint, mais compras depois
+        Path journal = Files.createTempFile("bookmarket", ".journal");
+        Path checkpoint = Files.createTempFile("bookmarket", ".checkpoint");
+        Files.delete(checkpoint);
+        try {
+            Bookmarket.setCheckpointFile(checkpoint);
+            Bookmarket.init(0, new FakeBookstore(0), new FakeBookstore(1));
+            assertEquals(0, Bookmarket.openJournal(journal, JournalParameters.DEFAULT));
+            Bookmarket.populate(500, 1000, 1000, 1000, 50);
+            Random random = new Random(2);
+            int pendingCart = -1;
+            for (int i = 0; i < 50; i++) {
+                if (i == 30) {
+                    Bookmarket.checkpoint();
+                }
+                int storeId = i % 2;
+                int cartId = Bookmarket.createEmptyCart(storeId);
+                int bookId = random.nextInt(500);
+                while (Bookmarket.getStock(storeId, bookId) == null) {
+                    bookId = (bookId + 1) % 500;
+                }
+                Bookmarket.doCart(storeId, cartId, bookId, new ArrayList<>(), new ArrayList<>());
+                if (i == 25) {
+                    // um carrinho ainda aberto no checkpoint
+                    pendingCart = cartId;
+                    continue;
+                }
+                Customer customer = Bookstore.getCustomer(random.nextInt(Bookstore.getCustomerCount()));
+                Bookmarket.doBuyConfirm(storeId, cartId, customer.getId(), CreditCards.VISA,
+                        1234567890123456L, customer.getFname(), new Date(), ShipTypes.AIR);
+            }
+            Bookmarket.rateBook(3, 7, 5);
+            List<String> before = journaledState();
+            Customer buyer = Bookstore.getCustomer(Bookmarket.getStateMachine().getState().get(0)
+                    .getOrdersById().get(0).getCustomer().getId());
+            Order mostRecent = buyer.getMostRecentOrder();
+            int cartLines = Bookmarket.getCart(1, pendingCart).getLines().size();
+            Bookmarket.closeJournal();
+
+            // Act
+            Bookmarket.init(0, new FakeBookstore(0), new FakeBookstore(1));
+            int replayed = Bookmarket.openJournal(journal, JournalParameters.DEFAULT);
+
+            // Assert: só as 20 compras depois do checkpoint e a avaliação
+            assertEquals(20 * 3 + 1, replayed);
+            assertEquals(before, journaledState());
+            assertEquals(5, Bookstore.getRating(3, 7).getRating());
+            assertEquals(cartLines, Bookmarket.getCart(1, pendingCart).getLines().size());
+            Customer restored = Bookstore.getCustomer(buyer.getUname()).get();
+            assertEquals(buyer.getId(), restored.getId());
+            assertEquals(mostRecent.getId(), restored.getMostRecentOrder().getId());
+            assertEquals(mostRecent.getTotal(), restored.getMostRecentOrder().getTotal(), 1e-9);
+        } finally {
+            Bookmarket.closeJournal();
+            Bookmarket.setCheckpointFile(null);
+            Files.deleteIfExists(journal);
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+
+    /**
+     * Resume o estado das livrarias que o journal reconstrói: pedidos com
+     * cliente, endereço e linhas, e as quantidades em estoque.
+     */
+    private static List<String> journaledState() {
+        List<String> state = new ArrayList<>();
+        for (Bookstore bookstore : Bookmarket.getStateMachine().getState()) {
+            for (Order order : bookstore.getOrdersById()) {
+                state.add(bookstore.getId() + "/" + order.getId() + " " + order.getCustomer().getId()
+                        + " " + order.getShippingAddress().getId() + " " + order.getLines().stream()
+                        .map(line -> line.getBook().getId() + "x" + line.getQty())
+                        .collect(Collectors.joining(",")));
+            }
+            for (int bookId = 0; bookId < 500; bookId++) {
+                Stock stock = bookstore.getStock(bookId);
+                state.add(bookstore.getId() + "/" + bookId + " " + (stock == null ? "-"
+                        : stock.getQty() + " " + stock.getCost()));
+            }
+        }
+        return state;
+    }
 }
@@ -7,12 +7,14 @@ import dominio.Cart;
 import dominio.CreditCards;
 import dominio.Customer;
 import dominio.Order;
+import dominio.Rating;
 import dominio.SUBJECTS;
 import dominio.ShipTypes;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
+import java.util.stream.Collectors;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -247,5 +249,136 @@ public class BookstoreTest {
         assertEquals(thumbnail, book.getThumbnail());
     }
 
+    /**
+     * Test of getBooksByTitle method, of class Bookstore: os resultados vêm
+     * do índice de títulos já ordenados e incluem o próprio livro buscado.
+     */
+    @Test
+    public void testGetBooksByTitle_OrderedPrefixRange() {
+        System.out.println("getBooksByTitle ordered");
+        Book book = instance.getBook(42).get();
+        List<Book> result = instance.getBooksByTitle(book.getTitle());
+        assertTrue(result.contains(book));
+        assertTrue(result.size() <= 50);
+        for (int i = 0; i < result.size() - 1; i++) {
+            assertTrue(result.get(i).getTitle().compareTo(result.get(i + 1).getTitle()) <= 0);
+        }
+        String prefix = book.getTitle().substring(0, 5);
+        long expected = Math.min(50, Bookstore.booksById.stream()
+                .filter(b -> b.getTitle().startsWith(prefix)).count());
+        assertEquals(expected, instance.getBooksByTitle(prefix).size());
+    }
+
+    /**
+     * Test of getBooksByAuthor method, of class Bookstore: o prefixo do
+     * sobrenome é comparado sem diferenciar maiúsculas e o resultado vem em
+     * ordem de título.
+     */
+    @Test
+    public void testGetBooksByAuthor_NormalizedPrefix() {
+        System.out.println("getBooksByAuthor normalized prefix");
+        String lname = instance.getBook(0).get().getAuthor().getLname();
+        String prefix = lname.substring(0, 3).toLowerCase();
+        List<Book> result = instance.getBooksByAuthor(prefix);
+        assertFalse(result.isEmpty());
+        assertTrue(result.size() <= 50);
+        for (int i = 0; i < result.size(); i++) {
+            assertTrue(result.get(i).getAuthor().getLname().toLowerCase().startsWith(prefix));
+            if (i > 0) {
+                assertTrue(result.get(i - 1).getTitle().compareTo(result.get(i).getTitle()) <= 0);
+            }
+        }
+        assertTrue(instance.getBooksByAuthor("#no-such-author").isEmpty());
+    }
+
+    /**
+     * A visão de lançamentos deve coincidir com a varredura ordenada, inclusive
+     * depois que updateBook altera a data de publicação de um livro.
+     */
+    @Test
+    public void testGetNewBooks_MatchesScanAfterUpdate() {
+        System.out.println("getNewBooks after updateBook");
+        Book book = instance.getBook(1).get();
+        SUBJECTS subject = book.getSubject();
+        assertEquals(instance.getNewBooks3(subject), instance.getNewBooks(subject));
+
+        long now = System.currentTimeMillis() + 1000;
+        instance.updateBook(book.getId(), book.getImage(), book.getThumbnail(), now);
+        List<Book> result = instance.getNewBooks(subject);
+        assertEquals(book, result.get(0));
+        assertEquals(instance.getNewBooks3(subject), result);
+
+        instance.updateBook(book.getId(), book.getImage(), book.getThumbnail(), 0);
+        assertFalse(book.equals(instance.getNewBooks(subject).get(0)));
+        assertEquals(instance.getNewBooks3(subject), instance.getNewBooks(subject));
+    }
+
+    /**
+     * A visão por assunto deve trazer os primeiros títulos do assunto em ordem.
+     */
+    @Test
+    public void testGetBooksBySubject_FirstTitles() {
+        System.out.println("getBooksBySubject first titles");
+        SUBJECTS subject = SUBJECTS.ARTS;
+        List<Book> expected = Bookstore.booksById.stream()
+                .filter(book -> book.getSubject().equals(subject))
+                .sorted((a, b) -> a.getTitle().compareTo(b.getTitle()) != 0
+                        ? a.getTitle().compareTo(b.getTitle())
+                        : Integer.compare(a.getId(), b.getId()))
+                .limit(50)
+                .collect(Collectors.toList());
+        assertEquals(expected, instance.getBooksBySubject(subject));
+    }
+
+    /**
+     * O repositório de avaliações deve manter os índices por cliente e por
+     * livro coerentes ao incluir, substituir e remover avaliações.
+     */
+    @Test
+    public void testRatingStore_IndexedByCustomerAndBook() {
+        System.out.println("ratings indexed by customer and book");
+        RatingStore store = new RatingStore();
+        Customer customer = instance.getCustomer(3);
+        Book book1 = instance.getBook(4).get();
+        Book book2 = instance.getBook(5).get();
+        assertFalse(store.hasRatings(customer.getId()));
+
+        store.put(new Rating(customer, book1, 2));
+        store.put(new Rating(customer, book2, 4));
+        assertNotNull(store.put(new Rating(customer, book1, 5)));
+        assertEquals(2, store.size());
+        assertEquals(5, store.get(customer.getId(), book1.getId()).getRating());
+        assertEquals(2, store.byCustomer(customer.getId()).size());
+        assertEquals(1, store.byBook(book2.getId()).size());
+        assertTrue(store.hasRatings(customer.getId()));
+        assertEquals(2, store.evaluations().count());
+
+        assertTrue(store.remove(new Rating(customer, book1, 0)));
+        assertNull(store.get(customer.getId(), book1.getId()));
+        assertTrue(store.byBook(book1.getId()).isEmpty());
+        assertEquals(1, store.stream().count());
+        store.remove(new Rating(customer, book2, 0));
+        assertFalse(store.hasRatings(customer.getId()));
+    }
+
+    /**
+     * Test of searchBooks method, of class Bookstore.
+     */
+    @Test
+    public void testSearchBooks() {
+        System.out.println("searchBooks");
+        SUBJECTS subject = SUBJECTS.ARTS;
+        List<Book> result = instance.searchBooks(subject.name().toLowerCase(), 20);
+        assertFalse(result.isEmpty());
+        assertTrue(result.size() <= 20);
+        for (Book book : result) {
+            String text = (book.getTitle() + " " + book.getDesc() + " "
+                    + book.getPublisher() + " " + book.getIsbn()).toLowerCase();
+            assertTrue(text.contains("arts"));
+        }
+        assertTrue(instance.searchBooks("", 20).isEmpty());
+        assertTrue(instance.searchBooks("#0123456789#", 20).isEmpty());
+    }
+
    
 }
@@ -0,0 +1,127 @@
+package servico;
+
+import dominio.Address;
+import dominio.Book;
+import dominio.CCTransaction;
+import dominio.CreditCards;
+import dominio.Customer;
+import dominio.Order;
+import dominio.OrderLine;
+import dominio.ShipTypes;
+import dominio.StatusTypes;
+import dominio.Stock;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tempo das fases de um checkpoint ({@link BookstoreSnapshot}) por número de
+ * pedidos: a captura, durante a qual as ações ficam suspensas
+ * ({@code capture}); a codificação e gravação do arquivo, que correm em
+ * paralelo com as ações ({@code write}); e a leitura e carga em uma livraria
+ * vazia na recuperação ({@code load}).
+ * <p>
+ * Os pedidos são montados diretamente, sem passar pelas compras, sobre uma
+ * carga de 10.000 livros e 100.000 clientes.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=CheckpointBenchmark}
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+@State(Scope.Benchmark)
+public class CheckpointBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int orders;
+
+    private static final int ITEMS = 10_000;
+    private static final int CUSTOMERS = 100_000;
+
+    private List<Bookstore> bookstores;
+    private BookstoreSnapshot snapshot;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void populate() throws IOException {
+        Bookstore.populate(0, System.currentTimeMillis(), ITEMS, CUSTOMERS, CUSTOMERS, ITEMS / 4);
+        Random random = new Random(0);
+        Bookstore bookstore = new Bookstore(0);
+        Address warehouse = Bookstore.addresses().get(0);
+        List<Stock> stocks = new ArrayList<>(ITEMS);
+        for (Book book : Bookstore.booksById) {
+            stocks.add(new Stock(0, warehouse, book, 10 + random.nextInt(490), 300));
+        }
+        long now = System.currentTimeMillis();
+        List<Order> history = new ArrayList<>(orders);
+        for (int id = 0; id < orders; id++) {
+            Customer customer = Bookstore.getCustomer(random.nextInt(CUSTOMERS));
+            List<OrderLine> lines = new ArrayList<>();
+            String comment = "pedido " + id;
+            double subtotal = 0;
+            for (int l = 1 + random.nextInt(5); l > 0; l--) {
+                Book book = Bookstore.booksById.get(random.nextInt(ITEMS));
+                double price = book.getSrp();
+                lines.add(new OrderLine(book, 1 + random.nextInt(3), 0, comment, price));
+                subtotal += price;
+            }
+            Date date = new Date(now - random.nextInt(60) * 86_400_000L);
+            CCTransaction cc = new CCTransaction(CreditCards.VISA, 1234567890123456L + id,
+                    customer.getFname(), date, "", subtotal * 1.0825, date,
+                    customer.getAddress().getCountry());
+            history.add(new Order(id, customer, date, subtotal, subtotal * 0.0825,
+                    subtotal * 1.0825, ShipTypes.AIR, date, StatusTypes.values()[id % 4],
+                    customer.getAddress(), customer.getAddress(), cc, lines));
+        }
+        bookstore.restore(stocks, Collections.emptyList(), history);
+        bookstores = Collections.singletonList(bookstore);
+        snapshot = BookstoreSnapshot.capture(bookstores, 0);
+        file = Files.createTempFile("bookstore", ".checkpoint");
+        snapshot.write(file);
+        System.out.printf("%ncheckpoint: %.1f MB%n", Files.size(file) / 1e6);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public BookstoreSnapshot capture() {
+        return BookstoreSnapshot.capture(bookstores, 0);
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        snapshot.write(file);
+        return Files.size(file);
+    }
+
+    @Benchmark
+    public int load() throws IOException {
+        Bookstore bookstore = new Bookstore(0);
+        BookstoreSnapshot.read(file).restore(Collections.singletonList(bookstore));
+        return bookstore.getOrdersById().size();
+    }
+}
@@ -0,0 +1,97 @@
+package servico;
+
+import dominio.Evaluation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Convergência do treinamento de {@link MatrixFactorizationEngine}: tempo de
+ * treinamento e erro (RMSE) nas avaliações separadas para teste, por número
+ * de iterações.
+ * <p>
+ * Os clientes pertencem a grupos de gosto e a nota de um livro depende do
+ * grupo, com ruído; uma avaliação em dez fica fora do treinamento, que tem
+ * ao menos 1 milhão de avaliações (1,07 milhão com 30.000 clientes). O erro de
+ * cada modelo treinado é impresso depois da medida, junto com o de prever
+ * sempre a média.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=FactorizationConvergenceBenchmark}
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FactorizationConvergenceBenchmark {
+
+    @Param({"1", "2", "5", "10", "20"})
+    public int iterations;
+
+    @Param({"30000", "100000"})
+    public int customers;
+
+    private static final int ITEMS = 5000;
+    private static final int GROUPS = 100;
+    private static final int RATINGS_PER_CUSTOMER = 40;
+
+    private SparseRatings training;
+    private List<Evaluation> heldOut;
+    private MatrixFactorizationEngine model;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        Random random = new Random(0);
+        List<Evaluation> evaluations = new ArrayList<>(customers * RATINGS_PER_CUSTOMER);
+        heldOut = new ArrayList<>();
+        double sum = 0;
+        for (int customer = 0; customer < customers; customer++) {
+            int group = customer % GROUPS;
+            for (int r = 0; r < RATINGS_PER_CUSTOMER; r++) {
+                int book = (int) (ITEMS * Math.pow(random.nextDouble(), 2));
+                int taste = (book * 31 + group * 17) % 5;
+                int rating = Math.max(1, Math.min(5, 1 + taste + random.nextInt(3) - 1));
+                if (random.nextInt(10) == 0) {
+                    heldOut.add(new Evaluation(customer, book, rating));
+                } else {
+                    evaluations.add(new Evaluation(customer, book, rating));
+                    sum += rating;
+                }
+            }
+        }
+        training = SparseRatings.of(evaluations.stream());
+        double mean = sum / evaluations.size();
+        double squares = 0;
+        for (Evaluation evaluation : heldOut) {
+            squares += (evaluation.getRating() - mean) * (evaluation.getRating() - mean);
+        }
+        System.out.printf("%n%d avaliações de treino; RMSE da média: %.4f%n", training.numRatings(),
+                Math.sqrt(squares / heldOut.size()));
+    }
+
+    @Benchmark
+    public MatrixFactorizationEngine train() {
+        model = MatrixFactorizationEngine.train(training, FactorizationParameters.of(20, iterations, 0.05));
+        return model;
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        System.out.printf("RMSE de teste com %d iterações: %.4f%n", iterations, model.rmse(heldOut.stream()));
+    }
+}
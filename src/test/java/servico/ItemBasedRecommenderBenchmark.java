@@ -0,0 +1,162 @@
+package servico;
+
+import dominio.Evaluation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compara a recomendação baseada em usuários do Mahout
+ * ({@link RecommendationService}, Pearson com vizinhança calculada na
+ * consulta) com a baseada em itens de {@link ItemSimilarityIndex} (vizinhos
+ * de cada livro calculados de antemão).
+ * <p>
+ * As avaliações são sintéticas: cada cliente pertence a um grupo de gosto e dá
+ * notas altas aos livros do seu grupo. Para os clientes de teste, uma
+ * avaliação alta é retirada do treino; o recall@10 é a fração dos clientes
+ * para os quais esse livro aparece entre os 10 recomendados. O recall e o
+ * tempo de construção de cada modelo são impressos na preparação; o tempo
+ * por consulta é o resultado do benchmark.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ItemBasedRecommenderBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ItemBasedRecommenderBenchmark {
+
+    @Param({"2000", "10000"})
+    public int customers;
+
+    private static final int ITEMS = 1000;
+    private static final int GROUPS = 20;
+    private static final int RATINGS_PER_CUSTOMER = 30;
+    private static final int TEST_CUSTOMERS = 200;
+    private static final int TOP = 10;
+
+    private final RecommendationService userBased = new RecommendationService();
+    private ItemSimilarityIndex itemBased;
+    private long[][] profileItems;
+    private float[][] profileRatings;
+    private long[] heldOut;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void populate() throws TasteException {
+        Random random = new Random(0);
+        List<Evaluation> training = new ArrayList<>();
+        profileItems = new long[TEST_CUSTOMERS][];
+        profileRatings = new float[TEST_CUSTOMERS][];
+        heldOut = new long[TEST_CUSTOMERS];
+        for (int customer = 0; customer < customers; customer++) {
+            int group = customer % GROUPS;
+            long[] items = random.ints(0, ITEMS).distinct().limit(RATINGS_PER_CUSTOMER)
+                    .asLongStream().toArray();
+            float[] ratings = new float[items.length];
+            for (int i = 0; i < items.length; i++) {
+                if (random.nextInt(10) < 7) {
+                    // livros do grupo: ITEMS / GROUPS livros consecutivos
+                    items[i] = group * (ITEMS / GROUPS) + random.nextInt(ITEMS / GROUPS);
+                }
+                ratings[i] = items[i] / (ITEMS / GROUPS) == group ? 4 + random.nextInt(2) : 1 + random.nextInt(2);
+            }
+            long[] distinct = Arrays.stream(items).distinct().toArray();
+            int skip = -1;
+            if (customer < TEST_CUSTOMERS) {
+                for (int i = 0; i < distinct.length && skip < 0; i++) {
+                    if (distinct[i] / (ITEMS / GROUPS) == group) {
+                        skip = i;
+                    }
+                }
+                heldOut[customer] = skip < 0 ? -1 : distinct[skip];
+            }
+            List<Long> kept = new ArrayList<>();
+            List<Float> keptRatings = new ArrayList<>();
+            for (int i = 0; i < distinct.length; i++) {
+                float rating = ratings[indexOf(items, distinct[i])];
+                if (i != skip) {
+                    training.add(new Evaluation(customer, distinct[i], rating));
+                    kept.add(distinct[i]);
+                    keptRatings.add(rating);
+                }
+            }
+            if (customer < TEST_CUSTOMERS) {
+                profileItems[customer] = kept.stream().mapToLong(Long::longValue).toArray();
+                profileRatings[customer] = new float[keptRatings.size()];
+                for (int i = 0; i < keptRatings.size(); i++) {
+                    profileRatings[customer][i] = keptRatings.get(i);
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        userBased.initialize(training);
+        long userBasedBuild = System.nanoTime() - start;
+        start = System.nanoTime();
+        itemBased = ItemSimilarityIndex.build(training.stream(), 20);
+        long itemBasedBuild = System.nanoTime() - start;
+
+        int userHits = 0;
+        int itemHits = 0;
+        int tested = 0;
+        for (int customer = 0; customer < TEST_CUSTOMERS; customer++) {
+            if (heldOut[customer] < 0) {
+                continue;
+            }
+            tested++;
+            if (userBased.getRecommendations(customer, TOP).contains(heldOut[customer])) {
+                userHits++;
+            }
+            if (itemBased.recommend(profileItems[customer], profileRatings[customer], TOP)
+                    .contains(heldOut[customer])) {
+                itemHits++;
+            }
+        }
+        System.out.printf("%nrecall@%d user-based=%.3f item-based=%.3f (%d clientes)%n",
+                TOP, (double) userHits / tested, (double) itemHits / tested, tested);
+        System.out.printf("construção user-based=%d ms item-based=%d ms%n",
+                TimeUnit.NANOSECONDS.toMillis(userBasedBuild), TimeUnit.NANOSECONDS.toMillis(itemBasedBuild));
+    }
+
+    private static int indexOf(long[] items, long item) {
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int nextCustomer() {
+        return next++ % TEST_CUSTOMERS;
+    }
+
+    @Benchmark
+    public List<Long> userBased() throws TasteException {
+        return userBased.getRecommendations(nextCustomer(), TOP);
+    }
+
+    @Benchmark
+    public List<Long> itemBased() {
+        int customer = nextCustomer();
+        return itemBased.recommend(profileItems[customer], profileRatings[customer], TOP);
+    }
+}
@@ -0,0 +1,92 @@
+package servico;
+
+import dominio.Evaluation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latência e revocação da vizinhança aproximada
+ * ({@link RecommendationService.Engine#APPROXIMATE}) em relação à exata de
+ * {@link RecommendationService.Engine#SPARSE}, variando o limite de
+ * candidatos por consulta ({@code maxCandidates}; 0 é o motor exato).
+ * <p>
+ * Os clientes pertencem a grupos de gosto: a nota de um livro depende do
+ * grupo, com ruído. Na preparação são impressos o tempo de construção (com a
+ * calibração das tabelas para 90% de revocação) e a revocação medida em
+ * {@value #SAMPLED_CUSTOMERS} clientes; o benchmark mede uma consulta de 5
+ * recomendações.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=LshNeighborhoodBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LshNeighborhoodBenchmark {
+
+    @Param({"50000", "200000"})
+    public int customers;
+
+    @Param({"0", "250", "1000"})
+    public int maxCandidates;
+
+    private static final int ITEMS = 5000;
+    private static final int GROUPS = 100;
+    private static final int RATINGS_PER_CUSTOMER = 40;
+    private static final int SAMPLED_CUSTOMERS = 500;
+
+    private RecommendationService service;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        Random random = new Random(0);
+        List<Evaluation> evaluations = new ArrayList<>(customers * RATINGS_PER_CUSTOMER);
+        for (int customer = 0; customer < customers; customer++) {
+            int group = customer % GROUPS;
+            for (int r = 0; r < RATINGS_PER_CUSTOMER; r++) {
+                int book = (int) (ITEMS * Math.pow(random.nextDouble(), 2));
+                int taste = (book * 31 + group * 17) % 5;
+                int rating = Math.max(1, Math.min(5, 1 + taste + random.nextInt(3) - 1));
+                evaluations.add(new Evaluation(customer, book, rating));
+            }
+        }
+        if (maxCandidates == 0) {
+            service = new RecommendationService(RecommendationService.Engine.SPARSE);
+            service.initialize(evaluations);
+            return;
+        }
+        long start = System.nanoTime();
+        service = new RecommendationService(LshParameters.forRecall(0.9, 12, maxCandidates));
+        service.initialize(evaluations);
+        long build = System.nanoTime() - start;
+        long[] sample = new long[SAMPLED_CUSTOMERS];
+        for (int s = 0; s < sample.length; s++) {
+            sample[s] = (long) s * customers / SAMPLED_CUSTOMERS;
+        }
+        System.out.printf("%nconstrução=%d ms tabelas=%d revocação=%.3f%n", TimeUnit.NANOSECONDS.toMillis(build),
+                service.getNeighborhoodTables(), service.getNeighborhoodRecall(sample));
+    }
+
+    @Benchmark
+    public List<Long> recommend() throws TasteException {
+        return service.getRecommendations(next++ % SAMPLED_CUSTOMERS * (customers / SAMPLED_CUSTOMERS), 5);
+    }
+}
@@ -0,0 +1,96 @@
+package servico;
+
+import dominio.Evaluation;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tempo até a primeira recomendação em uma inicialização: treinando o modelo
+ * a partir das avaliações ({@code retrain}) ou carregando o modelo gravado
+ * por {@link RecommendationService#save} ({@code warmStart}).
+ * <p>
+ * Cada medida é uma única execução (sem aquecimento do JIT dentro dela), como
+ * em uma JVM que acabou de subir; as avaliações já estão em memória, como
+ * depois da carga da loja.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ModelWarmStartBenchmark}
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModelWarmStartBenchmark {
+
+    @Param({"MAHOUT", "SPARSE", "FACTORIZATION"})
+    public RecommendationService.Engine engine;
+
+    @Param({"10000", "50000"})
+    public int customers;
+
+    private static final int ITEMS = 5000;
+    private static final int RATINGS_PER_CUSTOMER = 40;
+    private static final long VERSION = 1;
+    private static final long CHECKSUM = 0;
+
+    private List<Evaluation> evaluations;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void populate() throws IOException {
+        Random random = new Random(0);
+        evaluations = new ArrayList<>(customers * RATINGS_PER_CUSTOMER);
+        for (int customer = 0; customer < customers; customer++) {
+            for (int r = 0; r < RATINGS_PER_CUSTOMER; r++) {
+                int book = (int) (ITEMS * Math.pow(random.nextDouble(), 2));
+                evaluations.add(new Evaluation(customer, book, 1 + random.nextInt(5)));
+            }
+        }
+        RecommendationService service = new RecommendationService(engine);
+        service.initialize(evaluations);
+        file = Files.createTempFile("recommendation", ".model");
+        service.save(file, VERSION, CHECKSUM);
+        System.out.printf("%narquivo do modelo: %.1f MB%n", Files.size(file) / 1e6);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public List<Long> retrain() throws TasteException {
+        RecommendationService service = new RecommendationService(engine);
+        service.initialize(evaluations.stream());
+        return service.getRecommendations(0, 5);
+    }
+
+    @Benchmark
+    public List<Long> warmStart() throws TasteException {
+        RecommendationService service = new RecommendationService(engine);
+        if (!service.load(file, VERSION, CHECKSUM)) {
+            throw new IllegalStateException("O modelo gravado não foi carregado.");
+        }
+        return service.getRecommendations(0, 5);
+    }
+}
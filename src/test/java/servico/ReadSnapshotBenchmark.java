@@ -0,0 +1,112 @@
+package servico;
+
+import dominio.BestsellerBook;
+import dominio.Stock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Vazão das consultas de bestsellers e de preços com um escritor alterando
+ * preços em paralelo: lidas do retrato publicado ({@code snapshot}), sem
+ * trava, ou das visões sincronizadas ({@code views}), como antes.
+ * <p>
+ * O escritor publica um retrato após cada alteração, como a máquina de
+ * estados após cada ação, a cada {@code writeIntervalMicros}.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ReadSnapshotBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ReadSnapshotBenchmark {
+
+    @Param({"10", "1000"})
+    public long writeIntervalMicros;
+
+    private static final int ITEMS = 1000;
+
+    private BestsellerView bestsellers;
+    private PriceIndex priceIndex;
+    private ReadSnapshotPublisher publisher;
+    private List<Stock> stocks;
+    private volatile boolean running;
+    private Thread writer;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        Bookstore.populate(0, System.currentTimeMillis(), ITEMS, 1000, 1000, 250);
+        bestsellers = new BestsellerView();
+        priceIndex = new PriceIndex();
+        publisher = new ReadSnapshotPublisher(bestsellers, priceIndex);
+        stocks = new ArrayList<>();
+        Random random = new Random(0);
+        for (int id = 0; id < 4; id++) {
+            Bookstore bookstore = new Bookstore(id);
+            bookstore.populateInstanceBookstore(500, random, System.currentTimeMillis());
+            bookstore.addOrderListener(bestsellers);
+            bookstore.addStockListener(priceIndex);
+            bookstore.addOrderListener(publisher);
+            bookstore.addStockListener(publisher);
+            stocks.addAll(bookstore.getStocks());
+        }
+        publisher.publish();
+        running = true;
+        writer = new Thread(() -> {
+            Random costs = new Random(1);
+            while (running) {
+                stocks.get(costs.nextInt(stocks.size())).setCost(10 + costs.nextInt(490));
+                publisher.publish();
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(writeIntervalMicros));
+            }
+        });
+        writer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.join();
+    }
+
+    @Benchmark
+    public void snapshot(Blackhole blackhole) {
+        ReadSnapshot snapshot = publisher.current();
+        blackhole.consume(snapshot.bestsellers(null, 50));
+        blackhole.consume(snapshot.prices(ThreadLocalRandom.current().nextInt(ITEMS)).costs());
+    }
+
+    @Benchmark
+    public void views(Blackhole blackhole) {
+        List<BestsellerBook> top = bestsellers.top(null, 50);
+        blackhole.consume(top);
+        List<Stock> book = priceIndex.stocks(ThreadLocalRandom.current().nextInt(ITEMS));
+        List<Double> costs = new ArrayList<>(book.size());
+        for (Stock stock : book) {
+            costs.add(stock.getCost());
+        }
+        blackhole.consume(costs);
+    }
+}
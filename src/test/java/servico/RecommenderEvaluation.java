@@ -0,0 +1,298 @@
+package servico;
+
+import dominio.Evaluation;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Avaliação offline dos motores de {@link RecommendationService}: qualidade
+ * das recomendações e custo de cada motor sobre as mesmas avaliações.
+ * <p>
+ * As avaliações são geradas (clientes em grupos de gosto, com ruído), lidas
+ * de um arquivo CSV ({@code cliente,livro,nota}) ou tiradas da loja populada
+ * por {@link Bookstore#populate}, e separadas aleatoriamente em treino e
+ * teste. Para cada motor são medidos, com o modelo treinado só no treino:
+ * <ul>
+ * <li>tempo de treinamento e heap ocupado pelo modelo;</li>
+ * <li>RMSE das notas estimadas para as avaliações de teste;</li>
+ * <li>precisão e revocação nas {@code k} primeiras recomendações, sendo
+ * relevantes os livros de teste com nota ao menos {@code relevant};</li>
+ * <li>latência de uma consulta de {@code k} recomendações (p50 e p99).</li>
+ * </ul>
+ * O resultado é um JSON, impresso e opcionalmente gravado em {@code output},
+ * para comparar versões.
+ * <p>
+ * Execução, com parâmetros {@code chave=valor} opcionais:
+ * {@code mvn -Pevaluation test-compile exec:exec -Devaluation.args="customers=50000 engines=SPARSE,FACTORIZATION output=target/evaluation.json"}
+ * <ul>
+ * <li>{@code source}: {@code synthetic} (padrão), {@code store} ou o caminho
+ * de um CSV;</li>
+ * <li>{@code customers}, {@code items}, {@code ratings} (por cliente) e
+ * {@code groups}: escala dos dados gerados (e da loja, sem {@code ratings} e
+ * {@code groups});</li>
+ * <li>{@code seed}, {@code holdout} (fração de teste), {@code k},
+ * {@code relevant}, {@code users} (clientes consultados) e {@code engines}
+ * (nomes de {@link RecommendationService.Engine} ou {@code ALL}).</li>
+ * </ul>
+ */
+public class RecommenderEvaluation {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("source", "synthetic");
+        DEFAULTS.put("customers", "10000");
+        DEFAULTS.put("items", "2000");
+        DEFAULTS.put("ratings", "40");
+        DEFAULTS.put("groups", "50");
+        DEFAULTS.put("seed", "0");
+        DEFAULTS.put("holdout", "0.2");
+        DEFAULTS.put("k", "10");
+        DEFAULTS.put("relevant", "4");
+        DEFAULTS.put("users", "1000");
+        DEFAULTS.put("engines", "ALL");
+        DEFAULTS.put("output", "");
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0 || !DEFAULTS.containsKey(arg.substring(0, equals))) {
+                throw new IllegalArgumentException("Parâmetro inválido: " + arg + "; válidos: " + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        String json = run(options);
+        System.out.println(json);
+        String output = option(options, "output");
+        if (!output.isEmpty()) {
+            Files.write(Paths.get(output), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @param options Os parâmetros; os ausentes ficam com o valor padrão.
+     * @return O resultado, em JSON.
+     * @throws IOException se o arquivo de avaliações não puder ser lido.
+     */
+    static String run(Map<String, String> options) throws IOException {
+        List<Evaluation> evaluations = load(options);
+        long seed = Long.parseLong(option(options, "seed"));
+        double holdout = Double.parseDouble(option(options, "holdout"));
+        if (!(holdout > 0 && holdout < 1)) {
+            throw new IllegalArgumentException("A fração de teste deve estar entre 0 e 1.");
+        }
+        // separação aleatória, reproduzível pela semente
+        Random random = new Random(seed);
+        List<Evaluation> training = new ArrayList<>();
+        List<Evaluation> test = new ArrayList<>();
+        for (Evaluation evaluation : evaluations) {
+            (random.nextDouble() < holdout ? test : training).add(evaluation);
+        }
+        int k = Integer.parseInt(option(options, "k"));
+        double relevant = Double.parseDouble(option(options, "relevant"));
+        long[] users = sampleUsers(test, Integer.parseInt(option(options, "users")), seed);
+
+        StringBuilder json = new StringBuilder("{\n  \"dataset\": {");
+        field(json, "source", option(options, "source"), "\n    ");
+        field(json, "ratings", evaluations.size(), ",\n    ");
+        field(json, "training", training.size(), ",\n    ");
+        field(json, "test", test.size(), ",\n    ");
+        field(json, "customers", evaluations.stream().mapToLong(Evaluation::getUserId).distinct().count(), ",\n    ");
+        field(json, "items", evaluations.stream().mapToLong(Evaluation::getBookId).distinct().count(), ",\n    ");
+        field(json, "seed", seed, ",\n    ");
+        field(json, "holdout", holdout, ",\n    ");
+        field(json, "k", k, ",\n    ");
+        field(json, "relevant", relevant, ",\n    ");
+        field(json, "users", users.length, ",\n    ");
+        json.append("\n  },\n  \"engines\": [");
+        String separator = "\n    ";
+        for (RecommendationService.Engine engine : engines(option(options, "engines"))) {
+            json.append(separator);
+            evaluate(engine, training, test, users, k, relevant, json);
+            separator = ",\n    ";
+        }
+        return json.append("\n  ]\n}").toString();
+    }
+
+    private static void evaluate(RecommendationService.Engine engine, List<Evaluation> training,
+            List<Evaluation> test, long[] users, int k, double relevant, StringBuilder json) {
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        RecommendationService service = new RecommendationService(engine);
+        service.initialize(training.stream());
+        long trainingNanos = System.nanoTime() - start;
+        long heap = usedHeap() - heapBefore;
+
+        double squares = 0;
+        int estimated = 0;
+        for (Evaluation evaluation : test) {
+            float estimate = service.estimatePreference(evaluation.getUserId(), evaluation.getBookId());
+            if (!Float.isNaN(estimate)) {
+                squares += (estimate - evaluation.getRating()) * (estimate - evaluation.getRating());
+                estimated++;
+            }
+        }
+
+        Map<Long, Set<Long>> relevantBooks = new HashMap<>();
+        for (Evaluation evaluation : test) {
+            if (evaluation.getRating() >= relevant) {
+                relevantBooks.computeIfAbsent(evaluation.getUserId(), user -> new HashSet<>())
+                        .add(evaluation.getBookId());
+            }
+        }
+        double precision = 0;
+        double recall = 0;
+        int ranked = 0;
+        for (long user : users) {
+            Set<Long> expected = relevantBooks.get(user);
+            if (expected == null) {
+                continue;
+            }
+            long hits = recommend(service, user, k).stream().filter(expected::contains).count();
+            precision += (double) hits / k;
+            recall += (double) hits / expected.size();
+            ranked++;
+        }
+
+        // a primeira passada aqueceu o JIT e os caches; a segunda é medida
+        long[] latencies = new long[users.length];
+        for (int u = 0; u < users.length; u++) {
+            long query = System.nanoTime();
+            recommend(service, users[u], k);
+            latencies[u] = System.nanoTime() - query;
+        }
+        Arrays.sort(latencies);
+
+        json.append('{');
+        field(json, "engine", engine.name(), "\n      ");
+        field(json, "trainingMillis", TimeUnit.NANOSECONDS.toMillis(trainingNanos), ",\n      ");
+        field(json, "heapBytes", heap, ",\n      ");
+        field(json, "rmse", Math.sqrt(squares / estimated), ",\n      ");
+        field(json, "coverage", (double) estimated / test.size(), ",\n      ");
+        field(json, "precisionAtK", precision / ranked, ",\n      ");
+        field(json, "recallAtK", recall / ranked, ",\n      ");
+        field(json, "rankedUsers", ranked, ",\n      ");
+        field(json, "p50Micros", percentile(latencies, 0.50) / 1e3, ",\n      ");
+        field(json, "p99Micros", percentile(latencies, 0.99) / 1e3, ",\n      ");
+        json.append("\n    }");
+    }
+
+    private static List<Long> recommend(RecommendationService service, long user, int k) {
+        try {
+            return service.getRecommendations(user, k);
+        } catch (Exception e) {
+            return new ArrayList<>();
+        }
+    }
+
+    private static List<Evaluation> load(Map<String, String> options) throws IOException {
+        String source = option(options, "source");
+        int customers = Integer.parseInt(option(options, "customers"));
+        int items = Integer.parseInt(option(options, "items"));
+        if ("store".equals(source)) {
+            Bookstore.populate(Long.parseLong(option(options, "seed")), System.currentTimeMillis(), items, customers,
+                    customers, Math.max(1, items / 4));
+            return Bookstore.getAllEvaluations().collect(Collectors.toList());
+        }
+        if (!"synthetic".equals(source)) {
+            return read(Paths.get(source));
+        }
+        int ratings = Integer.parseInt(option(options, "ratings"));
+        int groups = Integer.parseInt(option(options, "groups"));
+        Random random = new Random(Long.parseLong(option(options, "seed")));
+        List<Evaluation> evaluations = new ArrayList<>(customers * ratings);
+        for (int customer = 0; customer < customers; customer++) {
+            int group = customer % groups;
+            Set<Integer> rated = new HashSet<>();
+            // livros populares mais avaliados; a nota depende do grupo, com ruído
+            while (rated.size() < Math.min(ratings, items)) {
+                int book = (int) (items * Math.pow(random.nextDouble(), 2));
+                if (rated.add(book)) {
+                    int taste = (book * 31 + group * 17) % 5;
+                    int rating = Math.max(1, Math.min(5, 1 + taste + random.nextInt(3) - 1));
+                    evaluations.add(new Evaluation(customer, book, rating));
+                }
+            }
+        }
+        return evaluations;
+    }
+
+    private static List<Evaluation> read(Path file) throws IOException {
+        List<Evaluation> evaluations = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] columns = line.trim().split("\\s*[,;\\t]\\s*");
+            if (columns.length < 3 || !Character.isDigit(columns[0].charAt(0))) {
+                continue; // cabeçalho ou linha vazia
+            }
+            evaluations.add(new Evaluation(Long.parseLong(columns[0]), Long.parseLong(columns[1]),
+                    Float.parseFloat(columns[2])));
+        }
+        return evaluations;
+    }
+
+    private static long[] sampleUsers(List<Evaluation> test, int users, long seed) {
+        long[] all = test.stream().mapToLong(Evaluation::getUserId).distinct().sorted().toArray();
+        Random random = new Random(seed);
+        for (int i = all.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long swap = all[i];
+            all[i] = all[j];
+            all[j] = swap;
+        }
+        return Arrays.copyOf(all, Math.min(users, all.length));
+    }
+
+    private static List<RecommendationService.Engine> engines(String names) {
+        if ("ALL".equals(names)) {
+            return Arrays.asList(RecommendationService.Engine.values());
+        }
+        return Arrays.stream(names.split(",")).map(String::trim).map(RecommendationService.Engine::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    private static String option(Map<String, String> options, String name) {
+        return options.getOrDefault(name, DEFAULTS.get(name));
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void field(StringBuilder json, String name, Object value, String prefix) {
+        json.append(prefix).append('"').append(name).append("\": ");
+        if (value instanceof String) {
+            json.append('"').append(((String) value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            json.append(Double.isNaN(number) || Double.isInfinite(number) ? "null"
+                    : String.format(Locale.ROOT, "%.6g", number));
+        } else {
+            json.append(value);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package servico;
+
+import dominio.Evaluation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Custo de aplicar um lote de alterações às avaliações com
+ * {@link SparseRatings#withChanges}, como em cada reconstrução de
+ * {@link RecommendationService}. Os lotes misturam notas novas, alteradas e
+ * removidas, de clientes e livros já conhecidos e de alguns novos.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=SparseRatingsBatchBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class SparseRatingsBatchBenchmark {
+
+    @Param({"1", "16", "256"})
+    public int batch;
+
+    private static final int CUSTOMERS = 25000;
+    private static final int ITEMS = 5000;
+    private static final int RATINGS_PER_CUSTOMER = 40;
+    private static final int BATCHES = 64;
+
+    private SparseRatings ratings;
+    private final List<List<RecommendationService.Change>> batches = new ArrayList<>();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        Random random = new Random(0);
+        List<Evaluation> evaluations = new ArrayList<>(CUSTOMERS * RATINGS_PER_CUSTOMER);
+        for (int customer = 0; customer < CUSTOMERS; customer++) {
+            for (int r = 0; r < RATINGS_PER_CUSTOMER; r++) {
+                int book = (int) (ITEMS * Math.pow(random.nextDouble(), 2));
+                evaluations.add(new Evaluation(customer, book, 1 + random.nextInt(5)));
+            }
+        }
+        ratings = SparseRatings.of(evaluations.stream());
+        for (int b = 0; b < BATCHES; b++) {
+            List<RecommendationService.Change> changes = new ArrayList<>(batch);
+            for (int c = 0; c < batch; c++) {
+                // alguns clientes e livros ainda não aparecem nas avaliações
+                long customer = random.nextInt(CUSTOMERS + CUSTOMERS / 100);
+                long book = random.nextInt(ITEMS + ITEMS / 100);
+                float value = random.nextInt(8) == 0 ? Float.NaN : 1 + random.nextInt(5);
+                changes.add(new RecommendationService.Change(customer, book, value));
+            }
+            batches.add(changes);
+        }
+    }
+
+    @Benchmark
+    public SparseRatings withChanges() {
+        return ratings.withChanges(batches.get(next++ % BATCHES));
+    }
+}
@@ -0,0 +1,91 @@
+package servico;
+
+import dominio.Evaluation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compara os motores de {@link RecommendationService}: os objetos do Mahout,
+ * as matrizes esparsas de {@link SparseRecommenderEngine} e a fatoração de
+ * {@link MatrixFactorizationEngine}.
+ * <p>
+ * Na preparação são impressos o tempo de construção e a memória ocupada pelo
+ * modelo (heap usado após coleta, antes e depois de construí-lo). O benchmark
+ * mede uma consulta de 5 recomendações; os clientes consultados se repetem,
+ * de modo que os caches de similaridade e de vizinhança do Mahout ficam
+ * quentes. Com {@code -prof gc} (padrão no perfil) aparece também a alocação
+ * por consulta.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=SparseRecommenderBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SparseRecommenderBenchmark {
+
+    @Param({"MAHOUT", "SPARSE", "FACTORIZATION"})
+    public RecommendationService.Engine engine;
+
+    @Param({"10000", "50000"})
+    public int customers;
+
+    private static final int ITEMS = 5000;
+    private static final int RATINGS_PER_CUSTOMER = 40;
+    private static final int QUERIED_CUSTOMERS = 1000;
+
+    private RecommendationService service;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        Random random = new Random(0);
+        List<Evaluation> evaluations = new ArrayList<>(customers * RATINGS_PER_CUSTOMER);
+        for (int customer = 0; customer < customers; customer++) {
+            // livros populares mais avaliados, como em uma loja real
+            for (int r = 0; r < RATINGS_PER_CUSTOMER; r++) {
+                int book = (int) (ITEMS * Math.pow(random.nextDouble(), 2));
+                evaluations.add(new Evaluation(customer, book, 1 + random.nextInt(5)));
+            }
+        }
+        long before = usedHeap();
+        long start = System.nanoTime();
+        service = new RecommendationService(engine);
+        service.initialize(evaluations);
+        long build = System.nanoTime() - start;
+        long after = usedHeap();
+        System.out.printf("%n%s: construção=%d ms modelo=%.1f MB (%d avaliações)%n", engine,
+                TimeUnit.NANOSECONDS.toMillis(build), (after - before) / 1e6, evaluations.size());
+        evaluations = null;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Benchmark
+    public List<Long> recommend() throws TasteException {
+        return service.getRecommendations(next++ % QUERIED_CUSTOMERS, 5);
+    }
+}
@@ -0,0 +1,79 @@
+package servico;
+
+import dominio.Book;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compara a busca por título via varredura com expressão regular (a
+ * implementação anterior de {@link Bookstore#getBooksByTitle(String)}) com a
+ * leitura por faixa no índice de títulos.
+ * <p>
+ * Execução: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=TitleSearchBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TitleSearchBenchmark {
+
+    @Param({"10000", "100000"})
+    public int items;
+
+    private String[] prefixes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        Bookstore.populate(0, System.currentTimeMillis(), items, 100, 100, 100);
+        Random random = new Random(1);
+        prefixes = new String[1024];
+        for (int i = 0; i < prefixes.length; i++) {
+            String title = Bookstore.getABookAnyBook(random).getTitle();
+            prefixes[i] = title.substring(0, Math.min(title.length(), 8));
+        }
+    }
+
+    private String nextPrefix() {
+        return prefixes[next++ & (prefixes.length - 1)];
+    }
+
+    @Benchmark
+    public List<Book> regexScan() {
+        Pattern regex = Pattern.compile("^" + Pattern.quote(nextPrefix()) + ".*");
+        ArrayList<Book> books = new ArrayList<>();
+        for (Book book : Bookstore.booksById) {
+            if (regex.matcher(book.getTitle()).matches()) {
+                books.add(book);
+                if (books.size() > 50) {
+                    break;
+                }
+            }
+        }
+        Collections.sort(books, (Book a, Book b) -> a.getTitle().compareTo(b.getTitle()));
+        return books;
+    }
+
+    @Benchmark
+    public List<Book> prefixIndex() {
+        return Bookstore.getBooksByTitle(nextPrefix());
+    }
+}